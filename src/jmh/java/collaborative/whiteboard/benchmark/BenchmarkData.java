@@ -0,0 +1,73 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.WhiteboardState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the synthetic payloads shared by the benchmarks.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData(){
+    }
+
+    /**
+     * Builds a JSON array of stroke points whose UTF-8 encoding is roughly the given size.
+     *
+     * @param bytes the approximate size of the payload.
+     * @return the JSON payload.
+     */
+    public static String jsonPayload(int bytes){
+        StringBuilder json = new StringBuilder(bytes + 32).append("{\"type\":\"draw\",\"points\":[");
+        int i = 0;
+        while(json.length() < bytes){
+            if(i > 0){
+                json.append(',');
+            }
+            json.append(i % 1000).append('.').append(i % 7);
+            i++;
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Builds a freehand stroke of a few points, placed pseudo-randomly on a 4000x4000 canvas.
+     *
+     * @param random the source of the positions.
+     * @return the stroke.
+     */
+    public static DrawingMessage stroke(Random random){
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "#1e90ff", null);
+        stroke.setLineWidth(2);
+        double x = random.nextDouble() * 4000;
+        double y = random.nextDouble() * 4000;
+        List<Double> points = new ArrayList<>(16);
+        for(int i = 0; i < 8; i++){
+            points.add(x + i * 3.5);
+            points.add(y + (i % 3) * 2.25);
+        }
+        stroke.setPoints(points);
+        return stroke;
+    }
+
+    /**
+     * Builds a board holding the given number of strokes, always the same ones for a given count.
+     *
+     * @param shapes the number of strokes.
+     * @return the board.
+     */
+    public static WhiteboardState state(int shapes){
+        Random random = new Random(shapes);
+        WhiteboardState state = new WhiteboardState();
+        for(int i = 0; i < shapes; i++){
+            state.addDrawingMessage(stroke(random));
+        }
+        return state;
+    }
+}
@@ -0,0 +1,57 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of broadcasting one payload to every session of a room, comparing a new
+ * String-backed TextMessage per recipient (the previous behavior) with one shared, byte-backed frame.
+ * Run with "-prof gc" to see the allocation per broadcast (gc.alloc.rate.norm):
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="BroadcastBenchmark -prof gc"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"10", "100", "1000"})
+    private int sessions;
+
+    @Param({"1024", "262144"})
+    private int payloadBytes;
+
+    private WhiteboardHandler whiteboardHandler;
+    private String payload;
+
+    @Setup
+    public void setUp() throws Exception{
+        // Writers run on the calling thread, so each invocation measures the complete fan-out.
+        whiteboardHandler = new WhiteboardHandler();
+        for(int i = 0; i < sessions; i++){
+            whiteboardHandler.afterConnectionEstablished(new StubWebSocketSession(
+                    "session-" + i, new URI("/ws/whiteboard?username=User" + i)));
+        }
+        payload = BenchmarkData.jsonPayload(payloadBytes);
+    }
+
+    @Benchmark
+    public void messagePerRecipient(){
+        for(WebSocketSession session : whiteboardHandler.getRoomSessions(WhiteboardHandler.DEFAULT_ROOM)){
+            whiteboardHandler.getOutbox(session).enqueue(new TextMessage(payload));
+        }
+    }
+
+    @Benchmark
+    public void sharedFrame(){
+        whiteboardHandler.broadcast(WhiteboardHandler.DEFAULT_ROOM, payload);
+    }
+}
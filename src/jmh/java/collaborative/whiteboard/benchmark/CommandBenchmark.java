@@ -0,0 +1,56 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.model.BoundingBox;
+import collaborative.whiteboard.model.StateCommand;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures applying a command that erases every drawing of a board, as clearing it with the eraser does,
+ * and applying its inverse, as undoing it does. Both states have their spatial index built, as they
+ * have once a viewport was loaded.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="CommandBenchmark -prof gc"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+    private static final BoundingBox VIEWPORT = new BoundingBox(0, 0, 100, 100);
+
+    @Param({"50000"})
+    private int shapes;
+
+    private WhiteboardState board;
+    private WhiteboardState erased;
+    private StateCommand erase;
+    private StateCommand undo;
+
+    @Setup
+    public void setUp(){
+        board = BenchmarkData.state(shapes);
+        board.findDrawingMessages(VIEWPORT);
+        erase = StateCommand.removeAll(board, List.copyOf(board.getDrawingMessages().keySet()));
+        undo = erase.inverse();
+        erased = erase.applyTo(board.copy());
+        erased.findDrawingMessages(VIEWPORT);
+    }
+
+    @Benchmark
+    public WhiteboardState erase(){
+        // The copy shares the board's drawings and index, so only applying the command is measured.
+        return erase.applyTo(board.copy());
+    }
+
+    @Benchmark
+    public WhiteboardState undoErase(){
+        return undo.applyTo(erased.copy());
+    }
+}
@@ -0,0 +1,77 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the state transitions of a room whose user has a full undo history: replacing the whole
+ * state, adding and removing a drawing, and undoing then redoing the last change. Each benchmark leaves
+ * the board at its size, 10k strokes. The room has no sessions, so broadcasting is left out.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="HistoryBenchmark -prof gc"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final String USER = "Ana";
+
+    /**
+     * Number of commands each history holds, and the maximum depth of the histories.
+     */
+    @Param({"100", "10000"})
+    private int historyDepth;
+
+    private StateManager stateManager;
+    private Random random;
+    /**
+     * The two boards addAction alternates between.
+     */
+    private WhiteboardState[] boards;
+    private int next;
+
+    @Setup
+    public void setUp(){
+        WhiteboardProperties properties = new WhiteboardProperties();
+        properties.getHistory().setMaxDepth(historyDepth);
+        stateManager = new StateManager("benchmark", new WhiteboardHandler(), WhiteboardJson.shared(), properties);
+        boards = new WhiteboardState[]{BenchmarkData.state(10_000), BenchmarkData.state(10_001)};
+        stateManager.addAction(USER, boards[0]);
+        random = new Random(42);
+        for(int i = 0; i < historyDepth; i++){
+            stateManager.addDrawingMessage(USER, BenchmarkData.stroke(random));
+        }
+    }
+
+    @Benchmark
+    public void addAction(){
+        // The history is full, so each transition also drops its oldest command.
+        next = 1 - next;
+        stateManager.addAction(USER, boards[next]);
+    }
+
+    @Benchmark
+    public void addAndRemoveDrawing(){
+        DrawingMessage stroke = BenchmarkData.stroke(random);
+        stateManager.addDrawingMessage(USER, stroke);
+        stateManager.removeDrawingMessage(USER, stroke.getId());
+    }
+
+    @Benchmark
+    public void undoRedo(){
+        stateManager.undo(USER);
+        stateManager.redo(USER);
+    }
+}
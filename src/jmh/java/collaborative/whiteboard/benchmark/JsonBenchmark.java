@@ -0,0 +1,51 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.model.DrawingMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of parsing one incoming DrawingMessage, comparing a new ObjectMapper per
+ * message (the previous behavior) with a shared, prebuilt ObjectReader, with and without Blackbird.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="JsonBenchmark -prof gc"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    private static final String MESSAGE = "{\"type\":\"draw\",\"shape\":\"line\",\"color\":\"#ff0000\","
+            + "\"lineWidth\":2.0,\"points\":[10.0,12.5,11.0,13.5,12.0,14.5,13.0,15.5],\"rotation\":[0.0,0.0,0.0]}";
+
+    private ObjectReader sharedReader;
+    private ObjectReader blackbirdReader;
+
+    @Setup
+    public void setUp(){
+        sharedReader = new ObjectMapper().readerFor(DrawingMessage.class);
+        blackbirdReader = new ObjectMapper().registerModule(new BlackbirdModule()).readerFor(DrawingMessage.class);
+    }
+
+    @Benchmark
+    public DrawingMessage newMapperPerMessage() throws Exception{
+        return new ObjectMapper().readValue(MESSAGE, DrawingMessage.class);
+    }
+
+    @Benchmark
+    public DrawingMessage sharedReader() throws Exception{
+        return sharedReader.readValue(MESSAGE);
+    }
+
+    @Benchmark
+    public DrawingMessage sharedReaderBlackbird() throws Exception{
+        return blackbirdReader.readValue(MESSAGE);
+    }
+}
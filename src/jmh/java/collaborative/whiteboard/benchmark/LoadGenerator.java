@@ -0,0 +1,396 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.CollaborativeWhiteboardApplication;
+import collaborative.whiteboard.model.WhiteboardJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates WebSocket load against a whiteboard server and reports the end-to-end latency from the
+ * moment a client sends a stroke to the moment each peer of its room receives it, the throughput, and
+ * the CPU time and allocation of the server read from "/actuator/prometheus".
+ *
+ * Without "--url" the server is started in this JVM on a random port, so its CPU time includes the
+ * simulated clients; with "--url=http://host:port" the load goes to a server running on its own.
+ * The clients share this JVM's clock, which is why the send time can travel in the stroke's id.
+ *
+ * Scenarios:
+ * <ul>
+ *     <li>small-rooms: the clients are spread over rooms of "--room-size" clients;</li>
+ *     <li>huge-room: every client joins one room, so each stroke fans out to all of them;</li>
+ *     <li>reconnect-storm: rooms of "--room-size" clients each hold a board of "--shapes" strokes; in
+ *     every one of "--waves" waves all the clients disconnect, then reconnect and fetch their room's
+ *     board from "/load" at once. Reports the reconnect and load latencies.</li>
+ * </ul>
+ * Other options: "--clients" (default 200), "--rate" strokes per second per client (default 5),
+ * "--duration" in seconds (default 30), preceded by "--warmup" seconds left out of the latencies
+ * (default 5), and "--out" to also write the report as JSON.
+ * mvn -Pbenchmark test-compile exec:exec@loadtest -Dloadtest.args="--scenario=huge-room --clients=500"
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class LoadGenerator {
+    /**
+     * Finds the send time carried in the ids of the strokes, wherever they appear in a frame.
+     */
+    private static final Pattern STROKE_ID = Pattern.compile("\"id\"\\s*:\\s*\"lt-(\\d+)-");
+    /**
+     * Highest latency the histograms track, in microseconds.
+     */
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Map<String, String> options;
+    private final String scenario;
+    private final int clients;
+    private final int roomSize;
+    private final double rate;
+    private final int duration;
+    private final int warmup;
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    /**
+     * Base URL of the server, such as http://localhost:8080.
+     */
+    private String baseUrl;
+
+    /**
+     * Latency from a stroke being sent to a peer receiving it, in microseconds.
+     */
+    private final Histogram strokeLatency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+    /**
+     * Time to reopen a WebSocket session, in microseconds.
+     */
+    private final Histogram reconnectLatency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+    /**
+     * Time to fetch a room's board from "/load", in microseconds.
+     */
+    private final Histogram loadLatency = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private LoadGenerator(Map<String, String> options){
+        this.options = options;
+        this.scenario = options.getOrDefault("scenario", "small-rooms");
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "200"));
+        this.roomSize = Integer.parseInt(options.getOrDefault("room-size", "5"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "5"));
+        this.duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        this.warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+    }
+
+    public static void main(String[] args) throws Exception{
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args){
+            if(!arg.startsWith("--") || !arg.contains("=")){
+                throw new IllegalArgumentException("Options are written as --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws Exception{
+        ConfigurableApplicationContext server = null;
+        baseUrl = options.get("url");
+        if(baseUrl == null){
+            // DevTools would restart the application in another class loader, running main a second time.
+            System.setProperty("spring.devtools.restart.enabled", "false");
+            server = SpringApplication.run(CollaborativeWhiteboardApplication.class, "--server.port=0");
+            baseUrl = "http://localhost:" + ((ServletWebServerApplicationContext) server).getWebServer().getPort();
+        }
+        try{
+            Map<String, Double> before = serverMetrics();
+            long start = System.nanoTime();
+            switch(scenario){
+                case "small-rooms" -> strokes(false);
+                case "huge-room" -> strokes(true);
+                case "reconnect-storm" -> reconnectStorm();
+                default -> throw new IllegalArgumentException("Unknown scenario " + scenario);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            report(seconds, before, serverMetrics());
+        }finally{
+            scheduler.shutdownNow();
+            if(server != null){
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Connects the clients and has each one send strokes at the configured rate for the duration.
+     *
+     * @param oneRoom whether every client joins the same room.
+     */
+    private void strokes(boolean oneRoom) throws Exception{
+        List<Client> connected = connect(oneRoom);
+        long periodMicros = (long) (1_000_000 / rate);
+        List<ScheduledFuture<?>> tasks = new ArrayList<>();
+        for(Client client : connected){
+            // Spreads the first strokes over a period so the clients do not send in lockstep.
+            long delay = (long) (Math.random() * periodMicros);
+            tasks.add(scheduler.scheduleAtFixedRate(client::sendStroke, delay, periodMicros, TimeUnit.MICROSECONDS));
+        }
+        // The latencies of the warmup, while the server's code is compiled, are left out of the report.
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        strokeLatency.reset();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        tasks.forEach(task -> task.cancel(false));
+        // Lets the strokes in flight arrive.
+        Thread.sleep(1000);
+        connected.forEach(Client::close);
+    }
+
+    /**
+     * Seeds every room with a board, then has all the clients reconnect and load it in waves.
+     */
+    private void reconnectStorm() throws Exception{
+        List<Client> connected = connect(false);
+        int shapes = Integer.parseInt(options.getOrDefault("shapes", "1000"));
+        int waves = Integer.parseInt(options.getOrDefault("waves", "5"));
+        byte[] board = WhiteboardJson.shared().getWriter().writeValueAsBytes(BenchmarkData.state(shapes));
+        for(String room : connected.stream().map(client -> client.room).distinct().toList()){
+            HttpResponse<Void> response = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/whiteboard/rooms/" + room + "/save"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(board)).build(), HttpResponse.BodyHandlers.discarding());
+            if(response.statusCode() != 200){
+                throw new IllegalStateException("Seeding room " + room + " failed with status " + response.statusCode());
+            }
+        }
+        for(int wave = 0; wave < waves; wave++){
+            connected.forEach(Client::close);
+            List<CompletableFuture<?>> reconnects = new ArrayList<>();
+            for(Client client : connected){
+                reconnects.add(client.reconnect().thenCompose(ignored -> load(client.room)));
+            }
+            CompletableFuture.allOf(reconnects.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        }
+        connected.forEach(Client::close);
+    }
+
+    /**
+     * Fetches the board of a room, timing the request.
+     */
+    private CompletableFuture<?> load(String room){
+        long start = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/whiteboard/rooms/" + room + "/load"))
+                .header("Accept-Encoding", "gzip").GET().build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if(e != null || response.statusCode() != 200){
+                failures.incrementAndGet();
+            }else{
+                loadLatency.recordValue(micros(System.nanoTime() - start));
+            }
+        });
+    }
+
+    /**
+     * Opens the sessions of all the clients.
+     *
+     * @param oneRoom whether every client joins the same room.
+     * @return the clients whose session opened.
+     */
+    private List<Client> connect(boolean oneRoom){
+        List<Client> all = new ArrayList<>(clients);
+        List<CompletableFuture<?>> opening = new ArrayList<>(clients);
+        for(int i = 0; i < clients; i++){
+            Client client = new Client(i, oneRoom ? "huge" : "room-" + i / roomSize);
+            all.add(client);
+            opening.add(client.reconnect());
+        }
+        CompletableFuture.allOf(opening.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        reconnectLatency.reset();
+        return all.stream().filter(client -> client.socket != null).toList();
+    }
+
+    /**
+     * Reads the CPU time and allocation of the server from its Prometheus endpoint.
+     *
+     * @return the samples by metric name, empty if the endpoint cannot be read.
+     */
+    private Map<String, Double> serverMetrics(){
+        Map<String, Double> metrics = new HashMap<>();
+        try{
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/actuator/prometheus")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            for(String line : response.body().split("\n")){
+                if(line.startsWith("process_cpu_time_ns_total") || line.startsWith("jvm_gc_memory_allocated_bytes_total")){
+                    String name = line.substring(0, line.indexOf(line.contains("{") ? '{' : ' '));
+                    metrics.merge(name, Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1)), Double::sum);
+                }
+            }
+        }catch(Exception e){
+            System.err.println("Could not read the server metrics: " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    /**
+     * Prints the report and writes it as JSON if "--out" is given.
+     */
+    private void report(double seconds, Map<String, Double> before, Map<String, Double> after) throws Exception{
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("scenario", scenario);
+        report.put("server", options.containsKey("url") ? baseUrl : "in-process");
+        report.put("clients", clients);
+        report.put("seconds", Math.round(seconds * 10) / 10.0);
+        report.put("strokesSent", sent.get());
+        report.put("strokesSkipped", skipped.get());
+        report.put("deliveries", delivered.get());
+        report.put("deliveriesPerSecond", Math.round(delivered.get() / seconds));
+        report.put("failures", failures.get());
+        report.put("strokeLatencyMillis", percentiles(strokeLatency));
+        report.put("reconnectLatencyMillis", percentiles(reconnectLatency));
+        report.put("loadLatencyMillis", percentiles(loadLatency));
+        Double cpuBefore = before.get("process_cpu_time_ns_total");
+        Double cpuAfter = after.get("process_cpu_time_ns_total");
+        if(cpuBefore != null && cpuAfter != null){
+            report.put("serverCpuCores", Math.round((cpuAfter - cpuBefore) / 1e9 / seconds * 100) / 100.0);
+        }
+        Double allocatedBefore = before.get("jvm_gc_memory_allocated_bytes_total");
+        Double allocatedAfter = after.get("jvm_gc_memory_allocated_bytes_total");
+        if(allocatedBefore != null && allocatedAfter != null){
+            double allocated = allocatedAfter - allocatedBefore;
+            report.put("serverAllocatedMegabytes", Math.round(allocated / (1 << 20)));
+            report.put("serverAllocatedBytesPerDelivery", delivered.get() == 0 ? null : Math.round(allocated / delivered.get()));
+        }
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        System.out.println(mapper.writeValueAsString(report));
+        if(options.containsKey("out")){
+            mapper.writeValue(new File(options.get("out")), report);
+        }
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram){
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("count", histogram.getTotalCount());
+        if(histogram.getTotalCount() > 0){
+            percentiles.put("p50", histogram.getValueAtPercentile(50) / 1000.0);
+            percentiles.put("p99", histogram.getValueAtPercentile(99) / 1000.0);
+            percentiles.put("p999", histogram.getValueAtPercentile(99.9) / 1000.0);
+            percentiles.put("max", histogram.getMaxValue() / 1000.0);
+        }
+        return percentiles;
+    }
+
+    private static long micros(long nanos){
+        return Math.min(MAX_LATENCY_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * A simulated client: one WebSocket session in a room, sending strokes and timing those of its peers.
+     */
+    private final class Client implements WebSocket.Listener {
+        private final int index;
+        private final String room;
+        private volatile WebSocket socket;
+        /**
+         * Completes once the stroke being sent was handed to the network.
+         */
+        private CompletableFuture<WebSocket> sending = CompletableFuture.completedFuture(null);
+        /**
+         * The text frame being received, when it arrives in parts.
+         */
+        private final StringBuilder partial = new StringBuilder();
+
+        private Client(int index, String room){
+            this.index = index;
+            this.room = room;
+        }
+
+        /**
+         * Opens a new session, timing the handshake.
+         */
+        private CompletableFuture<WebSocket> reconnect(){
+            long start = System.nanoTime();
+            URI uri = URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws/whiteboard?username=lt" + index + "&room=" + room);
+            return http.newWebSocketBuilder().buildAsync(uri, this).whenComplete((socket, e) -> {
+                if(e != null){
+                    failures.incrementAndGet();
+                }else{
+                    this.socket = socket;
+                    reconnectLatency.recordValue(micros(System.nanoTime() - start));
+                }
+            });
+        }
+
+        /**
+         * Sends a stroke carrying the current time in its id, unless the previous one is still being sent.
+         */
+        private synchronized void sendStroke(){
+            WebSocket current = socket;
+            if(current == null || !sending.isDone()){
+                skipped.incrementAndGet();
+                return;
+            }
+            String stroke = "{\"id\":\"lt-" + System.nanoTime() + "-" + index + "\",\"type\":\"draw\",\"shape\":\"line\","
+                    + "\"color\":\"#1e90ff\",\"lineWidth\":2.0,\"points\":[" + (index % 400) * 10 + ",10," + (index % 400) * 10
+                    + ",20,15.5,22.5]}";
+            sending = current.sendText(stroke, true);
+            sent.incrementAndGet();
+        }
+
+        private void close(){
+            WebSocket current = socket;
+            socket = null;
+            if(current != null){
+                current.sendClose(WebSocket.NORMAL_CLOSURE, "").exceptionally(e -> {
+                    current.abort();
+                    return current;
+                });
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last){
+            long now = System.nanoTime();
+            partial.append(data);
+            if(last){
+                Matcher matcher = STROKE_ID.matcher(partial);
+                while(matcher.find()){
+                    strokeLatency.recordValue(micros(now - Long.parseLong(matcher.group(1))));
+                    delivered.incrementAndGet();
+                }
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last){
+            webSocket.request(1);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.broker.StompRoomBroker;
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.model.WhiteboardJson;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many drawings per second a room relays to its other members, over the raw handler
+ * alone (how every room was served before the STOMP topics shared it), over the consolidated pipeline
+ * to raw sessions (the handler with a StompRoomBroker attached, whose topic has no subscriber), and over
+ * the consolidated pipeline to STOMP clients subscribed to the room's topic through a simple broker and
+ * the same SubProtocolWebSocketHandler and StompSubProtocolHandler as the STOMP endpoint. Every channel
+ * and writer runs on the calling thread, so each invocation measures the complete fan-out, STOMP frame
+ * encoding included, in isolation from the network.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="MessagingBenchmark -prof gc"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagingBenchmark {
+    /**
+     * The paths a drawing can take to the members of a room.
+     */
+    public enum Path {
+        /**
+         * The raw handler fanning out to raw sessions, without a broker.
+         */
+        HANDLER,
+        /**
+         * The consolidated pipeline fanning out to raw sessions; the room's topic has no subscriber.
+         */
+        CONSOLIDATED_RAW,
+        /**
+         * The consolidated pipeline publishing to STOMP clients subscribed to the room's topic.
+         */
+        CONSOLIDATED_STOMP
+    }
+
+    @Param({"HANDLER", "CONSOLIDATED_RAW", "CONSOLIDATED_STOMP"})
+    private Path path;
+
+    @Param({"10", "100", "1000"})
+    private int recipients;
+
+    private WhiteboardHandler whiteboardHandler;
+    private StubWebSocketSession sender;
+    private TextMessage drawing;
+
+    @Setup
+    public void setUp() throws Exception{
+        whiteboardHandler = new WhiteboardHandler();
+        sender = new StubWebSocketSession("sender", new URI("/ws/whiteboard?username=Sender"));
+        whiteboardHandler.afterConnectionEstablished(sender);
+        drawing = WhiteboardHandler.createFrame(WhiteboardJson.shared().getWriter()
+                .writeValueAsBytes(BenchmarkData.stroke(new Random(42))));
+
+        if(path == Path.HANDLER || path == Path.CONSOLIDATED_RAW){
+            for(int i = 0; i < recipients; i++){
+                whiteboardHandler.afterConnectionEstablished(new StubWebSocketSession(
+                        "session-" + i, new URI("/ws/whiteboard?username=User" + i)));
+            }
+        }
+        if(path == Path.HANDLER){
+            return;
+        }
+
+        // The simple broker and STOMP endpoint of WebSocketConfig, with synchronous channels.
+        ExecutorSubscribableChannel inboundChannel = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel outboundChannel = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        new SimpleBrokerMessageHandler(inboundChannel, outboundChannel, brokerChannel, List.of("/topic")).start();
+        RoomManager roomManager = new RoomManager(whiteboardHandler, WhiteboardJson.shared(), new WhiteboardProperties());
+        StompRoomBroker broker = new StompRoomBroker(new SimpMessagingTemplate(brokerChannel), whiteboardHandler,
+                roomManager, WhiteboardJson.shared());
+        broker.start();
+        if(path == Path.CONSOLIDATED_RAW){
+            return;
+        }
+
+        StompSubProtocolHandler stompHandler = new StompSubProtocolHandler();
+        stompHandler.setApplicationEventPublisher(event -> broker.onApplicationEvent((AbstractSubProtocolEvent) event));
+        SubProtocolWebSocketHandler stompEndpoint = new SubProtocolWebSocketHandler(inboundChannel, outboundChannel);
+        stompEndpoint.setDefaultProtocolHandler(stompHandler);
+        stompEndpoint.start();
+        for(int i = 0; i < recipients; i++){
+            StubWebSocketSession session = new StubWebSocketSession("stomp-" + i, new URI("/whiteboard"));
+            stompEndpoint.afterConnectionEstablished(session);
+            stompEndpoint.handleMessage(session, new TextMessage("CONNECT\naccept-version:1.2\nhost:localhost\n\n\0"));
+            stompEndpoint.handleMessage(session, new TextMessage("SUBSCRIBE\nid:sub-0\ndestination:"
+                    + StompRoomBroker.ROOM_TOPIC_PREFIX + WhiteboardHandler.DEFAULT_ROOM + "\n\n\0"));
+        }
+        if(broker.getSubscribers(WhiteboardHandler.DEFAULT_ROOM) != recipients){
+            throw new IllegalStateException("Only " + broker.getSubscribers(WhiteboardHandler.DEFAULT_ROOM)
+                    + " STOMP sessions subscribed.");
+        }
+    }
+
+    @Benchmark
+    public void relayDrawing() throws Exception{
+        whiteboardHandler.handleTextMessage(sender, drawing);
+    }
+}
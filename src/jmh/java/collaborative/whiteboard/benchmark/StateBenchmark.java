@@ -0,0 +1,51 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures exporting a board to JSON, as "/load" does for each new version, and importing it, as
+ * "/save" does, for boards of 1k, 10k and 100k strokes.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="StateBenchmark -prof gc"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateBenchmark {
+    @Param({"1000", "10000", "100000"})
+    private int shapes;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private WhiteboardState state;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws Exception{
+        writer = WhiteboardJson.shared().getWriter();
+        reader = WhiteboardJson.shared().getWhiteboardStateReader();
+        state = BenchmarkData.state(shapes);
+        json = writer.writeValueAsBytes(state);
+    }
+
+    @Benchmark
+    public byte[] export() throws Exception{
+        // Bypasses the cache of WhiteboardState.serialize, which only helps once a version is serialized.
+        return writer.writeValueAsBytes(state);
+    }
+
+    @Benchmark
+    public WhiteboardState importState() throws Exception{
+        return reader.readValue(json);
+    }
+}
@@ -0,0 +1,117 @@
+package collaborative.whiteboard.benchmark;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A WebSocketSession that accepts every message without doing any I/O, used to measure the
+ * server-side cost of broadcasting in isolation from the network.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StubWebSocketSession implements WebSocketSession {
+    private final String id;
+    private final URI uri;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile boolean open = true;
+    /**
+     * Number of messages "sent" to this session.
+     */
+    private long sentMessages;
+    /**
+     * Optional time, in nanoseconds, each send blocks to simulate a slow client.
+     */
+    private final long sendDelayNanos;
+    /**
+     * Optional callback run after every send, such as counting down the recipients of a broadcast.
+     */
+    private volatile Runnable sendListener;
+
+    public StubWebSocketSession(String id, URI uri){
+        this(id, uri, 0);
+    }
+
+    public StubWebSocketSession(String id, URI uri, long sendDelayNanos){
+        this.id = id;
+        this.uri = uri;
+        this.sendDelayNanos = sendDelayNanos;
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message){
+        if(sendDelayNanos > 0){
+            try{
+                Thread.sleep(sendDelayNanos / 1_000_000, (int) (sendDelayNanos % 1_000_000));
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        sentMessages++;
+        Runnable listener = sendListener;
+        if(listener != null){
+            listener.run();
+        }
+    }
+
+    public long getSentMessages() {return sentMessages;}
+
+    public void setSendListener(Runnable sendListener) {this.sendListener = sendListener;}
+
+    @Override
+    public String getId() {return id;}
+
+    @Override
+    public URI getUri() {return uri;}
+
+    @Override
+    public HttpHeaders getHandshakeHeaders() {return new HttpHeaders();}
+
+    @Override
+    public Map<String, Object> getAttributes() {return attributes;}
+
+    @Override
+    public Principal getPrincipal() {return null;}
+
+    @Override
+    public InetSocketAddress getLocalAddress() {return null;}
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {return null;}
+
+    @Override
+    public String getAcceptedProtocol() {return null;}
+
+    @Override
+    public void setTextMessageSizeLimit(int messageSizeLimit) {}
+
+    @Override
+    public int getTextMessageSizeLimit() {return Integer.MAX_VALUE;}
+
+    @Override
+    public void setBinaryMessageSizeLimit(int messageSizeLimit) {}
+
+    @Override
+    public int getBinaryMessageSizeLimit() {return Integer.MAX_VALUE;}
+
+    @Override
+    public List<WebSocketExtension> getExtensions() {return List.of();}
+
+    @Override
+    public boolean isOpen() {return open;}
+
+    @Override
+    public void close() {open = false;}
+
+    @Override
+    public void close(CloseStatus status) {open = false;}
+}
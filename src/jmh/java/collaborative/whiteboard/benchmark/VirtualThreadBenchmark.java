@@ -0,0 +1,90 @@
+package collaborative.whiteboard.benchmark;
+
+import collaborative.whiteboard.config.WhiteboardHandlerConfig;
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.model.WhiteboardJson;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.TextMessage;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the latency of a broadcast until every session of a room has received it, when each send
+ * blocks for a while as a write to a real client does. The session writers run on the platform thread
+ * pool used by default, on a pool bounded like Tomcat's 200 request threads, or on virtual threads as
+ * with "spring.threads.virtual.enabled". Sample mode reports the percentiles, p0.99 included; running
+ * with "-prof gc" and growing "sessions" shows how many sessions each model sustains.
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="VirtualThreadBenchmark -p sessions=10000"
+ *
+ * @author Andrey Estevam Seabra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+    /**
+     * Size of the bounded pool, the default maximum of Tomcat's request threads.
+     */
+    private static final int BOUNDED_THREADS = 200;
+
+    @Param({"1000", "10000"})
+    private int sessions;
+
+    @Param({"platform", "bounded", "virtual"})
+    private String threads;
+
+    /**
+     * Time each send blocks, in microseconds.
+     */
+    @Param({"500"})
+    private long sendDelayMicros;
+
+    private ExecutorService executor;
+    private WhiteboardHandler whiteboardHandler;
+    private TextMessage frame;
+    /**
+     * Counts down the recipients of the broadcast in progress.
+     */
+    private final AtomicReference<CountDownLatch> delivered = new AtomicReference<>();
+
+    @Setup
+    public void setUp() throws Exception{
+        executor = switch(threads){
+            case "platform" -> WhiteboardHandlerConfig.outboundExecutor(false);
+            case "virtual" -> WhiteboardHandlerConfig.outboundExecutor(true);
+            default -> Executors.newFixedThreadPool(BOUNDED_THREADS);
+        };
+        whiteboardHandler = new WhiteboardHandler(new WhiteboardProperties(), executor, WhiteboardJson.shared());
+        for(int i = 0; i < sessions; i++){
+            StubWebSocketSession session = new StubWebSocketSession("session-" + i,
+                    new URI("/ws/whiteboard?username=User" + i), TimeUnit.MICROSECONDS.toNanos(sendDelayMicros));
+            session.setSendListener(() -> delivered.get().countDown());
+            whiteboardHandler.afterConnectionEstablished(session);
+        }
+        frame = WhiteboardHandler.createFrame(BenchmarkData.jsonPayload(1024));
+    }
+
+    @TearDown
+    public void tearDown(){
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void broadcastUntilDelivered() throws InterruptedException{
+        CountDownLatch latch = new CountDownLatch(sessions);
+        delivered.set(latch);
+        whiteboardHandler.broadcast(WhiteboardHandler.DEFAULT_ROOM, frame);
+        if(!latch.await(1, TimeUnit.MINUTES)){
+            throw new IllegalStateException("The broadcast was not delivered to every session.");
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package collaborative.whiteboard.broker;
+
+import collaborative.whiteboard.handler.RoomBroker;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateListener;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes the messages of every room to its STOMP topic, "/topic/rooms/{roomId}", through the
+ * message broker: the drawings and notices the WhiteboardHandler fans out to the room, whichever
+ * endpoint or node they came from, and the delta of every state transition of the room. STOMP clients
+ * thus share the rooms of the raw endpoint; they send their drawings to "/app/rooms/{roomId}/draw".
+ *
+ * The topics are only published to while they have subscribers, tracked from the subscriptions and
+ * disconnections of the STOMP sessions, so rooms without STOMP clients cost nothing more than a lookup.
+ *
+ * Transitions completed concurrently may reach the listeners out of order, so the deltas of a room are
+ * held until the one before them is published, and published by revision from the revision the room had
+ * when its topic got its first subscriber. Should a transition never arrive, the held ones are published
+ * past it once MAX_PENDING_TRANSITIONS are waiting; a subscriber seeing a "fromRevision" other than the
+ * last "revision" it applied reloads the room's state through the REST API.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Component
+public class StompRoomBroker implements RoomBroker, StateListener, ApplicationListener<AbstractSubProtocolEvent> {
+    /**
+     * Prefix of the topics of the rooms, followed by the room identifier.
+     */
+    public static final String ROOM_TOPIC_PREFIX = "/topic/rooms/";
+    /**
+     * Logger of the STOMP room broker.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StompRoomBroker.class);
+    /**
+     * Maximum number of deltas of a room held while waiting for an earlier one.
+     */
+    static final int MAX_PENDING_TRANSITIONS = 1024;
+
+    /**
+     * Sends the messages to the broker, which delivers them to the subscribers of their topic.
+     */
+    private final SimpMessageSendingOperations messagingTemplate;
+    /**
+     * Fans the drawings and notices of the rooms out, to its raw sessions and to this broker.
+     */
+    private final WhiteboardHandler whiteboardHandler;
+    /**
+     * Reports the state transitions of every room.
+     */
+    private final RoomManager roomManager;
+    /**
+     * Writes the deltas of the state transitions.
+     */
+    private final ObjectWriter writer;
+    /**
+     * Store the number of subscriptions to the topic of each room, with the room identifiers as keys.
+     */
+    private final Map<String, Integer> roomSubscribers = new ConcurrentHashMap<>();
+    /**
+     * Store the room each subscription of a STOMP session is to, with the session identifiers as keys.
+     * Guarded by this broker.
+     */
+    private final Map<String, Map<String, String>> sessionSubscriptions = new HashMap<>();
+    /**
+     * Store the order in which the deltas of each room with subscribers are published, with the room
+     * identifiers as keys.
+     */
+    private final Map<String, TransitionOrder> transitionOrders = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new StompRoomBroker.
+     *
+     * @param messagingTemplate sends the messages to the broker.
+     * @param whiteboardHandler fans the drawings and notices of the rooms out.
+     * @param roomManager reports the state transitions of every room.
+     * @param whiteboardJson the shared JSON writer of the deltas.
+     */
+    public StompRoomBroker(SimpMessageSendingOperations messagingTemplate, WhiteboardHandler whiteboardHandler,
+                           RoomManager roomManager, WhiteboardJson whiteboardJson){
+        this.messagingTemplate = messagingTemplate;
+        this.whiteboardHandler = whiteboardHandler;
+        this.roomManager = roomManager;
+        this.writer = whiteboardJson.getWriter();
+    }
+
+    /**
+     * Starts publishing the messages and state transitions of the rooms to their topics.
+     */
+    @PostConstruct
+    public void start(){
+        whiteboardHandler.setRoomBroker(this);
+        roomManager.addStateListener(this);
+    }
+
+    @Override
+    public boolean hasSubscribers(String roomId){
+        return roomSubscribers.containsKey(roomId);
+    }
+
+    /**
+     * Sends a message to the topic of a room. Its bytes become the body of the STOMP frame of every
+     * subscriber without being copied or converted.
+     */
+    @Override
+    public void publish(String roomId, byte[] json){
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(ROOM_TOPIC_PREFIX + roomId, MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+    }
+
+    /**
+     * Publishes the delta of a state transition to the topic of its room, once the deltas before it are
+     * published. The subscribers load the room's state through the REST API when they subscribe.
+     */
+    @Override
+    public void stateChanged(String roomId, StateDelta delta, WhiteboardState state){
+        TransitionOrder order = transitionOrders.get(roomId);
+        if(order == null){
+            return;
+        }
+        byte[] json = null;
+        try{
+            json = writer.writeValueAsBytes(delta);
+        }catch(JsonProcessingException e){
+            // Still passed on, so the deltas after it are not held back.
+            logger.atError().addKeyValue("room", roomId).addKeyValue("revision", delta.getRevision()).setCause(e)
+                    .log("Error publishing a state transition");
+        }
+        order.add(delta.getFromRevision(), delta.getRevision(), json);
+    }
+
+    /**
+     * Publishes the deltas following a snapshot restored into a room, such as a replica catching up,
+     * from the revision of the snapshot.
+     */
+    @Override
+    public void stateRestored(String roomId, StateSnapshot snapshot){
+        TransitionOrder order = transitionOrders.get(roomId);
+        if(order != null){
+            order.restart(snapshot.getRevision());
+        }
+    }
+
+    /**
+     * Tracks the subscriptions to the topics of the rooms as the STOMP sessions subscribe, unsubscribe
+     * and disconnect.
+     */
+    @Override
+    public void onApplicationEvent(AbstractSubProtocolEvent event){
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        if(sessionId == null){
+            return;
+        }
+        if(event instanceof SessionSubscribeEvent){
+            String destination = accessor.getDestination();
+            if(destination != null && destination.startsWith(ROOM_TOPIC_PREFIX) && accessor.getSubscriptionId() != null){
+                String roomId = destination.substring(ROOM_TOPIC_PREFIX.length());
+                if(WhiteboardHandler.isValidRoomId(roomId)){
+                    subscribe(sessionId, accessor.getSubscriptionId(), roomId);
+                }
+            }
+        }else if(event instanceof SessionUnsubscribeEvent){
+            unsubscribe(sessionId, accessor.getSubscriptionId());
+        }else if(event instanceof SessionDisconnectEvent disconnect){
+            disconnect(disconnect.getSessionId());
+        }
+    }
+
+    private synchronized void subscribe(String sessionId, String subscriptionId, String roomId){
+        String previous = sessionSubscriptions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(subscriptionId, roomId);
+        if(previous != null){
+            removeSubscriber(previous);
+        }
+        if(roomSubscribers.merge(roomId, 1, Integer::sum) == 1){
+            StateManager room = roomManager.findRoom(roomId);
+            transitionOrders.put(roomId, new TransitionOrder(roomId, room == null ? 0 : room.getRevision()));
+        }
+    }
+
+    private synchronized void unsubscribe(String sessionId, String subscriptionId){
+        Map<String, String> subscriptions = sessionSubscriptions.get(sessionId);
+        String roomId = subscriptions == null || subscriptionId == null ? null : subscriptions.remove(subscriptionId);
+        if(roomId != null){
+            removeSubscriber(roomId);
+        }
+    }
+
+    private synchronized void disconnect(String sessionId){
+        Map<String, String> subscriptions = sessionSubscriptions.remove(sessionId);
+        if(subscriptions != null){
+            subscriptions.values().forEach(this::removeSubscriber);
+        }
+    }
+
+    private void removeSubscriber(String roomId){
+        if(roomSubscribers.computeIfPresent(roomId, (id, count) -> count > 1 ? count - 1 : null) == null){
+            transitionOrders.remove(roomId);
+        }
+    }
+
+    /**
+     * Gets the number of subscriptions to the topic of a room.
+     *
+     * @param roomId the identifier of the room.
+     * @return the number of subscriptions, over all the STOMP sessions.
+     */
+    public int getSubscribers(String roomId){
+        return roomSubscribers.getOrDefault(roomId, 0);
+    }
+
+    /**
+     * The deltas of a room waiting for an earlier one, and the revision of the last one published.
+     */
+    private final class TransitionOrder {
+        private final String roomId;
+        /**
+         * Store the deltas that cannot be published yet, with the revisions they start from as keys.
+         */
+        private final NavigableMap<Long, Transition> pending = new TreeMap<>();
+        /**
+         * The revision of the last delta published, or the one the order started from.
+         */
+        private long published;
+
+        private TransitionOrder(String roomId, long revision){
+            this.roomId = roomId;
+            this.published = revision;
+        }
+
+        /**
+         * Publishes a delta, if it follows the last one published, and the held ones following it.
+         *
+         * @param json the delta, or null if it could not be serialized and is only skipped.
+         */
+        private synchronized void add(long fromRevision, long revision, byte[] json){
+            if(revision <= published){
+                return;
+            }
+            pending.put(fromRevision, new Transition(revision, json));
+            drain();
+            if(pending.size() > MAX_PENDING_TRANSITIONS){
+                // The missing delta is given up on; subscribers see the gap in the revisions.
+                published = pending.firstKey();
+                drain();
+            }
+        }
+
+        private synchronized void restart(long revision){
+            published = revision;
+            pending.headMap(revision).clear();
+            drain();
+        }
+
+        private void drain(){
+            Transition next;
+            while((next = pending.remove(published)) != null){
+                if(next.json() != null){
+                    publish(roomId, next.json());
+                }
+                published = next.revision();
+            }
+        }
+    }
+
+    private record Transition(long revision, byte[] json) {}
+}
@@ -0,0 +1,34 @@
+package collaborative.whiteboard.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries messages between the nodes sharing the whiteboard rooms. Delivery is best effort: messages
+ * from one node arrive at another in the order they were published, but may be lost, for example
+ * while a connection is re-established. Lost drawings are not recovered; a replica missing a state
+ * transition notices the gap in the revisions and asks the owner of the room for a snapshot.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public interface BroadcastBus extends AutoCloseable {
+    /**
+     * Sends a message to every other node. Never blocks on a slow or unreachable node.
+     *
+     * @param message the message.
+     */
+    void publish(BusMessage message);
+
+    /**
+     * Registers a subscriber receiving the messages published by the other nodes. It may be invoked
+     * by several threads at once.
+     *
+     * @param subscriber the subscriber.
+     */
+    void subscribe(Consumer<BusMessage> subscriber);
+
+    /**
+     * Stops sending and receiving messages.
+     */
+    @Override
+    void close();
+}
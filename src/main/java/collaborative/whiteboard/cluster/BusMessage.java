@@ -0,0 +1,89 @@
+package collaborative.whiteboard.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A message exchanged by the nodes through the BroadcastBus.
+ *
+ * @param type what the message carries.
+ * @param nodeId the identifier of the node that published it.
+ * @param roomId the identifier of the room it concerns.
+ * @param revision the revision of the room's state it carries, or 0 if it carries none.
+ * @param payload the content, whose format depends on the type; it must not be modified.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public record BusMessage(Type type, String nodeId, String roomId, long revision, byte[] payload) {
+    /**
+     * Largest payload accepted from the network, in bytes.
+     */
+    static final int MAX_PAYLOAD_SIZE = 64 << 20;
+
+    /**
+     * The kinds of messages exchanged by the nodes.
+     */
+    public enum Type {
+        /**
+         * A drawing message relayed by a session: its UTF-8 JSON.
+         */
+        DRAWING,
+        /**
+         * A notice broadcast to a room, such as a user leaving: its UTF-8 text.
+         */
+        NOTICE,
+        /**
+         * A state transition published by the owner of the room: a frame of the JournalCodec.
+         */
+        STATE,
+        /**
+         * A replica asking the owner of the room for its state: no payload.
+         */
+        SNAPSHOT_REQUEST,
+        /**
+         * The state of the room sent by its owner: a snapshot of the JournalCodec, empty if the
+         * room has no state.
+         */
+        SNAPSHOT
+    }
+
+    /**
+     * Writes the message to a stream.
+     *
+     * @param out the stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        out.writeUTF(nodeId);
+        out.writeUTF(roomId);
+        out.writeLong(revision);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Reads a message written by writeTo.
+     *
+     * @param in the stream.
+     * @return the message.
+     * @throws IOException if the stream cannot be read or does not hold a valid message.
+     */
+    public static BusMessage readFrom(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        if(type >= Type.values().length){
+            throw new IOException("Unknown message type " + type + ".");
+        }
+        String nodeId = in.readUTF();
+        String roomId = in.readUTF();
+        long revision = in.readLong();
+        int length = in.readInt();
+        if(length < 0 || length > MAX_PAYLOAD_SIZE){
+            throw new IOException("Invalid payload length " + length + ".");
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new BusMessage(Type.values()[type], nodeId, roomId, revision, payload);
+    }
+}
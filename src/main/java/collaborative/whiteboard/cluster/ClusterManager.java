@@ -0,0 +1,394 @@
+package collaborative.whiteboard.cluster;
+
+import collaborative.whiteboard.handler.RelayListener;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.journal.JournalCodec;
+import collaborative.whiteboard.journal.JournalEntry;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateListener;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the rooms of this node with the other nodes behind the load balancer, through a BroadcastBus.
+ * Enabled with "whiteboard.cluster.enabled=true".
+ *
+ * The sessions of a room may be connected to any node. Every drawing and notice relayed from the
+ * sessions of this node is published on the bus, and those published by the other nodes are relayed
+ * to the sessions of this node.
+ *
+ * The authoritative state of each room is held by the node RoomOwnership assigns it to: requests
+ * changing a room are redirected to its owner (see OwnerRedirectInterceptor), which publishes every
+ * state transition. The other nodes apply them in revision order to a replica of the room and bring
+ * their own sessions up to date, so reads can be served by any node. A replica that has not been
+ * synchronized yet asks the owner for a snapshot right away. Transitions arriving out of order are held
+ * until the missing one arrives: a synchronized replica only asks for a snapshot once a gap stays open
+ * for GAP_DEADLINE_MILLIS, or when the held transitions fill its window. Snapshots are asked for at most
+ * once per second.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Component
+@ConditionalOnProperty(prefix = "whiteboard.cluster", name = "enabled", havingValue = "true")
+public class ClusterManager implements StateListener, RelayListener {
+    /**
+     * Logger of the cluster manager.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ClusterManager.class);
+    /**
+     * Maximum number of transitions a replica holds while waiting for a missing one.
+     */
+    private static final int MAX_PENDING_TRANSITIONS = 1024;
+    /**
+     * Minimum time between two snapshot requests for the same room, in nanoseconds.
+     */
+    private static final long SNAPSHOT_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * Time a synchronized replica waits for a missing transition before asking for a snapshot, in milliseconds.
+     */
+    static final long GAP_DEADLINE_MILLIS = 200;
+
+    /**
+     * Provides the StateManager of each room.
+     */
+    private final RoomManager roomManager;
+    /**
+     * Relays the messages of the other nodes to the sessions of this node.
+     */
+    private final WhiteboardHandler whiteboardHandler;
+    /**
+     * Carries the messages between the nodes.
+     */
+    private final BroadcastBus bus;
+    /**
+     * Decides which node owns each room.
+     */
+    private final RoomOwnership ownership;
+    /**
+     * Encodes the published state transitions and snapshots.
+     */
+    private final JournalCodec codec;
+    /**
+     * Store the replicas of the rooms owned by other nodes, with the room identifiers as keys.
+     */
+    private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new ClusterManager.
+     *
+     * @param roomManager the RoomManager whose rooms are shared.
+     * @param whiteboardHandler the handler relaying the messages of the sessions of this node.
+     * @param bus the bus connecting the nodes.
+     * @param ownership decides which node owns each room.
+     * @param whiteboardJson the shared JSON mapper the encoding of the transitions is derived from.
+     */
+    public ClusterManager(RoomManager roomManager, WhiteboardHandler whiteboardHandler, BroadcastBus bus,
+                          RoomOwnership ownership, WhiteboardJson whiteboardJson){
+        this.roomManager = roomManager;
+        this.whiteboardHandler = whiteboardHandler;
+        this.bus = bus;
+        this.ownership = ownership;
+        this.codec = new JournalCodec(whiteboardJson.getObjectMapper());
+    }
+
+    /**
+     * Starts exchanging the messages and state transitions of the rooms with the other nodes.
+     */
+    @PostConstruct
+    public void start(){
+        bus.subscribe(this::receive);
+        roomManager.addStateListener(this);
+        whiteboardHandler.addRelayListener(this);
+        logger.info("Node {} joined the cluster of {}", ownership.getNodeId(), ownership.getNodeIds());
+    }
+
+    /**
+     * Publishes the state transitions of the rooms this node owns.
+     */
+    @Override
+    public void stateChanged(String roomId, StateDelta delta, WhiteboardState state){
+        if(!ownership.isOwner(roomId)){
+            return; // A transition replicated from the owner.
+        }
+        try{
+            publish(BusMessage.Type.STATE, roomId, delta.getRevision(), codec.encodeEntry(new JournalEntry(delta, state)));
+        }catch(IOException e){
+            logger.atError().addKeyValue("room", roomId).addKeyValue("revision", delta.getRevision()).setCause(e)
+                    .log("Error publishing a state transition");
+        }
+    }
+
+    @Override
+    public void drawingRelayed(String roomId, byte[] json){
+        publish(BusMessage.Type.DRAWING, roomId, 0, json);
+    }
+
+    @Override
+    public void noticeBroadcast(String roomId, String notice){
+        publish(BusMessage.Type.NOTICE, roomId, 0, notice.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void publish(BusMessage.Type type, String roomId, long revision, byte[] payload){
+        bus.publish(new BusMessage(type, ownership.getNodeId(), roomId, revision, payload));
+    }
+
+    /**
+     * Handles a message published by another node.
+     *
+     * @param message the message.
+     */
+    void receive(BusMessage message){
+        String roomId = message.roomId();
+        if(ownership.getNodeId().equals(message.nodeId()) || !WhiteboardHandler.isValidRoomId(roomId)){
+            return;
+        }
+        try{
+            switch(message.type()){
+                case DRAWING -> whiteboardHandler.relayFromPeer(roomId, message.payload());
+                case NOTICE -> whiteboardHandler.broadcast(roomId, new String(message.payload(), StandardCharsets.UTF_8));
+                case STATE -> {
+                    if(!ownership.isOwner(roomId)){
+                        codec.decodeEntries(ByteBuffer.wrap(message.payload()), getReplica(roomId)::apply);
+                    }
+                }
+                case SNAPSHOT_REQUEST -> {
+                    if(ownership.isOwner(roomId)){
+                        sendSnapshot(roomId);
+                    }
+                }
+                case SNAPSHOT -> {
+                    if(!ownership.isOwner(roomId) && ownership.getOwner(roomId).equals(message.nodeId())){
+                        WhiteboardState state = message.payload().length == 0 ? null : codec.decodeSnapshot(message.payload());
+                        getReplica(roomId).restore(new StateSnapshot(message.revision(), state));
+                    }
+                }
+            }
+        }catch(IOException e){
+            logger.atWarn().addKeyValue("room", roomId).addKeyValue("type", message.type())
+                    .addKeyValue("node", message.nodeId()).log("Invalid bus message: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the current state of a room this node owns.
+     *
+     * @param roomId the identifier of the room.
+     * @throws IOException if the state cannot be encoded.
+     */
+    private void sendSnapshot(String roomId) throws IOException {
+        StateManager room = roomManager.findRoom(roomId);
+        StateSnapshot snapshot = room == null ? new StateSnapshot(0, null) : room.getSnapshot(null);
+        byte[] payload = snapshot.getState() == null ? new byte[0] : codec.encodeSnapshot(snapshot.getState());
+        publish(BusMessage.Type.SNAPSHOT, roomId, snapshot.getRevision(), payload);
+    }
+
+    /**
+     * Checks whether this node can serve the state of a room: it owns the room, or its replica has
+     * been synchronized with the owner.
+     *
+     * @param roomId the identifier of the room.
+     * @return true if the room's state on this node is up to date, apart from transitions in flight.
+     */
+    public boolean isSynced(String roomId){
+        return ownership.isOwner(roomId) || getReplica(roomId).isSynced();
+    }
+
+    /**
+     * Asks the owner of a room for a snapshot of its state, unless one was asked for less than a
+     * second ago.
+     *
+     * @param roomId the identifier of the room.
+     */
+    public void requestSnapshot(String roomId){
+        if(!ownership.isOwner(roomId)){
+            getReplica(roomId).requestSnapshot();
+        }
+    }
+
+    private Replica getReplica(String roomId){
+        return replicas.computeIfAbsent(roomId, Replica::new);
+    }
+
+    public RoomOwnership getOwnership() {return ownership;}
+
+    /**
+     * The replica of a room owned by another node: the transitions received ahead of a missing one, and
+     * whether the room has been synchronized with the owner.
+     */
+    private final class Replica {
+        private final String roomId;
+        /**
+         * Store the transitions that cannot be applied yet, with their revisions as keys.
+         */
+        private final NavigableMap<Long, JournalEntry> pending = new TreeMap<>();
+        private boolean synced;
+        /**
+         * The revision the replica has been waiting for since transitions following it arrived, or 0 if
+         * no transition is missing.
+         */
+        private long gapRevision;
+        /**
+         * Time of the last snapshot request, in nanoseconds, or null if none was made.
+         */
+        private Long snapshotRequested;
+
+        private Replica(String roomId){
+            this.roomId = roomId;
+        }
+
+        /**
+         * Applies a transition published by the owner, and those received before it that follow it,
+         * then brings the sessions of this node up to date. If a transition is missing, asks for a snapshot
+         * right away when the replica has never been synchronized or its window is full, and otherwise once
+         * the gap has stayed open for GAP_DEADLINE_MILLIS.
+         */
+        private void apply(JournalEntry entry){
+            StateManager room = roomManager.getRoom(roomId);
+            boolean applied;
+            boolean full;
+            boolean urgent;
+            long gap;
+            synchronized(this){
+                pending.put(entry.getRevision(), entry);
+                applied = drain(room);
+                full = pending.size() > MAX_PENDING_TRANSITIONS;
+                if(full){
+                    // The oldest transitions are the ones applied next; the snapshot covers the newest.
+                    pending.pollLastEntry();
+                }
+                synced |= applied;
+                urgent = !pending.isEmpty() && (full || !synced);
+                gap = openGap(room);
+            }
+            if(applied){
+                room.broadcastState();
+            }
+            if(urgent){
+                requestSnapshot();
+            }else if(gap != 0){
+                CompletableFuture.delayedExecutor(GAP_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+                        .execute(() -> checkGap(gap));
+            }
+        }
+
+        /**
+         * Records the revision the replica is waiting for, if pending transitions are held behind it.
+         *
+         * @return the revision, if the gap was just opened, or 0 if no transition is missing or the gap
+         * was already open.
+         */
+        private long openGap(StateManager room){
+            if(pending.isEmpty()){
+                gapRevision = 0;
+                return 0;
+            }
+            long missing = room.getRevision() + 1;
+            if(missing == gapRevision){
+                return 0;
+            }
+            gapRevision = missing;
+            return missing;
+        }
+
+        /**
+         * Asks for a snapshot if the replica is still waiting for the same transition. The gap is then
+         * forgotten, so the next transition held behind it opens it again, should the snapshot be lost.
+         *
+         * @param revision the revision that was missing when the gap was opened.
+         */
+        private void checkGap(long revision){
+            synchronized(this){
+                if(gapRevision != revision){
+                    return;
+                }
+                gapRevision = 0;
+            }
+            requestSnapshot();
+        }
+
+        /**
+         * Replaces the replica with a snapshot published by the owner, if it is newer or the replica has
+         * not been synchronized yet, then applies the transitions received since.
+         */
+        private void restore(StateSnapshot snapshot){
+            if(snapshot.getRevision() == 0 && roomManager.findRoom(roomId) == null){
+                // The owner never changed the room either; there is nothing to create.
+                synchronized(this){
+                    synced = true;
+                }
+                return;
+            }
+            StateManager room = roomManager.getRoom(roomId);
+            long gap;
+            synchronized(this){
+                if(synced && snapshot.getRevision() <= room.getRevision()){
+                    return;
+                }
+                room.restore(snapshot);
+                synced = true;
+                drain(room);
+                // Transitions still held past the snapshot are waited for again from now.
+                gapRevision = 0;
+                gap = openGap(room);
+            }
+            room.broadcastState();
+            if(gap != 0){
+                CompletableFuture.delayedExecutor(GAP_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+                        .execute(() -> checkGap(gap));
+            }
+        }
+
+        /**
+         * Applies the pending transitions that follow the replica's revision, dropping older ones.
+         *
+         * @return true if a transition was applied.
+         */
+        private boolean drain(StateManager room){
+            boolean applied = false;
+            while(!pending.isEmpty()){
+                long revision = pending.firstKey();
+                if(revision <= room.getRevision()){
+                    pending.pollFirstEntry();
+                }else if(revision == room.getRevision() + 1 && room.replicate(pending.firstEntry().getValue())){
+                    pending.pollFirstEntry();
+                    applied = true;
+                }else{
+                    break;
+                }
+            }
+            return applied;
+        }
+
+        private void requestSnapshot(){
+            long now = System.nanoTime();
+            synchronized(this){
+                if(snapshotRequested != null && now - snapshotRequested < SNAPSHOT_RETRY_NANOS){
+                    return;
+                }
+                snapshotRequested = now;
+            }
+            StateManager room = roomManager.findRoom(roomId);
+            publish(BusMessage.Type.SNAPSHOT_REQUEST, roomId, room == null ? 0 : room.getRevision(), new byte[0]);
+        }
+
+        private synchronized boolean isSynced() {return synced;}
+    }
+}
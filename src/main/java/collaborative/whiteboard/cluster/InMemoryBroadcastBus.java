@@ -0,0 +1,67 @@
+package collaborative.whiteboard.cluster;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A BroadcastBus connecting nodes running in the same JVM, such as the nodes of a test. Messages are
+ * delivered on the publishing thread, before publish returns.
+ *
+ * <pre>
+ * InMemoryBroadcastBus first = new InMemoryBroadcastBus();
+ * InMemoryBroadcastBus second = first.join();
+ * </pre>
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class InMemoryBroadcastBus implements BroadcastBus {
+    /**
+     * The buses of all the nodes, shared by them.
+     */
+    private final List<InMemoryBroadcastBus> members;
+    /**
+     * Store the subscribers of this node.
+     */
+    private final List<Consumer<BusMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructs the bus of a first node.
+     */
+    public InMemoryBroadcastBus(){
+        this(new CopyOnWriteArrayList<>());
+    }
+
+    private InMemoryBroadcastBus(List<InMemoryBroadcastBus> members){
+        this.members = members;
+        members.add(this);
+    }
+
+    /**
+     * Creates the bus of another node connected to the same nodes as this one.
+     *
+     * @return the new bus.
+     */
+    public InMemoryBroadcastBus join(){
+        return new InMemoryBroadcastBus(members);
+    }
+
+    @Override
+    public void publish(BusMessage message){
+        for(InMemoryBroadcastBus member : members){
+            if(member != this){
+                member.subscribers.forEach(subscriber -> subscriber.accept(message));
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<BusMessage> subscriber){
+        subscribers.add(subscriber);
+    }
+
+    @Override
+    public void close(){
+        members.remove(this);
+    }
+}
@@ -0,0 +1,71 @@
+package collaborative.whiteboard.cluster;
+
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Redirects the requests of the whiteboard API that this node cannot answer to the node owning the
+ * room: those changing the room, which only its owner may do, and those reading it while this node's
+ * replica has not been synchronized yet. The redirect is a 307, so clients repeat the same method and
+ * body at the owner's URL; the room is taken from the "roomId" path variable, or is the default room.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class OwnerRedirectInterceptor implements HandlerInterceptor {
+    /**
+     * Knows the owners of the rooms and whether the replicas are synchronized.
+     */
+    private final ClusterManager clusterManager;
+
+    /**
+     * Constructs an OwnerRedirectInterceptor.
+     *
+     * @param clusterManager knows the owners of the rooms and whether the replicas are synchronized.
+     */
+    public OwnerRedirectInterceptor(ClusterManager clusterManager){
+        this.clusterManager = clusterManager;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        String roomId = getRoomId(request);
+        RoomOwnership ownership = clusterManager.getOwnership();
+        if(HttpMethod.OPTIONS.matches(request.getMethod()) || !WhiteboardHandler.isValidRoomId(roomId)
+                || ownership.isOwner(roomId)){
+            return true;
+        }
+        boolean read = HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod());
+        if(read && !clusterManager.isSynced(roomId)){
+            clusterManager.requestSnapshot(roomId);
+        }
+        if(read && clusterManager.isSynced(roomId)){
+            return true;
+        }
+
+        String ownerUrl = ownership.getOwnerUrl(roomId);
+        if(ownerUrl == null){
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "The node owning the room has no URL.");
+            return false;
+        }
+        String query = request.getQueryString();
+        response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+        response.setHeader(HttpHeaders.LOCATION, ownerUrl + request.getRequestURI() + (query == null ? "" : "?" + query));
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String getRoomId(HttpServletRequest request){
+        Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String roomId = variables instanceof Map<?, ?> map ? ((Map<String, String>) map).get("roomId") : null;
+        return roomId == null ? WhiteboardHandler.DEFAULT_ROOM : roomId;
+    }
+}
@@ -0,0 +1,96 @@
+package collaborative.whiteboard.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.CRC32C;
+
+/**
+ * Decides which node owns the authoritative state of each room, by rendezvous hashing: every node
+ * scores a room by hashing its own identifier with the room's, and the room belongs to the node with
+ * the highest score. All the nodes configured with the same node identifiers agree on the owners
+ * without talking to each other, and removing a node only moves the rooms it owned.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class RoomOwnership {
+    /**
+     * Identifier of this node.
+     */
+    private final String nodeId;
+    /**
+     * Identifiers of all the nodes, this one included, sorted so that ties are broken the same way everywhere.
+     */
+    private final List<String> nodeIds;
+    /**
+     * Base URL of every node, with the node identifiers as keys.
+     */
+    private final Map<String, String> urls;
+
+    /**
+     * Constructs a RoomOwnership.
+     *
+     * @param nodeId the identifier of this node.
+     * @param urls the base URL of every node, with the node identifiers as keys; this node is
+     *             included even if it has no URL.
+     */
+    public RoomOwnership(String nodeId, Map<String, String> urls){
+        TreeSet<String> ids = new TreeSet<>(urls.keySet());
+        ids.add(nodeId);
+        this.nodeId = nodeId;
+        this.nodeIds = List.copyOf(ids);
+        this.urls = Map.copyOf(urls);
+    }
+
+    /**
+     * Gets the node owning a room.
+     *
+     * @param roomId the identifier of the room.
+     * @return the identifier of the owner.
+     */
+    public String getOwner(String roomId){
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for(String id : nodeIds){
+            long score = score(id, roomId);
+            if(owner == null || score > best){
+                owner = id;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Checks whether this node owns a room.
+     *
+     * @param roomId the identifier of the room.
+     * @return true if this node holds the authoritative state of the room.
+     */
+    public boolean isOwner(String roomId){
+        return nodeId.equals(getOwner(roomId));
+    }
+
+    /**
+     * Gets the base URL of the node owning a room.
+     *
+     * @param roomId the identifier of the room.
+     * @return the URL, or null if none is configured for the owner.
+     */
+    public String getOwnerUrl(String roomId){
+        return urls.get(getOwner(roomId));
+    }
+
+    private static long score(String nodeId, String roomId){
+        CRC32C crc = new CRC32C();
+        crc.update((nodeId + '\n' + roomId).getBytes(StandardCharsets.UTF_8));
+        // CRC32C alone spreads similar inputs poorly, so its value is mixed before comparing scores.
+        long h = crc.getValue() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    public String getNodeId() {return nodeId;}
+
+    public List<String> getNodeIds() {return nodeIds;}
+}
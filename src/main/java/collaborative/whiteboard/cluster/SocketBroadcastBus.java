@@ -0,0 +1,247 @@
+package collaborative.whiteboard.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A BroadcastBus over TCP, for nodes on one machine or a private network. Every node listens on a
+ * port for the other nodes, and keeps one connection to each of them through which it writes its
+ * messages in the format of {@link BusMessage#writeTo}.
+ *
+ * Each connection has a queue and a writer thread of its own, so publishing never waits for the
+ * network. While a node is unreachable its queue fills up and the connection is retried every second;
+ * once the queue is full, further messages to that node are dropped and counted.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SocketBroadcastBus implements BroadcastBus {
+    /**
+     * Logger of the socket bus.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SocketBroadcastBus.class);
+    /**
+     * Maximum number of messages waiting to be written to one node.
+     */
+    private static final int QUEUE_CAPACITY = 65536;
+    /**
+     * Milliseconds between two attempts to connect to a node.
+     */
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    /**
+     * Milliseconds an attempt to connect to a node may take.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Accepts the connections of the other nodes.
+     */
+    private final ServerSocket serverSocket;
+    /**
+     * Store the connections to the other nodes.
+     */
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    /**
+     * Store the connections accepted from the other nodes.
+     */
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    /**
+     * Store the subscribers of this node.
+     */
+    private final List<Consumer<BusMessage>> subscribers = new CopyOnWriteArrayList<>();
+    /**
+     * Number of messages dropped because the queue of a node was full.
+     */
+    private final LongAdder droppedMessages = new LongAdder();
+    /**
+     * Whether the bus was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a SocketBroadcastBus listening on a port.
+     *
+     * @param port the port the other nodes connect to, or 0 for any free port.
+     * @throws IOException if the port cannot be listened on.
+     */
+    public SocketBroadcastBus(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        Thread.ofPlatform().name("bus-acceptor").daemon().start(this::accept);
+    }
+
+    /**
+     * Starts writing the messages published from now on to another node.
+     *
+     * @param address the address the node's bus listens on.
+     */
+    public void addPeer(InetSocketAddress address){
+        Peer peer = new Peer(address);
+        peers.add(peer);
+        peer.thread = Thread.ofPlatform().name("bus-writer-" + address.getPort()).daemon().start(peer::run);
+    }
+
+    @Override
+    public void publish(BusMessage message){
+        for(Peer peer : peers){
+            if(!peer.queue.offer(message)){
+                droppedMessages.increment();
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<BusMessage> subscriber){
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Accepts the connections of the other nodes, reading each one on a thread of its own.
+     */
+    private void accept(){
+        while(!closed){
+            try{
+                Socket socket = serverSocket.accept();
+                inbound.add(socket);
+                Thread.ofPlatform().name("bus-reader-" + socket.getPort()).daemon().start(() -> read(socket));
+            }catch(IOException e){
+                if(!closed){
+                    logger.warn("Error accepting a bus connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the messages of a connection to the subscribers until it is closed.
+     *
+     * @param socket the connection.
+     */
+    private void read(Socket socket){
+        try(socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))){
+            while(!closed){
+                BusMessage message = BusMessage.readFrom(in);
+                for(Consumer<BusMessage> subscriber : subscribers){
+                    try{
+                        subscriber.accept(message);
+                    }catch(RuntimeException e){
+                        logger.atError().addKeyValue("room", message.roomId()).addKeyValue("type", message.type())
+                                .setCause(e).log("Error handling a bus message");
+                    }
+                }
+            }
+        }catch(EOFException e){
+            logger.debug("Bus connection from {} closed", socket.getRemoteSocketAddress());
+        }catch(IOException e){
+            if(!closed){
+                logger.warn("Bus connection from {} failed: {}", socket.getRemoteSocketAddress(), e.getMessage());
+            }
+        }finally{
+            inbound.remove(socket);
+        }
+    }
+
+    @Override
+    public void close(){
+        closed = true;
+        try{
+            serverSocket.close();
+        }catch(IOException e){
+            logger.warn("Error closing the bus: {}", e.getMessage());
+        }
+        for(Peer peer : peers){
+            peer.close();
+        }
+        for(Socket socket : inbound){
+            try{
+                socket.close();
+            }catch(IOException ignored){
+                // The reader stops either way.
+            }
+        }
+    }
+
+    public int getPort() {return serverSocket.getLocalPort();}
+
+    public long getDroppedMessages() {return droppedMessages.sum();}
+
+    /**
+     * The connection to another node, with the queue of the messages waiting to be written to it.
+     */
+    private final class Peer {
+        private final InetSocketAddress address;
+        private final BlockingQueue<BusMessage> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile Thread thread;
+        private volatile Socket socket;
+
+        private Peer(InetSocketAddress address){
+            this.address = address;
+        }
+
+        /**
+         * Connects to the node and writes the queued messages, flushing whenever the queue is empty,
+         * and connects again after a failure. The message being written when a connection fails is lost.
+         */
+        private void run(){
+            while(!closed){
+                try(Socket connection = new Socket()){
+                    socket = connection;
+                    connection.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    connection.setTcpNoDelay(true);
+                    logger.info("Bus connected to {}", address);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                    while(!closed){
+                        BusMessage message = queue.take();
+                        do{
+                            message.writeTo(out);
+                        }while((message = queue.poll()) != null);
+                        out.flush();
+                    }
+                }catch(IOException e){
+                    if(closed){
+                        return;
+                    }
+                    logger.debug("Bus connection to {} failed: {}", address, e.getMessage());
+                    try{
+                        Thread.sleep(RECONNECT_DELAY_MILLIS);
+                    }catch(InterruptedException interrupted){
+                        return;
+                    }
+                }catch(InterruptedException e){
+                    return;
+                }
+            }
+        }
+
+        private void close(){
+            Thread writer = thread;
+            if(writer != null){
+                writer.interrupt();
+            }
+            Socket connection = socket;
+            if(connection != null){
+                try{
+                    connection.close();
+                }catch(IOException ignored){
+                    // The writer stops either way.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package collaborative.whiteboard.config;
+
+import collaborative.whiteboard.cluster.BroadcastBus;
+import collaborative.whiteboard.cluster.ClusterManager;
+import collaborative.whiteboard.cluster.InMemoryBroadcastBus;
+import collaborative.whiteboard.cluster.OwnerRedirectInterceptor;
+import collaborative.whiteboard.cluster.RoomOwnership;
+import collaborative.whiteboard.cluster.SocketBroadcastBus;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Configuration of the nodes sharing the rooms, enabled with "whiteboard.cluster.enabled=true":
+ * the broadcast bus, the ownership of the rooms and the redirection of requests to their owners.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "whiteboard.cluster", name = "enabled", havingValue = "true")
+public class ClusterConfig implements WebMvcConfigurer {
+    /**
+     * Knows the owners of the rooms and whether the replicas are synchronized.
+     */
+    private final ClusterManager clusterManager;
+
+    public ClusterConfig(ClusterManager clusterManager){
+        this.clusterManager = clusterManager;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry){
+        registry.addInterceptor(new OwnerRedirectInterceptor(clusterManager))
+                .addPathPatterns("/api/whiteboard/**");
+    }
+
+    /**
+     * The bus connecting this node to the others: TCP connections to the configured peers, or an
+     * in-memory bus reaching no other node.
+     *
+     * @param properties the whiteboard configuration properties holding the cluster settings.
+     * @return the bus.
+     * @throws IOException if the socket bus cannot listen on its port.
+     */
+    @Bean(destroyMethod = "close")
+    public static BroadcastBus broadcastBus(WhiteboardProperties properties) throws IOException {
+        WhiteboardProperties.Cluster cluster = properties.getCluster();
+        if(cluster.getTransport() == WhiteboardProperties.Cluster.Transport.MEMORY){
+            return new InMemoryBroadcastBus();
+        }
+        SocketBroadcastBus bus = new SocketBroadcastBus(cluster.getPort());
+        for(String peer : cluster.getPeers()){
+            int separator = peer.lastIndexOf(':');
+            if(separator < 0){
+                bus.close();
+                throw new IllegalArgumentException("A peer is written as host:port: " + peer);
+            }
+            bus.addPeer(new InetSocketAddress(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1))));
+        }
+        return bus;
+    }
+
+    /**
+     * Assigns every room to one of the configured nodes.
+     *
+     * @param properties the whiteboard configuration properties holding the cluster settings.
+     * @return the ownership of the rooms.
+     */
+    @Bean
+    public static RoomOwnership roomOwnership(WhiteboardProperties properties){
+        return new RoomOwnership(properties.getCluster().getNodeId(), properties.getCluster().getNodes());
+    }
+}
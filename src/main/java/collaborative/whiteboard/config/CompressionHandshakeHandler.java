@@ -0,0 +1,69 @@
+package collaborative.whiteboard.config;
+
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Handshake handler of both WebSocket endpoints deciding whether a client may negotiate the
+ * permessage-deflate extension, which the container applies to every frame of the connection.
+ * It is refused when disabled in the configuration, and to the clients of the raw endpoint choosing the
+ * {@value WhiteboardHandler#DEFLATE_PROTOCOL} subprotocol, whose large frames are already compressed
+ * and whose small ones are not worth it.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class CompressionHandshakeHandler extends DefaultHandshakeHandler {
+    /**
+     * Name of the per-message compression extension.
+     */
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    /**
+     * Whether clients may negotiate permessage-deflate.
+     */
+    private final boolean permessageDeflate;
+
+    /**
+     * Constructs a CompressionHandshakeHandler.
+     *
+     * @param permessageDeflate whether clients may negotiate permessage-deflate.
+     */
+    public CompressionHandshakeHandler(boolean permessageDeflate){
+        this.permessageDeflate = permessageDeflate;
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requestedExtensions,
+                                                                 List<WebSocketExtension> supportedExtensions){
+        List<WebSocketExtension> extensions = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+        if(permessageDeflate && !choosesDeflateProtocol(request)){
+            return extensions;
+        }
+        return extensions.stream()
+                .filter(extension -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+                .toList();
+    }
+
+    /**
+     * Checks whether the deflate subprotocol is the one selected for a request: the first requested
+     * subprotocol the raw endpoint supports, as the subprotocols are selected in the client's order.
+     */
+    private static boolean choosesDeflateProtocol(ServerHttpRequest request){
+        List<String> supported = List.of(WhiteboardHandler.BINARY_PROTOCOL, WhiteboardHandler.JSON_PROTOCOL,
+                WhiteboardHandler.DEFLATE_PROTOCOL);
+        for(String protocol : new WebSocketHttpHeaders(request.getHeaders()).getSecWebSocketProtocol()){
+            String name = protocol.toLowerCase(Locale.ROOT);
+            if(supported.contains(name)){
+                return WhiteboardHandler.DEFLATE_PROTOCOL.equals(name);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,45 @@
+package collaborative.whiteboard.config;
+
+import collaborative.whiteboard.model.WhiteboardJson;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration sharing the ObjectMapper auto-configured by Spring Boot with the rest of the
+ * application. The prebuilt readers and writers are exposed as a single WhiteboardJson bean,
+ * which is also installed as the shared instance used by the model classes.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Configuration
+public class JacksonConfig {
+
+    /**
+     * Builds the readers and writers of the model types from the application's ObjectMapper.
+     *
+     * @param objectMapper the ObjectMapper configured by Spring Boot, including any registered modules.
+     * @return the WhiteboardJson shared by the application.
+     */
+    @Bean
+    public WhiteboardJson whiteboardJson(ObjectMapper objectMapper){
+        WhiteboardJson whiteboardJson = new WhiteboardJson(objectMapper);
+        WhiteboardJson.install(whiteboardJson);
+        return whiteboardJson;
+    }
+
+    /**
+     * Registers the Blackbird module, which replaces reflection with generated lambdas for property
+     * access. Enabled with whiteboard.json.blackbird=true; Spring Boot adds every Module bean to the mapper.
+     *
+     * @return the Blackbird module.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "whiteboard.json", name = "blackbird", havingValue = "true")
+    public Module blackbirdModule(){
+        return new BlackbirdModule();
+    }
+}
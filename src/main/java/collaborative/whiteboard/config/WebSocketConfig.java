@@ -1,31 +1,77 @@
 package collaborative.whiteboard.config;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 /**
  * WebSocket configuration for using STOMP protocol with a message broker.
  * Defines the WebSocket endpoint and message broker configuration.
  *
+ * The simple broker serves the topic of every room, "/topic/rooms/{roomId}", to which StompRoomBroker
+ * publishes the drawings, notices and state transitions the rooms share with the raw endpoint; clients
+ * send their drawings to "/app/rooms/{roomId}/draw". The thread pools of the inbound and outbound
+ * channels and the limits of the STOMP sessions are set by the "whiteboard.broker" properties.
+ *
  * @author Andrey Estevam Seabra
  */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    /**
+     * Decides whether clients may negotiate permessage-deflate.
+     */
+    private final CompressionHandshakeHandler handshakeHandler;
+    /**
+     * Thread pools and session limits of the broker.
+     */
+    private final WhiteboardProperties.Broker brokerProperties;
+
+    public WebSocketConfig(CompressionHandshakeHandler handshakeHandler, WhiteboardProperties properties){
+        this.handshakeHandler = handshakeHandler;
+        this.brokerProperties = properties.getBroker();
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.enableSimpleBroker("/topic"); // Enables a simple in-memory message broker
         registry.setApplicationDestinationPrefixes("/app"); // Prefix for messages sent to the server
+        registry.setPreservePublishOrder(brokerProperties.isPreservePublishOrder()); // Keep each session's messages in order
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        configureChannel(registration, brokerProperties.getInbound());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        configureChannel(registration, brokerProperties.getOutbound());
+    }
+
+    private static void configureChannel(ChannelRegistration registration, WhiteboardProperties.Broker.Channel channel){
+        registration.taskExecutor()
+                .corePoolSize(channel.getCorePoolSize())
+                .maxPoolSize(channel.getMaxPoolSize())
+                .queueCapacity(channel.getQueueCapacity());
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit(brokerProperties.getSendBufferSizeLimit())
+                .setSendTimeLimit(brokerProperties.getSendTimeLimit())
+                .setMessageSizeLimit(brokerProperties.getMessageSizeLimit());
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/whiteboard") // WebSocket STOMP endpoint
+                .setHandshakeHandler(handshakeHandler) // Apply the compression settings
                 .setAllowedOrigins("http://localhost:3000") // Allow CORS for frontend
                 .withSockJS(); // Enable SockJS fallback
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package collaborative.whiteboard.config;
+
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Configuration for the raw WebSocket endpoint served by WhiteboardHandler, alongside the
+ * STOMP endpoint defined in WebSocketConfig. Both endpoints share the rooms: the handler fans every
+ * message out to the raw sessions and, through StompRoomBroker, to the topics of the broker.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Configuration
+@EnableWebSocket
+@EnableConfigurationProperties(WhiteboardProperties.class)
+public class WhiteboardHandlerConfig implements WebSocketConfigurer {
+    /**
+     * The handler mapped to the raw WebSocket endpoint.
+     */
+    private final WhiteboardHandler whiteboardHandler;
+    /**
+     * Decides whether clients may negotiate permessage-deflate.
+     */
+    private final CompressionHandshakeHandler handshakeHandler;
+
+    public WhiteboardHandlerConfig(WhiteboardHandler whiteboardHandler, CompressionHandshakeHandler handshakeHandler){
+        this.whiteboardHandler = whiteboardHandler;
+        this.handshakeHandler = handshakeHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(whiteboardHandler, "/ws/whiteboard") // Raw WebSocket endpoint
+                .setHandshakeHandler(handshakeHandler) // Apply the compression settings
+                .setAllowedOrigins("http://localhost:3000"); // Allow CORS for frontend
+    }
+
+    /**
+     * Runs the writer tasks of the per-session outbound queues. At most one task per session is
+     * active at a time, so the pool only grows with the number of sessions being written to.
+     * With "spring.threads.virtual.enabled", which also moves Tomcat's request and WebSocket message
+     * handling to virtual threads, every writer task runs on a virtual thread of its own, so sends
+     * blocked on slow clients no longer hold a platform thread each.
+     * Static so the handler can be created before this configuration class.
+     *
+     * @param virtualThreads whether the writers run on virtual threads.
+     * @return the executor used by the session outboxes.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public static ExecutorService outboundExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads){
+        if(virtualThreads){
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ws-outbound-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(new CustomizableThreadFactory("ws-outbound-"));
+    }
+
+    /**
+     * Sends the batches of relayed drawing messages when batching is enabled. Its thread is only
+     * started by the first batch.
+     *
+     * @return the scheduler used by the drawing batcher.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public static ScheduledExecutorService batchingScheduler(){
+        return Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("ws-batching-"));
+    }
+
+    /**
+     * Handshake handler of the raw and STOMP endpoints, applying the compression settings.
+     * Static so both configuration classes can use it before either is created.
+     *
+     * @param properties the whiteboard configuration properties holding the compression settings.
+     * @return the handshake handler.
+     */
+    @Bean
+    public static CompressionHandshakeHandler compressionHandshakeHandler(WhiteboardProperties properties){
+        return new CompressionHandshakeHandler(properties.getCompression().isPermessageDeflate());
+    }
+}
@@ -0,0 +1,419 @@
+package collaborative.whiteboard.config;
+
+import collaborative.whiteboard.handler.SessionOutbox;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration properties of the whiteboard server, bound from the "whiteboard" prefix
+ * in application.properties. They are validated when bound, so an out-of-range value stops the
+ * application at startup instead of failing the first room that uses it.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@ConfigurationProperties(prefix = "whiteboard")
+@Validated
+public class WhiteboardProperties {
+    /**
+     * Limits of the per-session outbound queues.
+     */
+    @Valid
+    private final Outbound outbound = new Outbound();
+    /**
+     * Settings of the delta-based state broadcasting.
+     */
+    @Valid
+    private final Delta delta = new Delta();
+    /**
+     * Settings of the undo and redo history of every room.
+     */
+    @Valid
+    private final History history = new History();
+    /**
+     * Settings of the durable operation journal.
+     */
+    @Valid
+    private final Journal journal = new Journal();
+    /**
+     * Settings of the batching of relayed drawing messages.
+     */
+    @Valid
+    private final Batching batching = new Batching();
+    /**
+     * Settings of the compression of outgoing WebSocket frames.
+     */
+    @Valid
+    private final Compression compression = new Compression();
+    /**
+     * Settings of the nodes sharing the rooms behind a load balancer.
+     */
+    @Valid
+    private final Cluster cluster = new Cluster();
+    /**
+     * Settings of the STOMP message broker publishing the rooms' topics.
+     */
+    @Valid
+    private final Broker broker = new Broker();
+
+    public Outbound getOutbound() {return outbound;}
+
+    public Delta getDelta() {return delta;}
+
+    public History getHistory() {return history;}
+
+    public Journal getJournal() {return journal;}
+
+    public Batching getBatching() {return batching;}
+
+    public Compression getCompression() {return compression;}
+
+    public Cluster getCluster() {return cluster;}
+
+    public Broker getBroker() {return broker;}
+
+    /**
+     * Limits applied to the outbound queue of every WebSocket session.
+     */
+    public static class Outbound {
+        /**
+         * Maximum number of messages waiting to be sent to a single session.
+         */
+        @Min(1)
+        private int queueCapacity = 1024;
+        /**
+         * Maximum number of payload bytes waiting to be sent to a single session.
+         */
+        @Min(1)
+        private long bufferSizeLimit = 1024 * 1024;
+        /**
+         * Maximum time, in milliseconds, a single send may block before the session is disconnected.
+         */
+        @Min(1)
+        private long sendTimeLimit = 10_000;
+        /**
+         * What to do with a session whose queue exceeds the limits above.
+         */
+        @NotNull
+        private SessionOutbox.OverflowPolicy overflowPolicy = SessionOutbox.OverflowPolicy.DROP_OLDEST;
+
+        // Getter and setter methods.
+        public int getQueueCapacity() {return queueCapacity;}
+
+        public void setQueueCapacity(int queueCapacity) {this.queueCapacity = queueCapacity;}
+
+        public long getBufferSizeLimit() {return bufferSizeLimit;}
+
+        public void setBufferSizeLimit(long bufferSizeLimit) {this.bufferSizeLimit = bufferSizeLimit;}
+
+        public long getSendTimeLimit() {return sendTimeLimit;}
+
+        public void setSendTimeLimit(long sendTimeLimit) {this.sendTimeLimit = sendTimeLimit;}
+
+        public SessionOutbox.OverflowPolicy getOverflowPolicy() {return overflowPolicy;}
+
+        public void setOverflowPolicy(SessionOutbox.OverflowPolicy overflowPolicy) {this.overflowPolicy = overflowPolicy;}
+    }
+
+    /**
+     * Settings of the delta-based state broadcasting.
+     */
+    public static class Delta {
+        /**
+         * Number of recent state transitions whose deltas are kept per room. Clients further behind get a snapshot.
+         */
+        @Min(1)
+        private int maxLogSize = 128;
+
+        public int getMaxLogSize() {return maxLogSize;}
+
+        public void setMaxLogSize(int maxLogSize) {this.maxLogSize = maxLogSize;}
+    }
+
+    /**
+     * Settings of the undo and redo history of every room.
+     */
+    public static class History {
+        /**
+         * Maximum number of actions that can be undone per room. Older actions are forgotten.
+         */
+        @Min(1)
+        private int maxDepth = 100;
+
+        public int getMaxDepth() {return maxDepth;}
+
+        public void setMaxDepth(int maxDepth) {this.maxDepth = maxDepth;}
+    }
+
+    /**
+     * Settings of the durable operation journal, which persists every room's state across restarts.
+     */
+    public static class Journal {
+        /**
+         * Whether state transitions are journaled and recovered on startup.
+         */
+        private boolean enabled = false;
+        /**
+         * Directory holding one subdirectory of segments and snapshots per room.
+         */
+        @NotBlank
+        private String directory = "data/journal";
+        /**
+         * Number of journaled revisions after which a snapshot is written and older segments are deleted.
+         */
+        @Min(1)
+        private long snapshotInterval = 10_000;
+
+        public boolean isEnabled() {return enabled;}
+
+        public void setEnabled(boolean enabled) {this.enabled = enabled;}
+
+        public String getDirectory() {return directory;}
+
+        public void setDirectory(String directory) {this.directory = directory;}
+
+        public long getSnapshotInterval() {return snapshotInterval;}
+
+        public void setSnapshotInterval(long snapshotInterval) {this.snapshotInterval = snapshotInterval;}
+    }
+
+    /**
+     * Settings of the batching stage that coalesces the drawing messages relayed to a room.
+     */
+    public static class Batching {
+        /**
+         * Whether drawing messages are relayed in batches instead of one frame per message.
+         */
+        private boolean enabled = false;
+        /**
+         * Milliseconds a room collects drawing messages before they are sent as one frame per session.
+         */
+        @Min(1)
+        private long interval = 16;
+
+        // Getter and setter methods.
+        public boolean isEnabled() {return enabled;}
+
+        public void setEnabled(boolean enabled) {this.enabled = enabled;}
+
+        public long getInterval() {return interval;}
+
+        public void setInterval(long interval) {this.interval = interval;}
+    }
+
+    /**
+     * Settings of the compression of outgoing WebSocket frames, both the permessage-deflate extension
+     * negotiated by the container and the size-aware compression of the raw endpoint.
+     */
+    public static class Compression {
+        /**
+         * Whether clients may negotiate the permessage-deflate extension, which compresses every frame.
+         */
+        private boolean permessageDeflate = true;
+        /**
+         * Size in bytes below which frames are sent uncompressed to the sessions that negotiated the
+         * deflate subprotocol.
+         */
+        @Min(0)
+        private int threshold = 1024;
+        /**
+         * Deflate level, from 1 (fastest) to 9 (smallest).
+         */
+        @Min(1)
+        @Max(9)
+        private int level = 6;
+
+        // Getter and setter methods.
+        public boolean isPermessageDeflate() {return permessageDeflate;}
+
+        public void setPermessageDeflate(boolean permessageDeflate) {this.permessageDeflate = permessageDeflate;}
+
+        public int getThreshold() {return threshold;}
+
+        public void setThreshold(int threshold) {this.threshold = threshold;}
+
+        public int getLevel() {return level;}
+
+        public void setLevel(int level) {this.level = level;}
+    }
+
+    /**
+     * Settings of the nodes sharing the rooms: every node relays the drawings of its sessions to the
+     * others through a broadcast bus, and each room's state is owned by one node.
+     */
+    public static class Cluster {
+        /**
+         * Whether this node shares its rooms with other nodes.
+         */
+        private boolean enabled = false;
+        /**
+         * Identifier of this node, one of the keys of the nodes.
+         */
+        @NotBlank
+        private String nodeId = "node-1";
+        /**
+         * Base URL of every node, with the node identifiers as keys; requests changing a room are
+         * redirected to its owner's URL.
+         */
+        @NotNull
+        private Map<String, String> nodes = new LinkedHashMap<>();
+        /**
+         * Transport of the broadcast bus.
+         */
+        @NotNull
+        private Transport transport = Transport.SOCKET;
+        /**
+         * Port the socket bus listens on for the other nodes.
+         */
+        @Min(0)
+        @Max(65535)
+        private int port = 9400;
+        /**
+         * Addresses of the socket buses of the other nodes, as host:port.
+         */
+        @NotNull
+        private List<String> peers = new ArrayList<>();
+
+        /**
+         * The ways the nodes exchange the messages of the broadcast bus.
+         */
+        public enum Transport {
+            /**
+             * Nodes running in the same JVM, such as in tests.
+             */
+            MEMORY,
+            /**
+             * TCP connections between the nodes.
+             */
+            SOCKET
+        }
+
+        // Getter and setter methods.
+        public boolean isEnabled() {return enabled;}
+
+        public void setEnabled(boolean enabled) {this.enabled = enabled;}
+
+        public String getNodeId() {return nodeId;}
+
+        public void setNodeId(String nodeId) {this.nodeId = nodeId;}
+
+        public Map<String, String> getNodes() {return nodes;}
+
+        public void setNodes(Map<String, String> nodes) {this.nodes = nodes;}
+
+        public Transport getTransport() {return transport;}
+
+        public void setTransport(Transport transport) {this.transport = transport;}
+
+        public int getPort() {return port;}
+
+        public void setPort(int port) {this.port = port;}
+
+        public List<String> getPeers() {return peers;}
+
+        public void setPeers(List<String> peers) {this.peers = peers;}
+    }
+
+    /**
+     * Settings of the simple broker behind the STOMP endpoint, which publishes the drawings, notices and
+     * state transitions of every room to its topic, and of the channels carrying its messages.
+     */
+    public static class Broker {
+        /**
+         * Thread pool of the channel carrying the messages received from the STOMP clients.
+         */
+        @Valid
+        private final Channel inbound = new Channel();
+        /**
+         * Thread pool of the channel carrying the messages sent to the STOMP clients.
+         */
+        @Valid
+        private final Channel outbound = new Channel();
+        /**
+         * Maximum number of bytes waiting to be sent to a single STOMP session before it is closed.
+         */
+        @Min(1)
+        private int sendBufferSizeLimit = 1024 * 1024;
+        /**
+         * Maximum time, in milliseconds, a single send to a STOMP session may take before it is closed.
+         */
+        @Min(1)
+        private int sendTimeLimit = 10_000;
+        /**
+         * Maximum size in bytes of an incoming STOMP message, such as a large polygon.
+         */
+        @Min(1)
+        private int messageSizeLimit = 128 * 1024;
+        /**
+         * Whether the messages of a STOMP session are sent in the order they were published, which keeps
+         * the state transitions of a room in order at the cost of some throughput.
+         */
+        private boolean preservePublishOrder = true;
+
+        // Getter and setter methods.
+        public Channel getInbound() {return inbound;}
+
+        public Channel getOutbound() {return outbound;}
+
+        public int getSendBufferSizeLimit() {return sendBufferSizeLimit;}
+
+        public void setSendBufferSizeLimit(int sendBufferSizeLimit) {this.sendBufferSizeLimit = sendBufferSizeLimit;}
+
+        public int getSendTimeLimit() {return sendTimeLimit;}
+
+        public void setSendTimeLimit(int sendTimeLimit) {this.sendTimeLimit = sendTimeLimit;}
+
+        public int getMessageSizeLimit() {return messageSizeLimit;}
+
+        public void setMessageSizeLimit(int messageSizeLimit) {this.messageSizeLimit = messageSizeLimit;}
+
+        public boolean isPreservePublishOrder() {return preservePublishOrder;}
+
+        public void setPreservePublishOrder(boolean preservePublishOrder) {this.preservePublishOrder = preservePublishOrder;}
+
+        /**
+         * Thread pool of one of the broker's channels. Both the queue and the pool are bounded: once
+         * the queue is full the pool grows up to its maximum, and beyond that the channel rejects the
+         * message instead of buffering without limit.
+         */
+        public static class Channel {
+            /**
+             * Number of threads kept in the pool.
+             */
+            @Min(1)
+            private int corePoolSize = Runtime.getRuntime().availableProcessors() * 2;
+            /**
+             * Maximum number of threads, only reached once the queue is full.
+             */
+            @Min(1)
+            private int maxPoolSize = Runtime.getRuntime().availableProcessors() * 4;
+            /**
+             * Maximum number of messages waiting for a thread.
+             */
+            @Min(0)
+            private int queueCapacity = 10_000;
+
+            // Getter and setter methods.
+            public int getCorePoolSize() {return corePoolSize;}
+
+            public void setCorePoolSize(int corePoolSize) {this.corePoolSize = corePoolSize;}
+
+            public int getMaxPoolSize() {return maxPoolSize;}
+
+            public void setMaxPoolSize(int maxPoolSize) {this.maxPoolSize = maxPoolSize;}
+
+            public int getQueueCapacity() {return queueCapacity;}
+
+            public void setQueueCapacity(int queueCapacity) {this.queueCapacity = queueCapacity;}
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package collaborative.whiteboard.controller;
+
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+
+/**
+ * The DrawingMessageController class receives the drawing messages STOMP clients send through the
+ * message broker and hands them to the WhiteboardHandler, which relays them like those of the raw
+ * endpoint: to the room's raw sessions, to its topic "/topic/rooms/{roomId}" and to the other nodes.
+ * The payload is kept as the bytes of the STOMP frame, so its JSON is parsed only once.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Controller
+public class DrawingMessageController {
+    /**
+     * Relays the drawing messages to the rooms.
+     */
+    private final WhiteboardHandler whiteboardHandler;
+
+    /**
+     * Constructs a new DrawingMessageController instance.
+     *
+     * @param whiteboardHandler the handler relaying the drawing messages to the rooms.
+     */
+    public DrawingMessageController(WhiteboardHandler whiteboardHandler){
+        this.whiteboardHandler = whiteboardHandler;
+    }
+
+    /**
+     * Relays a drawing message sent to "/app/rooms/{roomId}/draw".
+     *
+     * @param roomId the identifier of the room.
+     * @param json the UTF-8 JSON of the drawing message.
+     */
+    @MessageMapping("/rooms/{roomId}/draw")
+    public void draw(@DestinationVariable String roomId, @Payload byte[] json){
+        whiteboardHandler.relayFromBroker(roomId, json);
+    }
+
+    /**
+     * Relays a drawing message sent to "/app/draw" to the default room.
+     *
+     * @param json the UTF-8 JSON of the drawing message.
+     */
+    @MessageMapping("/draw")
+    public void draw(@Payload byte[] json){
+        whiteboardHandler.relayFromBroker(WhiteboardHandler.DEFAULT_ROOM, json);
+    }
+}
@@ -1,17 +1,44 @@
 package collaborative.whiteboard.controller;
 
 import collaborative.whiteboard.controller.exception.GlobalExceptionHandler;
+import collaborative.whiteboard.manager.RoomManager;
 import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.BoundingBox;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.Polygon;
+import collaborative.whiteboard.model.SerializedState;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StatePatch;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
 import collaborative.whiteboard.model.WhiteboardState;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * The WhiteboardController class serves as a REST API controller for managing
  * the whiteboard state. It provides endpoints for saving and loading the whiteboard,
  * allowing real-time synchronization of whiteboard data.
+ * Every endpoint is available under "/rooms/{roomId}" for a specific room; the unscoped
+ * paths operate on the default room.
  *
  * @author Andrey Estevam Seabra
  */
@@ -19,90 +46,371 @@ import org.springframework.web.server.ResponseStatusException;
 @RequestMapping("/api/whiteboard")
 public class WhiteboardController {
     /**
-     * Manages the state of the Whiteboard.
+     * Media type of newline-delimited JSON.
+     */
+    public static final String NDJSON = "application/x-ndjson";
+    /**
+     * Start time of the server, distinguishing the revisions of its rooms from those of earlier runs.
+     */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+    /**
+     * Size of the JSON from which the cached gzip variant is sent to clients accepting it, matching
+     * "server.compression.min-response-size".
+     */
+    private static final int MIN_GZIP_SIZE = 2048;
+    /**
+     * The snapshot of a room that does not exist, which reads answer without creating the room.
+     */
+    private static final StateSnapshot EMPTY = new StateSnapshot(0, null);
+    /**
+     * Provides the StateManager of each whiteboard room.
      */
-    private final StateManager stateManager;
+    private final RoomManager roomManager;
+    /**
+     * Used for logging saves and loads, at the debug level and without the states themselves.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardController.class);
 
     /**
      * Constructs a new WhiteboardController instance.
      *
-     * @param stateManager the StateManager responsible for managing the whiteboard state.
+     * @param roomManager the RoomManager providing the StateManager of each room.
      */
-    public WhiteboardController(StateManager stateManager){
-        this.stateManager = stateManager;
+    public WhiteboardController(RoomManager roomManager){
+        this.roomManager = roomManager;
     }
 
     /**
      * Saves the current state of the collaborative whiteboard.
      *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param username the user saving the state, whose undo history records the change; optional.
      * @param state the state of the whiteboard to be saved.
      * @return a confirmation message about the successful save.
      */
-    @PostMapping("/save")
-    public ResponseEntity<String> saveState(@RequestBody WhiteboardState state){
-        System.out.println("Saving state: " + state);
+    @PostMapping({"/save", "/rooms/{roomId}/save"})
+    public ResponseEntity<String> saveState(@PathVariable(required = false) String roomId,
+                                            @RequestParam(required = false) String username,
+                                            @RequestBody WhiteboardState state){
+        StateManager stateManager = roomManager.getRoom(roomId);
+        logger.atDebug().addKeyValue("room", roomId).addKeyValue("user", username)
+                .addKeyValue("version", state.getVersion())
+                .addKeyValue("drawings", () -> state.getDrawingMessages() == null ? 0 : state.getDrawingMessages().size())
+                .log("Saving state");
         if(state.getTimeStamp() == null || state.getTimeStamp().isEmpty()){
             throw new IllegalArgumentException("Timestamp cannot be null or empty."); // Handled by GlobalExceptionHandler.
         }
         if(state.getVersion() <= 0){
             throw new IllegalArgumentException("Version must be greater than 0.");
         }
-        stateManager.addAction(state);
+        stateManager.addAction(username, state);
         stateManager.broadcastState();
         return ResponseEntity.ok("Whiteboard current state successfully saved.");
     }
 
     /**
-     * Loads the current state of the collaborative whiteboard.
-     * If there is no existing state, returns a new, empty WhiteboardState instance.
+     * Applies a batch of additions, updates and removals to the current state instead of replacing it,
+     * and broadcasts the resulting delta to all connected clients. The patch must be based on the
+     * current revision of the room; otherwise it is rejected with 409 Conflict and the client should
+     * catch up through "/changes" and retry.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param username the user saving the changes, whose undo history records them; optional.
+     * @param patch the changes and the revision they were made against.
+     * @return the revision of the room after the patch.
+     */
+    @PatchMapping({"/save", "/rooms/{roomId}/save"})
+    public Map<String, Long> patchState(@PathVariable(required = false) String roomId,
+                                        @RequestParam(required = false) String username,
+                                        @RequestBody StatePatch patch){
+        StateManager stateManager = roomManager.getRoom(roomId);
+        long revision = stateManager.applyPatch(username, patch);
+        if(revision != patch.getBaseRevision()){
+            stateManager.broadcastState();
+        }
+        return Map.of("revision", revision);
+    }
+
+    /**
+     * Loads the current state of the collaborative whiteboard, streamed as JSON.
+     * If there is no existing state, responds with 404 Not Found.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param request the request, whose If-None-Match header is checked.
+     * @param response the response the state is written to.
+     * @throws IOException if the state cannot be written.
+     */
+    @GetMapping({"/load", "/rooms/{roomId}/load"})
+    public void loadState(@PathVariable(required = false) String roomId, WebRequest request,
+                          HttpServletResponse response) throws IOException {
+        StateManager room = roomManager.findRoom(roomId);
+        StateSnapshot snapshot = room == null ? EMPTY : room.getSnapshot(null);
+        if(snapshot.getState() == null){
+            logger.atDebug().addKeyValue("room", roomId).log("No state found");
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No state found.");
+        }
+        logger.atDebug().addKeyValue("room", roomId).addKeyValue("revision", snapshot.getRevision()).log("Loading state");
+        writeState(room, snapshot, false, request, response); // Return the last saved state.
+    }
+
+    /**
+     * Loads the current state of the collaborative whiteboard as newline-delimited JSON: a first line
+     * with the timestamp, version and revision of the state, then one line per drawing message, so
+     * clients can render a large board while it downloads.
+     * If there is no existing state, responds with 404 Not Found.
      *
-     * @return the current state of the whiteboard or a new WhiteboardState if no state exists.
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param request the request, whose If-None-Match header is checked.
+     * @param response the response the state is written to.
+     * @throws IOException if the state cannot be written.
      */
-    @GetMapping("/load")
-    public WhiteboardState loadState(){
-        if(stateManager.getCurrentState() == null){
-            System.out.println("No state found.");
+    @GetMapping(value = {"/load", "/rooms/{roomId}/load"}, produces = NDJSON)
+    public void loadStateLines(@PathVariable(required = false) String roomId, WebRequest request,
+                               HttpServletResponse response) throws IOException {
+        StateManager room = roomManager.findRoom(roomId);
+        StateSnapshot snapshot = room == null ? EMPTY : room.getSnapshot(null);
+        if(snapshot.getState() == null){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No state found.");
         }
-        System.out.println("Loaded state: " + stateManager.getCurrentState());
-        return stateManager.getCurrentState(); // Return the last saved state.
+        writeState(room, snapshot, true, request, response);
     }
 
     /**
-     * Reverts the whiteboard state to the most recent action in the undo stack
-     * and broadcasts the updated state to all connected clients. If the undo stack
-     * is empty, no state changes are made.
+     * Reverts the most recent action of the user and broadcasts the resulting changes to all connected
+     * clients. Without a username, the most recent action saved without a username is reverted.
+     * If there is nothing to undo, no state changes are made.
      *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param username the user whose action is reverted; optional.
      * @return a confirmation message indicating the undo operation was successful.
      */
-    @PostMapping("/undo")
-    public String undo(){
-        stateManager.undo();
+    @PostMapping({"/undo", "/rooms/{roomId}/undo"})
+    public String undo(@PathVariable(required = false) String roomId,
+                       @RequestParam(required = false) String username){
+        StateManager stateManager = roomManager.getRoom(roomId);
+        stateManager.undo(username);
         stateManager.broadcastState();
         return "Undo successful.";
     }
 
     /**
-     * Restores the most recent state from the redo stack, sets it as the current state,
-     * and broadcasts the updated state to all connected clients.
-     * If the redo stack is empty, no state change is made.
+     * Reapplies the most recently undone action of the user and broadcasts the resulting changes
+     * to all connected clients. Without a username, the shared history is used.
+     * If there is nothing to redo, no state change is made.
      *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param username the user whose action is reapplied; optional.
      * @return a confirmation message indicating the redo operation was successful.
      */
-    @PostMapping("/redo")
-    public String redo(){
-        stateManager.redo();
+    @PostMapping({"/redo", "/rooms/{roomId}/redo"})
+    public String redo(@PathVariable(required = false) String roomId,
+                       @RequestParam(required = false) String username){
+        StateManager stateManager = roomManager.getRoom(roomId);
+        stateManager.redo(username);
         stateManager.broadcastState();
         return "Redo successful.";
     }
 
     /**
-     * Retrieves the current state of the collaborative whiteboard.
+     * Retrieves the current state of the collaborative whiteboard, streamed as JSON.
+     * Responds with an empty body if the room has no state.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param request the request, whose If-None-Match header is checked.
+     * @param response the response the state is written to.
+     * @throws IOException if the state cannot be written.
+     */
+    @GetMapping({"/currentState", "/rooms/{roomId}/currentState"})
+    public void getCurrentState(@PathVariable(required = false) String roomId, WebRequest request,
+                                HttpServletResponse response) throws IOException {
+        StateManager room = roomManager.findRoom(roomId);
+        StateSnapshot snapshot = room == null ? EMPTY : room.getSnapshot(null);
+        if(snapshot.getState() != null){
+            writeState(room, snapshot, false, request, response);
+        }
+    }
+
+    /**
+     * Writes a state to the response. JSON is served from the bytes cached with the state, or their
+     * gzip variant when the client accepts it, so a version is serialized and compressed once however
+     * many clients load it. Newline-delimited JSON is streamed with the shared JsonGenerator-based
+     * writer, without buffering the board as a whole. Each revision has its own ETag; a client sending
+     * it back in If-None-Match gets 304 Not Modified without the state being written at all.
+     *
+     * @param room the room of the state, which records the size of each version serialized.
+     * @param snapshot the state and its revision.
+     * @param lines whether to write newline-delimited JSON instead of a single JSON object.
+     * @param request the request, whose If-None-Match header is checked.
+     * @param response the response the state is written to.
+     * @throws IOException if the state cannot be written.
+     */
+    private static void writeState(StateManager room, StateSnapshot snapshot, boolean lines, WebRequest request,
+                                   HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        if(request.checkNotModified(etag(snapshot.getRevision(), lines))){
+            return;
+        }
+        response.setContentType(lines ? NDJSON : MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        OutputStream out = response.getOutputStream();
+        WhiteboardState state = snapshot.getState();
+        if(!lines){
+            // Every request for the same version shares the JSON and gzip bytes cached with the state.
+            SerializedState serialized = state.serialize(WhiteboardJson.shared().getWriter(), room::recordSerializedSize);
+            byte[] body = serialized.getJson();
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if(body.length >= MIN_GZIP_SIZE && acceptsGzip(request)){
+                body = serialized.getGzip();
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+            response.setContentLength(body.length);
+            out.write(body);
+            return;
+        }
+        ObjectWriter writer = WhiteboardJson.shared().getWriter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try(SequenceWriter sequence = writer.withRootValueSeparator("\n").writeValues(out)){
+            Map<String, Object> header = new LinkedHashMap<>();
+            header.put("timeStamp", state.getTimeStamp());
+            header.put("version", state.getVersion());
+            header.put("revision", snapshot.getRevision());
+            sequence.write(header);
+            for(DrawingMessage message : state.getDrawingMessages().values()){
+                sequence.write(message);
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Checks whether the client accepts gzip-compressed responses.
+     *
+     * @param request the request, whose Accept-Encoding header is checked.
+     * @return true if gzip is listed without being refused with "q=0".
+     */
+    private static boolean acceptsGzip(WebRequest request){
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if(acceptEncoding == null){
+            return false;
+        }
+        for(String coding : acceptEncoding.split(",")){
+            String[] parts = coding.trim().split(";");
+            if(parts[0].trim().equalsIgnoreCase("gzip")){
+                return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the ETag of a revision of a room's state. It is weak, since the response may be compressed,
+     * and includes the start time of the server, since revisions start over when the state is not journaled.
+     *
+     * @param revision the revision of the state.
+     * @param lines whether the state is written as newline-delimited JSON.
+     * @return the ETag.
+     */
+    private static String etag(long revision, boolean lines){
+        return "W/\"" + EPOCH + "-" + revision + (lines ? "-ndjson" : "") + "\"";
+    }
+
+    /**
+     * Retrieves what a client at the given revision needs to catch up with the current state:
+     * the delta since that revision, or a full snapshot if the client is too far behind.
+     * Clients that detect a gap in the deltas they receive use this to resynchronize.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param since the revision the client has, or -1 if it has none.
+     * @return a StateDelta or a StateSnapshot.
+     */
+    @GetMapping({"/changes", "/rooms/{roomId}/changes"})
+    public Object getChanges(@PathVariable(required = false) String roomId,
+                             @RequestParam(defaultValue = "-1") long since){
+        StateManager room = roomManager.findRoom(roomId);
+        if(room == null){
+            // A room that does not exist is at revision 0 without a state, like a room never changed.
+            return since == 0 ? new StateDelta(0, 0) : EMPTY;
+        }
+        return room.getChangesSince(since);
+    }
+
+    /**
+     * Retrieves a snapshot of the drawing messages in a viewport, so a client zoomed into part of a
+     * large board loads only what it sees. Drawings whose bounds cannot be computed are always included.
+     * An invalid viewport is answered with 400 Bad Request by the GlobalExceptionHandler.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param minX the left edge of the viewport.
+     * @param minY the top edge of the viewport.
+     * @param maxX the right edge of the viewport.
+     * @param maxY the bottom edge of the viewport.
+     * @return a StateSnapshot of the current revision, restricted to the viewport.
+     */
+    @GetMapping({"/viewport", "/rooms/{roomId}/viewport"})
+    public StateSnapshot getViewport(@PathVariable(required = false) String roomId,
+                                     @RequestParam double minX, @RequestParam double minY,
+                                     @RequestParam double maxX, @RequestParam double maxY){
+        BoundingBox viewport = new BoundingBox(minX, minY, maxX, maxY);
+        StateManager room = roomManager.findRoom(roomId);
+        return room == null ? EMPTY : room.getSnapshot(viewport);
+    }
+
+    /**
+     * Finds the drawings at a point of the board, such as the one a user clicked.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @param tolerance how far from a drawing the point may be.
+     * @return the IDs of the drawings hit.
+     */
+    @GetMapping({"/hit", "/rooms/{roomId}/hit"})
+    public List<String> hitTest(@PathVariable(required = false) String roomId,
+                                @RequestParam double x, @RequestParam double y,
+                                @RequestParam(defaultValue = "0") double tolerance){
+        StateManager room = roomManager.findRoom(roomId);
+        return room == null ? List.of() : room.hitTest(x, y, tolerance);
+    }
+
+    /**
+     * Finds the drawings in a region of the board, such as a lasso or a rectangle selection.
+     * An invalid region is answered with 400 Bad Request by the GlobalExceptionHandler.
      *
-     * @return the current state of the whiteboard.
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param contained whether only the drawings lying entirely within the region are found,
+     *                  instead of every drawing touching it.
+     * @param region the x and y coordinates of the vertices of the region.
+     * @return the IDs of the matching drawings.
      */
-    @GetMapping("/currentState")
-    public WhiteboardState getCurrentState(){
-        return stateManager.getCurrentState();
+    @PostMapping({"/select", "/rooms/{roomId}/select"})
+    public List<String> select(@PathVariable(required = false) String roomId,
+                               @RequestParam(defaultValue = "false") boolean contained,
+                               @RequestBody List<Double> region){
+        Polygon polygon = Polygon.of(region);
+        StateManager room = roomManager.findRoom(roomId);
+        return room == null ? List.of() : room.select(polygon, contained);
+    }
+
+    /**
+     * Removes every drawing in a region of the board in one action and broadcasts the resulting
+     * delta to all connected clients. The erase is undone as a whole.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @param username the user erasing, whose undo history records the change; optional.
+     * @param contained whether only the drawings lying entirely within the region are removed,
+     *                  instead of every drawing touching it.
+     * @param region the x and y coordinates of the vertices of the region.
+     * @return the IDs of the removed drawings.
+     */
+    @PostMapping({"/erase", "/rooms/{roomId}/erase"})
+    public List<String> erase(@PathVariable(required = false) String roomId,
+                              @RequestParam(required = false) String username,
+                              @RequestParam(defaultValue = "false") boolean contained,
+                              @RequestBody List<Double> region){
+        StateManager stateManager = roomManager.getRoom(roomId);
+        List<String> erased = stateManager.erase(username, Polygon.of(region), contained);
+        if(!erased.isEmpty()){
+            stateManager.broadcastState();
+        }
+        return erased;
     }
-}
\ No newline at end of file
+}
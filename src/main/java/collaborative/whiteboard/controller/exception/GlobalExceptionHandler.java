@@ -1,5 +1,6 @@
 package collaborative.whiteboard.controller.exception;
 
+import collaborative.whiteboard.manager.RevisionConflictException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -26,6 +27,17 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
     }
 
+    /**
+     * Handles RevisionConflictException, thrown when a change was made against an outdated revision.
+     *
+     * @param e the given exception that was thrown.
+     * @return a 409 Conflict response.
+     */
+    @ExceptionHandler(RevisionConflictException.class)
+    public ResponseEntity<String> handleRevisionConflictException(RevisionConflictException e){
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
     /**
      * Handles NullPointerException.
      *
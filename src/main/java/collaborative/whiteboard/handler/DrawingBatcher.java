@@ -0,0 +1,356 @@
+package collaborative.whiteboard.handler;
+
+import collaborative.whiteboard.model.BinaryDrawingCodec;
+import collaborative.whiteboard.model.BoundingBox;
+import collaborative.whiteboard.model.CoordinateArray;
+import collaborative.whiteboard.model.DrawingMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the drawing messages relayed to a room. Instead of one frame per message and recipient,
+ * the messages a room receives during an interval are sent together when it ends, as a single frame
+ * per session: a JSON array of messages for text sessions, a batch in the format of
+ * {@link BinaryDrawingCodec} for binary ones. A freehand stroke sent as many small messages carrying
+ * the same id is merged, within a batch, into one message holding all of its points.
+ *
+ * A room's interval starts with the first message after its previous batch was sent, so idle rooms
+ * cost nothing. Every message is encoded at most once per format; the frame sent to the sessions that
+ * did not contribute to the batch is built once per viewport and shared, while a contributor gets a
+ * frame without its own messages, assembled from the same encodings. Sessions subscribed to a viewport
+ * only get the messages intersecting it.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class DrawingBatcher {
+    /**
+     * Separators of the JSON array frames.
+     */
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_SEPARATOR = {','};
+    private static final byte[] ARRAY_END = {']'};
+
+    /**
+     * The handler whose rooms and outboxes the batches are sent through.
+     */
+    private final WhiteboardHandler whiteboardHandler;
+    /**
+     * Writes the JSON of messages that did not arrive as JSON or were merged.
+     */
+    private final ObjectWriter writer;
+    /**
+     * Schedules the end of every room's interval.
+     */
+    private final ScheduledExecutorService scheduler;
+    /**
+     * Milliseconds a room collects messages before sending them.
+     */
+    private final long intervalMillis;
+    /**
+     * Maps each room to the batch it is currently collecting. A room is absent when it has nothing to send.
+     */
+    private final Map<String, List<Pending>> batches = new ConcurrentHashMap<>();
+    /**
+     * Used for logging messages that cannot be encoded.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(DrawingBatcher.class);
+
+    /**
+     * Constructs a DrawingBatcher.
+     *
+     * @param whiteboardHandler the handler the batches are sent through.
+     * @param writer writes the JSON of the messages.
+     * @param scheduler schedules the end of every room's interval.
+     * @param intervalMillis milliseconds a room collects messages before sending them.
+     */
+    public DrawingBatcher(WhiteboardHandler whiteboardHandler, ObjectWriter writer, ScheduledExecutorService scheduler,
+                          long intervalMillis){
+        this.whiteboardHandler = whiteboardHandler;
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.intervalMillis = Math.max(0, intervalMillis);
+    }
+
+    /**
+     * Adds a drawing message to the batch of a room, merging it into the previous message of the
+     * same stroke if there is one.
+     *
+     * @param roomId the room the message is relayed to.
+     * @param sender the session that sent the message, which does not receive it back, or null if the
+     *               message came from another node.
+     * @param draw the decoded message, which the batcher may modify.
+     * @param json the message's JSON as received, or null.
+     * @param binary the message's binary encoding as received, or null.
+     */
+    public void submit(String roomId, WebSocketSession sender, DrawingMessage draw, byte[] json, byte[] binary){
+        batches.compute(roomId, (id, batch) -> {
+            if(batch == null){
+                batch = new ArrayList<>();
+                scheduler.schedule(() -> flush(id), intervalMillis, TimeUnit.MILLISECONDS);
+            }
+            Pending previous = findStroke(batch, sender, draw);
+            if(previous != null){
+                previous.append(draw);
+            }else{
+                batch.add(new Pending(sender, draw, json, binary));
+            }
+            return batch;
+        });
+    }
+
+    /**
+     * Sends the batch a room collected, if any.
+     *
+     * @param roomId the room.
+     */
+    public void flush(String roomId){
+        List<Pending> batch = batches.remove(roomId);
+        if(batch == null){
+            return;
+        }
+        try{
+            send(roomId, batch);
+        }catch(RuntimeException e){
+            // Keeps the scheduler thread alive for the other rooms.
+            logger.error("Failed to send the batch of room {}", roomId, e);
+        }
+    }
+
+    /**
+     * Sends the batches of every room right away.
+     */
+    public void flushAll(){
+        for(String roomId : batches.keySet()){
+            flush(roomId);
+        }
+    }
+
+    /**
+     * Finds the pending message a new message continues: one from the same sender with the same id,
+     * class and style, both with points.
+     *
+     * @return the pending message, or null if the new message starts a new entry.
+     */
+    private static Pending findStroke(List<Pending> batch, WebSocketSession sender, DrawingMessage draw){
+        if(draw.getId() == null || draw.getPoints() == null){
+            return null;
+        }
+        for(int i = batch.size() - 1; i >= 0; i--){
+            Pending pending = batch.get(i);
+            DrawingMessage other = pending.draw;
+            if(pending.sender == sender && draw.getId().equals(other.getId())){
+                boolean sameStyle = other.getClass() == draw.getClass() && other.getPoints() != null
+                        && Objects.equals(other.getType(), draw.getType())
+                        && Objects.equals(other.getShape(), draw.getShape())
+                        && Objects.equals(other.getColor(), draw.getColor())
+                        && Double.compare(other.getLineWidth(), draw.getLineWidth()) == 0
+                        && Objects.equals(other.getRotation(), draw.getRotation());
+                return sameStyle ? pending : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends a batch to every open session of a room. Sessions that did not contribute to the batch
+     * and see the same viewport share one frame per format.
+     */
+    private void send(String roomId, List<Pending> batch){
+        long start = System.nanoTime();
+        Set<WebSocketSession> senders = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(Pending pending : batch){
+            senders.add(pending.sender);
+        }
+        Map<FrameKey, TextMessage> textFrames = new HashMap<>();
+        Map<FrameKey, byte[]> binaryFrames = new HashMap<>();
+        for(WebSocketSession session : whiteboardHandler.getRoomSessions(roomId)){
+            if(!session.isOpen()){
+                continue;
+            }
+            // A contributor gets every message but its own.
+            FrameKey key = new FrameKey(senders.contains(session) ? session : null, WhiteboardHandler.getViewport(session));
+            if(WhiteboardHandler.isBinary(session)){
+                if(!binaryFrames.containsKey(key)){
+                    binaryFrames.put(key, binaryFrame(batch, key));
+                }
+                byte[] frame = binaryFrames.get(key);
+                if(frame != null){
+                    // The bytes are shared, but each recipient needs its own buffer since sending consumes it.
+                    whiteboardHandler.send(session, new BinaryMessage(frame));
+                }
+            }else{
+                if(!textFrames.containsKey(key)){
+                    textFrames.put(key, textFrame(batch, key));
+                }
+                TextMessage frame = textFrames.get(key);
+                if(frame != null){
+                    whiteboardHandler.send(session, frame);
+                }
+            }
+        }
+        whiteboardHandler.getMetrics().recordBatchFanout(System.nanoTime() - start);
+    }
+
+    /**
+     * Checks whether a pending message goes into the frames of a key: it was not sent by the excluded
+     * session and is in the viewport, if any.
+     */
+    private static boolean isIncluded(Pending pending, FrameKey key){
+        if(pending.sender != null && pending.sender == key.excluded()){
+            return false;
+        }
+        BoundingBox bounds = pending.bounds();
+        return key.viewport() == null || bounds == null || bounds.intersects(key.viewport());
+    }
+
+    /**
+     * Builds the JSON array of the messages of a batch included for a key.
+     *
+     * @return the frame, or null if no message is left.
+     */
+    private TextMessage textFrame(List<Pending> batch, FrameKey key){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(ARRAY_START);
+        boolean empty = true;
+        for(Pending pending : batch){
+            byte[] json = isIncluded(pending, key) ? pending.json(writer) : null;
+            if(json != null){
+                if(!empty){
+                    out.writeBytes(ARRAY_SEPARATOR);
+                }
+                out.writeBytes(json);
+                empty = false;
+            }
+        }
+        out.writeBytes(ARRAY_END);
+        return empty ? null : WhiteboardHandler.createFrame(out.toByteArray());
+    }
+
+    /**
+     * Builds the binary batch of the messages of a batch included for a key.
+     *
+     * @return the frame, or null if no message is left.
+     */
+    private static byte[] binaryFrame(List<Pending> batch, FrameKey key){
+        List<byte[]> messages = new ArrayList<>(batch.size());
+        for(Pending pending : batch){
+            if(isIncluded(pending, key)){
+                messages.add(pending.binary());
+            }
+        }
+        return messages.isEmpty() ? null : BinaryDrawingCodec.encodeBatch(messages);
+    }
+
+    /**
+     * Identifies the sessions of a batch that can share a frame.
+     *
+     * @param excluded the session whose own messages are left out, or null for sessions that sent none.
+     * @param viewport the viewport of the sessions, or null.
+     */
+    private record FrameKey(WebSocketSession excluded, BoundingBox viewport) {}
+
+    /**
+     * A message waiting in a batch, with its encodings, computed at most once each.
+     */
+    private static final class Pending {
+        /**
+         * The session that sent the message.
+         */
+        private final WebSocketSession sender;
+        /**
+         * The message.
+         */
+        private final DrawingMessage draw;
+        /**
+         * The JSON of the message, or null until needed.
+         */
+        private byte[] json;
+        /**
+         * The binary encoding of the message, or null until needed.
+         */
+        private byte[] binary;
+        /**
+         * Whether encoding the message as JSON failed, so it is skipped.
+         */
+        private boolean invalid;
+        /**
+         * The bounds of the message, computed when the batch is sent.
+         */
+        private BoundingBox bounds;
+        /**
+         * Whether the bounds were computed.
+         */
+        private boolean measured;
+
+        private Pending(WebSocketSession sender, DrawingMessage draw, byte[] json, byte[] binary){
+            this.sender = sender;
+            this.draw = draw;
+            this.json = json;
+            this.binary = binary;
+        }
+
+        /**
+         * Appends the points of the next piece of the same stroke. The received encodings no longer
+         * match the message, so they are dropped.
+         */
+        private void append(DrawingMessage next){
+            draw.setPoints(CoordinateArray.concat(draw.getPoints(), next.getPoints()));
+            json = null;
+            binary = null;
+        }
+
+        /**
+         * Gets the JSON of the message, or null if it cannot be written.
+         */
+        private byte[] json(ObjectWriter writer){
+            if(json == null && !invalid){
+                try{
+                    json = writer.writeValueAsBytes(draw);
+                }catch(JsonProcessingException e){
+                    invalid = true;
+                    logger.warn("Dropped a drawing message that cannot be written as JSON: {}", e.getMessage());
+                }
+            }
+            return json;
+        }
+
+        /**
+         * Gets the bounds of the message, once it can no longer be merged with another piece.
+         */
+        private BoundingBox bounds(){
+            if(!measured){
+                bounds = draw.getBounds();
+                measured = true;
+            }
+            return bounds;
+        }
+
+        /**
+         * Gets the binary encoding of the message.
+         */
+        private byte[] binary(){
+            if(binary == null){
+                binary = BinaryDrawingCodec.encode(draw);
+            }
+            return binary;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package collaborative.whiteboard.handler;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the text frames sent to the sessions that negotiated the deflate subprotocol. A frame of
+ * at least the threshold is sent as a binary frame holding its raw deflate stream (RFC 1951, no zlib
+ * header), which browsers inflate with a DecompressionStream("deflate-raw"); smaller frames, such as a
+ * single stroke, are sent as they are, since compressing them costs more CPU than it saves bytes.
+ *
+ * The frames of a broadcast are shared by every recipient, so the compressor remembers the last few
+ * frames it saw by identity and compresses each of them once, however many sessions it is sent to.
+ * It also counts the frames it compressed or skipped, the bytes before and after, and the time spent.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class FrameCompressor {
+    /**
+     * Number of recently compressed frames remembered.
+     */
+    static final int CACHE_SIZE = 8;
+
+    /**
+     * Size in bytes below which frames are not compressed.
+     */
+    private final int threshold;
+    /**
+     * Deflate level.
+     */
+    private final int level;
+    /**
+     * The recently compressed frames, used as a ring.
+     */
+    private final Compressed[] cache = new Compressed[CACHE_SIZE];
+    /**
+     * Position of the next entry to replace in the cache.
+     */
+    private int next;
+    /**
+     * Number of frames compressed, and sent as binary frames.
+     */
+    private final LongAdder compressedFrames = new LongAdder();
+    /**
+     * Number of frames sent uncompressed, being below the threshold or not shrinking.
+     */
+    private final LongAdder skippedFrames = new LongAdder();
+    /**
+     * Total size in bytes of the frames that were compressed, before compression.
+     */
+    private final LongAdder bytesIn = new LongAdder();
+    /**
+     * Total size in bytes of the frames that were compressed, after compression.
+     */
+    private final LongAdder bytesOut = new LongAdder();
+    /**
+     * Total time spent compressing, in nanoseconds.
+     */
+    private final LongAdder compressionNanos = new LongAdder();
+
+    /**
+     * Constructs a FrameCompressor.
+     *
+     * @param threshold size in bytes below which frames are not compressed.
+     * @param level deflate level, from 1 to 9; other values use the default level.
+     */
+    public FrameCompressor(int threshold, int level){
+        this.threshold = Math.max(0, threshold);
+        this.level = level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION ? level : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Gets the frame to send instead of a text frame.
+     *
+     * @param frame the text frame, which may be shared with other sessions.
+     * @return a binary frame holding the compressed payload, or the frame itself if it is below the
+     * threshold or does not shrink.
+     */
+    public WebSocketMessage<?> compress(TextMessage frame){
+        if(frame.getPayloadLength() < threshold){
+            skippedFrames.increment();
+            return frame;
+        }
+        Compressed compressed = lookup(frame);
+        if(compressed == null){
+            compressed = new Compressed(frame, deflate(frame.asBytes()));
+            remember(compressed);
+        }
+        if(compressed.bytes() == null){
+            skippedFrames.increment();
+            return frame;
+        }
+        // The bytes are shared, but each recipient needs its own buffer since sending consumes it.
+        return new BinaryMessage(compressed.bytes());
+    }
+
+    /**
+     * Compresses a payload, counting the time and bytes.
+     *
+     * @return the raw deflate stream, or null if it is not smaller than the payload.
+     */
+    private byte[] deflate(byte[] payload){
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(level, true);
+        try{
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.length / 4));
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()){
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            if(out.size() >= payload.length){
+                return null;
+            }
+            compressedFrames.increment();
+            bytesIn.add(payload.length);
+            bytesOut.add(out.size());
+            return out.toByteArray();
+        }finally{
+            deflater.end();
+            compressionNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Finds a frame among the recently compressed ones.
+     */
+    private synchronized Compressed lookup(TextMessage frame){
+        for(Compressed compressed : cache){
+            if(compressed != null && compressed.frame() == frame){
+                return compressed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remembers a compressed frame, replacing the oldest one. Two threads compressing the same frame
+     * at once both remember it, which only wastes one entry.
+     */
+    private synchronized void remember(Compressed compressed){
+        cache[next] = compressed;
+        next = (next + 1) % cache.length;
+    }
+
+    /**
+     * Gets the ratio of the compressed size to the original size of the frames compressed so far.
+     *
+     * @return the ratio, 1 if no frame was compressed.
+     */
+    public double getRatio(){
+        long in = bytesIn.sum();
+        return in == 0 ? 1 : (double) bytesOut.sum() / in;
+    }
+
+    // Getter methods.
+    public int getThreshold() {return threshold;}
+
+    public long getCompressedFrames() {return compressedFrames.sum();}
+
+    public long getSkippedFrames() {return skippedFrames.sum();}
+
+    public long getBytesIn() {return bytesIn.sum();}
+
+    public long getBytesOut() {return bytesOut.sum();}
+
+    public long getCompressionNanos() {return compressionNanos.sum();}
+
+    /**
+     * A frame and its compressed payload.
+     *
+     * @param frame the text frame.
+     * @param bytes the raw deflate stream of its payload, or null if it does not shrink.
+     */
+    private record Compressed(TextMessage frame, byte[] bytes) {}
+}
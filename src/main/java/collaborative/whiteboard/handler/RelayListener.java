@@ -0,0 +1,25 @@
+package collaborative.whiteboard.handler;
+
+/**
+ * Receives the messages the WhiteboardHandler relays from its sessions to their rooms, for example to
+ * relay them to the sessions connected to other nodes as well.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public interface RelayListener {
+    /**
+     * Invoked after a drawing message received from a session was relayed to the rest of its room.
+     *
+     * @param roomId the identifier of the room.
+     * @param json the UTF-8 JSON of the drawing message; it must not be modified.
+     */
+    void drawingRelayed(String roomId, byte[] json);
+
+    /**
+     * Invoked after a notice, such as a user leaving, was broadcast to a room.
+     *
+     * @param roomId the identifier of the room.
+     * @param notice the text of the notice.
+     */
+    void noticeBroadcast(String roomId, String notice);
+}
@@ -0,0 +1,26 @@
+package collaborative.whiteboard.handler;
+
+/**
+ * Publishes the messages of a room to the subscribers of the room's topic that are not sessions of the
+ * raw endpoint, such as the STOMP clients of the message broker. The WhiteboardHandler hands it every
+ * drawing and notice it fans out to a room, whichever endpoint or node they came from.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public interface RoomBroker {
+    /**
+     * Checks whether anyone subscribed to the topic of a room, so messages are only encoded for it if needed.
+     *
+     * @param roomId the identifier of the room.
+     * @return true if the topic of the room has subscribers.
+     */
+    boolean hasSubscribers(String roomId);
+
+    /**
+     * Publishes a message to the topic of a room.
+     *
+     * @param roomId the identifier of the room.
+     * @param json the UTF-8 JSON of the message; it must not be modified.
+     */
+    void publish(String roomId, byte[] json);
+}
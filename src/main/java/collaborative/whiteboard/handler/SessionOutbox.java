@@ -0,0 +1,290 @@
+package collaborative.whiteboard.handler;
+
+import collaborative.whiteboard.metrics.WhiteboardMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded outbound queue for a single WebSocket session.
+ * Messages are enqueued by any thread without blocking and are written to the session by a single
+ * writer task running on the given executor, so a slow client only delays its own messages.
+ * When the queue exceeds its limits, the configured OverflowPolicy decides whether the oldest
+ * messages are dropped or the session is disconnected. A session whose current send has been
+ * blocked for longer than the send time limit is always disconnected.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SessionOutbox {
+    /**
+     * Defines what happens when a session falls behind and its queue exceeds the configured limits.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued messages until the queue is back within its limits.
+         */
+        DROP_OLDEST,
+        /**
+         * Close the session; the client is expected to reconnect and reload the board.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Used for logging events and messages within the SessionOutbox class.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SessionOutbox.class);
+    /**
+     * The session the queued messages are written to.
+     */
+    private final WebSocketSession session;
+    /**
+     * Store the messages waiting to be sent, in order.
+     */
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * Number of messages currently waiting in the queue.
+     */
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    /**
+     * Number of payload bytes currently waiting in the queue.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+    /**
+     * Number of messages discarded because of the DROP_OLDEST policy.
+     */
+    private final AtomicLong droppedMessages = new AtomicLong();
+    /**
+     * True while a writer task is scheduled or running for this session.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean();
+    /**
+     * Maximum number of messages that may be waiting in the queue.
+     */
+    private final int queueCapacity;
+    /**
+     * Maximum number of payload bytes that may be waiting in the queue.
+     */
+    private final long bufferSizeLimit;
+    /**
+     * Maximum time, in milliseconds, a single send may block before the session is considered lagging.
+     */
+    private final long sendTimeLimit;
+    /**
+     * What to do when the queue limits are exceeded.
+     */
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * Runs the writer task that drains the queue.
+     */
+    private final Executor executor;
+    /**
+     * Records the writes to the session and the messages dropped.
+     */
+    private final WhiteboardMetrics metrics;
+    /**
+     * Time, in milliseconds, at which the send in progress started, or 0 if no send is in progress.
+     */
+    private volatile long sendStartTime;
+    /**
+     * True once the outbox has been closed; no more messages are accepted afterwards.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new SessionOutbox.
+     *
+     * @param session the session the messages are written to.
+     * @param queueCapacity the maximum number of queued messages.
+     * @param bufferSizeLimit the maximum number of queued payload bytes.
+     * @param sendTimeLimit the maximum time, in milliseconds, a single send may block.
+     * @param overflowPolicy what to do when the queue limits are exceeded.
+     * @param executor the executor running the writer task.
+     */
+    public SessionOutbox(WebSocketSession session, int queueCapacity, long bufferSizeLimit, long sendTimeLimit,
+                         OverflowPolicy overflowPolicy, Executor executor){
+        this(session, queueCapacity, bufferSizeLimit, sendTimeLimit, overflowPolicy, executor, WhiteboardMetrics.NONE);
+    }
+
+    /**
+     * Constructs a new SessionOutbox.
+     *
+     * @param session the session the messages are written to.
+     * @param queueCapacity the maximum number of queued messages.
+     * @param bufferSizeLimit the maximum number of queued payload bytes.
+     * @param sendTimeLimit the maximum time, in milliseconds, a single send may block.
+     * @param overflowPolicy what to do when the queue limits are exceeded.
+     * @param executor the executor running the writer task.
+     * @param metrics records the writes to the session and the messages dropped.
+     */
+    public SessionOutbox(WebSocketSession session, int queueCapacity, long bufferSizeLimit, long sendTimeLimit,
+                         OverflowPolicy overflowPolicy, Executor executor, WhiteboardMetrics metrics){
+        if(queueCapacity <= 0 || bufferSizeLimit <= 0 || sendTimeLimit <= 0){
+            throw new IllegalArgumentException("Outbound queue limits must be positive.");
+        }
+        this.session = session;
+        this.queueCapacity = queueCapacity;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimit = sendTimeLimit;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queues a message for delivery and makes sure a writer task is draining the queue.
+     *
+     * @param message the message to be sent.
+     * @return true if the message was accepted, false if the outbox is closed or the session was
+     * disconnected for lagging behind.
+     */
+    public boolean enqueue(WebSocketMessage<?> message){
+        if(closed){
+            return false;
+        }
+
+        // A send that has been blocked for too long means the client is not reading anymore.
+        long start = sendStartTime;
+        if(start > 0 && System.currentTimeMillis() - start > sendTimeLimit){
+            logger.warn("Send to {} blocked for more than {} ms, disconnecting.", username(), sendTimeLimit);
+            close(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+
+        Entry entry = new Entry(message);
+        queue.add(entry);
+        int messages = queuedMessages.incrementAndGet();
+        long bytes = queuedBytes.addAndGet(entry.length);
+
+        // Apply the overflow policy until the queue is back within its limits.
+        while(messages > queueCapacity || bytes > bufferSizeLimit){
+            if(overflowPolicy == OverflowPolicy.DISCONNECT){
+                logger.warn("Outbound queue of {} exceeded its limits, disconnecting.", username());
+                close(CloseStatus.SESSION_NOT_RELIABLE);
+                return false;
+            }
+            Entry oldest = queue.poll();
+            if(oldest == null){
+                break;
+            }
+            droppedMessages.incrementAndGet();
+            metrics.recordDroppedMessage();
+            messages = queuedMessages.decrementAndGet();
+            bytes = queuedBytes.addAndGet(-oldest.length);
+        }
+
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Submits the writer task unless one is already scheduled or running.
+     */
+    private void scheduleDrain(){
+        if(draining.compareAndSet(false, true)){
+            try{
+                executor.execute(this::drain);
+            }catch(RuntimeException e){
+                draining.set(false);
+                logger.error("Could not schedule the writer for {}: {}", username(), e.getMessage());
+                close(CloseStatus.SERVER_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Writes queued messages to the session until the queue is empty.
+     * Only one drain runs at a time per session, which keeps the messages in order and satisfies the
+     * WebSocketSession requirement that sends are not concurrent.
+     */
+    private void drain(){
+        do{
+            Entry entry;
+            while(!closed && (entry = queue.poll()) != null){
+                queuedMessages.decrementAndGet();
+                queuedBytes.addAndGet(-entry.length);
+                sendStartTime = System.currentTimeMillis();
+                long start = System.nanoTime();
+                boolean failed = false;
+                try{
+                    session.sendMessage(entry.message);
+                }catch(IOException | RuntimeException e){
+                    failed = true;
+                    logger.error("Error sending message to {}: {}", username(), e.getMessage());
+                    close(CloseStatus.SERVER_ERROR);
+                }finally{
+                    sendStartTime = 0;
+                    metrics.recordSend(System.nanoTime() - start, failed);
+                }
+            }
+            draining.set(false);
+            // Another thread may have enqueued after the last poll but before the flag was cleared.
+        }while(!closed && !queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    /**
+     * Closes the outbox, discards any queued messages and closes the session if it is still open.
+     *
+     * @param status the status sent to the client when closing the session.
+     */
+    public void close(CloseStatus status){
+        if(closed){
+            return;
+        }
+        closed = true;
+        queue.clear();
+        queuedMessages.set(0);
+        queuedBytes.set(0);
+        if(session.isOpen()){
+            try{
+                session.close(status);
+            }catch(IOException e){
+                logger.debug("Error closing session of {}: {}", username(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the username stored in the session attributes, for logging.
+     *
+     * @return the username, or "Unknown user" if none is stored.
+     */
+    private Object username(){
+        Object username = session.getAttributes().get("username");
+        return username == null ? "Unknown user" : username;
+    }
+
+    // Getter methods.
+    public WebSocketSession getSession() {return session;}
+
+    public int getQueuedMessages() {return queuedMessages.get();}
+
+    public long getQueuedBytes() {return queuedBytes.get();}
+
+    public long getDroppedMessages() {return droppedMessages.get();}
+
+    public boolean isClosed() {return closed;}
+
+    /**
+     * A queued message together with its payload length, computed once on enqueue.
+     */
+    private static final class Entry {
+        private final WebSocketMessage<?> message;
+        private final int length;
+
+        private Entry(WebSocketMessage<?> message){
+            this.message = message;
+            this.length = message.getPayloadLength();
+        }
+    }
+}
@@ -1,31 +1,109 @@
 package collaborative.whiteboard.handler;
 
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.logging.SampledLogger;
+import collaborative.whiteboard.metrics.WhiteboardMetrics;
+import collaborative.whiteboard.model.BinaryDrawingCodec;
+import collaborative.whiteboard.model.BoundingBox;
+import collaborative.whiteboard.model.WhiteboardJson;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import collaborative.whiteboard.model.DrawingMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
 import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
 
 import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The WhiteboardHandler class is responsible for managing WebSocket connections,
  * message exchange, and multi-user communication.
- * It extends the TextWebSocketHandler class and provides custom implementations
+ * It extends the AbstractWebSocketHandler class and provides custom implementations
  * for handling WebSocket events such as connection establishment, closure,
  * message transmission, and errors.
  *
+ * Drawing messages travel as JSON text frames by default. A client that offers the
+ * {@value #BINARY_PROTOCOL} subprotocol during the handshake sends and receives them as binary
+ * frames in the format of {@link BinaryDrawingCodec} instead; state deltas and snapshots stay JSON.
+ *
+ * A client zoomed into part of the board can subscribe to a viewport, with "?viewport=minX,minY,maxX,maxY"
+ * when connecting or by sending a message of type {@value #VIEWPORT_TYPE} whose points are
+ * [minX, minY, maxX, maxY] (no points to see the whole board again). It is then only sent the drawings
+ * and state changes intersecting that viewport.
+ *
+ * A client offering the {@value #DEFLATE_PROTOCOL} subprotocol exchanges JSON like the default one, but
+ * the frames it receives of at least "whiteboard.compression.threshold" bytes, such as snapshots, arrive
+ * as binary frames holding their raw deflate stream (see {@link FrameCompressor}). Such sessions never
+ * negotiate permessage-deflate as well, so small frames are not compressed at all.
+ *
+ * When the rooms are shared by several nodes, the drawings and notices relayed from this node's
+ * sessions are reported to the RelayListeners, and those relayed from other nodes are delivered to
+ * this node's sessions through {@link #relayFromPeer} and {@link #broadcast(String, String)}.
+ *
+ * Every drawing and notice of a room, whether it came from a raw session, a STOMP client
+ * ({@link #relayFromBroker}) or another node, goes through the same fan-out: it is queued on the outboxes
+ * of the room's raw sessions and published once to the room's topic through the RoomBroker, which
+ * reaches the STOMP subscribers of the room.
+ *
  * @author Andrey Estevam Seabra
  */
 @Component
-public class WhiteboardHandler extends TextWebSocketHandler{
+public class WhiteboardHandler extends AbstractWebSocketHandler implements SubProtocolCapable{
+    /**
+     * The room a session joins when its URI does not name one.
+     */
+    public static final String DEFAULT_ROOM = "default";
+    /**
+     * Session attribute holding the state revision the session was last brought to.
+     * A reconnecting client can declare the revision it already has with "?revision=N".
+     */
+    public static final String REVISION_ATTRIBUTE = "revision";
+    /**
+     * Session attribute holding the BoundingBox of the viewport the session subscribed to, if any.
+     */
+    public static final String VIEWPORT_ATTRIBUTE = "viewport";
+    /**
+     * Type of the messages through which a session changes its viewport instead of drawing.
+     */
+    public static final String VIEWPORT_TYPE = "viewport";
+    /**
+     * Subprotocol of the sessions that exchange drawing messages as binary frames.
+     */
+    public static final String BINARY_PROTOCOL = "whiteboard.binary.v1";
+    /**
+     * Subprotocol of the sessions that exchange drawing messages as JSON text frames, the default.
+     */
+    public static final String JSON_PROTOCOL = "whiteboard.json.v1";
+    /**
+     * Subprotocol of the sessions that send JSON text frames and receive the large ones compressed.
+     */
+    public static final String DEFLATE_PROTOCOL = "whiteboard.json.deflate.v1";
+    /**
+     * Pattern a room identifier must match. Kept restrictive since room ids appear in URLs.
+     */
+    private static final String ROOM_ID_PATTERN = "[A-Za-z0-9_-]{1,64}";
     /**
      * Maintains a thread-safe list of active WebSocket sessions.
      * This list is used to track all currently connected WebSocket sessions,
@@ -33,34 +111,172 @@ public class WhiteboardHandler extends TextWebSocketHandler{
      * Thread-safety is ensured by utilizing a CopyOnWriteArrayList for concurrent access scenarios.
      */
     private List<WebSocketSession> activeSessions = new CopyOnWriteArrayList<>();
+    /**
+     * Maps each room identifier to the sessions connected to that room, so broadcasts only
+     * iterate over the members of one room.
+     */
+    private final Map<String, List<WebSocketSession>> roomSessions = new ConcurrentHashMap<>();
+    /**
+     * Maps each active session to the outbound queue its messages are written through,
+     * so a slow client never blocks the thread that broadcasts to everyone else.
+     */
+    private final Map<WebSocketSession, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    /**
+     * Limits applied to every session outbox.
+     */
+    private final WhiteboardProperties.Outbound outboundProperties;
+    /**
+     * Runs the writer tasks of the session outboxes.
+     */
+    private final Executor outboundExecutor;
+    /**
+     * Prebuilt, thread-safe reader used to parse every incoming DrawingMessage.
+     */
+    private final ObjectReader drawingMessageReader;
+    /**
+     * Writes the JSON of drawing messages received as binary frames, for the sessions speaking JSON.
+     */
+    private final ObjectWriter writer;
+    /**
+     * Coalesces relayed drawing messages per room, or null if every message is relayed right away.
+     */
+    private final DrawingBatcher batcher;
+    /**
+     * Compresses the large frames sent to the sessions using the deflate subprotocol.
+     */
+    private final FrameCompressor compressor;
+    /**
+     * Records the parsing of inbound messages, the fan-out of relayed drawings and the session writes.
+     */
+    private final WhiteboardMetrics metrics;
+    /**
+     * Store the listeners notified of the drawings and notices relayed from the sessions.
+     */
+    private final List<RelayListener> relayListeners = new CopyOnWriteArrayList<>();
+    /**
+     * Publishes the drawings and notices of the rooms to their topics, or null if there is no broker.
+     */
+    private volatile RoomBroker roomBroker;
     /**
      * Used for logging events and messages within the WhiteboardHandler class.
      */
     private static final Logger logger = LoggerFactory.getLogger(WhiteboardHandler.class);
+    /**
+     * Used for logging every drawing message received, at the debug level and at a limited rate.
+     */
+    private static final SampledLogger messageLog = new SampledLogger(logger, 10);
+
+    /**
+     * Constructs a WhiteboardHandler with the default outbound limits whose session writers run on
+     * the calling thread. Intended for tests and tools that need deterministic delivery.
+     */
+    public WhiteboardHandler(){
+        this(new WhiteboardProperties(), Runnable::run, WhiteboardJson.shared());
+    }
+
+    /**
+     * Constructs a WhiteboardHandler that relays every drawing message right away.
+     *
+     * @param properties the whiteboard configuration properties holding the outbound queue limits.
+     * @param outboundExecutor the executor running the writer task of each session outbox.
+     * @param whiteboardJson the shared JSON readers and writers.
+     */
+    public WhiteboardHandler(WhiteboardProperties properties, Executor outboundExecutor, WhiteboardJson whiteboardJson){
+        this(properties, outboundExecutor, whiteboardJson, null);
+    }
 
     /**
-     * Invoked after a new WebSocket connection has been established. This method adds the session
-     * to the list of active WebSocket sessions and logs a message indicating that the connection
-     * has been successfully created.
+     * Constructs a WhiteboardHandler.
+     *
+     * @param properties the whiteboard configuration properties holding the outbound queue, batching and
+     *                   compression settings.
+     * @param outboundExecutor the executor running the writer task of each session outbox.
+     * @param whiteboardJson the shared JSON readers and writers.
+     * @param batchingScheduler schedules the sending of batched drawing messages, used when batching is
+     *                          enabled; if null, messages are never batched.
+     */
+    public WhiteboardHandler(WhiteboardProperties properties, Executor outboundExecutor, WhiteboardJson whiteboardJson,
+                             ScheduledExecutorService batchingScheduler){
+        this(properties, outboundExecutor, whiteboardJson, batchingScheduler, WhiteboardMetrics.NONE);
+    }
+
+    /**
+     * Constructs a WhiteboardHandler.
+     *
+     * @param properties the whiteboard configuration properties holding the outbound queue, batching and
+     *                   compression settings.
+     * @param outboundExecutor the executor running the writer task of each session outbox.
+     * @param whiteboardJson the shared JSON readers and writers.
+     * @param batchingScheduler schedules the sending of batched drawing messages, used when batching is
+     *                          enabled; if null, messages are never batched.
+     * @param metrics records the inbound messages, the fan-out of drawings and the session writes, and
+     *                publishes the backlog of the sessions.
+     */
+    @Autowired
+    public WhiteboardHandler(WhiteboardProperties properties, @Qualifier("outboundExecutor") Executor outboundExecutor,
+                             WhiteboardJson whiteboardJson,
+                             @Qualifier("batchingScheduler") ScheduledExecutorService batchingScheduler,
+                             WhiteboardMetrics metrics){
+        this.metrics = metrics;
+        this.outboundProperties = properties.getOutbound();
+        this.outboundExecutor = outboundExecutor;
+        this.drawingMessageReader = whiteboardJson.getDrawingMessageReader();
+        this.writer = whiteboardJson.getWriter();
+        this.batcher = properties.getBatching().isEnabled() && batchingScheduler != null
+                ? new DrawingBatcher(this, writer, batchingScheduler, properties.getBatching().getInterval())
+                : null;
+        this.compressor = new FrameCompressor(properties.getCompression().getThreshold(),
+                properties.getCompression().getLevel());
+        metrics.bindHandler(this);
+    }
+
+    /**
+     * Invoked after a new WebSocket connection has been established. This method reads the username
+     * and room from the query string (e.g. "?username=Ana&room=design"), adds the session to the list
+     * of active WebSocket sessions and to its room, and logs a message indicating that the connection
+     * has been successfully created. Sessions naming an invalid room are closed.
      *
      * @param session the WebSocket session that has been established
      * @throws Exception if an error occurs while processing the new session
      */
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        // Gets the query string and sets a default username.
-        String query = session.getUri().getQuery();
-        String username = "Unknown User";
+        // Gets the query parameters and sets a default username and room.
+        String username = getQueryParameter(session.getUri(), "username");
+        String roomId = getQueryParameter(session.getUri(), "room");
 
         // Checks if the query string is valid (i.e. the user provided a username)
-        if(query != null && query.contains("username=") && query.indexOf("=") + 1 < query.length()){
-            username = query.substring(query.indexOf("=") + 1);
+        if(username == null || username.isEmpty()){
+            username = "Unknown User";
+        }
+        if(roomId == null || roomId.isEmpty()){
+            roomId = DEFAULT_ROOM;
+        }
+        if(!isValidRoomId(roomId)){
+            logger.warn("Rejected connection of {} to invalid room {}", username, roomId);
+            session.close(CloseStatus.BAD_DATA.withReason("Invalid room."));
+            return;
         }
 
-        // Stores the username, adds it to the active sessions list and lets users know someone joined the server.
+        // Stores the username and room, adds it to the active sessions and lets users know someone joined the server.
         session.getAttributes().put("username", username);
+        session.getAttributes().put("room", roomId);
+        String revision = getQueryParameter(session.getUri(), REVISION_ATTRIBUTE);
+        if(revision != null && revision.matches("\\d{1,18}")){
+            session.getAttributes().put(REVISION_ATTRIBUTE, Long.parseLong(revision));
+        }
+        String viewport = getQueryParameter(session.getUri(), VIEWPORT_ATTRIBUTE);
+        if(viewport != null){
+            try{
+                session.getAttributes().put(VIEWPORT_ATTRIBUTE, BoundingBox.parse(viewport));
+            }catch(IllegalArgumentException e){
+                logger.warn("Ignored invalid viewport of {}: {}", username, e.getMessage());
+            }
+        }
+        outboxes.put(session, createOutbox(session));
         activeSessions.add(session);
-        System.out.println(session.getAttributes().get("username") + " connected to the server.");
+        roomSessions.computeIfAbsent(roomId, id -> new CopyOnWriteArrayList<>()).add(session);
+        logger.atInfo().addKeyValue("user", username).addKeyValue("room", roomId).log("Session connected");
     }
 
     /**
@@ -75,13 +291,15 @@ public class WhiteboardHandler extends TextWebSocketHandler{
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status){
         if(activeSessions.contains(session)){
             // Remove the closed connection's user from the activeSessions list and get its username, if any.
-            activeSessions.remove(session);
+            removeSession(session);
+            closeOutbox(session, status);
             String username = (String) session.getAttributes().get("username");
             if(username == null)
                 username = "Unknown user";
 
             // Outputs that someone has left and broadcast it to all active users.
-            System.out.println("Session closed: " + username);
+            logger.atInfo().addKeyValue("user", username).addKeyValue("room", getRoomId(session))
+                    .addKeyValue("status", status == null ? null : status.getCode()).log("Session closed");
             broadcastMessage("User " + username + " has left the room.", session);
         }
     }
@@ -100,46 +318,387 @@ public class WhiteboardHandler extends TextWebSocketHandler{
 
         // Extracts the JSON payload to a String.
         String payloadMessage = message.getPayload();
-        ObjectMapper objectMapper = new ObjectMapper();
         try {
             // Deserialize the JSON into a DrawingMessage object.
-            DrawingMessage draw = objectMapper.readValue(payloadMessage, DrawingMessage.class);
+            long start = System.nanoTime();
+            DrawingMessage draw = drawingMessageReader.readValue(payloadMessage);
+            metrics.recordInbound(false, System.nanoTime() - start);
+            if(VIEWPORT_TYPE.equals(draw.getType())){
+                updateViewport(session, draw);
+                return;
+            }
 
-            // Output the message and broadcast it to all the active users.
-            System.out.println("Message received from " + session.getAttributes().get("username") + ": "
-                    + draw.getType() + " " + draw.getColor() + " " + draw.getShape());
-            broadcastMessage(payloadMessage, session);
+            // Log the message and broadcast it to all the active users.
+            messageLog.atDebug().addKeyValue("user", session.getAttributes().get("username"))
+                    .addKeyValue("type", draw.getType()).addKeyValue("shape", draw.getShape())
+                    .addKeyValue("bytes", message.getPayloadLength()).log("Drawing received");
+            relayDrawing(getRoomId(session), session, true, draw, message.asBytes(), null);
         } catch (JsonProcessingException e) {
-            // Handle parsing errors, such as malformed JSON.
-            System.out.println("Invalid JSON message received: " + payloadMessage);
-            e.printStackTrace();
+            // Handle parsing errors, such as malformed JSON, without logging the payload.
+            metrics.recordInvalidMessage();
+            logger.atWarn().addKeyValue("user", session.getAttributes().get("username"))
+                    .addKeyValue("bytes", message.getPayloadLength()).log("Invalid JSON message received: {}",
+                            e.getOriginalMessage());
         }
     }
 
     /**
-     * Broadcasts a JSON message to all active WebSocket sessions except the sender.
+     * Handles incoming binary messages from a WebSocket client session. This method decodes the
+     * payload as a {@code DrawingMessage} in the format of {@link BinaryDrawingCodec} and relays it
+     * to the rest of the room. Undecodable messages are logged and dropped.
      *
-     * @param jsonMessage the JSON-formatted message to be sent to all active sessions
+     * @param session the WebSocket session from which the message was received
+     * @param message the binary message containing the encoded drawing message
+     */
+    @Override
+    public void handleBinaryMessage(WebSocketSession session, BinaryMessage message){
+        ByteBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        try {
+            long start = System.nanoTime();
+            DrawingMessage draw = BinaryDrawingCodec.decode(ByteBuffer.wrap(bytes));
+            metrics.recordInbound(true, System.nanoTime() - start);
+            if(VIEWPORT_TYPE.equals(draw.getType())){
+                updateViewport(session, draw);
+                return;
+            }
+            messageLog.atDebug().addKeyValue("user", session.getAttributes().get("username"))
+                    .addKeyValue("type", draw.getType()).addKeyValue("shape", draw.getShape())
+                    .addKeyValue("bytes", bytes.length).log("Binary drawing received");
+            relayDrawing(getRoomId(session), session, true, draw, null, bytes);
+        } catch (IOException e) {
+            metrics.recordInvalidMessage();
+            logger.warn("Invalid binary message received from {}: {}", session.getAttributes().get("username"),
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Relays a drawing message to every other session of a room, in the format each one negotiated,
+     * and publishes it to the room's topic if it has subscribers. It is also reported to the relay
+     * listeners if it came from this node. Each format is encoded at most once, and only if some
+     * recipient needs it. When batching is enabled, the message is handed to the batcher instead of
+     * being queued on the outboxes.
+     *
+     * @param roomId the identifier of the room
+     * @param sender the raw session the message came from, which is excluded, or null if it came from
+     *               a STOMP client or another node
+     * @param local whether the message came from this node
+     * @param draw the decoded message
+     * @param json the UTF-8 JSON of the message if it arrived as text, or null
+     * @param binaryFrame the binary encoding of the message if it arrived as binary, or null
+     * @throws JsonProcessingException if the message cannot be written as JSON
+     */
+    private void relayDrawing(String roomId, WebSocketSession sender, boolean local, DrawingMessage draw,
+                              byte[] json, byte[] binaryFrame) throws JsonProcessingException {
+        if(local && !relayListeners.isEmpty()){
+            if(json == null){
+                json = writer.writeValueAsBytes(draw);
+            }
+            for(RelayListener listener : relayListeners){
+                listener.drawingRelayed(roomId, json);
+            }
+        }
+        RoomBroker broker = roomBroker;
+        if(broker != null && broker.hasSubscribers(roomId)){
+            if(json == null){
+                json = writer.writeValueAsBytes(draw);
+            }
+            broker.publish(roomId, json);
+        }
+        if(batcher != null){
+            batcher.submit(roomId, sender, draw, json, binaryFrame);
+            return;
+        }
+        long start = System.nanoTime();
+        TextMessage textFrame = json == null ? null : createFrame(json);
+        BoundingBox bounds = draw.getBounds();
+        for(WebSocketSession session : getRoomSessions(roomId)){
+            if(!session.isOpen() || session.equals(sender) || !isInViewport(session, bounds)){
+                continue;
+            }
+            if(isBinary(session)){
+                if(binaryFrame == null){
+                    binaryFrame = BinaryDrawingCodec.encode(draw);
+                }
+                // The bytes are shared, but each recipient needs its own buffer since sending consumes it.
+                send(session, new BinaryMessage(binaryFrame));
+            }else{
+                if(textFrame == null){
+                    textFrame = createFrame(writer.writeValueAsBytes(draw));
+                }
+                send(session, textFrame);
+            }
+        }
+        metrics.recordDrawingFanout(System.nanoTime() - start);
+    }
+
+    /**
+     * Relays a drawing message received by another node to the sessions of a room on this node.
+     * It is not reported to the relay listeners again.
+     *
+     * @param roomId the identifier of the room
+     * @param json the UTF-8 JSON of the drawing message, which must not be modified afterwards
+     * @throws IOException if the message cannot be parsed
+     */
+    public void relayFromPeer(String roomId, byte[] json) throws IOException {
+        RoomBroker broker = roomBroker;
+        if(getRoomSessions(roomId).isEmpty() && (broker == null || !broker.hasSubscribers(roomId))){
+            return;
+        }
+        relayDrawing(roomId, null, false, drawingMessageReader.readValue(json), json, null);
+    }
+
+    /**
+     * Relays a drawing message a STOMP client sent to a room through the message broker, like one
+     * received from a raw session: to the raw sessions and the topic of the room, and to the relay
+     * listeners. STOMP clients receive their own drawings back, since the topic has no sender to
+     * exclude. Invalid messages are logged and dropped.
+     *
+     * @param roomId the identifier of the room
+     * @param json the UTF-8 JSON of the drawing message, which must not be modified afterwards
+     */
+    public void relayFromBroker(String roomId, byte[] json){
+        if(!isValidRoomId(roomId)){
+            logger.warn("Ignored a drawing sent to invalid room {}", roomId);
+            return;
+        }
+        try{
+            long start = System.nanoTime();
+            DrawingMessage draw = drawingMessageReader.readValue(json);
+            metrics.recordInbound(false, System.nanoTime() - start);
+            if(VIEWPORT_TYPE.equals(draw.getType())){
+                return; // Topic subscribers always receive the whole board.
+            }
+            messageLog.atDebug().addKeyValue("room", roomId).addKeyValue("type", draw.getType())
+                    .addKeyValue("shape", draw.getShape()).addKeyValue("bytes", json.length).log("STOMP drawing received");
+            relayDrawing(roomId, null, true, draw, json, null);
+        }catch(IOException e){
+            metrics.recordInvalidMessage();
+            logger.atWarn().addKeyValue("room", roomId).addKeyValue("bytes", json.length)
+                    .log("Invalid STOMP message received: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Changes the viewport of a session from a viewport message.
+     *
+     * @param session the WebSocket session
+     * @param message the viewport message, whose points are [minX, minY, maxX, maxY] or empty for the whole board
+     */
+    private void updateViewport(WebSocketSession session, DrawingMessage message){
+        List<Double> points = message.getPoints();
+        if(points == null || points.isEmpty()){
+            session.getAttributes().remove(VIEWPORT_ATTRIBUTE);
+            return;
+        }
+        try{
+            if(points.size() != 4){
+                throw new IllegalArgumentException("A viewport has four coordinates.");
+            }
+            session.getAttributes().put(VIEWPORT_ATTRIBUTE,
+                    new BoundingBox(points.get(0), points.get(1), points.get(2), points.get(3)));
+        }catch(IllegalArgumentException e){
+            logger.warn("Ignored invalid viewport of {}: {}", session.getAttributes().get("username"), e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the viewport a session subscribed to.
+     *
+     * @param session the WebSocket session
+     * @return the viewport, or null if the session sees the whole board
+     */
+    public static BoundingBox getViewport(WebSocketSession session){
+        Object viewport = session.getAttributes().get(VIEWPORT_ATTRIBUTE);
+        return viewport instanceof BoundingBox box ? box : null;
+    }
+
+    /**
+     * Checks whether a drawing is in the viewport of a session.
+     *
+     * @param session the WebSocket session
+     * @param bounds the bounds of the drawing, or null if it has no position
+     * @return true if the session sees the whole board, the drawing has no position or they intersect
+     */
+    static boolean isInViewport(WebSocketSession session, BoundingBox bounds){
+        BoundingBox viewport = getViewport(session);
+        return viewport == null || bounds == null || bounds.intersects(viewport);
+    }
+
+    /**
+     * Gets the subprotocols a client may choose from during the handshake.
+     *
+     * @return the binary, JSON and compressed JSON subprotocols
+     */
+    @Override
+    public List<String> getSubProtocols(){
+        return List.of(BINARY_PROTOCOL, JSON_PROTOCOL, DEFLATE_PROTOCOL);
+    }
+
+    /**
+     * Checks whether a session negotiated the binary subprotocol.
+     *
+     * @param session the WebSocket session
+     * @return true if drawing messages are sent to it as binary frames
+     */
+    public static boolean isBinary(WebSocketSession session){
+        return BINARY_PROTOCOL.equals(session.getAcceptedProtocol());
+    }
+
+    /**
+     * Checks whether a session negotiated the deflate subprotocol.
+     *
+     * @param session the WebSocket session
+     * @return true if its large text frames are sent compressed
+     */
+    public static boolean isDeflate(WebSocketSession session){
+        return DEFLATE_PROTOCOL.equals(session.getAcceptedProtocol());
+    }
+
+    /**
+     * Broadcasts a JSON message to all active WebSocket sessions of a room.
+     *
+     * @param roomId the identifier of the room whose sessions receive the message
+     * @param jsonMessage the JSON-formatted message to be sent to the room
+     */
+    public void broadcast(String roomId, String jsonMessage){
+        broadcastToRoom(roomId, createFrame(jsonMessage), null);
+    }
+
+    /**
+     * Broadcasts an already encoded frame to all active WebSocket sessions of a room.
+     * The same frame instance is handed to every recipient, so it must not be modified afterwards.
+     *
+     * @param roomId the identifier of the room whose sessions receive the frame
+     * @param frame the frame to be sent to the room, preferably created by {@link #createFrame}
+     */
+    public void broadcast(String roomId, TextMessage frame){
+        broadcastToRoom(roomId, frame, null);
+    }
+
+    /**
+     * Broadcasts a JSON message to all active WebSocket sessions in the sender's room except the sender.
+     *
+     * @param jsonMessage the JSON-formatted message to be sent to the sender's room
      * @param senderSession the WebSocket session that sent the message, which will be excluded from the broadcast
      */
     private void broadcastMessage(String jsonMessage, WebSocketSession senderSession){
-        // Iterate over the active users.
-        for(WebSocketSession session : activeSessions){
-            // Try sending the message to all the active users. If it does not work, output IOException.
-            if(session.isOpen() && !session.equals(senderSession)) {
-                try {
-                    session.sendMessage(new TextMessage(jsonMessage));
-                } catch (IOException e) {
-                    // Output the message about the error.
-                    System.err.println("Error sending message to " + session.getAttributes().get("username"));
-                    e.printStackTrace();
-
-                    // Remove the user from the activeSessions list.
-                    activeSessions.remove(session);
-                    System.out.println(session.getAttributes().get("username") + " disconnected from the server.");
-                }
+        String roomId = getRoomId(senderSession);
+        broadcastToRoom(roomId, createFrame(jsonMessage), senderSession);
+        for(RelayListener listener : relayListeners){
+            listener.noticeBroadcast(roomId, jsonMessage);
+        }
+    }
+
+    /**
+     * Broadcasts a frame to all active WebSocket sessions of a room, optionally excluding one, and
+     * publishes it to the room's topic if it has subscribers.
+     * The frame is encoded once by the caller and the same instance is queued on each session's
+     * outbox; the actual writes happen on the outbox writers, so this method never blocks on a slow client.
+     *
+     * @param roomId the identifier of the room whose sessions receive the frame
+     * @param frame the shared frame to be sent to the room
+     * @param excludedSession a session to be excluded from the broadcast, or null
+     */
+    private void broadcastToRoom(String roomId, TextMessage frame, WebSocketSession excludedSession){
+        // Iterate over the active users of the room.
+        for(WebSocketSession session : getRoomSessions(roomId)){
+            if(session.isOpen() && !session.equals(excludedSession)) {
+                send(session, frame);
             }
         }
+        RoomBroker broker = roomBroker;
+        if(broker != null && broker.hasSubscribers(roomId)){
+            broker.publish(roomId, frame.asBytes());
+        }
+    }
+
+    /**
+     * Queues a frame on the outbox of a single session, compressed if the session uses the deflate
+     * subprotocol and the frame is large enough. If the outbox refuses it, the user is lagging or gone
+     * and is removed from the active sessions.
+     *
+     * @param session the session the frame is sent to
+     * @param frame the frame to be sent, which may be shared with other sessions
+     * @return true if the frame was queued, false if the session was removed
+     */
+    public boolean send(WebSocketSession session, WebSocketMessage<?> frame){
+        SessionOutbox outbox = outboxes.get(session);
+        if(outbox != null && frame instanceof TextMessage text && isDeflate(session)){
+            frame = compressor.compress(text);
+        }
+        if(outbox == null || !outbox.enqueue(frame)){
+            // Remove the user from the activeSessions list.
+            removeSession(session);
+            outboxes.remove(session);
+            logger.atInfo().addKeyValue("user", session.getAttributes().get("username"))
+                    .log("Session removed after its outbox refused a frame");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a text frame backed by the UTF-8 bytes of a JSON message.
+     * A TextMessage built from a String re-encodes it every time its length is queried, while a
+     * byte-backed one encodes it exactly once, which matters when the frame is shared by many recipients.
+     *
+     * @param jsonMessage the JSON-formatted message
+     * @return a frame that can be shared by all the recipients of a broadcast
+     */
+    public static TextMessage createFrame(String jsonMessage){
+        return new TextMessage(jsonMessage.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a text frame from already encoded UTF-8 JSON, without copying it.
+     *
+     * @param utf8Json the UTF-8 encoded JSON message, which must not be modified afterwards
+     * @return a frame that can be shared by all the recipients of a broadcast
+     */
+    public static TextMessage createFrame(byte[] utf8Json){
+        return new TextMessage(utf8Json);
+    }
+
+    /**
+     * Removes a session from the active sessions and from its room, dropping the room entry once empty.
+     *
+     * @param session the session to be removed
+     */
+    private void removeSession(WebSocketSession session){
+        activeSessions.remove(session);
+        String roomId = getRoomId(session);
+        roomSessions.computeIfPresent(roomId, (id, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * Creates the outbound queue of a newly connected session using the configured limits.
+     *
+     * @param session the session the outbox writes to
+     * @return the new SessionOutbox
+     */
+    private SessionOutbox createOutbox(WebSocketSession session){
+        return new SessionOutbox(session, outboundProperties.getQueueCapacity(),
+                outboundProperties.getBufferSizeLimit(), outboundProperties.getSendTimeLimit(),
+                outboundProperties.getOverflowPolicy(), outboundExecutor, metrics);
+    }
+
+    /**
+     * Removes the outbox of a session and discards any messages still waiting to be sent.
+     *
+     * @param session the session whose outbox is closed
+     * @param status the close status, or null if unknown
+     */
+    private void closeOutbox(WebSocketSession session, CloseStatus status){
+        SessionOutbox outbox = outboxes.remove(session);
+        if(outbox != null){
+            outbox.close(status == null ? CloseStatus.NORMAL : status);
+        }
     }
 
     /**
@@ -160,11 +719,78 @@ public class WhiteboardHandler extends TextWebSocketHandler{
         if(session.isOpen()){
             session.close(CloseStatus.SERVER_ERROR);
         }
-        activeSessions.remove(session);
+        removeSession(session);
+        closeOutbox(session, CloseStatus.SERVER_ERROR);
         broadcastMessage("User " + session.getAttributes().get("username") +
                 " has left the room due to an error.", session);
         logger.info("User {} has left the room due to an error.", session.getAttributes().get("username"));
     }
 
+    /**
+     * Checks whether a string can be used as a room identifier.
+     *
+     * @param roomId the candidate room identifier
+     * @return true if it is non-null and only contains letters, digits, '-' or '_' (at most 64 characters)
+     */
+    public static boolean isValidRoomId(String roomId){
+        return roomId != null && roomId.matches(ROOM_ID_PATTERN);
+    }
+
+    /**
+     * Gets the room a session joined.
+     *
+     * @param session the WebSocket session
+     * @return the room identifier stored in the session attributes, or the default room if none
+     */
+    public static String getRoomId(WebSocketSession session){
+        Object roomId = session.getAttributes().get("room");
+        return roomId == null ? DEFAULT_ROOM : (String) roomId;
+    }
+
+    /**
+     * Extracts and decodes the first value of a query parameter.
+     *
+     * @param uri the URI of the WebSocket handshake, may be null
+     * @param name the name of the query parameter
+     * @return the decoded value, or null if the parameter is absent
+     */
+    private static String getQueryParameter(URI uri, String name){
+        if(uri == null){
+            return null;
+        }
+        String value = UriComponentsBuilder.fromUri(uri).build().getQueryParams().getFirst(name);
+        return value == null ? null : UriUtils.decode(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Registers a listener notified of the drawings and notices relayed from the sessions of this node.
+     *
+     * @param listener the listener.
+     */
+    public void addRelayListener(RelayListener listener){
+        relayListeners.add(listener);
+    }
+
+    /**
+     * Sets the broker publishing the drawings and notices of the rooms to their topics.
+     *
+     * @param roomBroker the broker, or null to only reach the raw sessions.
+     */
+    public void setRoomBroker(RoomBroker roomBroker){
+        this.roomBroker = roomBroker;
+    }
+
     public List<WebSocketSession> getActiveSessions() {return activeSessions;}
+
+    public List<WebSocketSession> getRoomSessions(String roomId) {
+        return roomSessions.getOrDefault(roomId, Collections.emptyList());
+    }
+
+    public SessionOutbox getOutbox(WebSocketSession session) {return outboxes.get(session);}
+
+    public DrawingBatcher getBatcher() {return batcher;}
+
+    public FrameCompressor getCompressor() {return compressor;}
+
+    public WhiteboardMetrics getMetrics() {return metrics;}
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package collaborative.whiteboard.journal;
+
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.WhiteboardState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One record of a room's operation journal: the drawing messages a state transition put or removed,
+ * and the timestamp and version of the resulting state. Replaying the entries in revision order on
+ * top of a snapshot rebuilds the room's state.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class JournalEntry {
+    /**
+     * Store the revision the transition led to.
+     */
+    private long revision;
+    /**
+     * Store the drawing messages that were added or updated.
+     */
+    private List<DrawingMessage> put = new ArrayList<>();
+    /**
+     * Store the IDs of the drawing messages that were removed.
+     */
+    private List<String> removed = new ArrayList<>();
+    /**
+     * Store whether the transition left the room without a state.
+     */
+    private boolean cleared;
+    /**
+     * Time the resulting state was saved.
+     */
+    private String timeStamp;
+    /**
+     * Version of the resulting whiteboard state.
+     */
+    private int version;
+
+    /**
+     * Default constructor, required for Jackson.
+     */
+    public JournalEntry(){}
+
+    /**
+     * Constructs the entry of a state transition.
+     *
+     * @param delta the delta of the transition.
+     * @param state the resulting state, or null if the room has no state anymore.
+     */
+    public JournalEntry(StateDelta delta, WhiteboardState state){
+        this.revision = delta.getRevision();
+        this.put.addAll(delta.getAdded());
+        this.put.addAll(delta.getUpdated());
+        this.removed.addAll(delta.getRemoved());
+        this.cleared = state == null;
+        this.timeStamp = delta.getTimeStamp();
+        this.version = delta.getVersion();
+    }
+
+    /**
+     * Applies the entry to the drawing messages of a state being recovered.
+     *
+     * @param drawingMessages the drawing messages, with their IDs as keys.
+     */
+    public void applyTo(Map<String, DrawingMessage> drawingMessages){
+        for(String id : removed){
+            drawingMessages.remove(id);
+        }
+        for(DrawingMessage message : put){
+            drawingMessages.put(message.getId(), message);
+        }
+    }
+
+    // Getter and setter methods.
+    public long getRevision() {return revision;}
+
+    public void setRevision(long revision) {this.revision = revision;}
+
+    public List<DrawingMessage> getPut() {return put;}
+
+    public void setPut(List<DrawingMessage> put) {this.put = put;}
+
+    public List<String> getRemoved() {return removed;}
+
+    public void setRemoved(List<String> removed) {this.removed = removed;}
+
+    public boolean isCleared() {return cleared;}
+
+    public void setCleared(boolean cleared) {this.cleared = cleared;}
+
+    public String getTimeStamp() {return timeStamp;}
+
+    public void setTimeStamp(String timeStamp) {this.timeStamp = timeStamp;}
+
+    public int getVersion() {return version;}
+
+    public void setVersion(int version) {this.version = version;}
+}
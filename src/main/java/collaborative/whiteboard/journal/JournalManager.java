@@ -0,0 +1,162 @@
+package collaborative.whiteboard.journal;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateListener;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Persists the state of every room in a RoomJournal and restores it on startup. Enabled with
+ * "whiteboard.journal.enabled=true"; each room gets a subdirectory of "whiteboard.journal.directory".
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Component
+@ConditionalOnProperty(prefix = "whiteboard.journal", name = "enabled", havingValue = "true")
+public class JournalManager implements StateListener {
+    /**
+     * Logger of the journal manager.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(JournalManager.class);
+
+    /**
+     * Provides the StateManager of each room.
+     */
+    private final RoomManager roomManager;
+    /**
+     * Encodes and decodes entries and snapshots.
+     */
+    private final JournalCodec codec;
+    /**
+     * Directory holding one subdirectory per room.
+     */
+    private final Path directory;
+    /**
+     * Number of journaled revisions between two snapshots.
+     */
+    private final long snapshotInterval;
+    /**
+     * Runs the writer tasks of the journals.
+     */
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool(Thread.ofPlatform().name("journal-writer-", 0).daemon().factory());
+    /**
+     * Store the journal of every room, with the room identifiers as keys.
+     */
+    private final Map<String, RoomJournal> journals = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new JournalManager.
+     *
+     * @param roomManager the RoomManager whose rooms are journaled.
+     * @param whiteboardJson the shared JSON mapper the journal's binary mapper is derived from.
+     * @param properties the whiteboard configuration properties.
+     */
+    public JournalManager(RoomManager roomManager, WhiteboardJson whiteboardJson, WhiteboardProperties properties){
+        this.roomManager = roomManager;
+        this.codec = new JournalCodec(whiteboardJson.getObjectMapper());
+        this.directory = Paths.get(properties.getJournal().getDirectory());
+        this.snapshotInterval = properties.getJournal().getSnapshotInterval();
+    }
+
+    /**
+     * Restores every journaled room, then starts journaling the state transitions of all rooms.
+     *
+     * @throws IOException if a journal cannot be read.
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> roomDirectories;
+        try(Stream<Path> paths = Files.list(directory)){
+            roomDirectories = paths.filter(Files::isDirectory)
+                    .filter(path -> WhiteboardHandler.isValidRoomId(path.getFileName().toString()))
+                    .toList();
+        }
+        for(Path roomDirectory : roomDirectories){
+            String roomId = roomDirectory.getFileName().toString();
+            long start = System.nanoTime();
+            RoomJournal journal = new RoomJournal(roomDirectory, codec, snapshotInterval, executor);
+            StateSnapshot snapshot = journal.recover();
+            journals.put(roomId, journal);
+            if(snapshot.getRevision() > 0){
+                roomManager.getRoom(roomId).restore(snapshot);
+            }
+            logger.info("Recovered room {} at revision {} in {} ms", roomId, snapshot.getRevision(),
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        roomManager.addStateListener(this);
+    }
+
+    /**
+     * Queues a state transition to be written to the room's journal.
+     */
+    @Override
+    public void stateChanged(String roomId, StateDelta delta, WhiteboardState state){
+        getJournal(roomId).append(delta, state);
+    }
+
+    /**
+     * Makes a snapshot the new starting point of the room's journal, as when a replica of a room owned
+     * by another node is brought up to date, so that the transitions following it can be written.
+     */
+    @Override
+    public void stateRestored(String roomId, StateSnapshot snapshot){
+        getJournal(roomId).rebase(snapshot);
+    }
+
+    /**
+     * Gets the journal of a room, opening an empty one if the room has none yet.
+     *
+     * @param roomId the identifier of the room.
+     * @return the room's journal.
+     */
+    public RoomJournal getJournal(String roomId){
+        return journals.computeIfAbsent(roomId, id -> {
+            RoomJournal journal = new RoomJournal(directory.resolve(id), codec, snapshotInterval, executor);
+            try{
+                journal.recover();
+            }catch(IOException e){
+                throw new UncheckedIOException("Cannot open the journal of room " + id + ".", e);
+            }
+            return journal;
+        });
+    }
+
+    /**
+     * Writes what is still queued and closes every journal.
+     */
+    @PreDestroy
+    public void close(){
+        for(RoomJournal journal : journals.values()){
+            try{
+                journal.close();
+            }catch(IOException e){
+                logger.error("Error closing the journal in {}: {}", journal.getDirectory(), e.getMessage(), e);
+            }
+        }
+        executor.shutdown();
+    }
+}
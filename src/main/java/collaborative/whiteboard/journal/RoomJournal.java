@@ -0,0 +1,569 @@
+package collaborative.whiteboard.journal;
+
+import collaborative.whiteboard.model.DrawingMap;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The durable, append-only operation journal of one room, kept in its own directory.
+ *
+ * Every state transition is appended as a JournalEntry to the current segment file
+ * ("segment-{first revision}.log") through a FileChannel. Appending only queues the entry; a single
+ * writer task at a time, run on the given executor, writes every queued entry in revision order and
+ * then forces the segment to disk once for the whole batch (group commit), so the cost of fsync is
+ * shared by all the transitions that arrived while the previous batch was being written.
+ *
+ * Once "snapshotInterval" revisions have been written since the last snapshot, the resulting state is
+ * written to "snapshot-{revision}.smile", a new segment is started and the older segments and
+ * snapshots are deleted. Recovery loads the latest snapshot and replays the tail of the journal,
+ * reading segments through memory mapping. A replica brought up to date with a snapshot from the
+ * owner of the room rebases its journal on that snapshot, since the entries that led to it were never
+ * appended here.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class RoomJournal implements Closeable {
+    /**
+     * Logger of the journal.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RoomJournal.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".smile";
+
+    /**
+     * Directory holding the segments and snapshots of the room.
+     */
+    private final Path directory;
+    /**
+     * Encodes and decodes entries and snapshots.
+     */
+    private final JournalCodec codec;
+    /**
+     * Number of revisions between two snapshots.
+     */
+    private final long snapshotInterval;
+    /**
+     * Runs the writer task.
+     */
+    private final Executor executor;
+    /**
+     * Store the entries waiting to be written, with their revisions as keys.
+     */
+    private final ConcurrentSkipListMap<Long, Pending> pending = new ConcurrentSkipListMap<>();
+    /**
+     * Whether a writer task is scheduled or running.
+     */
+    private final AtomicBoolean writing = new AtomicBoolean();
+    /**
+     * Highest revision appended so far, which close waits for even once its entry has left the queue.
+     */
+    private final AtomicLong appendedRevision = new AtomicLong();
+    /**
+     * The segment entries are appended to. Only used by the writer task once recovered.
+     */
+    private FileChannel segment;
+    /**
+     * Revision of the next entry to be written. Only used by the writer task once recovered.
+     */
+    private long nextRevision = 1;
+    /**
+     * Revision of the latest snapshot. Only used by the writer task once recovered.
+     */
+    private long snapshotRevision;
+    /**
+     * Revision of the latest entry forced to disk.
+     */
+    private volatile long durableRevision;
+    /**
+     * Incremented whenever the journal is rebased, so that a batch taken before is not written after it.
+     * Only used while holding the lock.
+     */
+    private long epoch;
+    /**
+     * Whether writing failed; no more entries are written after a failure.
+     */
+    private volatile boolean failed;
+    /**
+     * Whether the journal was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructs the journal of a room. Call recover before appending.
+     *
+     * @param directory the directory of the room's journal, created if missing.
+     * @param codec encodes and decodes entries and snapshots.
+     * @param snapshotInterval the number of revisions between two snapshots.
+     * @param executor runs the writer task.
+     */
+    public RoomJournal(Path directory, JournalCodec codec, long snapshotInterval, Executor executor){
+        this.directory = directory;
+        this.codec = codec;
+        this.snapshotInterval = snapshotInterval;
+        this.executor = executor;
+    }
+
+    /**
+     * Rebuilds the room's state from the latest snapshot and the entries written after it, then opens
+     * the journal for appending. A segment ending in an incomplete or corrupted entry, as left by a
+     * crash during a write, is truncated after its last valid entry, and a snapshot of the recovered
+     * state is written so the damaged part is never replayed again.
+     *
+     * @return the recovered revision and state; revision 0 and no state if the journal is empty.
+     * @throws IOException if the journal cannot be read or opened.
+     */
+    public synchronized StateSnapshot recover() throws IOException {
+        Files.createDirectories(directory);
+        Map<Long, Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        Map<Long, Path> segments = list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+
+        // Start from the latest snapshot.
+        long revision = 0;
+        WhiteboardState state = null;
+        if(!snapshots.isEmpty()){
+            revision = snapshots.keySet().stream().max(Long::compare).get();
+            byte[] bytes = Files.readAllBytes(snapshots.get(revision));
+            state = bytes.length == 0 ? null : codec.decodeSnapshot(bytes);
+        }
+        Recovery recovery = new Recovery(revision, state);
+
+        // Replay the entries written after it. New entries are appended to the last replayed segment.
+        Path appendTo = null;
+        boolean damaged = false;
+        for(Long start : segments.keySet().stream().sorted().toList()){
+            Path path = segments.get(start);
+            if(damaged || start > recovery.revision + 1){
+                // Entries after a gap or a damaged segment can no longer be replayed; keep them aside.
+                logger.error("Ignoring unreplayable journal segment {}", path);
+                Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+                continue;
+            }
+            long size = Files.size(path);
+            int valid;
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                valid = codec.decodeEntries(buffer, recovery::apply);
+            }
+            if(valid < size){
+                logger.warn("Truncating journal segment {} after its last valid entry at byte {}", path, valid);
+                try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)){
+                    channel.truncate(valid);
+                }
+                damaged = true;
+            }
+            damaged |= recovery.broken;
+            appendTo = path;
+        }
+
+        nextRevision = recovery.revision + 1;
+        snapshotRevision = revision;
+        durableRevision = recovery.revision;
+        WhiteboardState recovered = recovery.toState();
+        segment = openSegment(appendTo != null ? appendTo : directory.resolve(name(SEGMENT_PREFIX, nextRevision, SEGMENT_SUFFIX)));
+        if(damaged){
+            // Make the recovered state the new starting point, so the damaged segments are never replayed again.
+            snapshot(recovery.revision, recovered);
+        }
+        return new StateSnapshot(recovery.revision, recovered);
+    }
+
+    /**
+     * Queues the entry of a state transition to be written. Transitions may be appended in any order,
+     * as they are written in revision order.
+     *
+     * @param delta the delta of the transition.
+     * @param state the resulting state, which must not be modified afterwards.
+     */
+    public void append(StateDelta delta, WhiteboardState state){
+        if(closed || failed){
+            return;
+        }
+        pending.put(delta.getRevision(), new Pending(new JournalEntry(delta, state), state));
+        appendedRevision.accumulateAndGet(delta.getRevision(), Math::max);
+        scheduleWriter();
+    }
+
+    /**
+     * Starts the journal over from a snapshot taken elsewhere, such as the state a replica received
+     * from the node owning the room: the snapshot is written, every other segment and snapshot is
+     * deleted and the next entry expected is the one following the snapshot. Queued entries up to the
+     * snapshot's revision are dropped.
+     *
+     * @param snapshot the revision and state the journal starts from.
+     */
+    public synchronized void rebase(StateSnapshot snapshot){
+        if(closed || failed){
+            return;
+        }
+        long revision = snapshot.getRevision();
+        epoch++;
+        pending.headMap(revision, true).clear();
+        try{
+            segment.close();
+            for(Map.Entry<Long, Path> newer : list(SEGMENT_PREFIX, SEGMENT_SUFFIX).entrySet()){
+                if(newer.getKey() > revision){
+                    Files.deleteIfExists(newer.getValue());
+                }
+            }
+            for(Map.Entry<Long, Path> newer : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).entrySet()){
+                if(newer.getKey() > revision){
+                    Files.deleteIfExists(newer.getValue());
+                }
+            }
+            snapshot(revision, snapshot.getState());
+        }catch(IOException e){
+            logger.error("Journal of {} failed; later changes are not persisted: {}", directory, e.getMessage(), e);
+            failed = true;
+            notifyAll();
+            return;
+        }
+        nextRevision = revision + 1;
+        durableRevision = revision;
+        appendedRevision.set(pending.isEmpty() ? revision : Math.max(revision, pending.lastKey()));
+        notifyAll();
+        scheduleWriter();
+    }
+
+    /**
+     * Waits until everything up to a revision has been forced to disk.
+     *
+     * @param revision the revision.
+     * @param timeoutMillis the maximum time to wait, in milliseconds.
+     * @return true if the revision is durable, false if the time elapsed or writing failed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitDurable(long revision, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(durableRevision < revision && !failed){
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0){
+                return false;
+            }
+            wait(remaining);
+        }
+        return durableRevision >= revision;
+    }
+
+    /**
+     * Schedules the writer task unless one is already scheduled or running.
+     */
+    private void scheduleWriter(){
+        if(writing.compareAndSet(false, true)){
+            executor.execute(this::write);
+        }
+    }
+
+    /**
+     * Checks whether the entry the writer needs next has been queued.
+     *
+     * @return true if the next entry is waiting to be written.
+     */
+    private synchronized boolean isNextPending(){
+        return pending.containsKey(nextRevision);
+    }
+
+    /**
+     * The writer task: writes the queued entries that follow the last written revision, one batch at
+     * a time, forcing each batch to disk and taking snapshots when due.
+     */
+    private void write(){
+        try{
+            while(!failed){
+                List<Pending> batch = new ArrayList<>();
+                long batchEpoch;
+                synchronized(this){
+                    batchEpoch = epoch;
+                    Pending next;
+                    while((next = pending.remove(nextRevision)) != null){
+                        batch.add(next);
+                        nextRevision++;
+                    }
+                }
+                if(batch.isEmpty()){
+                    break;
+                }
+                writeBatch(batch, batchEpoch);
+            }
+        }catch(IOException | RuntimeException e){
+            logger.error("Journal of {} failed; later changes are not persisted: {}", directory, e.getMessage(), e);
+            failed = true;
+            synchronized(this){
+                notifyAll();
+            }
+        }finally{
+            writing.set(false);
+        }
+        // An entry may have arrived after the last check.
+        if(!failed && isNextPending()){
+            scheduleWriter();
+        }
+    }
+
+    /**
+     * Writes a batch of consecutive entries, forces them to disk and takes a snapshot if one is due.
+     * The batch is dropped if the journal was rebased since it was taken.
+     *
+     * @param batch the entries in revision order.
+     * @param batchEpoch the epoch of the journal when the batch was taken.
+     * @throws IOException if writing fails.
+     */
+    private void writeBatch(List<Pending> batch, long batchEpoch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for(Pending entry : batch){
+            bytes.write(codec.encodeEntry(entry.entry));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        synchronized(this){
+            if(batchEpoch != epoch){
+                return;
+            }
+            while(buffer.hasRemaining()){
+                segment.write(buffer);
+            }
+            segment.force(false);
+            Pending last = batch.get(batch.size() - 1);
+            durableRevision = last.entry.getRevision();
+            notifyAll();
+            if(durableRevision - snapshotRevision >= snapshotInterval){
+                snapshot(durableRevision, last.state);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot, starts a new segment after it and deletes the older segments and snapshots.
+     *
+     * @param revision the revision of the state.
+     * @param state the state, or null if the room has no state.
+     * @throws IOException if writing fails.
+     */
+    private void snapshot(long revision, WhiteboardState state) throws IOException {
+        Path target = directory.resolve(name(SNAPSHOT_PREFIX, revision, SNAPSHOT_SUFFIX));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            ByteBuffer buffer = ByteBuffer.wrap(state == null ? new byte[0] : codec.encodeSnapshot(state));
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        segment.close();
+        segment = openSegment(directory.resolve(name(SEGMENT_PREFIX, revision + 1, SEGMENT_SUFFIX)));
+        snapshotRevision = revision;
+        for(Map.Entry<Long, Path> old : list(SEGMENT_PREFIX, SEGMENT_SUFFIX).entrySet()){
+            if(old.getKey() <= revision){
+                Files.deleteIfExists(old.getValue());
+            }
+        }
+        for(Map.Entry<Long, Path> old : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).entrySet()){
+            if(old.getKey() < revision){
+                Files.deleteIfExists(old.getValue());
+            }
+        }
+    }
+
+    /**
+     * Opens a segment for appending, creating it if needed.
+     *
+     * @param path the segment file.
+     * @return the channel, positioned at the end of the segment.
+     * @throws IOException if the segment cannot be opened.
+     */
+    private static FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Lists the files of the journal directory with a prefix and suffix.
+     *
+     * @param prefix the prefix of the file names.
+     * @param suffix the suffix of the file names.
+     * @return the files, with the revisions in their names as keys.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private Map<Long, Path> list(String prefix, String suffix) throws IOException {
+        Map<Long, Path> files = new HashMap<>();
+        try(Stream<Path> paths = Files.list(directory)){
+            paths.forEach(path -> {
+                long revision = parseRevision(path, prefix, suffix);
+                if(revision >= 0){
+                    files.put(revision, path);
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Reads the revision in the name of a journal file.
+     *
+     * @param path the file.
+     * @param prefix the expected prefix of the name.
+     * @param suffix the expected suffix of the name.
+     * @return the revision, or -1 if the name does not match.
+     */
+    private static long parseRevision(Path path, String prefix, String suffix){
+        String name = path.getFileName().toString();
+        if(!name.startsWith(prefix) || !name.endsWith(suffix)){
+            return -1;
+        }
+        try{
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    /**
+     * Builds the name of a journal file. Revisions are zero-padded so names sort like revisions.
+     *
+     * @param prefix the prefix of the name.
+     * @param revision the revision.
+     * @param suffix the suffix of the name.
+     * @return the file name.
+     */
+    private static String name(String prefix, long revision, String suffix){
+        return String.format("%s%020d%s", prefix, revision, suffix);
+    }
+
+    /**
+     * Stops accepting entries, waits up to a timeout for the queued ones to be written and closes
+     * the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        long last = appendedRevision.get();
+        if(last > 0){
+            try{
+                awaitDurable(last, 5_000);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized(this){
+            if(segment != null){
+                segment.close();
+            }
+        }
+    }
+
+    public Path getDirectory() {return directory;}
+
+    public long getDurableRevision() {return durableRevision;}
+
+    /**
+     * An entry waiting to be written, together with the state it leads to for snapshots.
+     *
+     * @param entry the journal entry.
+     * @param state the resulting state.
+     */
+    private record Pending(JournalEntry entry, WhiteboardState state) {}
+
+    /**
+     * The state being rebuilt during recovery.
+     */
+    private static class Recovery {
+        /**
+         * Revision of the last applied entry.
+         */
+        private long revision;
+        /**
+         * Whether an entry did not follow the previous one, so the rest of the journal cannot be applied.
+         */
+        private boolean broken;
+        /**
+         * Drawing messages of the state, or null if the room has no state.
+         */
+        private DrawingMap drawingMessages;
+        /**
+         * Time the state was saved.
+         */
+        private String timeStamp;
+        /**
+         * Version of the state.
+         */
+        private int version;
+
+        /**
+         * Starts the recovery from a snapshot.
+         *
+         * @param revision the revision of the snapshot.
+         * @param state the state of the snapshot, or null.
+         */
+        private Recovery(long revision, WhiteboardState state){
+            this.revision = revision;
+            if(state != null){
+                drawingMessages = DrawingMap.copyOf(state.getDrawingMessages());
+                timeStamp = state.getTimeStamp();
+                version = state.getVersion();
+            }
+        }
+
+        /**
+         * Applies the next entry. Entries already covered by the snapshot are skipped, and nothing is
+         * applied after an entry that does not follow the previous one.
+         *
+         * @param entry the entry read from the journal.
+         */
+        private void apply(JournalEntry entry){
+            if(broken || entry.getRevision() <= revision){
+                return;
+            }
+            if(entry.getRevision() != revision + 1){
+                logger.error("Journal entry {} does not follow revision {}", entry.getRevision(), revision);
+                broken = true;
+                return;
+            }
+            revision = entry.getRevision();
+            if(entry.isCleared()){
+                drawingMessages = null;
+                return;
+            }
+            if(drawingMessages == null){
+                drawingMessages = new DrawingMap();
+            }
+            entry.applyTo(drawingMessages);
+            timeStamp = entry.getTimeStamp();
+            version = entry.getVersion();
+        }
+
+        /**
+         * Builds the recovered state.
+         *
+         * @return the state, or null if the room has no state.
+         */
+        private WhiteboardState toState(){
+            return drawingMessages == null ? null
+                    : new WhiteboardState(drawingMessages, timeStamp, version);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package collaborative.whiteboard.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.spi.LoggingEventBuilder;
+import org.slf4j.spi.NOPLoggingEventBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate-limits the debug events logged for every message, such as each stroke received or each state
+ * broadcast, so that enabling the debug level on a busy server does not turn logging into the
+ * bottleneck. At most a fixed number of events is logged per second; the others are dropped, and the
+ * next event logged carries the number dropped since the previous one as "suppressed".
+ *
+ * Events are built with the SLF4J fluent API, so their fields end up as key-value pairs:
+ * <pre>
+ * messageLog.atDebug().addKeyValue("room", roomId).log("Drawing received");
+ * </pre>
+ * When the debug level is disabled, atDebug costs a level check and nothing is counted.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SampledLogger {
+    /**
+     * Length of a sampling window, in nanoseconds.
+     */
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The logger the events are written to.
+     */
+    private final Logger logger;
+    /**
+     * Maximum number of events logged per window.
+     */
+    private final long eventsPerSecond;
+    /**
+     * Supplies the current time, in nanoseconds.
+     */
+    private final LongSupplier clock;
+    /**
+     * Start of the current window.
+     */
+    private final AtomicLong windowStart;
+    /**
+     * Number of events logged in the current window.
+     */
+    private final AtomicLong logged = new AtomicLong();
+    /**
+     * Number of events dropped since the last one logged.
+     */
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Constructs a SampledLogger.
+     *
+     * @param logger the logger the events are written to.
+     * @param eventsPerSecond the maximum number of events logged per second.
+     */
+    public SampledLogger(Logger logger, long eventsPerSecond){
+        this(logger, eventsPerSecond, System::nanoTime);
+    }
+
+    SampledLogger(Logger logger, long eventsPerSecond, LongSupplier clock){
+        this.logger = logger;
+        this.eventsPerSecond = eventsPerSecond;
+        this.clock = clock;
+        this.windowStart = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Starts a debug event, if the debug level is enabled and the rate allows it.
+     *
+     * @return the event builder, which does nothing if the event is dropped.
+     */
+    public LoggingEventBuilder atDebug(){
+        if(!logger.isDebugEnabled()){
+            return NOPLoggingEventBuilder.singleton();
+        }
+        long now = clock.getAsLong();
+        long start = windowStart.get();
+        if(now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)){
+            logged.set(0);
+        }
+        if(logged.incrementAndGet() > eventsPerSecond){
+            suppressed.incrementAndGet();
+            return NOPLoggingEventBuilder.singleton();
+        }
+        LoggingEventBuilder event = logger.atDebug();
+        long dropped = suppressed.getAndSet(0);
+        return dropped > 0 ? event.addKeyValue("suppressed", dropped) : event;
+    }
+}
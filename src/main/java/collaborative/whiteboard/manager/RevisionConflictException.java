@@ -0,0 +1,36 @@
+package collaborative.whiteboard.manager;
+
+/**
+ * Thrown when a change was made against a revision of a room that is no longer the current one,
+ * because another client changed the board in the meantime. The client is expected to catch up,
+ * for example through "/changes?since=", and retry.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class RevisionConflictException extends RuntimeException {
+    /**
+     * The revision the change was made against.
+     */
+    private final long baseRevision;
+    /**
+     * The current revision of the room.
+     */
+    private final long currentRevision;
+
+    /**
+     * Constructs a new RevisionConflictException.
+     *
+     * @param baseRevision the revision the change was made against.
+     * @param currentRevision the current revision of the room.
+     */
+    public RevisionConflictException(long baseRevision, long currentRevision){
+        super("Base revision " + baseRevision + " does not match the current revision " + currentRevision + ".");
+        this.baseRevision = baseRevision;
+        this.currentRevision = currentRevision;
+    }
+
+    // Getter methods.
+    public long getBaseRevision() {return baseRevision;}
+
+    public long getCurrentRevision() {return currentRevision;}
+}
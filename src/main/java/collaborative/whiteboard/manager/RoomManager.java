@@ -0,0 +1,202 @@
+package collaborative.whiteboard.manager;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.metrics.WhiteboardMetrics;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps one StateManager per whiteboard room, so each room has its own state, history and
+ * broadcast audience. Rooms are created by the first change to them; reads look them up with
+ * findRoom, which creates nothing.
+ *
+ * Rooms that were never changed and have no session, such as those created by an undo on an empty
+ * room, are evicted: whenever the number of rooms has doubled since the last sweep, the rooms already
+ * idle at the previous sweep and still idle are removed. Rooms whose revision moved are kept, so their
+ * revisions never start over for clients, replicas and the journal.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Component
+public class RoomManager {
+    /**
+     * Minimum number of rooms before idle rooms are swept.
+     */
+    private static final int MIN_SWEEP_SIZE = 1024;
+
+    /**
+     * Store the StateManager of every room with the room identifiers as keys.
+     */
+    private final Map<String, StateManager> rooms = new ConcurrentHashMap<>();
+    /**
+     * Handle interactions with the whiteboard.
+     */
+    private final WhiteboardHandler whiteboardHandler;
+    /**
+     * The shared JSON readers and writers handed to every room.
+     */
+    private final WhiteboardJson whiteboardJson;
+    /**
+     * The whiteboard configuration properties handed to every room.
+     */
+    private final WhiteboardProperties properties;
+    /**
+     * Store the listeners registered on every room.
+     */
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Records the broadcasts of every room and publishes the gauges of those holding a state.
+     */
+    private final WhiteboardMetrics metrics;
+    /**
+     * Number of rooms above which creating a room sweeps the idle ones.
+     */
+    private volatile int sweepSize = MIN_SWEEP_SIZE;
+    /**
+     * Identifiers of the rooms that were idle at the last sweep.
+     */
+    private Set<String> idleAtLastSweep = Set.of();
+
+    /**
+     * Constructs a new RoomManager whose rooms record no metrics.
+     *
+     * @param whiteboardHandler the handler used by every room to reach its sessions.
+     * @param whiteboardJson the shared JSON readers and writers.
+     * @param properties the whiteboard configuration properties.
+     */
+    public RoomManager(WhiteboardHandler whiteboardHandler, WhiteboardJson whiteboardJson,
+                       WhiteboardProperties properties){
+        this(whiteboardHandler, whiteboardJson, properties, WhiteboardMetrics.NONE);
+    }
+
+    /**
+     * Constructs a new RoomManager.
+     *
+     * @param whiteboardHandler the handler used by every room to reach its sessions.
+     * @param whiteboardJson the shared JSON readers and writers.
+     * @param properties the whiteboard configuration properties.
+     * @param metrics records the broadcasts of every room and publishes its gauges.
+     */
+    @Autowired
+    public RoomManager(WhiteboardHandler whiteboardHandler, WhiteboardJson whiteboardJson,
+                       WhiteboardProperties properties, WhiteboardMetrics metrics){
+        this.whiteboardHandler = whiteboardHandler;
+        this.whiteboardJson = whiteboardJson;
+        this.properties = properties;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the StateManager of a room, creating it if the room does not exist yet. Meant for changes;
+     * reads use findRoom.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @return the StateManager of the room.
+     * @throws IllegalArgumentException if the room identifier is not valid.
+     */
+    public StateManager getRoom(String roomId){
+        roomId = validate(roomId);
+        StateManager existing = rooms.get(roomId);
+        if(existing != null){
+            return existing;
+        }
+        if(rooms.size() >= sweepSize){
+            evictIdleRooms();
+        }
+        return rooms.computeIfAbsent(roomId, id -> {
+            StateManager room = new StateManager(id, whiteboardHandler, whiteboardJson, properties, metrics);
+            listeners.forEach(room::addStateListener);
+            room.addStateListener(new StateListener(){
+                @Override
+                public void stateChanged(String roomId, StateDelta delta, WhiteboardState state){
+                    metrics.updateRoom(room, state);
+                }
+
+                @Override
+                public void stateRestored(String roomId, StateSnapshot snapshot){
+                    metrics.updateRoom(room, snapshot.getState());
+                }
+            });
+            return room;
+        });
+    }
+
+    /**
+     * Gets the StateManager of a room without creating it.
+     *
+     * @param roomId the identifier of the room, or null for the default room.
+     * @return the StateManager of the room, or null if the room does not exist.
+     * @throws IllegalArgumentException if the room identifier is not valid.
+     */
+    public StateManager findRoom(String roomId){
+        return rooms.get(validate(roomId));
+    }
+
+    private static String validate(String roomId){
+        if(roomId == null){
+            return WhiteboardHandler.DEFAULT_ROOM;
+        }
+        if(!WhiteboardHandler.isValidRoomId(roomId)){
+            throw new IllegalArgumentException("Invalid room identifier."); // Handled by GlobalExceptionHandler.
+        }
+        return roomId;
+    }
+
+    /**
+     * Removes the rooms that were never changed and have no session, if they were already idle at the
+     * previous sweep, so a room is not removed between its creation and its first change.
+     *
+     * @return the number of rooms removed.
+     */
+    public synchronized int evictIdleRooms(){
+        Set<String> idle = new HashSet<>();
+        int evicted = 0;
+        for(Map.Entry<String, StateManager> entry : rooms.entrySet()){
+            if(!isIdle(entry.getKey(), entry.getValue())){
+                continue;
+            }
+            if(idleAtLastSweep.contains(entry.getKey())){
+                evicted += rooms.remove(entry.getKey(), entry.getValue()) ? 1 : 0;
+            }else{
+                idle.add(entry.getKey());
+            }
+        }
+        idleAtLastSweep = idle;
+        sweepSize = Math.max(MIN_SWEEP_SIZE, rooms.size() * 2);
+        return evicted;
+    }
+
+    private boolean isIdle(String roomId, StateManager room){
+        return room.getRevision() == 0 && room.getCurrentState() == null
+                && whiteboardHandler.getRoomSessions(roomId).isEmpty();
+    }
+
+    /**
+     * Registers a listener on every existing and future room.
+     *
+     * @param listener the listener notified of the rooms' state transitions.
+     */
+    public void addStateListener(StateListener listener){
+        listeners.add(listener);
+        rooms.values().forEach(room -> room.addStateListener(listener));
+    }
+
+    /**
+     * Gets the identifiers of all the rooms created so far.
+     *
+     * @return a read-only view of the room identifiers.
+     */
+    public Set<String> getRoomIds(){return Set.copyOf(rooms.keySet());}
+}
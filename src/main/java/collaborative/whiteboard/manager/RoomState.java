@@ -0,0 +1,151 @@
+package collaborative.whiteboard.manager;
+
+import collaborative.whiteboard.model.StateCommand;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.WhiteboardState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, versioned snapshot of everything a StateManager knows about its room: the whiteboard
+ * state, its revision, the recent deltas and the users' undo and redo histories.
+ * StateManager publishes a new RoomState for every transition with a compare-and-set, so readers always
+ * see all of these from the same revision. Neither the RoomState nor the WhiteboardState it holds is
+ * ever modified after being published.
+ *
+ * @author Andrey Estevam Seabra
+ */
+final class RoomState {
+    /**
+     * The state of a room that was never changed.
+     */
+    static final RoomState INITIAL = new RoomState(0, null, List.of(), Map.of());
+
+    /**
+     * Store the revision of the state, incremented on every state transition.
+     */
+    private final long revision;
+    /**
+     * Store the whiteboard state; null if the room has no state.
+     */
+    private final WhiteboardState state;
+    /**
+     * Store the deltas of the most recent state transitions, oldest first.
+     */
+    private final List<StateDelta> deltaLog;
+    /**
+     * Store the undo and redo history of each user, with the usernames as keys.
+     */
+    private final Map<String, History> histories;
+
+    /**
+     * Constructs a new RoomState.
+     *
+     * @param revision the revision of the state.
+     * @param state the whiteboard state, or null if the room has no state.
+     * @param deltaLog the deltas of the most recent transitions, oldest first; not copied.
+     * @param histories the histories of the users; not copied.
+     */
+    RoomState(long revision, WhiteboardState state, List<StateDelta> deltaLog, Map<String, History> histories){
+        this.revision = revision;
+        this.state = state;
+        this.deltaLog = deltaLog;
+        this.histories = histories;
+    }
+
+    /**
+     * Gets the history of a user.
+     *
+     * @param username the user, or "" for the shared history.
+     * @return the user's history, empty if the user has none.
+     */
+    History getHistory(String username){
+        return histories.getOrDefault(username, History.EMPTY);
+    }
+
+    /**
+     * Returns a copy of this RoomState with a user's history replaced. Empty histories are not kept.
+     *
+     * @param username the user, or "" for the shared history.
+     * @param history the new history of the user.
+     * @return the new RoomState.
+     */
+    RoomState withHistory(String username, History history){
+        Map<String, History> updated = new HashMap<>(histories);
+        if(history.isEmpty()){
+            updated.remove(username);
+        }else{
+            updated.put(username, history);
+        }
+        return new RoomState(revision, state, deltaLog, Collections.unmodifiableMap(updated));
+    }
+
+    /**
+     * Returns a copy of a list with an element appended, dropping the oldest elements beyond a limit.
+     *
+     * @param list the original list, which is not modified.
+     * @param element the element to be appended.
+     * @param limit the maximum number of elements of the result.
+     * @return an unmodifiable list.
+     */
+    static <T> List<T> append(List<T> list, T element, int limit){
+        int skip = Math.max(0, list.size() + 1 - limit);
+        List<T> result = new ArrayList<>(list.size() + 1 - skip);
+        result.addAll(list.subList(Math.min(skip, list.size()), list.size()));
+        result.add(element);
+        return Collections.unmodifiableList(result);
+    }
+
+    // Getter methods.
+    long getRevision() {return revision;}
+
+    WhiteboardState getState() {return state;}
+
+    List<StateDelta> getDeltaLog() {return deltaLog;}
+
+    Map<String, History> getHistories() {return histories;}
+
+    /**
+     * The undo and redo history of one user, as unmodifiable lists with the most recent command last.
+     *
+     * @param undo the commands that can be undone.
+     * @param redo the commands that can be redone.
+     */
+    record History(List<StateCommand> undo, List<StateCommand> redo) {
+        /**
+         * A history with nothing to undo or redo.
+         */
+        static final History EMPTY = new History(List.of(), List.of());
+
+        /**
+         * Checks whether there is nothing to undo or redo.
+         *
+         * @return true if both lists are empty.
+         */
+        boolean isEmpty(){
+            return undo.isEmpty() && redo.isEmpty();
+        }
+
+        /**
+         * Gets the most recent command that can be undone.
+         *
+         * @return the command, or null if there is none.
+         */
+        StateCommand lastUndo(){
+            return undo.isEmpty() ? null : undo.get(undo.size() - 1);
+        }
+
+        /**
+         * Gets the most recently undone command.
+         *
+         * @return the command, or null if there is none.
+         */
+        StateCommand lastRedo(){
+            return redo.isEmpty() ? null : redo.get(redo.size() - 1);
+        }
+    }
+}
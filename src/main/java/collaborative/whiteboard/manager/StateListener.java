@@ -0,0 +1,33 @@
+package collaborative.whiteboard.manager;
+
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardState;
+
+/**
+ * Receives the state transitions of the rooms, for example to persist them.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@FunctionalInterface
+public interface StateListener {
+    /**
+     * Invoked after a state transition has been published. Transitions of the same room may be
+     * reported concurrently and out of order; the revision of the delta tells their order.
+     *
+     * @param roomId the identifier of the room.
+     * @param delta the delta of the transition.
+     * @param state the resulting state, or null if the room has no state; it must not be modified.
+     */
+    void stateChanged(String roomId, StateDelta delta, WhiteboardState state);
+
+    /**
+     * Invoked after the state of a room has been replaced by a snapshot, such as one sent by the node
+     * owning the room. The transitions reported afterwards follow the snapshot's revision.
+     *
+     * @param roomId the identifier of the room.
+     * @param snapshot the revision and state the room now starts from.
+     */
+    default void stateRestored(String roomId, StateSnapshot snapshot){
+    }
+}
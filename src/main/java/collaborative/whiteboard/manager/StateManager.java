@@ -1,131 +1,727 @@
 package collaborative.whiteboard.manager;
 
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.SessionOutbox;
 import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.journal.JournalEntry;
+import collaborative.whiteboard.logging.SampledLogger;
+import collaborative.whiteboard.metrics.WhiteboardMetrics;
+import collaborative.whiteboard.model.BoundingBox;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.Polygon;
+import collaborative.whiteboard.model.StateCommand;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StatePatch;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
 import collaborative.whiteboard.model.WhiteboardState;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
- * Responsible for managing the state transitions of a whiteboard application.
+ * Responsible for managing the state transitions of a single whiteboard room.
  * Maintains the current state of the whiteboard and provides mechanisms to undo, redo,
- * and add new states. States are stored in a stack-based structure for efficient navigation
- * through the history of actions.
+ * and add new states. One instance exists per room and is obtained from the RoomManager.
+ *
+ * The history of actions is kept as StateCommands, which record only the drawing messages an action
+ * touched and are undone by applying their inverse, instead of as copies of the whole state. Every
+ * user has their own undo and redo history, so undoing reverts only that user's actions: the inverse
+ * is rebased on the current state, skipping messages other users changed in the meantime, and reaches
+ * clients as a small delta. Actions without a username share one history. Each undo history holds at
+ * most "whiteboard.history.max-depth" commands, dropping the oldest ones.
+ *
+ * No periodic full-state checkpoints are kept alongside the history. Every RoomState holds its state in a
+ * persistent DrawingMap sharing its drawings with the previous states, so the current state is a ready
+ * snapshot at no extra memory, and undo rebases commands on it rather than on an older copy. For
+ * recovery, the journal writes a snapshot every "whiteboard.journal.snapshot-interval" revisions.
+ *
+ * Every state transition increments the room's revision and records a StateDelta. Clients are not
+ * sent the whole state on every change: each session remembers the revision it was last brought to
+ * (the "revision" session attribute, which a reconnecting client can set with "?revision=N"), and
+ * broadcastState sends it only the delta since that revision. A full StateSnapshot is sent instead
+ * when the session has no revision, the revision is older than the recorded deltas, the session's
+ * outbox dropped a message, or the delta would be larger than the state itself.
+ *
+ * StateManager is thread-safe without locks on the state: the state, revision, delta log and histories
+ * form one immutable RoomState held in an AtomicReference. A transition computes the
+ * next RoomState from the current one, applying the command to a copy of the whiteboard state, and
+ * publishes it with a compare-and-set, retrying if another thread published first. Readers such as
+ * "/load" therefore never observe a half-applied transition. The WhiteboardState returned by
+ * getCurrentState must not be modified.
  *
  * @author Andrey Estevam Seabra
  */
-@Component
 public class StateManager {
     /**
-     * Store the current WhiteboardState.
+     * Session attribute holding the number of messages the session's outbox had dropped when it was last synced.
      */
-    private WhiteboardState currentState;
+    private static final String DROPPED_MESSAGES_ATTRIBUTE = "droppedMessages";
     /**
-     * Store the stack of states that can be undone.
+     * Identifier of the room whose state is managed.
      */
-    private Stack<WhiteboardState> undoStack;
+    private final String roomId;
     /**
-     * Store the stack of states that can be redone.
+     * Store the current RoomState: the whiteboard state together with its revision, deltas and histories.
      */
-    private Stack<WhiteboardState> redoStack;
+    private final AtomicReference<RoomState> room = new AtomicReference<>(RoomState.INITIAL);
+    /**
+     * Maximum number of commands kept in each user's undo history.
+     */
+    private final int maxHistoryDepth;
     /**
      * Handle interactions with the whiteboard.
      */
     private WhiteboardHandler whiteboardHandler;
+    /**
+     * Writer used to serialize the deltas and snapshots sent to clients.
+     */
+    private final ObjectWriter writer;
+    /**
+     * Maximum number of deltas kept in the delta log.
+     */
+    private final int maxDeltaLogSize;
+    /**
+     * Store the listeners notified of every state transition.
+     */
+    private final CopyOnWriteArrayList<StateListener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Used for logging failed broadcasts.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StateManager.class);
+    /**
+     * Used for logging every frame broadcast, at the debug level and at a limited rate, without its payload.
+     */
+    private static final SampledLogger broadcastLog = new SampledLogger(logger, 10);
+    /**
+     * Records the serialization and fan-out time of the broadcasts.
+     */
+    private final WhiteboardMetrics metrics;
 
     /**
-     * Default constructor.
+     * Constructs a StateManager for the default room.
+     *
+     * @param whiteboardHandler the handler used to reach the sessions of the room.
      */
-    @Autowired
     public StateManager(WhiteboardHandler whiteboardHandler) {
-        currentState = null;
-        undoStack = new Stack<>();
-        redoStack = new Stack<>();
+        this(WhiteboardHandler.DEFAULT_ROOM, whiteboardHandler);
+    }
+
+    /**
+     * Constructs a StateManager for the given room.
+     *
+     * @param roomId the identifier of the room whose state is managed.
+     * @param whiteboardHandler the handler used to reach the sessions of the room.
+     */
+    public StateManager(String roomId, WhiteboardHandler whiteboardHandler) {
+        this(roomId, whiteboardHandler, WhiteboardJson.shared(), new WhiteboardProperties());
+    }
+
+    /**
+     * Constructs a StateManager for the given room.
+     *
+     * @param roomId the identifier of the room whose state is managed.
+     * @param whiteboardHandler the handler used to reach the sessions of the room.
+     * @param whiteboardJson the shared JSON readers and writers.
+     * @param properties the whiteboard configuration properties.
+     */
+    public StateManager(String roomId, WhiteboardHandler whiteboardHandler, WhiteboardJson whiteboardJson,
+                        WhiteboardProperties properties) {
+        this(roomId, whiteboardHandler, whiteboardJson, properties, WhiteboardMetrics.NONE);
+    }
+
+    /**
+     * Constructs a StateManager for the given room.
+     *
+     * @param roomId the identifier of the room whose state is managed.
+     * @param whiteboardHandler the handler used to reach the sessions of the room.
+     * @param whiteboardJson the shared JSON readers and writers.
+     * @param properties the whiteboard configuration properties.
+     * @param metrics records the serialization and fan-out time of the broadcasts.
+     */
+    public StateManager(String roomId, WhiteboardHandler whiteboardHandler, WhiteboardJson whiteboardJson,
+                        WhiteboardProperties properties, WhiteboardMetrics metrics) {
+        this.roomId = roomId;
+        this.metrics = metrics;
+        this.writer = whiteboardJson.getWriter();
+        this.maxDeltaLogSize = Math.max(1, properties.getDelta().getMaxLogSize());
+        this.maxHistoryDepth = properties.getHistory().getMaxDepth();
         this.whiteboardHandler = whiteboardHandler;
     }
 
     /**
-     * Getter method for currentState.
+     * Getter method for the current state. The returned state is shared and must not be modified.
      *
-     * @return the variable currentState.
+     * @return the current state, or null if the room has no state.
      */
-    public WhiteboardState getCurrentState() {return currentState;}
+    public WhiteboardState getCurrentState() {return room.get().getState();}
 
     /**
-     * Updates the current state of the whiteboard by saving the existing state to the undo stack,
-     * clearing the redo stack, and setting the provided state as the current state.
+     * Replaces the current state of the whiteboard with the provided one, recording the action in the
+     * shared history of actions without a username.
      *
      * @param state the new state to be added as the current state of the whiteboard.
      */
     public void addAction(WhiteboardState state){
-        undoStack.push(currentState);
-        redoStack.clear();
-        currentState = state;
+        addAction(null, state);
     }
 
     /**
-     * Reverts the current state of the whiteboard to the most recent state
-     * in the undo stack, if available. The current state is saved to the
-     * redo stack to enable redoing the action.
+     * Replaces the current state of the whiteboard with the provided one. Only the drawing messages
+     * that differ are recorded in the user's undo history, and the user's redo history is cleared.
+     * The provided state is copied, so later changes to it do not affect the whiteboard.
      *
-     * If the undo stack is empty, no action is performed.
+     * @param username the user performing the action, or null for the shared history.
+     * @param state the new state to be added as the current state of the whiteboard.
      */
-    public void undo(){
-        if(!undoStack.empty()){
-            redoStack.push(currentState);
-            currentState = undoStack.pop();
+    public void addAction(String username, WhiteboardState state){
+        execute(username, current -> StateCommand.diff(current, state));
+    }
+
+    /**
+     * Adds a drawing message to the current state, replacing any message with the same ID.
+     *
+     * @param username the user performing the action, or null for the shared history.
+     * @param message the message to be added.
+     */
+    public void addDrawingMessage(String username, DrawingMessage message){
+        execute(username, current -> StateCommand.add(current, message));
+    }
+
+    /**
+     * Removes a drawing message from the current state.
+     *
+     * @param username the user performing the action, or null for the shared history.
+     * @param id the ID of the message to be removed.
+     * @return true if the message existed and was removed, false otherwise.
+     */
+    public boolean removeDrawingMessage(String username, String id){
+        return execute(username, current -> StateCommand.remove(current, id));
+    }
+
+    /**
+     * Applies a batch of changes made against a given revision as one action, so the request and the
+     * work done are proportional to the change rather than to the board. The patch is rejected if the
+     * room has moved past its base revision, so concurrent clients never overwrite each other blindly.
+     *
+     * @param username the user performing the action, or null for the shared history.
+     * @param patch the changes and the revision they were made against.
+     * @return the revision of the room after the patch.
+     * @throws RevisionConflictException if the base revision is not the current revision.
+     * @throws IllegalArgumentException if the patch has no base revision, or updates or removes a
+     * drawing message that does not exist.
+     */
+    public long applyPatch(String username, StatePatch patch){
+        if(patch.getBaseRevision() == null){
+            throw new IllegalArgumentException("Base revision is required.");
         }
+        long baseRevision = patch.getBaseRevision();
+        boolean changed = executeOnRoom(username, current -> {
+            if(current.getRevision() != baseRevision){
+                throw new RevisionConflictException(baseRevision, current.getRevision());
+            }
+            return StateCommand.patch(current.getState(), patch);
+        });
+        return changed ? baseRevision + 1 : baseRevision;
     }
 
     /**
-     * Restores the most recent state from the redo stack and sets it as the current state,
-     * if the redo stack is not empty. The current state is pushed onto the undo stack to
-     * maintain a record of the states for possible undo operations.
+     * Removes every drawing message in a region of the current state as one action, so clients get
+     * a single delta and the user undoes the whole erase at once. The region is matched against the
+     * state the removal is applied to, even if other users change the board concurrently.
      *
-     * If the redo stack is empty, no action is performed.
+     * @param username the user performing the action, or null for the shared history.
+     * @param region the region to erase.
+     * @param contained whether only the drawings lying entirely within the region are removed,
+     *                  instead of every drawing touching it.
+     * @return the IDs of the removed messages, empty if nothing was removed.
+     */
+    public List<String> erase(String username, Polygon region, boolean contained){
+        AtomicReference<List<String>> erased = new AtomicReference<>(List.of());
+        boolean changed = execute(username, current -> {
+            List<String> ids = current == null ? List.of() : ids(current.findDrawingMessages(region, contained));
+            erased.set(ids);
+            return StateCommand.removeAll(current, ids);
+        });
+        return changed ? erased.get() : List.of();
+    }
+
+    /**
+     * Finds the drawing messages a point of the current state is on, such as the one a user clicked.
+     *
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @param tolerance how far from a drawing the point may be.
+     * @return the IDs of the drawing messages hit.
+     */
+    public List<String> hitTest(double x, double y, double tolerance){
+        WhiteboardState state = getCurrentState();
+        return state == null ? List.of() : ids(state.findDrawingMessagesAt(x, y, tolerance));
+    }
+
+    /**
+     * Finds the drawing messages in a region of the current state, such as a lasso selection.
+     *
+     * @param region the region.
+     * @param contained whether only the drawings lying entirely within the region are found,
+     *                  instead of every drawing touching it.
+     * @return the IDs of the matching drawing messages.
+     */
+    public List<String> select(Polygon region, boolean contained){
+        WhiteboardState state = getCurrentState();
+        return state == null ? List.of() : ids(state.findDrawingMessages(region, contained));
+    }
+
+    /**
+     * Gets the IDs of drawing messages.
+     */
+    private static List<String> ids(List<DrawingMessage> messages){
+        return messages.stream().map(DrawingMessage::getId).toList();
+    }
+
+    /**
+     * Replaces an existing drawing message of the current state.
+     *
+     * @param username the user performing the action, or null for the shared history.
+     * @param message the updated message.
+     * @return true if a message with the same ID existed and was updated, false otherwise.
+     */
+    public boolean updateDrawingMessage(String username, DrawingMessage message){
+        return execute(username, current -> StateCommand.update(current, message));
+    }
+
+    /**
+     * Applies a command to the current state, records it in the user's undo history, dropping the
+     * oldest command if the history is full, and clears the user's redo history.
+     *
+     * @param username the user performing the action, or null for the shared history.
+     * @param builder builds the command from the current state; may return null if there is nothing to do.
+     *                It may be called more than once if other threads change the state concurrently.
+     * @return true if a command was applied, false otherwise.
+     */
+    private boolean execute(String username, Function<WhiteboardState, StateCommand> builder){
+        return executeOnRoom(username, current -> builder.apply(current.getState()));
+    }
+
+    /**
+     * Applies a command built from the current RoomState, such as one that depends on the revision,
+     * and records it like execute does.
+     *
+     * @param username the user performing the action, or null for the shared history.
+     * @param builder builds the command; may return null if there is nothing to do, or throw to
+     *                abort without publishing anything.
+     * @return true if a command was applied, false otherwise.
+     */
+    private boolean executeOnRoom(String username, Function<RoomState, StateCommand> builder){
+        String key = historyKey(username);
+        return transition(current -> {
+            StateCommand command = builder.apply(current);
+            if(command == null){
+                return current;
+            }
+            RoomState.History history = current.getHistory(key);
+            return apply(current.withHistory(key,
+                    new RoomState.History(RoomState.append(history.undo(), command, maxHistoryDepth), List.of())), command);
+        });
+    }
+
+    /**
+     * Undoes the most recent action of the shared history of actions without a username.
+     */
+    public void undo(){
+        undo(null);
+    }
+
+    /**
+     * Undoes the most recent action of a user, if available, by applying its inverse rebased on the
+     * current state. What was actually undone is moved to the user's redo history to enable redoing it.
+     * If none of the action's changes can be undone anymore, because other users changed the same
+     * drawing messages, the action is discarded.
+     *
+     * If the user's undo history is empty, no action is performed.
+     *
+     * @param username the user undoing their action, or null for the shared history.
+     * @return true if the state changed, false otherwise.
+     */
+    public boolean undo(String username){
+        String key = historyKey(username);
+        return transition(current -> {
+            RoomState.History history = current.getHistory(key);
+            StateCommand command = history.lastUndo();
+            if(command == null){
+                return current;
+            }
+            List<StateCommand> undo = history.undo().subList(0, history.undo().size() - 1);
+            StateCommand inverse = command.inverse().rebase(current.getState());
+            if(inverse == null){
+                return current.withHistory(key, new RoomState.History(List.copyOf(undo), history.redo()));
+            }
+            List<StateCommand> redo = RoomState.append(history.redo(), inverse.inverse(), Integer.MAX_VALUE);
+            return apply(current.withHistory(key, new RoomState.History(List.copyOf(undo), redo)), inverse);
+        });
+    }
+
+    /**
+     * Redoes the most recently undone action of the shared history of actions without a username.
      */
     public void redo(){
-        if(!redoStack.empty()){
-            undoStack.push(currentState);
-            currentState = redoStack.pop();
+        redo(null);
+    }
+
+    /**
+     * Reapplies the most recently undone action of a user, rebased on the current state, if the user's
+     * redo history is not empty. It is moved back to the user's undo history for possible undo operations.
+     *
+     * If the user's redo history is empty, no action is performed.
+     *
+     * @param username the user redoing their action, or null for the shared history.
+     * @return true if the state changed, false otherwise.
+     */
+    public boolean redo(String username){
+        String key = historyKey(username);
+        return transition(current -> {
+            RoomState.History history = current.getHistory(key);
+            StateCommand command = history.lastRedo();
+            if(command == null){
+                return current;
+            }
+            List<StateCommand> redo = List.copyOf(history.redo().subList(0, history.redo().size() - 1));
+            StateCommand rebased = command.rebase(current.getState());
+            if(rebased == null){
+                return current.withHistory(key, new RoomState.History(history.undo(), redo));
+            }
+            List<StateCommand> undo = RoomState.append(history.undo(), rebased, maxHistoryDepth);
+            return apply(current.withHistory(key, new RoomState.History(undo, redo)), rebased);
+        });
+    }
+
+    /**
+     * Gets the key of a user's history.
+     *
+     * @param username the user, or null for the shared history.
+     * @return the key of the history in the RoomState.
+     */
+    private static String historyKey(String username){
+        return username == null ? "" : username;
+    }
+
+    /**
+     * Publishes the RoomState computed from the current one, retrying with the newly published
+     * RoomState whenever another thread completes a transition first. The transition function must
+     * not have side effects, since it may be called several times.
+     *
+     * The listeners are notified of every published transition that changed the revision.
+     *
+     * @param transition computes the next RoomState; returns its argument if nothing changes.
+     * @return true if the revision changed, false otherwise.
+     */
+    private boolean transition(UnaryOperator<RoomState> transition){
+        while(true){
+            RoomState current = room.get();
+            RoomState next = transition.apply(current);
+            if(next == current){
+                return false;
+            }
+            if(room.compareAndSet(current, next)){
+                if(next.getRevision() == current.getRevision()){
+                    return false;
+                }
+                List<StateDelta> deltaLog = next.getDeltaLog();
+                for(StateListener listener : listeners){
+                    listener.stateChanged(roomId, deltaLog.get(deltaLog.size() - 1), next.getState());
+                }
+                return true;
+            }
         }
     }
 
     /**
-     * Broadcasts the current state of the whiteboard to all active WebSocket sessions.
+     * Computes the RoomState resulting from a command: the command is applied to a copy of the state,
+     * the revision is incremented and the delta is appended to the delta log.
+     *
+     * @param current the RoomState the command was built from.
+     * @param command the command to be applied.
+     * @return the next RoomState.
+     */
+    private RoomState apply(RoomState current, StateCommand command){
+        long revision = current.getRevision() + 1;
+        WhiteboardState state = command.applyTo(current.getState() == null ? null : current.getState().copy());
+        List<StateDelta> deltaLog = RoomState.append(current.getDeltaLog(),
+                command.toDelta(current.getRevision(), revision), maxDeltaLogSize);
+        return new RoomState(revision, state, deltaLog, current.getHistories());
+    }
+
+    /**
+     * Replaces the state of the room with a recovered one, such as the state read back from the
+     * journal on startup. The histories and delta log start empty, so clients get a snapshot.
+     * The listeners are notified, so that they can start over from the snapshot.
+     *
+     * @param snapshot the recovered revision and state.
+     */
+    public void restore(StateSnapshot snapshot){
+        room.set(new RoomState(snapshot.getRevision(), snapshot.getState(), List.of(), Map.of()));
+        for(StateListener listener : listeners){
+            listener.stateRestored(roomId, snapshot);
+        }
+    }
+
+    /**
+     * Applies a transition published by the node owning the room to this node's replica of it. The
+     * transition is recorded in the delta log like a local one, so the sessions of this node are sent
+     * the same delta, but in no history: only the owner undoes and redoes actions.
+     *
+     * @param entry the transition, which must lead to the revision following the current one.
+     * @return true if it was applied, false if the replica is not at the revision it applies to.
+     */
+    public boolean replicate(JournalEntry entry){
+        return transition(current -> {
+            if(entry.getRevision() != current.getRevision() + 1){
+                return current;
+            }
+            return apply(current, StateCommand.replay(current.getState(), entry.getPut(), entry.getRemoved(),
+                    entry.getTimeStamp(), entry.getVersion(), entry.isCleared()));
+        });
+    }
+
+    /**
+     * Registers a listener notified of every state transition. Registering a listener twice has no effect.
+     *
+     * @param listener the listener.
+     */
+    public void addStateListener(StateListener listener){
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Gets what a client at the given revision needs to catch up with the current state.
      *
-     * This method serializes the current state into JSON and sends it as a message to
-     * all connected and open sessions managed by the WhiteboardHandler. If an I/O error
-     * occurs during the broadcasting process, the exception is logged in the standard error output.
+     * @param baseRevision the revision the client has, or a negative number if it has none.
+     * @return a StateDelta from baseRevision to the current revision if one can be built and is smaller
+     * than the state, otherwise a StateSnapshot of the current state.
+     */
+    public Object getChangesSince(long baseRevision){
+        return getChangesSince(room.get(), baseRevision);
+    }
+
+    /**
+     * Gets what a client at the given revision that only sees a viewport needs to catch up with the
+     * current state.
+     *
+     * @param baseRevision the revision the client has, or a negative number if it has none.
+     * @param viewport the area of the board the client sees, or null for the whole board.
+     * @return a StateDelta or a StateSnapshot, restricted to the viewport.
+     */
+    public Object getChangesSince(long baseRevision, BoundingBox viewport){
+        return inViewport(getChangesSince(room.get(), baseRevision), viewport);
+    }
+
+    /**
+     * Gets a snapshot of the current state limited to the drawing messages in a viewport, which a
+     * client zoomed into part of the board loads instead of the whole state.
+     *
+     * @param viewport the area of the board the client sees, or null for the whole board.
+     * @return a StateSnapshot at the current revision.
+     */
+    public StateSnapshot getSnapshot(BoundingBox viewport){
+        RoomState current = room.get();
+        return (StateSnapshot) inViewport(new StateSnapshot(current.getRevision(), current.getState()), viewport);
+    }
+
+    /**
+     * Restricts a delta or snapshot to a viewport.
+     *
+     * @param changes a StateDelta or StateSnapshot.
+     * @param viewport the viewport, or null to keep the changes as they are.
+     * @return the restricted changes.
+     */
+    private static Object inViewport(Object changes, BoundingBox viewport){
+        if(viewport == null){
+            return changes;
+        }
+        return changes instanceof StateDelta delta ? delta.inViewport(viewport)
+                : ((StateSnapshot) changes).inViewport(viewport);
+    }
+
+    /**
+     * Gets what a client at the given revision needs to catch up with a RoomState.
+     *
+     * @param current the RoomState to catch up with.
+     * @param baseRevision the revision the client has, or a negative number if it has none.
+     * @return a StateDelta or a StateSnapshot.
+     */
+    private static Object getChangesSince(RoomState current, long baseRevision){
+        long revision = current.getRevision();
+        List<StateDelta> deltaLog = current.getDeltaLog();
+        if(baseRevision == revision){
+            return new StateDelta(revision, revision);
+        }
+        if(baseRevision < 0 || baseRevision > revision || deltaLog.isEmpty()
+                || baseRevision < deltaLog.get(0).getFromRevision()){
+            return new StateSnapshot(revision, current.getState());
+        }
+
+        // Skip the deltas the client already has and merge the rest.
+        StateDelta merged = null;
+        for(StateDelta delta : deltaLog){
+            if(delta.getFromRevision() >= baseRevision){
+                merged = merged == null ? delta : merged.merge(delta);
+            }
+        }
+        int stateSize = current.getState() == null ? 0 : current.getState().getDrawingMessages().size();
+        if(merged == null || merged.size() > stateSize){
+            return new StateSnapshot(revision, current.getState());
+        }
+        return merged;
+    }
+
+    /**
+     * Brings all active WebSocket sessions of the room up to the current state.
+     *
+     * Each session is sent the delta since the revision it was last brought to, or a snapshot when
+     * no usable delta exists, restricted to the session's viewport if it subscribed to one. Sessions at
+     * the same revision with the same viewport share one frame, so each distinct payload
+     * is serialized directly into UTF-8 JSON exactly once and queued on the outbound queue of the
+     * sessions managed by the WhiteboardHandler. Concurrent broadcasts synchronize on each session
+     * only while queuing its frame, so a session never goes back to an older revision. If an I/O error
+     * occurs during serialization, the exception is logged.
      */
     public void broadcastState(){
+        long start = System.nanoTime();
+        long serializationNanos = 0;
+        RoomState current = room.get();
+        long revision = current.getRevision();
+        Map<FrameKey, TextMessage> frames = new HashMap<>();
         try{
-            // Serializes the currentState into JSON.
-            ObjectMapper objectMapper = new ObjectMapper();
-            String jsonMessage = objectMapper.writeValueAsString(currentState);
-            System.out.println("Sending message: " + jsonMessage);
-
-            // Notify all the users of the currentState of the board.
-            for(WebSocketSession session : whiteboardHandler.getActiveSessions()){
-                if(session.isOpen()){
-                    session.sendMessage(new TextMessage(jsonMessage));
+            for(WebSocketSession session : whiteboardHandler.getRoomSessions(roomId)){
+                if(!session.isOpen()){
+                    continue;
+                }
+                synchronized(session){
+                    long baseRevision = getSyncedRevision(session);
+                    if(baseRevision >= revision){
+                        continue; // Already up to date, possibly by a concurrent broadcast.
+                    }
+
+                    // Serializes the changes into UTF-8 JSON, shared by all the recipients at the same revision and viewport.
+                    FrameKey key = new FrameKey(baseRevision, WhiteboardHandler.getViewport(session));
+                    TextMessage frame = frames.get(key);
+                    if(frame == null){
+                        long serializationStart = System.nanoTime();
+                        Object changes = inViewport(getChangesSince(current, baseRevision), key.viewport());
+                        // Full snapshots reuse the JSON cached with the state; only whole boards are measured.
+                        frame = WhiteboardHandler.createFrame(changes instanceof StateSnapshot snapshot
+                                ? snapshot.toJson(writer, key.viewport() == null ? this::recordSerializedSize : null)
+                                : writer.writeValueAsBytes(changes));
+                        frames.put(key, frame);
+                        serializationNanos += System.nanoTime() - serializationStart;
+                        broadcastLog.atDebug().addKeyValue("room", roomId).addKeyValue("revision", revision)
+                                .addKeyValue("baseRevision", baseRevision).addKeyValue("bytes", frame.getPayloadLength())
+                                .log("Sending state changes");
+                    }
+
+                    // Notify the user of the changes to the board.
+                    if(whiteboardHandler.send(session, frame)){
+                        markSynced(session, revision);
+                    }
                 }
             }
         }catch(IOException e){
-            System.err.println("Error broadcasting state: " + e.getMessage());
-            e.printStackTrace();
+            logger.atError().addKeyValue("room", roomId).addKeyValue("revision", revision).setCause(e)
+                    .log("Error broadcasting state");
+        }
+        if(!frames.isEmpty()){
+            metrics.recordSerialization(serializationNanos);
+            metrics.recordStateFanout(System.nanoTime() - start);
         }
     }
 
-    public List<WebSocketSession> getActiveSessions(){return whiteboardHandler.getActiveSessions();}
+    /**
+     * Gets the revision a session was last brought to. A session whose outbox dropped messages since
+     * then may have missed a delta, so it is treated as having no revision.
+     *
+     * @param session the WebSocket session.
+     * @return the revision of the session, or -1 if it needs a snapshot.
+     */
+    private long getSyncedRevision(WebSocketSession session){
+        Object sessionRevision = session.getAttributes().get(WhiteboardHandler.REVISION_ATTRIBUTE);
+        SessionOutbox outbox = whiteboardHandler.getOutbox(session);
+        Object dropped = session.getAttributes().get(DROPPED_MESSAGES_ATTRIBUTE);
+        long droppedNow = outbox == null ? 0 : outbox.getDroppedMessages();
+        if(!(sessionRevision instanceof Long) || droppedNow != (dropped instanceof Long ? (Long) dropped : 0L)){
+            return -1;
+        }
+        return (Long) sessionRevision;
+    }
 
-    public Stack<WhiteboardState> getUndoStack(){return undoStack;}
+    /**
+     * Records that a session has been sent everything up to a revision.
+     *
+     * @param session the WebSocket session.
+     * @param revision the revision the session was brought to.
+     */
+    private void markSynced(WebSocketSession session, long revision){
+        SessionOutbox outbox = whiteboardHandler.getOutbox(session);
+        session.getAttributes().put(WhiteboardHandler.REVISION_ATTRIBUTE, revision);
+        session.getAttributes().put(DROPPED_MESSAGES_ATTRIBUTE, outbox == null ? 0L : outbox.getDroppedMessages());
+    }
+
+    public String getRoomId(){return roomId;}
+
+    public long getRevision(){return room.get().getRevision();}
+
+    public List<WebSocketSession> getActiveSessions(){return whiteboardHandler.getRoomSessions(roomId);}
+
+    public List<StateCommand> getUndoHistory(){return getUndoHistory(null);}
+
+    public List<StateCommand> getUndoHistory(String username){return room.get().getHistory(historyKey(username)).undo();}
+
+    public List<StateCommand> getRedoHistory(){return getRedoHistory(null);}
+
+    public List<StateCommand> getRedoHistory(String username){return room.get().getHistory(historyKey(username)).redo();}
+
+    /**
+     * Gets the number of commands that can be undone in the room, over all its users.
+     *
+     * @return the total depth of the undo histories.
+     */
+    public int getUndoDepth(){
+        return room.get().getHistories().values().stream().mapToInt(history -> history.undo().size()).sum();
+    }
 
-    public Stack<WhiteboardState> getRedoStack(){return redoStack;}
-}
\ No newline at end of file
+    /**
+     * Records the size of a version of the room's state, the first time that version is serialized.
+     *
+     * @param bytes the size of the JSON of the state.
+     */
+    public void recordSerializedSize(int bytes){
+        metrics.recordSerializedSize(roomId, bytes);
+    }
+
+    /**
+     * Gets the number of commands that can be redone in the room, over all its users.
+     *
+     * @return the total depth of the redo histories.
+     */
+    public int getRedoDepth(){
+        return room.get().getHistories().values().stream().mapToInt(history -> history.redo().size()).sum();
+    }
+
+    /**
+     * Identifies the sessions of a broadcast that can share a frame.
+     *
+     * @param baseRevision the revision the sessions were last brought to.
+     * @param viewport the viewport the sessions subscribed to, or null.
+     */
+    private record FrameKey(long baseRevision, BoundingBox viewport) {}
+}
@@ -0,0 +1,349 @@
+package collaborative.whiteboard.metrics;
+
+import collaborative.whiteboard.handler.FrameCompressor;
+import collaborative.whiteboard.handler.SessionOutbox;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.WhiteboardState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The meters of the whiteboard, published by the actuator at "/actuator/prometheus". They separate
+ * the three places a latency spike can come from:
+ * <ul>
+ *     <li>serialization: "whiteboard.broadcast.serialization", the time to build the frames of a state broadcast;</li>
+ *     <li>fan-out: "whiteboard.broadcast.fanout", the time to queue a broadcast on every session of a room,
+ *     tagged with the kind of broadcast (state, drawing or batch);</li>
+ *     <li>slow clients: "whiteboard.session.send", the time each frame takes to be written to its session,
+ *     and the backlog of the session queues.</li>
+ * </ul>
+ * Inbound messages are timed while they are parsed, tagged with their format, so the count of
+ * "whiteboard.messages.inbound" gives the message rate. Every room holding a state publishes gauges
+ * tagged with its identifier: its number of drawings, revision and undo and redo depth, and the
+ * distribution "whiteboard.state.serialized.bytes" of the size of its serialized state, recorded once per
+ * version when the version is first serialized for a broadcast or a load. They are removed once the
+ * room's state is cleared, so rooms that are only read never add series.
+ *
+ * The timers publish percentile histograms, from which Prometheus computes p99 latencies across nodes.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@Component
+public class WhiteboardMetrics {
+    /**
+     * Metrics recording nothing, used by the classes created outside the Spring context, such as in tests.
+     */
+    public static final WhiteboardMetrics NONE = new WhiteboardMetrics(new CompositeMeterRegistry());
+
+    /**
+     * The registry the meters are registered in.
+     */
+    private final MeterRegistry registry;
+    /**
+     * Time spent parsing the inbound JSON and binary messages.
+     */
+    private final Timer inboundJson;
+    private final Timer inboundBinary;
+    /**
+     * Number of inbound messages that could not be parsed.
+     */
+    private final Counter invalidMessages;
+    /**
+     * Time spent building the frames of each state broadcast.
+     */
+    private final Timer serialization;
+    /**
+     * Time spent queuing each kind of broadcast on the sessions of a room.
+     */
+    private final Timer stateFanout;
+    private final Timer drawingFanout;
+    private final Timer batchFanout;
+    /**
+     * Time spent writing each frame to its session.
+     */
+    private final Timer sessionSend;
+    /**
+     * Number of frames that failed to be written to their session.
+     */
+    private final Counter sendFailures;
+    /**
+     * Number of frames dropped from the queues of lagging sessions.
+     */
+    private final Counter droppedMessages;
+    /**
+     * Store the meters of every room holding a state, with the room identifiers as keys.
+     */
+    private final Map<String, RoomMeters> roomMeters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the meters of the whiteboard.
+     *
+     * @param registry the registry the meters are registered in.
+     */
+    public WhiteboardMetrics(MeterRegistry registry){
+        this.registry = registry;
+        this.inboundJson = inboundTimer("json");
+        this.inboundBinary = inboundTimer("binary");
+        this.invalidMessages = Counter.builder("whiteboard.messages.invalid")
+                .description("Inbound messages that could not be parsed")
+                .register(registry);
+        this.serialization = Timer.builder("whiteboard.broadcast.serialization")
+                .description("Time to build the frames of a state broadcast")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.stateFanout = fanoutTimer("state");
+        this.drawingFanout = fanoutTimer("drawing");
+        this.batchFanout = fanoutTimer("batch");
+        this.sessionSend = Timer.builder("whiteboard.session.send")
+                .description("Time to write a frame to a session")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.sendFailures = Counter.builder("whiteboard.session.send.failures")
+                .description("Frames that failed to be written to their session")
+                .register(registry);
+        this.droppedMessages = Counter.builder("whiteboard.session.dropped")
+                .description("Frames dropped from the queues of lagging sessions")
+                .register(registry);
+    }
+
+    private Timer inboundTimer(String format){
+        return Timer.builder("whiteboard.messages.inbound")
+                .description("Time to parse an inbound message")
+                .tag("format", format)
+                .register(registry);
+    }
+
+    private Timer fanoutTimer(String kind){
+        return Timer.builder("whiteboard.broadcast.fanout")
+                .description("Time to queue a broadcast on every session of a room")
+                .tag("kind", kind)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of sessions, the backlog of their queues and the statistics of the frame
+     * compressor of a handler.
+     *
+     * @param handler the handler.
+     */
+    public void bindHandler(WhiteboardHandler handler){
+        Gauge.builder("whiteboard.sessions.active", handler, h -> h.getActiveSessions().size())
+                .description("Open WebSocket sessions")
+                .register(registry);
+        Gauge.builder("whiteboard.sessions.backlog.messages", handler,
+                        backlog(SessionOutbox::getQueuedMessages, false))
+                .description("Frames waiting in the queues of all sessions")
+                .register(registry);
+        Gauge.builder("whiteboard.sessions.backlog.bytes", handler, backlog(SessionOutbox::getQueuedBytes, false))
+                .description("Payload bytes waiting in the queues of all sessions")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("whiteboard.sessions.backlog.max", handler, backlog(SessionOutbox::getQueuedMessages, true))
+                .description("Frames waiting in the queue of the most lagging session")
+                .register(registry);
+
+        FrameCompressor compressor = handler.getCompressor();
+        FunctionCounter.builder("whiteboard.compression.frames", compressor, FrameCompressor::getCompressedFrames)
+                .description("Frames sent to deflate sessions")
+                .tag("result", "compressed")
+                .register(registry);
+        FunctionCounter.builder("whiteboard.compression.frames", compressor, FrameCompressor::getSkippedFrames)
+                .description("Frames sent to deflate sessions")
+                .tag("result", "skipped")
+                .register(registry);
+        FunctionCounter.builder("whiteboard.compression.bytes", compressor, FrameCompressor::getBytesIn)
+                .description("Size of the compressed frames")
+                .tags(Tags.of("stage", "in"))
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("whiteboard.compression.bytes", compressor, FrameCompressor::getBytesOut)
+                .description("Size of the compressed frames")
+                .tags(Tags.of("stage", "out"))
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("whiteboard.compression.cpu", compressor,
+                        c -> c.getCompressionNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                .description("Time spent compressing frames")
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("whiteboard.compression.ratio", compressor, FrameCompressor::getRatio)
+                .description("Compressed size over original size of the compressed frames")
+                .register(registry);
+    }
+
+    /**
+     * Computes the total or the maximum of a quantity over the outboxes of a handler's sessions.
+     */
+    private static ToDoubleFunction<WhiteboardHandler> backlog(ToDoubleFunction<SessionOutbox> quantity, boolean max){
+        return handler -> {
+            double result = 0;
+            for(var session : handler.getActiveSessions()){
+                SessionOutbox outbox = handler.getOutbox(session);
+                if(outbox != null){
+                    double value = quantity.applyAsDouble(outbox);
+                    result = max ? Math.max(result, value) : result + value;
+                }
+            }
+            return result;
+        };
+    }
+
+    /**
+     * Publishes the gauges of a room while it holds a state, and removes them once it holds none.
+     * Called after every state transition of the room; the gauges only read its current state.
+     *
+     * @param room the StateManager of the room.
+     * @param state the room's state after the transition, or null if it has none.
+     */
+    public void updateRoom(StateManager room, WhiteboardState state){
+        if(state == null){
+            RoomMeters meters = roomMeters.remove(room.getRoomId());
+            if(meters != null){
+                meters.gauges().forEach(registry::remove);
+                registry.remove(meters.serializedBytes());
+            }
+        }else if(!roomMeters.containsKey(room.getRoomId())){
+            roomMeters.computeIfAbsent(room.getRoomId(), id -> bindRoom(room));
+        }
+    }
+
+    private RoomMeters bindRoom(StateManager room){
+        Tags tags = Tags.of("room", room.getRoomId());
+        DistributionSummary serializedBytes = DistributionSummary.builder("whiteboard.state.serialized.bytes")
+                .description("Size of the JSON of each version of the state of a room")
+                .tags(tags)
+                .baseUnit("bytes")
+                .register(registry);
+        return new RoomMeters(List.of(
+                Gauge.builder("whiteboard.room.drawings", room,
+                                r -> r.getCurrentState() == null ? 0 : r.getCurrentState().getDrawingMessages().size())
+                        .description("Drawings on the board of a room")
+                        .tags(tags)
+                        .register(registry),
+                Gauge.builder("whiteboard.room.revision", room, StateManager::getRevision)
+                        .description("Revision of the state of a room")
+                        .tags(tags)
+                        .register(registry),
+                Gauge.builder("whiteboard.room.history.depth", room, StateManager::getUndoDepth)
+                        .description("Commands that can be undone in a room, over all its users")
+                        .tags(tags.and("stack", "undo"))
+                        .register(registry),
+                Gauge.builder("whiteboard.room.history.depth", room, StateManager::getRedoDepth)
+                        .description("Commands that can be redone in a room, over all its users")
+                        .tags(tags.and("stack", "redo"))
+                        .register(registry)), serializedBytes);
+    }
+
+    /**
+     * Records the size of a version of a room's state, serialized for the first time. Rooms holding no
+     * state have no meters, so nothing is recorded for them.
+     *
+     * @param roomId the identifier of the room.
+     * @param bytes the size of the JSON of the state.
+     */
+    public void recordSerializedSize(String roomId, int bytes){
+        RoomMeters meters = roomMeters.get(roomId);
+        if(meters != null){
+            meters.serializedBytes().record(bytes);
+        }
+    }
+
+    /**
+     * Records the parsing of an inbound message.
+     *
+     * @param binary whether the message was binary rather than JSON.
+     * @param nanos the time spent parsing it.
+     */
+    public void recordInbound(boolean binary, long nanos){
+        (binary ? inboundBinary : inboundJson).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts an inbound message that could not be parsed.
+     */
+    public void recordInvalidMessage(){
+        invalidMessages.increment();
+    }
+
+    /**
+     * Records the time spent building the frames of a state broadcast.
+     *
+     * @param nanos the time.
+     */
+    public void recordSerialization(long nanos){
+        serialization.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the fan-out of a state broadcast.
+     *
+     * @param nanos the time spent queuing it on the sessions of the room, serialization included.
+     */
+    public void recordStateFanout(long nanos){
+        stateFanout.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the fan-out of a drawing message relayed right away.
+     *
+     * @param nanos the time spent queuing it on the sessions of the room.
+     */
+    public void recordDrawingFanout(long nanos){
+        drawingFanout.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the fan-out of a batch of drawing messages.
+     *
+     * @param nanos the time spent queuing it on the sessions of the room.
+     */
+    public void recordBatchFanout(long nanos){
+        batchFanout.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the write of a frame to its session.
+     *
+     * @param nanos the time the write took.
+     * @param failed whether the write failed.
+     */
+    public void recordSend(long nanos, boolean failed){
+        sessionSend.record(nanos, TimeUnit.NANOSECONDS);
+        if(failed){
+            sendFailures.increment();
+        }
+    }
+
+    /**
+     * Counts a frame dropped from the queue of a lagging session.
+     */
+    public void recordDroppedMessage(){
+        droppedMessages.increment();
+    }
+
+    public MeterRegistry getRegistry() {return registry;}
+
+    /**
+     * The meters of a room holding a state.
+     *
+     * @param gauges the gauges reading the room's current state.
+     * @param serializedBytes the sizes of the serialized versions of its state.
+     */
+    private record RoomMeters(List<Meter> gauges, DistributionSummary serializedBytes) {}
+}
@@ -0,0 +1,463 @@
+package collaborative.whiteboard.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes drawing messages in the compact binary wire format spoken by sessions that negotiate the
+ * binary WebSocket subprotocol. A freehand stroke is mostly coordinates, which JSON spells out as
+ * decimal text; here every coordinate takes 4 bytes, the id takes 16 and the common strings take 1.
+ *
+ * All numbers are big-endian. A message is laid out as:
+ * <ul>
+ *     <li>the format version and the kind of message (DrawingMessage, Line, Circle, Rectangle or Triangle), one byte each;</li>
+ *     <li>the id: a marker byte followed by the 16 bytes of a UUID, or by a string for ids that are not UUIDs;</li>
+ *     <li>the type, shape and color as strings: one byte for null or for a value of {@link #DICTIONARY},
+ *     four bytes for a "#rrggbb" color, or a marker, a varint length and UTF-8 bytes for any other value;</li>
+ *     <li>the line width as a float;</li>
+ *     <li>the points and rotation as coordinate lists: a varint of the count plus one (zero for null)
+ *     followed by one float per coordinate;</li>
+ *     <li>the fields of the subclass, if any, in declaration order.</li>
+ * </ul>
+ *
+ * A batch of messages, sent when the server coalesces the messages relayed to a room, starts with
+ * the format version and the batch kind, followed by a varint of the number of messages and, for
+ * each one, a varint of its length and its encoding as above.
+ *
+ * Coordinates and sizes are sent as 32-bit floats, which is far more than the precision of a canvas
+ * pixel but means a value decoded from this format may differ slightly from the double that was encoded.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class BinaryDrawingCodec {
+    /**
+     * Version of the format, written first so it can evolve without breaking old clients silently.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * Strings common enough to be sent as a single byte: their index in this list plus one.
+     * Entries may only be appended, since clients hold the same table.
+     */
+    public static final List<String> DICTIONARY = List.of(
+            "draw", "erase", "clear",
+            "line", "circle", "rectangle", "triangle",
+            "black", "white", "red", "green", "blue", "yellow", "#f0f0f0", "#000000", "#ffffff");
+
+    /**
+     * Kinds of message, by the class that is encoded.
+     */
+    private static final byte KIND_MESSAGE = 0;
+    private static final byte KIND_LINE = 1;
+    private static final byte KIND_CIRCLE = 2;
+    private static final byte KIND_RECTANGLE = 3;
+    private static final byte KIND_TRIANGLE = 4;
+    private static final byte KIND_BATCH = 0x7F;
+    /**
+     * Markers of the two forms an id takes.
+     */
+    private static final byte ID_UUID = 0;
+    private static final byte ID_STRING = 1;
+    /**
+     * Markers of the string forms that are not dictionary entries. Zero stands for null.
+     */
+    private static final int STRING_NULL = 0;
+    private static final int STRING_RGB = 0xFE;
+    private static final int STRING_LITERAL = 0xFF;
+
+    private BinaryDrawingCodec(){}
+
+    /**
+     * Encodes a drawing message.
+     *
+     * @param message the message.
+     * @return the encoded message.
+     */
+    public static byte[] encode(DrawingMessage message){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 4 * size(message.getPoints()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeByte(VERSION);
+            out.writeByte(kindOf(message));
+            writeId(out, message.getId());
+            writeString(out, message.getType());
+            writeString(out, message.getShape());
+            writeString(out, message.getColor());
+            out.writeFloat((float) message.getLineWidth());
+            writeCoordinates(out, message.getPoints());
+            writeCoordinates(out, message.getRotation());
+            switch(message){
+                case Line line -> {
+                    writeCoordinates(out, line.getStart());
+                    writeCoordinates(out, line.getEnd());
+                }
+                case Circle circle -> {
+                    out.writeFloat((float) circle.getRadius());
+                    writeCoordinates(out, circle.getCenter());
+                }
+                case Rectangle rectangle -> {
+                    writeCoordinates(out, rectangle.getCenter());
+                    out.writeFloat((float) rectangle.getWidth());
+                    out.writeFloat((float) rectangle.getHeight());
+                }
+                case Triangle triangle -> {
+                    List<List<Double>> vertices = triangle.getVertices();
+                    writeVarint(out, vertices == null ? 0 : vertices.size() + 1);
+                    if(vertices != null){
+                        for(List<Double> vertex : vertices){
+                            writeCoordinates(out, vertex);
+                        }
+                    }
+                }
+                default -> {}
+            }
+        }catch(IOException e){
+            // A ByteArrayOutputStream never fails.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a batch from already encoded messages.
+     *
+     * @param messages the encoded messages, in order.
+     * @return the encoded batch.
+     */
+    public static byte[] encodeBatch(List<byte[]> messages){
+        int size = 8;
+        for(byte[] message : messages){
+            size += message.length + 5;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeByte(VERSION);
+            out.writeByte(KIND_BATCH);
+            writeVarint(out, messages.size());
+            for(byte[] message : messages){
+                writeVarint(out, message.length);
+                out.write(message);
+            }
+        }catch(IOException e){
+            // A ByteArrayOutputStream never fails.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a frame holding either a single drawing message or a batch of them.
+     *
+     * @param buffer the encoded frame, read from its position on.
+     * @return the messages, in order.
+     * @throws IOException if the bytes are not a message or batch in a supported version of the format.
+     */
+    public static List<DrawingMessage> decodeAll(ByteBuffer buffer) throws IOException {
+        try{
+            if(buffer.remaining() < 2 || buffer.get(buffer.position() + 1) != KIND_BATCH){
+                return List.of(decode(buffer));
+            }
+            byte version = buffer.get();
+            if(version != VERSION){
+                throw new IOException("Unsupported binary format version " + version + ".");
+            }
+            buffer.get();
+            int count = readVarint(buffer);
+            if(count > buffer.remaining()){
+                throw new IOException("Truncated binary message.");
+            }
+            List<DrawingMessage> messages = new ArrayList<>(count);
+            for(int i = 0; i < count; i++){
+                int length = readVarint(buffer);
+                if(length > buffer.remaining()){
+                    throw new IOException("Truncated binary message.");
+                }
+                messages.add(decode(buffer.slice(buffer.position(), length)));
+                buffer.position(buffer.position() + length);
+            }
+            if(buffer.hasRemaining()){
+                throw new IOException("Unexpected " + buffer.remaining() + " bytes after the batch.");
+            }
+            return messages;
+        }catch(BufferUnderflowException e){
+            throw new IOException("Truncated binary message.", e);
+        }
+    }
+
+    /**
+     * Decodes a drawing message.
+     *
+     * @param buffer the encoded message, read from its position on.
+     * @return the message, an instance of the subclass that was encoded.
+     * @throws IOException if the bytes are not a message in a supported version of the format.
+     */
+    public static DrawingMessage decode(ByteBuffer buffer) throws IOException {
+        try{
+            byte version = buffer.get();
+            if(version != VERSION){
+                throw new IOException("Unsupported binary format version " + version + ".");
+            }
+            byte kind = buffer.get();
+            String id = readId(buffer);
+            DrawingMessage message = switch(kind){
+                case KIND_MESSAGE -> new DrawingMessage(id);
+                case KIND_LINE -> new Line(id);
+                case KIND_CIRCLE -> new Circle(id);
+                case KIND_RECTANGLE -> new Rectangle(id);
+                case KIND_TRIANGLE -> new Triangle(id);
+                default -> throw new IOException("Unknown message kind " + kind + ".");
+            };
+            message.setType(readString(buffer));
+            message.setShape(readString(buffer));
+            message.setColor(readString(buffer));
+            message.setLineWidth(buffer.getFloat());
+            message.setPoints(readCoordinates(buffer));
+            message.setRotation(readCoordinates(buffer));
+            switch(message){
+                case Line line -> {
+                    line.setStart(readCoordinates(buffer));
+                    line.setEnd(readCoordinates(buffer));
+                }
+                case Circle circle -> {
+                    circle.setRadius(buffer.getFloat());
+                    circle.setCenter(readCoordinates(buffer));
+                }
+                case Rectangle rectangle -> {
+                    rectangle.setCenter(readCoordinates(buffer));
+                    rectangle.setWidth(buffer.getFloat());
+                    rectangle.setHeight(buffer.getFloat());
+                }
+                case Triangle triangle -> {
+                    int count = readCount(buffer, 1);
+                    List<List<Double>> vertices = null;
+                    if(count >= 0){
+                        vertices = new ArrayList<>(count);
+                        for(int i = 0; i < count; i++){
+                            vertices.add(readCoordinates(buffer));
+                        }
+                    }
+                    triangle.setVertices(vertices);
+                }
+                default -> {}
+            }
+            if(buffer.hasRemaining()){
+                throw new IOException("Unexpected " + buffer.remaining() + " bytes after the message.");
+            }
+            return message;
+        }catch(BufferUnderflowException e){
+            throw new IOException("Truncated binary message.", e);
+        }
+    }
+
+    /**
+     * Gets the kind byte of a message from its class.
+     */
+    private static byte kindOf(DrawingMessage message){
+        return switch(message){
+            case Line line -> KIND_LINE;
+            case Circle circle -> KIND_CIRCLE;
+            case Rectangle rectangle -> KIND_RECTANGLE;
+            case Triangle triangle -> KIND_TRIANGLE;
+            default -> KIND_MESSAGE;
+        };
+    }
+
+    /**
+     * Writes an id as 16 bytes if it is a UUID in canonical form, as a string otherwise.
+     */
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        UUID uuid = parseUuid(id);
+        if(uuid != null){
+            out.writeByte(ID_UUID);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }else{
+            out.writeByte(ID_STRING);
+            writeString(out, id);
+        }
+    }
+
+    /**
+     * Reads an id written by writeId.
+     */
+    private static String readId(ByteBuffer buffer) throws IOException {
+        byte marker = buffer.get();
+        return switch(marker){
+            case ID_UUID -> new UUID(buffer.getLong(), buffer.getLong()).toString();
+            case ID_STRING -> readString(buffer);
+            default -> throw new IOException("Unknown id marker " + marker + ".");
+        };
+    }
+
+    /**
+     * Parses an id as a UUID, only if it would be written back identically.
+     */
+    private static UUID parseUuid(String id){
+        if(id == null || id.length() != 36){
+            return null;
+        }
+        try{
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        }catch(IllegalArgumentException e){
+            return null;
+        }
+    }
+
+    /**
+     * Writes a string as a dictionary entry, a packed color or a literal.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null){
+            out.writeByte(STRING_NULL);
+            return;
+        }
+        int index = DICTIONARY.indexOf(value);
+        if(index >= 0){
+            out.writeByte(index + 1);
+        }else if(isRgb(value)){
+            out.writeByte(STRING_RGB);
+            int rgb = Integer.parseInt(value, 1, 7, 16);
+            out.writeByte(rgb >>> 16);
+            out.writeByte(rgb >>> 8);
+            out.writeByte(rgb);
+        }else{
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING_LITERAL);
+            writeVarint(out, utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    /**
+     * Reads a string written by writeString.
+     */
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int marker = buffer.get() & 0xFF;
+        if(marker == STRING_NULL){
+            return null;
+        }
+        if(marker == STRING_RGB){
+            int rgb = (buffer.get() & 0xFF) << 16 | (buffer.get() & 0xFF) << 8 | (buffer.get() & 0xFF);
+            return String.format("#%06x", rgb);
+        }
+        if(marker == STRING_LITERAL){
+            int length = readVarint(buffer);
+            if(length > buffer.remaining()){
+                throw new IOException("Truncated binary message.");
+            }
+            byte[] utf8 = new byte[length];
+            buffer.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+        if(marker > DICTIONARY.size()){
+            throw new IOException("Unknown dictionary entry " + marker + ".");
+        }
+        return DICTIONARY.get(marker - 1);
+    }
+
+    /**
+     * Checks whether a string is a lowercase "#rrggbb" color, the only form that packs into 3 bytes
+     * and decodes back to the same string.
+     */
+    private static boolean isRgb(String value){
+        if(value.length() != 7 || value.charAt(0) != '#'){
+            return false;
+        }
+        for(int i = 1; i < 7; i++){
+            char c = value.charAt(i);
+            if(!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a list of coordinates as floats, preceded by its size plus one, or zero if null.
+     */
+    private static void writeCoordinates(DataOutputStream out, List<Double> coordinates) throws IOException {
+        if(coordinates == null){
+            writeVarint(out, 0);
+            return;
+        }
+        CoordinateArray array = CoordinateArray.copyOf(coordinates);
+        writeVarint(out, array.size() + 1);
+        for(int i = 0; i < array.size(); i++){
+            out.writeFloat((float) array.getDouble(i));
+        }
+    }
+
+    /**
+     * Reads a list of coordinates written by writeCoordinates.
+     */
+    private static CoordinateArray readCoordinates(ByteBuffer buffer) throws IOException {
+        int count = readCount(buffer, Float.BYTES);
+        if(count < 0){
+            return null;
+        }
+        double[] coordinates = new double[count];
+        for(int i = 0; i < count; i++){
+            coordinates[i] = buffer.getFloat();
+        }
+        return count == 0 ? CoordinateArray.EMPTY : new CoordinateArray(coordinates);
+    }
+
+    /**
+     * Reads the size of a list, or -1 if it is null, making sure the buffer can hold that many elements
+     * so a corrupted size never leads to a huge allocation.
+     *
+     * @param buffer the buffer.
+     * @param minimumElementSize the fewest bytes an element of the list takes.
+     */
+    private static int readCount(ByteBuffer buffer, int minimumElementSize) throws IOException {
+        int count = readVarint(buffer) - 1;
+        if(count > buffer.remaining() / minimumElementSize){
+            throw new IOException("Truncated binary message.");
+        }
+        return count;
+    }
+
+    /**
+     * Writes a non-negative integer in 7-bit groups, least significant first.
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while((value & ~0x7F) != 0){
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an integer written by writeVarint.
+     */
+    private static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if(b >= 0){
+                if(value < 0){
+                    throw new IOException("Invalid length in binary message.");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid length in binary message.");
+    }
+
+    /**
+     * Gets the size of a possibly null list.
+     */
+    private static int size(List<?> list){
+        return list == null ? 0 : list.size();
+    }
+}
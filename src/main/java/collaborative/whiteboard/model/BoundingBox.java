@@ -0,0 +1,127 @@
+package collaborative.whiteboard.model;
+
+import java.util.List;
+
+/**
+ * An axis-aligned rectangle of the board, used both as the bounds of a drawing and as the viewport
+ * of a client. The edges are inclusive, so boxes that only touch still intersect.
+ *
+ * @param minX the smallest x coordinate.
+ * @param minY the smallest y coordinate.
+ * @param maxX the largest x coordinate.
+ * @param maxY the largest y coordinate.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public record BoundingBox(double minX, double minY, double maxX, double maxY) {
+    /**
+     * Validates the coordinates.
+     *
+     * @throws IllegalArgumentException if a coordinate is not a number or a minimum exceeds its maximum.
+     */
+    public BoundingBox {
+        if(Double.isNaN(minX) || Double.isNaN(minY) || Double.isNaN(maxX) || Double.isNaN(maxY)){
+            throw new IllegalArgumentException("Bounding box coordinates must be numbers.");
+        }
+        if(minX > maxX || minY > maxY){
+            throw new IllegalArgumentException("Bounding box minimums cannot exceed its maximums.");
+        }
+    }
+
+    /**
+     * Parses a box written as "minX,minY,maxX,maxY", as clients send their viewport.
+     *
+     * @param value the box.
+     * @return the parsed box.
+     * @throws IllegalArgumentException if the value is not four numbers forming a valid box.
+     */
+    public static BoundingBox parse(String value){
+        String[] parts = value == null ? new String[0] : value.split(",");
+        if(parts.length != 4){
+            throw new IllegalArgumentException("A bounding box is written as minX,minY,maxX,maxY.");
+        }
+        try{
+            return new BoundingBox(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                    Double.parseDouble(parts[2].trim()), Double.parseDouble(parts[3].trim()));
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException("A bounding box is written as minX,minY,maxX,maxY.", e);
+        }
+    }
+
+    /**
+     * Computes the box around a list of points given as consecutive x and y coordinates. Any further
+     * coordinate of a point, such as z, is skipped.
+     *
+     * @param coordinates the coordinates, may be null.
+     * @param dimensions the number of coordinates per point, at least 2.
+     * @return the box around the points, or null if there is no complete point.
+     */
+    public static BoundingBox around(List<Double> coordinates, int dimensions){
+        if(coordinates == null || coordinates.size() < 2){
+            return null;
+        }
+        CoordinateArray points = CoordinateArray.copyOf(coordinates);
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i + 1 < points.size(); i += dimensions){
+            double x = points.getDouble(i);
+            double y = points.getDouble(i + 1);
+            if(Double.isNaN(x) || Double.isNaN(y)){
+                continue;
+            }
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        return minX > maxX ? null : new BoundingBox(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Computes the smallest box containing two boxes, either of which may be null.
+     *
+     * @param a the first box.
+     * @param b the second box.
+     * @return the union, or null if both are null.
+     */
+    public static BoundingBox union(BoundingBox a, BoundingBox b){
+        if(a == null || b == null){
+            return a == null ? b : a;
+        }
+        return new BoundingBox(Math.min(a.minX, b.minX), Math.min(a.minY, b.minY),
+                Math.max(a.maxX, b.maxX), Math.max(a.maxY, b.maxY));
+    }
+
+    /**
+     * Grows the box by the same margin on every side, such as half the width of a stroke.
+     *
+     * @param margin the margin; non-positive margins leave the box as it is.
+     * @return the grown box.
+     */
+    public BoundingBox expand(double margin){
+        if(!(margin > 0)){
+            return this;
+        }
+        return new BoundingBox(minX - margin, minY - margin, maxX + margin, maxY + margin);
+    }
+
+    /**
+     * Checks whether two boxes overlap or touch.
+     *
+     * @param other the other box.
+     * @return true if they have at least one point in common.
+     */
+    public boolean intersects(BoundingBox other){
+        return minX <= other.maxX && other.minX <= maxX && minY <= other.maxY && other.minY <= maxY;
+    }
+
+    /**
+     * Checks whether another box lies entirely within this one.
+     *
+     * @param other the other box.
+     * @return true if every point of the other box is in this one.
+     */
+    public boolean contains(BoundingBox other){
+        return minX <= other.minX && other.maxX <= maxX && minY <= other.minY && other.maxY <= maxY;
+    }
+}
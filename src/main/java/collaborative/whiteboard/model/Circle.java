@@ -1,6 +1,10 @@
 package collaborative.whiteboard.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents a circle drawing, extending the functionality of DrawingMessage.
@@ -15,7 +19,7 @@ public class Circle extends DrawingMessage{
     /**
      * Store the coordinates of the center of the circle.
      */
-    private List<Double> center;
+    private CoordinateArray center;
 
     /**
      * Default constructor for the Circle class.
@@ -24,8 +28,18 @@ public class Circle extends DrawingMessage{
         super();
         super.setShape("circle");
         this.radius = 0.0;
-        center = List.of(0.0, 0.0, 0.0);
+        center = CoordinateArray.of(0.0, 0.0, 0.0);
     }
+    /**
+     * Constructs an empty Circle that keeps the id of an existing message, used by the binary wire format.
+     *
+     * @param id the id of the message.
+     */
+    Circle(String id){
+        super(id);
+        super.setShape("circle");
+    }
+
     /**
      * Creates a new instance of the Circle class, inheriting properties from the DrawingMessage class
      * and adding specific functionality for representing a circle with a given radius.
@@ -38,9 +52,62 @@ public class Circle extends DrawingMessage{
     public Circle(String type, String color, List<Double> rotation, double radius, List<Double> center) {
         super(type, "circle", color, rotation);
         this.radius = radius;
-        this.center = center;
+        this.center = CoordinateArray.copyOf(center);
     }
 
+    /**
+     * Computes the area of the board the circle covers: the square around it.
+     *
+     * @return the bounds of the circle, or null if it has no position.
+     */
+    @Override
+    @JsonIgnore
+    public BoundingBox getBounds(){
+        BoundingBox bounds = BoundingBox.around(center, center == null ? 0 : center.size());
+        return BoundingBox.union(bounds == null ? null : bounds.expand(Math.abs(radius)), super.getBounds());
+    }
+
+    /**
+     * Checks whether a point is on the disk of the circle or on the stroke of its points.
+     */
+    @Override
+    public boolean isNear(double x, double y, double tolerance){
+        return super.isNear(x, y, tolerance) || (hasCenter() && Math.hypot(x - center.getDouble(0),
+                y - center.getDouble(1)) <= Math.abs(radius) + tolerance + getLineWidth() / 2);
+    }
+
+    @Override
+    public boolean intersects(Polygon region){
+        if(super.intersects(region)){
+            return true;
+        }
+        return hasCenter() && (region.contains(center.getDouble(0), center.getDouble(1))
+                || region.distanceToBoundary(center.getDouble(0), center.getDouble(1)) <= Math.abs(radius));
+    }
+
+    @Override
+    public boolean isWithin(Polygon region){
+        return super.isWithin(region) && (!hasCenter() || (region.contains(center.getDouble(0), center.getDouble(1))
+                && region.distanceToBoundary(center.getDouble(0), center.getDouble(1)) >= Math.abs(radius)));
+    }
+
+    /**
+     * Checks whether the center has x and y coordinates.
+     */
+    private boolean hasCenter(){
+        return center != null && center.size() >= 2;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!super.equals(o)) return false;
+        Circle other = (Circle) o;
+        return Double.compare(radius, other.radius) == 0 && Objects.equals(center, other.center);
+    }
+
+    @Override
+    public int hashCode() {return super.hashCode();}
+
     @Override
     public String toString() {
         return "Circle{" +
@@ -61,5 +128,6 @@ public class Circle extends DrawingMessage{
 
     public List<Double> getCenter() {return center;}
 
-    public void setCenter(List<Double> center) {this.center = center;}
+    @JsonDeserialize(using = CoordinateArray.Deserializer.class)
+    public void setCenter(List<Double> center) {this.center = CoordinateArray.copyOf(center);}
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package collaborative.whiteboard.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of coordinates backed by a primitive double array. A stroke can have thousands
+ * of coordinates, and as boxed Doubles in an ArrayList each one costs a reference plus a 16-byte
+ * object scattered around the heap; here each one costs 8 contiguous bytes.
+ *
+ * It is a {@code List<Double>}, so the model keeps its getters and setters, but code that reads many
+ * coordinates should use {@link #getDouble(int)} to avoid boxing. It is written to JSON as a plain
+ * array of numbers and read back without boxing through {@link Deserializer}.
+ *
+ * @author Andrey Estevam Seabra
+ */
+@JsonSerialize(using = CoordinateArray.Serializer.class)
+public final class CoordinateArray extends AbstractList<Double> implements RandomAccess {
+    /**
+     * The coordinate array with no coordinates.
+     */
+    public static final CoordinateArray EMPTY = new CoordinateArray(new double[0]);
+
+    /**
+     * Store the coordinates. Never modified after construction.
+     */
+    private final double[] values;
+
+    /**
+     * Wraps an array without copying it, so it must not be modified afterwards.
+     *
+     * @param values the coordinates.
+     */
+    CoordinateArray(double[] values){
+        this.values = values;
+    }
+
+    /**
+     * Creates a coordinate array holding a copy of the given values.
+     *
+     * @param values the coordinates.
+     * @return the coordinate array.
+     */
+    public static CoordinateArray of(double... values){
+        return values.length == 0 ? EMPTY : new CoordinateArray(values.clone());
+    }
+
+    /**
+     * Converts a list of coordinates, returning it unchanged if it already is a coordinate array.
+     *
+     * @param coordinates the coordinates, may be null.
+     * @return the coordinate array, or null if the list is null.
+     * @throws IllegalArgumentException if the list contains a null coordinate.
+     */
+    public static CoordinateArray copyOf(List<Double> coordinates){
+        if(coordinates == null || coordinates instanceof CoordinateArray){
+            return (CoordinateArray) coordinates;
+        }
+        double[] values = new double[coordinates.size()];
+        for(int i = 0; i < values.length; i++){
+            Double value = coordinates.get(i);
+            if(value == null){
+                throw new IllegalArgumentException("Coordinates cannot be null.");
+            }
+            values[i] = value;
+        }
+        return values.length == 0 ? EMPTY : new CoordinateArray(values);
+    }
+
+    /**
+     * Converts a list of coordinate lists, such as the vertices of a shape, into an immutable list of
+     * coordinate arrays.
+     *
+     * @param coordinates the coordinate lists, may be null.
+     * @return the converted list, or null if the list is null.
+     */
+    public static List<List<Double>> copyOfAll(List<List<Double>> coordinates){
+        if(coordinates == null){
+            return null;
+        }
+        CoordinateArray[] arrays = new CoordinateArray[coordinates.size()];
+        for(int i = 0; i < arrays.length; i++){
+            arrays[i] = copyOf(coordinates.get(i));
+        }
+        return Collections.unmodifiableList(Arrays.asList(arrays));
+    }
+
+    /**
+     * Creates a coordinate array holding the coordinates of one list followed by those of another,
+     * such as two consecutive pieces of the same stroke.
+     *
+     * @param first the first coordinates, may be null.
+     * @param second the coordinates that follow, may be null.
+     * @return the joined coordinates, or null if both lists are null.
+     */
+    public static CoordinateArray concat(List<Double> first, List<Double> second){
+        if(first == null || first.isEmpty()){
+            return copyOf(second);
+        }
+        if(second == null || second.isEmpty()){
+            return copyOf(first);
+        }
+        CoordinateArray head = copyOf(first);
+        CoordinateArray tail = copyOf(second);
+        double[] values = Arrays.copyOf(head.values, head.values.length + tail.values.length);
+        System.arraycopy(tail.values, 0, values, head.values.length, tail.values.length);
+        return new CoordinateArray(values);
+    }
+
+    /**
+     * Gets a coordinate without boxing it.
+     *
+     * @param index the index of the coordinate.
+     * @return the coordinate.
+     */
+    public double getDouble(int index){
+        return values[index];
+    }
+
+    /**
+     * Copies the coordinates into a new array.
+     *
+     * @return the coordinates.
+     */
+    public double[] toDoubleArray(){
+        return values.clone();
+    }
+
+    @Override
+    public Double get(int index) {return values[index];}
+
+    @Override
+    public int size() {return values.length;}
+
+    @Override
+    public boolean equals(Object o) {
+        if(o instanceof CoordinateArray other){
+            // Same semantics as comparing the Doubles one by one, without boxing them.
+            return Arrays.equals(values, other.values);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // Arrays.hashCode follows the List contract, so equal lists of Doubles have equal hashes.
+        return Arrays.hashCode(values);
+    }
+
+    /**
+     * Writes a coordinate array as a JSON array of numbers.
+     */
+    public static class Serializer extends StdSerializer<CoordinateArray> {
+        public Serializer(){
+            super(CoordinateArray.class);
+        }
+
+        @Override
+        public void serialize(CoordinateArray value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeArray(value.values, 0, value.values.length);
+        }
+    }
+
+    /**
+     * Reads a JSON array of numbers straight into a coordinate array. Null coordinates are rejected,
+     * since they have no primitive representation.
+     */
+    public static class Deserializer extends StdDeserializer<CoordinateArray> {
+        public Deserializer(){
+            super(CoordinateArray.class);
+        }
+
+        @Override
+        public CoordinateArray deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if(!parser.isExpectedStartArrayToken()){
+                return (CoordinateArray) context.handleUnexpectedToken(CoordinateArray.class, parser);
+            }
+            double[] values = new double[8];
+            int size = 0;
+            JsonToken token;
+            while((token = parser.nextToken()) != JsonToken.END_ARRAY){
+                if(token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT){
+                    return (CoordinateArray) context.handleUnexpectedToken(CoordinateArray.class, parser);
+                }
+                if(size == values.length){
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = parser.getDoubleValue();
+            }
+            return size == 0 ? EMPTY : new CoordinateArray(size == values.length ? values : Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package collaborative.whiteboard.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The drawing messages of a WhiteboardState, with their IDs as keys, held in a persistent hash trie.
+ *
+ * The trie is immutable: put and remove replace it with a new one that shares every untouched node with
+ * the old one, copying only the path from the root to one entry, at most seven nodes of at most 32
+ * slots. {@link #copy()} therefore takes constant time, and the copies of a state and the state they
+ * came from share all their drawings until one of them changes. Each node of the trie maps 5 bits of
+ * the hash of the IDs to its children through a bitmap, so nodes only hold the slots in use; IDs whose
+ * hashes are equal share a collision node.
+ *
+ * Like the rest of a WhiteboardState, a map must not be modified by several threads at once. Iterators
+ * walk the trie the map held when they were created, so they see none of the later changes, and never
+ * throw ConcurrentModificationException. Null keys and values are not allowed.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class DrawingMap extends AbstractMap<String, DrawingMessage> {
+    /**
+     * Number of bits of the hash consumed by each level of the trie.
+     */
+    private static final int BITS = 5;
+    /**
+     * Mask of the bits of the hash consumed by one level.
+     */
+    private static final int MASK = (1 << BITS) - 1;
+    /**
+     * The trie with no entries.
+     */
+    private static final Trie EMPTY = new Trie(new Branch(0, new Object[0]), 0);
+
+    /**
+     * The current trie, replaced on every change.
+     */
+    private volatile Trie trie;
+
+    /**
+     * Constructs an empty map.
+     */
+    public DrawingMap(){
+        this.trie = EMPTY;
+    }
+
+    private DrawingMap(Trie trie){
+        this.trie = trie;
+    }
+
+    /**
+     * Creates a map holding the entries of another one. A DrawingMap is copied in constant time.
+     *
+     * @param messages the drawing messages, with their IDs as keys.
+     * @return a new map with the same entries.
+     */
+    public static DrawingMap copyOf(Map<String, DrawingMessage> messages){
+        if(messages instanceof DrawingMap map){
+            return map.copy();
+        }
+        DrawingMap copy = new DrawingMap();
+        messages.forEach(copy::put);
+        return copy;
+    }
+
+    /**
+     * Creates a copy of this map sharing its trie, so it takes constant time; later changes to either
+     * map are not seen by the other.
+     *
+     * @return a new map with the same entries.
+     */
+    public DrawingMap copy(){
+        return new DrawingMap(trie);
+    }
+
+    @Override
+    public DrawingMessage get(Object key){
+        if(!(key instanceof String id)){
+            return null;
+        }
+        Leaf leaf = find(trie.root(), id, hash(id));
+        return leaf == null ? null : leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key){
+        return key instanceof String id && find(trie.root(), id, hash(id)) != null;
+    }
+
+    @Override
+    public DrawingMessage put(String key, DrawingMessage value){
+        Objects.requireNonNull(key, "A drawing message needs an ID.");
+        Objects.requireNonNull(value, "A drawing message cannot be null.");
+        Trie current = trie;
+        Leaf[] replaced = new Leaf[1];
+        Object root = insert(current.root(), new Leaf(hash(key), key, value), 0, replaced);
+        trie = new Trie((Branch) root, replaced[0] == null ? current.size() + 1 : current.size());
+        return replaced[0] == null ? null : replaced[0].value;
+    }
+
+    @Override
+    public DrawingMessage remove(Object key){
+        if(!(key instanceof String id)){
+            return null;
+        }
+        Trie current = trie;
+        Leaf[] removed = new Leaf[1];
+        Object root = delete(current.root(), id, hash(id), 0, removed);
+        if(removed[0] == null){
+            return null;
+        }
+        trie = new Trie(toRoot(root), current.size() - 1);
+        return removed[0].value;
+    }
+
+    @Override
+    public void clear(){
+        trie = EMPTY;
+    }
+
+    @Override
+    public int size(){
+        return trie.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, DrawingMessage>> entrySet(){
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, DrawingMessage>> iterator(){
+                return new EntryIterator(trie.root());
+            }
+
+            @Override
+            public int size(){
+                return trie.size();
+            }
+        };
+    }
+
+    /**
+     * Spreads the hash of an ID, so IDs differing in their high bits only still split near the root.
+     */
+    private static int hash(String id){
+        int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static Leaf find(Object node, String id, int hash){
+        int shift = 0;
+        while(true){
+            if(node instanceof Branch branch){
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if((branch.bitmap & bit) == 0){
+                    return null;
+                }
+                node = branch.children[branch.index(bit)];
+                shift += BITS;
+            }else if(node instanceof Leaf leaf){
+                return leaf.hash == hash && leaf.key.equals(id) ? leaf : null;
+            }else{
+                Collision collision = (Collision) node;
+                if(collision.hash != hash){
+                    return null;
+                }
+                for(Leaf leaf : collision.leaves){
+                    if(leaf.key.equals(id)){
+                        return leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Inserts a leaf below a node, copying the path to it.
+     *
+     * @param node a branch, leaf or collision at the given level.
+     * @param leaf the leaf to insert.
+     * @param shift the number of hash bits consumed above the node.
+     * @param replaced receives the leaf the new one replaces, if any.
+     * @return the node replacing the given one.
+     */
+    private static Object insert(Object node, Leaf leaf, int shift, Leaf[] replaced){
+        if(node instanceof Branch branch){
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int index = branch.index(bit);
+            if((branch.bitmap & bit) == 0){
+                Object[] children = new Object[branch.children.length + 1];
+                System.arraycopy(branch.children, 0, children, 0, index);
+                children[index] = leaf;
+                System.arraycopy(branch.children, index, children, index + 1, branch.children.length - index);
+                return new Branch(branch.bitmap | bit, children);
+            }
+            Object child = branch.children[index];
+            return branch.with(index, insert(child, leaf, shift + BITS, replaced));
+        }
+        if(node instanceof Leaf existing){
+            if(existing.hash == leaf.hash && existing.key.equals(leaf.key)){
+                replaced[0] = existing;
+                return leaf;
+            }
+            if(existing.hash == leaf.hash){
+                return new Collision(leaf.hash, new Leaf[]{existing, leaf});
+            }
+            return split(existing, existing.hash, leaf, leaf.hash, shift);
+        }
+        Collision collision = (Collision) node;
+        if(collision.hash != leaf.hash){
+            return split(collision, collision.hash, leaf, leaf.hash, shift);
+        }
+        Leaf[] leaves = collision.leaves;
+        for(int i = 0; i < leaves.length; i++){
+            if(leaves[i].key.equals(leaf.key)){
+                replaced[0] = leaves[i];
+                Leaf[] updated = leaves.clone();
+                updated[i] = leaf;
+                return new Collision(collision.hash, updated);
+            }
+        }
+        Leaf[] grown = Arrays.copyOf(leaves, leaves.length + 1);
+        grown[leaves.length] = leaf;
+        return new Collision(collision.hash, grown);
+    }
+
+    /**
+     * Builds the branches separating two nodes whose hashes differ, from the given level down to the
+     * first one where their hash bits differ.
+     */
+    private static Branch split(Object first, int firstHash, Object second, int secondHash, int shift){
+        int firstSlot = (firstHash >>> shift) & MASK;
+        int secondSlot = (secondHash >>> shift) & MASK;
+        if(firstSlot == secondSlot){
+            return new Branch(1 << firstSlot, new Object[]{split(first, firstHash, second, secondHash, shift + BITS)});
+        }
+        Object[] children = firstSlot < secondSlot ? new Object[]{first, second} : new Object[]{second, first};
+        return new Branch((1 << firstSlot) | (1 << secondSlot), children);
+    }
+
+    /**
+     * Removes an ID below a node, copying the path to it. A branch left with a single leaf or collision
+     * is replaced by it, so the trie stays as shallow as its entries require.
+     *
+     * @return the node replacing the given one, the node itself if the ID was not found, or null if
+     * nothing is left of it.
+     */
+    private static Object delete(Object node, String id, int hash, int shift, Leaf[] removed){
+        if(node instanceof Branch branch){
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if((branch.bitmap & bit) == 0){
+                return branch;
+            }
+            int index = branch.index(bit);
+            Object child = branch.children[index];
+            Object replacement = delete(child, id, hash, shift + BITS, removed);
+            if(replacement == child){
+                return branch;
+            }
+            if(replacement == null){
+                if(branch.children.length == 1){
+                    return null;
+                }
+                Object[] children = new Object[branch.children.length - 1];
+                System.arraycopy(branch.children, 0, children, 0, index);
+                System.arraycopy(branch.children, index + 1, children, index, children.length - index);
+                if(children.length == 1 && !(children[0] instanceof Branch)){
+                    return children[0];
+                }
+                return new Branch(branch.bitmap & ~bit, children);
+            }
+            if(branch.children.length == 1 && !(replacement instanceof Branch)){
+                return replacement;
+            }
+            return branch.with(index, replacement);
+        }
+        if(node instanceof Leaf leaf){
+            if(leaf.hash == hash && leaf.key.equals(id)){
+                removed[0] = leaf;
+                return null;
+            }
+            return leaf;
+        }
+        Collision collision = (Collision) node;
+        if(collision.hash != hash){
+            return collision;
+        }
+        Leaf[] leaves = collision.leaves;
+        for(int i = 0; i < leaves.length; i++){
+            if(leaves[i].key.equals(id)){
+                removed[0] = leaves[i];
+                if(leaves.length == 2){
+                    return leaves[1 - i];
+                }
+                Leaf[] shrunk = new Leaf[leaves.length - 1];
+                System.arraycopy(leaves, 0, shrunk, 0, i);
+                System.arraycopy(leaves, i + 1, shrunk, i, shrunk.length - i);
+                return new Collision(hash, shrunk);
+            }
+        }
+        return collision;
+    }
+
+    /**
+     * Turns what is left of the root after a removal back into a branch.
+     */
+    private static Branch toRoot(Object node){
+        if(node == null){
+            return EMPTY.root();
+        }
+        if(node instanceof Branch branch){
+            return branch;
+        }
+        int hash = node instanceof Leaf leaf ? leaf.hash : ((Collision) node).hash;
+        return new Branch(1 << (hash & MASK), new Object[]{node});
+    }
+
+    /**
+     * A version of the trie: its root and number of entries.
+     */
+    private record Trie(Branch root, int size) {}
+
+    /**
+     * A node holding the children whose hash bits at its level are set in its bitmap, in slot order.
+     * Each child is a Branch, a Leaf or a Collision.
+     */
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] children;
+
+        private Branch(int bitmap, Object[] children){
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        private int index(int bit){
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Branch with(int index, Object child){
+            Object[] copy = children.clone();
+            copy[index] = child;
+            return new Branch(bitmap, copy);
+        }
+    }
+
+    /**
+     * An entry of the map.
+     */
+    private static final class Leaf implements Map.Entry<String, DrawingMessage> {
+        private final int hash;
+        private final String key;
+        private final DrawingMessage value;
+
+        private Leaf(int hash, String key, DrawingMessage value){
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {return key;}
+
+        @Override
+        public DrawingMessage getValue() {return value;}
+
+        @Override
+        public DrawingMessage setValue(DrawingMessage value){
+            throw new UnsupportedOperationException("Entries are replaced through put.");
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Map.Entry<?, ?> entry && key.equals(entry.getKey()) && value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode(){
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString(){
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * The entries whose IDs have the same hash.
+     */
+    private record Collision(int hash, Leaf[] leaves) {}
+
+    /**
+     * Walks the leaves of a trie depth first. Removing an entry removes it from the map, not from the
+     * trie being walked.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, DrawingMessage>> {
+        /**
+         * The nodes whose leaves are still to be visited.
+         */
+        private final Deque<Object> pending = new ArrayDeque<>();
+        /**
+         * The leaves of the collision being visited, and the index of the next one.
+         */
+        private Leaf[] collision;
+        private int collisionIndex;
+        private Leaf next;
+        private Leaf last;
+
+        private EntryIterator(Branch root){
+            pending.push(root);
+            advance();
+        }
+
+        private void advance(){
+            next = null;
+            if(collision != null){
+                if(collisionIndex < collision.length){
+                    next = collision[collisionIndex++];
+                    return;
+                }
+                collision = null;
+            }
+            while(!pending.isEmpty()){
+                Object node = pending.pop();
+                if(node instanceof Leaf leaf){
+                    next = leaf;
+                    return;
+                }
+                if(node instanceof Collision c){
+                    collision = c.leaves;
+                    collisionIndex = 1;
+                    next = collision[0];
+                    return;
+                }
+                Object[] children = ((Branch) node).children;
+                for(int i = children.length - 1; i >= 0; i--){
+                    pending.push(children[i]);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext(){
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, DrawingMessage> next(){
+            if(next == null){
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove(){
+            if(last == null){
+                throw new IllegalStateException();
+            }
+            DrawingMap.this.remove(last.key);
+            last = null;
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package collaborative.whiteboard.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -28,9 +32,9 @@ public class DrawingMessage{
      */
     private String color;
     /**
-     * Store the array of numbers for coordinates.
+     * Store the array of numbers for coordinates, as primitives.
      */
-    private List<Double> points;
+    private CoordinateArray points;
     /**
      * Store the line width of the drawing.
      */
@@ -38,7 +42,7 @@ public class DrawingMessage{
     /**
      * Store the orientation of the object. Not currently used for the 2D version (will be implemented for the 3D version).
      */
-    private List<Double> rotation; // Not currently used, but will be implemented for the 3D version.
+    private CoordinateArray rotation; // Not currently used, but will be implemented for the 3D version.
 
     /**
      * Default constructor, required for Jackson.
@@ -47,6 +51,16 @@ public class DrawingMessage{
         this.id = UUID.randomUUID().toString();
     }
 
+    /**
+     * Constructs an empty DrawingMessage that keeps the id of an existing message, used when decoding
+     * a message received in the binary wire format.
+     *
+     * @param id the id of the message.
+     */
+    DrawingMessage(String id){
+        this.id = id;
+    }
+
     /**
      * Constructs a new DrawingMessage with specified parameters.
      *
@@ -61,7 +75,82 @@ public class DrawingMessage{
         this.type = type;
         this.shape = shape;
         this.color = color;
-        this.rotation = rotation;
+        this.rotation = CoordinateArray.copyOf(rotation);
+    }
+
+    /**
+     * Computes the area of the board the drawing covers, used to find the drawings in a viewport.
+     * A plain drawing message covers its points, read as consecutive x and y coordinates, widened
+     * by half the line width.
+     *
+     * @return the bounds of the drawing, or null if it has no position.
+     */
+    @JsonIgnore
+    public BoundingBox getBounds(){
+        BoundingBox bounds = BoundingBox.around(points, 2);
+        return bounds == null ? null : bounds.expand(lineWidth / 2);
+    }
+
+    /**
+     * Checks whether a point is on the drawing, as when a user clicks it. A plain drawing message is
+     * the stroke through its points, as wide as its line.
+     *
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @param tolerance how far from the drawing the point may be.
+     * @return true if the point is within the tolerance of the drawing.
+     */
+    public boolean isNear(double x, double y, double tolerance){
+        if(points == null || points.size() < 2){
+            return false;
+        }
+        double reach = tolerance + lineWidth / 2;
+        if(points.size() < 4){
+            return Math.hypot(x - points.getDouble(0), y - points.getDouble(1)) <= reach;
+        }
+        for(int i = 0; i + 3 < points.size(); i += 2){
+            if(Polygon.segmentDistance(x, y, points.getDouble(i), points.getDouble(i + 1),
+                    points.getDouble(i + 2), points.getDouble(i + 3)) <= reach){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the drawing has a point in common with a region, as when a user erases an area.
+     *
+     * @param region the region.
+     * @return true if the drawing touches the region.
+     */
+    public boolean intersects(Polygon region){
+        return region.intersectsStroke(points);
+    }
+
+    /**
+     * Checks whether the drawing lies entirely within a region, as when a user selects with a lasso.
+     *
+     * @param region the region.
+     * @return true if the drawing has a position and all of it is inside the region.
+     */
+    public boolean isWithin(Polygon region){
+        return getBounds() != null && region.containsStroke(points);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+        DrawingMessage other = (DrawingMessage) o;
+        return Double.compare(lineWidth, other.lineWidth) == 0 && Objects.equals(id, other.id)
+                && Objects.equals(type, other.type) && Objects.equals(shape, other.shape)
+                && Objects.equals(color, other.color) && Objects.equals(points, other.points)
+                && Objects.equals(rotation, other.rotation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, type, shape, color, lineWidth);
     }
 
     @Override
@@ -104,9 +193,10 @@ public class DrawingMessage{
         this.color = color;
     }
 
-    public List<Double> getPoints(List<Double> points){return points;}
+    public List<Double> getPoints(){return points;}
 
-    public void setPoints(List<Double> points){this.points = points;}
+    @JsonDeserialize(using = CoordinateArray.Deserializer.class)
+    public void setPoints(List<Double> points){this.points = CoordinateArray.copyOf(points);}
 
     public double getLineWidth(){return lineWidth;}
 
@@ -116,7 +206,8 @@ public class DrawingMessage{
         return rotation;
     }
 
+    @JsonDeserialize(using = CoordinateArray.Deserializer.class)
     public void setRotation(List<Double> rotation){
-        this.rotation = rotation;
+        this.rotation = CoordinateArray.copyOf(rotation);
     }
 }
@@ -1,6 +1,10 @@
 package collaborative.whiteboard.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents a line drawing, extending the functionality of the DrawingMessage class.
@@ -8,22 +12,89 @@ import java.util.List;
  * @author Andrey Estevam Seabra
  */
 public class Line extends DrawingMessage{
-    private List<Double> start;
-    private List<Double> end;
+    private CoordinateArray start;
+    private CoordinateArray end;
 
     public Line(){
         super();
         super.setShape("line");
-        this.start = List.of(-5.0, 0.0, 0.0);
-        this.end = List.of(5.0, 0.0, 0.0);
+        this.start = CoordinateArray.of(-5.0, 0.0, 0.0);
+        this.end = CoordinateArray.of(5.0, 0.0, 0.0);
+    }
+
+    /**
+     * Constructs an empty Line that keeps the id of an existing message, used by the binary wire format.
+     *
+     * @param id the id of the message.
+     */
+    Line(String id){
+        super(id);
+        super.setShape("line");
     }
 
     public Line(String type, String color, List<Double> rotation, List<Double> start, List<Double> end) {
         super(type, "line", color, rotation);
-        this.start = start;
-        this.end = end;
+        this.start = CoordinateArray.copyOf(start);
+        this.end = CoordinateArray.copyOf(end);
+    }
+
+    /**
+     * Computes the area of the board the line covers, between its start and end.
+     *
+     * @return the bounds of the line, or null if it has no position.
+     */
+    @Override
+    @JsonIgnore
+    public BoundingBox getBounds(){
+        BoundingBox bounds = BoundingBox.union(BoundingBox.around(start, start == null ? 0 : start.size()),
+                BoundingBox.around(end, end == null ? 0 : end.size()));
+        bounds = bounds == null ? null : bounds.expand(getLineWidth() / 2);
+        return BoundingBox.union(bounds, super.getBounds());
+    }
+
+    /**
+     * Checks whether a point is on the line or on the stroke of its points.
+     */
+    @Override
+    public boolean isNear(double x, double y, double tolerance){
+        CoordinateArray segment = segment();
+        return super.isNear(x, y, tolerance) || (segment != null && Polygon.segmentDistance(x, y,
+                segment.getDouble(0), segment.getDouble(1), segment.getDouble(2), segment.getDouble(3))
+                <= tolerance + getLineWidth() / 2);
     }
 
+    @Override
+    public boolean intersects(Polygon region){
+        return super.intersects(region) || region.intersectsStroke(segment());
+    }
+
+    @Override
+    public boolean isWithin(Polygon region){
+        return super.isWithin(region) && region.containsStroke(segment());
+    }
+
+    /**
+     * Gets the x and y coordinates of the start and end of the line.
+     *
+     * @return the segment, or null if the start or end is missing.
+     */
+    private CoordinateArray segment(){
+        if(start == null || end == null || start.size() < 2 || end.size() < 2){
+            return null;
+        }
+        return CoordinateArray.of(start.getDouble(0), start.getDouble(1), end.getDouble(0), end.getDouble(1));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!super.equals(o)) return false;
+        Line other = (Line) o;
+        return Objects.equals(start, other.start) && Objects.equals(end, other.end);
+    }
+
+    @Override
+    public int hashCode() {return super.hashCode();}
+
     @Override
     public String toString() {
         return "Line{" +
@@ -40,9 +111,11 @@ public class Line extends DrawingMessage{
     // Getters and setters.
     public List<Double> getStart() {return start;}
 
-    public void setStart(List<Double> start) {this.start = start;}
+    @JsonDeserialize(using = CoordinateArray.Deserializer.class)
+    public void setStart(List<Double> start) {this.start = CoordinateArray.copyOf(start);}
 
     public List<Double> getEnd() {return end;}
 
-    public void setEnd(List<Double> end) {this.end = end;}
+    @JsonDeserialize(using = CoordinateArray.Deserializer.class)
+    public void setEnd(List<Double> end) {this.end = CoordinateArray.copyOf(end);}
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+package collaborative.whiteboard.model;
+
+import java.util.List;
+
+/**
+ * A closed polygon of the board, used both as the outline of the filled shapes (rectangles and
+ * triangles) and as the region a client selects or erases, such as a lasso or a rectangle. The
+ * polygon may be concave; its inside follows the even-odd rule and its boundary counts as inside.
+ *
+ * Besides testing points, it tells whether the strokes and outlines of the drawings intersect it or
+ * lie within it, which is the exact test run on the candidates the SpatialIndex finds.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class Polygon {
+    /**
+     * The x coordinates of the vertices.
+     */
+    private final double[] xs;
+    /**
+     * The y coordinates of the vertices.
+     */
+    private final double[] ys;
+
+    private Polygon(double[] xs, double[] ys){
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * Creates a polygon from its vertices given as consecutive x and y coordinates, as clients send
+     * a lasso.
+     *
+     * @param coordinates the coordinates of at least three vertices.
+     * @return the polygon.
+     * @throws IllegalArgumentException if there are fewer than three vertices, an odd number of
+     * coordinates, or a coordinate that is not a finite number.
+     */
+    public static Polygon of(List<Double> coordinates){
+        if(coordinates == null || coordinates.size() < 6 || coordinates.size() % 2 != 0){
+            throw new IllegalArgumentException("A region is given as the x and y coordinates of at least three vertices.");
+        }
+        CoordinateArray values = CoordinateArray.copyOf(coordinates);
+        double[] xs = new double[values.size() / 2];
+        double[] ys = new double[xs.length];
+        for(int i = 0; i < xs.length; i++){
+            xs[i] = values.getDouble(2 * i);
+            ys[i] = values.getDouble(2 * i + 1);
+            if(!Double.isFinite(xs[i]) || !Double.isFinite(ys[i])){
+                throw new IllegalArgumentException("Region coordinates must be finite numbers.");
+            }
+        }
+        return new Polygon(xs, ys);
+    }
+
+    /**
+     * Creates the polygon covering a box.
+     *
+     * @param box the box.
+     * @return the polygon with the four corners of the box.
+     */
+    public static Polygon of(BoundingBox box){
+        return new Polygon(new double[]{box.minX(), box.maxX(), box.maxX(), box.minX()},
+                new double[]{box.minY(), box.minY(), box.maxY(), box.maxY()});
+    }
+
+    /**
+     * Creates the polygon of a shape's outline, skipping any coordinate beyond x and y.
+     *
+     * @param vertices the vertices, each holding at least x and y.
+     * @return the polygon, or null if a vertex is missing or incomplete.
+     */
+    static Polygon outline(List<? extends List<Double>> vertices){
+        if(vertices == null || vertices.isEmpty()){
+            return null;
+        }
+        double[] xs = new double[vertices.size()];
+        double[] ys = new double[xs.length];
+        for(int i = 0; i < xs.length; i++){
+            List<Double> vertex = vertices.get(i);
+            if(vertex == null || vertex.size() < 2){
+                return null;
+            }
+            CoordinateArray coordinates = CoordinateArray.copyOf(vertex);
+            xs[i] = coordinates.getDouble(0);
+            ys[i] = coordinates.getDouble(1);
+        }
+        return new Polygon(xs, ys);
+    }
+
+    /**
+     * Computes the box around the polygon, which the SpatialIndex is queried with.
+     *
+     * @return the bounds of the polygon.
+     */
+    public BoundingBox getBounds(){
+        double minX = xs[0], minY = ys[0], maxX = xs[0], maxY = ys[0];
+        for(int i = 1; i < xs.length; i++){
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        return new BoundingBox(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Checks whether a point is inside the polygon or on its boundary.
+     *
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @return true if the point is inside or on the boundary.
+     */
+    public boolean contains(double x, double y){
+        boolean inside = false;
+        for(int i = 0, j = xs.length - 1; i < xs.length; j = i++){
+            if(segmentDistance(x, y, xs[j], ys[j], xs[i], ys[i]) == 0){
+                return true;
+            }
+            if((ys[i] > y) != (ys[j] > y) && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]){
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Computes the distance from a point to the closest edge of the polygon.
+     *
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @return the distance, 0 for a point on the boundary.
+     */
+    public double distanceToBoundary(double x, double y){
+        double distance = Double.POSITIVE_INFINITY;
+        for(int i = 0, j = xs.length - 1; i < xs.length; j = i++){
+            distance = Math.min(distance, segmentDistance(x, y, xs[j], ys[j], xs[i], ys[i]));
+        }
+        return distance;
+    }
+
+    /**
+     * Checks whether a stroke, given as consecutive x and y coordinates, has a point in common with
+     * the polygon.
+     *
+     * @param points the coordinates of the stroke, may be null.
+     * @return true if a point of the stroke is inside or one of its segments touches an edge.
+     */
+    public boolean intersectsStroke(CoordinateArray points){
+        if(points == null || points.size() < 2){
+            return false;
+        }
+        for(int i = 0; i + 1 < points.size(); i += 2){
+            if(contains(points.getDouble(i), points.getDouble(i + 1))){
+                return true;
+            }
+        }
+        for(int i = 0; i + 3 < points.size(); i += 2){
+            if(crossesEdge(points.getDouble(i), points.getDouble(i + 1), points.getDouble(i + 2),
+                    points.getDouble(i + 3), false)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a stroke, given as consecutive x and y coordinates, lies within the polygon.
+     *
+     * @param points the coordinates of the stroke, may be null.
+     * @return true if every point is inside and no segment leaves the polygon; also true without points.
+     */
+    public boolean containsStroke(CoordinateArray points){
+        if(points == null){
+            return true;
+        }
+        for(int i = 0; i + 1 < points.size(); i += 2){
+            if(!contains(points.getDouble(i), points.getDouble(i + 1))){
+                return false;
+            }
+        }
+        for(int i = 0; i + 3 < points.size(); i += 2){
+            if(crossesEdge(points.getDouble(i), points.getDouble(i + 1), points.getDouble(i + 2),
+                    points.getDouble(i + 3), true)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether two polygons, taken as filled areas, have a point in common.
+     *
+     * @param other the other polygon.
+     * @return true if they overlap or touch.
+     */
+    public boolean intersects(Polygon other){
+        if(contains(other.xs[0], other.ys[0]) || other.contains(xs[0], ys[0])){
+            return true;
+        }
+        for(int i = 0, j = other.xs.length - 1; i < other.xs.length; j = i++){
+            if(crossesEdge(other.xs[j], other.ys[j], other.xs[i], other.ys[i], false)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether another polygon lies within this one.
+     *
+     * @param other the other polygon.
+     * @return true if every vertex of the other polygon is inside and none of its edges leaves this one.
+     */
+    public boolean contains(Polygon other){
+        for(int i = 0; i < other.xs.length; i++){
+            if(!contains(other.xs[i], other.ys[i])){
+                return false;
+            }
+        }
+        for(int i = 0, j = other.xs.length - 1; i < other.xs.length; j = i++){
+            if(crossesEdge(other.xs[j], other.ys[j], other.xs[i], other.ys[i], true)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a segment meets an edge of the polygon.
+     *
+     * @param proper whether only crossings through the inside of both segments count, so that a
+     *               segment touching the boundary from inside does not.
+     */
+    private boolean crossesEdge(double ax, double ay, double bx, double by, boolean proper){
+        for(int i = 0, j = xs.length - 1; i < xs.length; j = i++){
+            if(segmentsIntersect(ax, ay, bx, by, xs[j], ys[j], xs[i], ys[i], proper)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the distance from a point to a segment.
+     *
+     * @return the distance from (px, py) to the closest point between (ax, ay) and (bx, by).
+     */
+    static double segmentDistance(double px, double py, double ax, double ay, double bx, double by){
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    /**
+     * Checks whether two segments intersect, from the orientations of their end points.
+     *
+     * @param proper whether touching at an end point or overlapping along a line does not count.
+     */
+    private static boolean segmentsIntersect(double ax, double ay, double bx, double by,
+                                             double cx, double cy, double dx, double dy, boolean proper){
+        double d1 = Math.signum(cross(cx, cy, dx, dy, ax, ay));
+        double d2 = Math.signum(cross(cx, cy, dx, dy, bx, by));
+        double d3 = Math.signum(cross(ax, ay, bx, by, cx, cy));
+        double d4 = Math.signum(cross(ax, ay, bx, by, dx, dy));
+        if(d1 * d2 < 0 && d3 * d4 < 0){
+            return true;
+        }
+        if(proper){
+            return false;
+        }
+        return (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay)) || (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by))
+                || (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy)) || (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy));
+    }
+
+    /**
+     * Computes the cross product of (b - a) and (p - a), whose sign tells on which side of the line
+     * through a and b the point p is.
+     */
+    private static double cross(double ax, double ay, double bx, double by, double px, double py){
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    /**
+     * Checks whether a point collinear with a segment lies between its end points.
+     */
+    private static boolean onSegment(double ax, double ay, double bx, double by, double px, double py){
+        return Math.min(ax, bx) <= px && px <= Math.max(ax, bx) && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+    }
+}
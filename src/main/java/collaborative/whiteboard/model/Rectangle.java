@@ -1,6 +1,10 @@
 package collaborative.whiteboard.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents a rectangle drawing, extending the functionality of the DrawingMessage class.
@@ -11,7 +15,7 @@ public class Rectangle extends DrawingMessage{
     /**
      * Store the center point of the rectangle.
      */
-    private List<Double> center;
+    private CoordinateArray center;
     /**
      * Store the width of the rectangle drawing.
      */
@@ -30,7 +34,17 @@ public class Rectangle extends DrawingMessage{
         // Width and height set to a standard value if none are given.
         this.width = 10;
         this.height = 10;
-        this.center = List.of(0.0, 0.0, 0.0); // Rectangle will be located a the origin.
+        this.center = CoordinateArray.of(0.0, 0.0, 0.0); // Rectangle will be located a the origin.
+    }
+
+    /**
+     * Constructs an empty Rectangle that keeps the id of an existing message, used by the binary wire format.
+     *
+     * @param id the id of the message.
+     */
+    Rectangle(String id){
+        super(id);
+        super.setShape("rectangle");
     }
 
     /**
@@ -46,7 +60,7 @@ public class Rectangle extends DrawingMessage{
         super(type, "rectangle", color, rotation);
         this.width = width;
         this.height = height;
-        this.center = center;
+        this.center = CoordinateArray.copyOf(center);
     }
 
     /**
@@ -55,10 +69,10 @@ public class Rectangle extends DrawingMessage{
      * @return a list containing the coordinates.
      */
     public List<Double> getTopLeftCorner(){
-        return List.of(
-                (center.get(0) - width/2),
-                (center.get(1) + height/2),
-                center.get(2)
+        return CoordinateArray.of(
+                (center.getDouble(0) - width/2),
+                (center.getDouble(1) + height/2),
+                center.getDouble(2)
         );
     }
 
@@ -68,13 +82,73 @@ public class Rectangle extends DrawingMessage{
      * @return a list containing the coordinates.
      */
     public List<Double> getBottomRightCorner(){
-        return List.of(
-                (center.get(0) + width/2),
-                (center.get(1) - height/2),
-                center.get(2)
+        return CoordinateArray.of(
+                (center.getDouble(0) + width/2),
+                (center.getDouble(1) - height/2),
+                center.getDouble(2)
         );
     }
 
+    /**
+     * Computes the area of the board the rectangle covers, from its top left to its bottom right corner.
+     *
+     * @return the bounds of the rectangle, or null if it has no center.
+     */
+    @Override
+    @JsonIgnore
+    public BoundingBox getBounds(){
+        Polygon outline = outline();
+        return BoundingBox.union(outline == null ? null : outline.getBounds(), super.getBounds());
+    }
+
+    /**
+     * Checks whether a point is inside the rectangle, near its outline or on the stroke of its points.
+     */
+    @Override
+    public boolean isNear(double x, double y, double tolerance){
+        Polygon outline = outline();
+        return super.isNear(x, y, tolerance) || (outline != null && (outline.contains(x, y)
+                || outline.distanceToBoundary(x, y) <= tolerance + getLineWidth() / 2));
+    }
+
+    @Override
+    public boolean intersects(Polygon region){
+        Polygon outline = outline();
+        return super.intersects(region) || (outline != null && outline.intersects(region));
+    }
+
+    @Override
+    public boolean isWithin(Polygon region){
+        Polygon outline = outline();
+        return super.isWithin(region) && (outline == null || region.contains(outline));
+    }
+
+    /**
+     * Gets the outline of the rectangle, through its four corners.
+     *
+     * @return the outline, or null if the rectangle has no center.
+     */
+    private Polygon outline(){
+        if(center == null || center.size() < 2){
+            return null;
+        }
+        double halfWidth = Math.abs(width) / 2;
+        double halfHeight = Math.abs(height) / 2;
+        return Polygon.of(new BoundingBox(center.getDouble(0) - halfWidth, center.getDouble(1) - halfHeight,
+                center.getDouble(0) + halfWidth, center.getDouble(1) + halfHeight));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!super.equals(o)) return false;
+        Rectangle other = (Rectangle) o;
+        return Double.compare(width, other.width) == 0 && Double.compare(height, other.height) == 0
+                && Objects.equals(center, other.center);
+    }
+
+    @Override
+    public int hashCode() {return super.hashCode();}
+
     @Override
     public String toString() {
         return "Rectangle{" +
@@ -102,5 +176,6 @@ public class Rectangle extends DrawingMessage{
 
     public List<Double> getCenter() {return center;}
 
-    public void setCenter(List<Double> center) {this.center = center;}
+    @JsonDeserialize(using = CoordinateArray.Deserializer.class)
+    public void setCenter(List<Double> center) {this.center = CoordinateArray.copyOf(center);}
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package collaborative.whiteboard.model;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The serialized form of one version of a WhiteboardState: its UTF-8 JSON and, computed the first
+ * time a client asks for it, the gzip-compressed JSON. A WhiteboardState keeps the SerializedState
+ * of its current version, so every REST load and WebSocket snapshot of an unchanged board reuses
+ * the same bytes instead of serializing the board again. The bytes must not be modified.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class SerializedState {
+    /**
+     * The writer the JSON was produced with, so a state serialized with another configuration is
+     * not mistaken for a cached one.
+     */
+    private final ObjectWriter writer;
+    /**
+     * The UTF-8 JSON of the state.
+     */
+    private final byte[] json;
+    /**
+     * The gzip-compressed JSON, or null until it is first needed.
+     */
+    private volatile byte[] gzip;
+
+    /**
+     * Constructs a SerializedState.
+     *
+     * @param writer the writer the JSON was produced with.
+     * @param json the UTF-8 JSON of the state.
+     */
+    SerializedState(ObjectWriter writer, byte[] json){
+        this.writer = writer;
+        this.json = json;
+    }
+
+    /**
+     * Gets the gzip-compressed JSON, compressing it the first time. Compressing it twice concurrently
+     * is harmless, since both results are equivalent.
+     *
+     * @return the compressed bytes.
+     */
+    public byte[] getGzip(){
+        byte[] compressed = gzip;
+        if(compressed == null){
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, json.length / 4));
+            try(GZIPOutputStream zip = new GZIPOutputStream(out, 8192)){
+                zip.write(json);
+            }catch(IOException e){
+                throw new UncheckedIOException(e); // Not thrown by in-memory streams.
+            }
+            compressed = out.toByteArray();
+            gzip = compressed;
+        }
+        return compressed;
+    }
+
+    // Getter methods.
+    ObjectWriter getWriter() {return writer;}
+
+    public byte[] getJson() {return json;}
+}
@@ -0,0 +1,293 @@
+package collaborative.whiteboard.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A persistent quadtree mapping drawing message IDs to their bounding boxes, answering which drawings
+ * intersect a viewport without looking at the rest of the board.
+ *
+ * The index is immutable: put and remove return a new index that shares every untouched node with the
+ * old one, so copying a WhiteboardState shares its index and each change only copies the path from the
+ * root to one leaf. Every node covers a quarter of its parent. A leaf holding more than
+ * {@link #NODE_CAPACITY} entries is split, and an entry stays in the deepest node whose area contains
+ * its box, so boxes crossing a split line stay higher up. Entries without a box, and those reaching
+ * outside the area of the root, are kept in the root and match every viewport.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class SpatialIndex {
+    /**
+     * Number of entries a leaf holds before it is split.
+     */
+    static final int NODE_CAPACITY = 16;
+    /**
+     * Depth below which leaves are no longer split, bounding the height of the tree.
+     */
+    private static final int MAX_DEPTH = 24;
+    /**
+     * Area covered by the root, far larger than any canvas.
+     */
+    private static final BoundingBox WORLD = new BoundingBox(-(1 << 24), -(1 << 24), 1 << 24, 1 << 24);
+
+    /**
+     * The index with no entries.
+     */
+    public static final SpatialIndex EMPTY = new SpatialIndex(new Node(WORLD, new Entry[0], null), 0);
+
+    /**
+     * The root of the tree.
+     */
+    private final Node root;
+    /**
+     * Number of entries in the tree.
+     */
+    private final int size;
+
+    private SpatialIndex(Node root, int size){
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Adds an entry. The ID must not already be in the index.
+     *
+     * @param id the ID of the drawing message.
+     * @param box the bounds of the drawing message, or null if it has none and must match every viewport.
+     * @return the index with the entry.
+     */
+    public SpatialIndex put(String id, BoundingBox box){
+        return new SpatialIndex(put(root, new Entry(id, box), 0), size + 1);
+    }
+
+    /**
+     * Removes an entry, looking for it where the given box places it, then anywhere else.
+     *
+     * @param id the ID of the drawing message.
+     * @param box the box the entry was added with.
+     * @return the index without the entry, or this index if it has no such entry.
+     */
+    public SpatialIndex remove(String id, BoundingBox box){
+        Node removed = remove(root, id, box, true);
+        if(removed == null){
+            removed = remove(root, id, box, false);
+        }
+        return removed == null ? this : new SpatialIndex(removed, size - 1);
+    }
+
+    /**
+     * Finds the entries whose box intersects a viewport, plus the entries without a box.
+     *
+     * @param viewport the viewport.
+     * @return the IDs of the matching entries, in no particular order.
+     */
+    public List<String> query(BoundingBox viewport){
+        List<String> ids = new ArrayList<>();
+        query(root, viewport, ids);
+        return ids;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the size of the index.
+     */
+    public int size() {return size;}
+
+    /**
+     * Adds an entry below a node.
+     */
+    private static Node put(Node node, Entry entry, int depth){
+        if(node.children == null){
+            if(node.entries.length < NODE_CAPACITY || depth >= MAX_DEPTH){
+                return node.withEntry(entry);
+            }
+            node = split(node, depth);
+        }
+        int quadrant = quadrant(node, entry.box);
+        if(quadrant < 0){
+            return node.withEntry(entry);
+        }
+        return node.withChild(quadrant, put(node.children[quadrant], entry, depth + 1));
+    }
+
+    /**
+     * Turns a full leaf into a node with four children, moving down every entry that fits in one.
+     */
+    private static Node split(Node leaf, int depth){
+        BoundingBox b = leaf.bounds;
+        double midX = (b.minX() + b.maxX()) / 2;
+        double midY = (b.minY() + b.maxY()) / 2;
+        Node[] children = {
+                new Node(new BoundingBox(b.minX(), b.minY(), midX, midY), new Entry[0], null),
+                new Node(new BoundingBox(midX, b.minY(), b.maxX(), midY), new Entry[0], null),
+                new Node(new BoundingBox(b.minX(), midY, midX, b.maxY()), new Entry[0], null),
+                new Node(new BoundingBox(midX, midY, b.maxX(), b.maxY()), new Entry[0], null)
+        };
+        Node node = new Node(b, new Entry[0], children);
+        List<Entry> kept = new ArrayList<>();
+        for(Entry entry : leaf.entries){
+            int quadrant = quadrant(node, entry.box);
+            if(quadrant < 0){
+                kept.add(entry);
+            }else{
+                children[quadrant] = put(children[quadrant], entry, depth + 1);
+            }
+        }
+        return new Node(b, kept.toArray(new Entry[0]), children);
+    }
+
+    /**
+     * Removes an entry below a node.
+     *
+     * @param guided whether to only follow the quadrant of the given box, or search every child.
+     * @return the new node, or null if the entry was not found.
+     */
+    private static Node remove(Node node, String id, BoundingBox box, boolean guided){
+        for(int i = 0; i < node.entries.length; i++){
+            if(node.entries[i].id.equals(id)){
+                return node.withoutEntry(i);
+            }
+        }
+        if(node.children == null){
+            return null;
+        }
+        if(guided){
+            int quadrant = quadrant(node, box);
+            if(quadrant < 0){
+                return null;
+            }
+            Node child = remove(node.children[quadrant], id, box, true);
+            return child == null ? null : node.withChild(quadrant, child);
+        }
+        for(int quadrant = 0; quadrant < 4; quadrant++){
+            Node child = remove(node.children[quadrant], id, box, false);
+            if(child != null){
+                return node.withChild(quadrant, child);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the entries below a node that match a viewport.
+     */
+    private static void query(Node node, BoundingBox viewport, List<String> ids){
+        for(Entry entry : node.entries){
+            if(entry.box == null || entry.box.intersects(viewport)){
+                ids.add(entry.id);
+            }
+        }
+        if(node.children != null){
+            for(Node child : node.children){
+                if(child.bounds.intersects(viewport)){
+                    query(child, viewport, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the child of a node whose area contains a box.
+     *
+     * @return the index of the child, or -1 if the box crosses a split line, has no bounds or
+     * reaches outside the node.
+     */
+    private static int quadrant(Node node, BoundingBox box){
+        if(box == null || !node.bounds.contains(box)){
+            return -1;
+        }
+        double midX = (node.bounds.minX() + node.bounds.maxX()) / 2;
+        double midY = (node.bounds.minY() + node.bounds.maxY()) / 2;
+        int quadrant;
+        if(box.maxX() <= midX){
+            quadrant = 0;
+        }else if(box.minX() >= midX){
+            quadrant = 1;
+        }else{
+            return -1;
+        }
+        if(box.maxY() <= midY){
+            return quadrant;
+        }
+        return box.minY() >= midY ? quadrant + 2 : -1;
+    }
+
+    /**
+     * An indexed drawing message.
+     *
+     * @param id the ID of the drawing message.
+     * @param box its bounds, or null if it has none.
+     */
+    private record Entry(String id, BoundingBox box) {}
+
+    /**
+     * A node of the tree: the entries stored at this level and, unless it is a leaf, four children
+     * covering the quarters of its area. Nodes are never modified; every change copies them.
+     */
+    private static final class Node {
+        /**
+         * Area covered by the node.
+         */
+        private final BoundingBox bounds;
+        /**
+         * Entries stored in this node.
+         */
+        private final Entry[] entries;
+        /**
+         * The four children, or null for a leaf.
+         */
+        private final Node[] children;
+
+        private Node(BoundingBox bounds, Entry[] entries, Node[] children){
+            this.bounds = bounds;
+            this.entries = entries;
+            this.children = children;
+        }
+
+        /**
+         * Copies the node with one more entry.
+         */
+        private Node withEntry(Entry entry){
+            Entry[] copy = Arrays.copyOf(entries, entries.length + 1);
+            copy[entries.length] = entry;
+            return new Node(bounds, copy, children);
+        }
+
+        /**
+         * Copies the node without one of its entries, turning it back into a leaf once it and its
+         * children are all empty.
+         */
+        private Node withoutEntry(int index){
+            Entry[] copy = new Entry[entries.length - 1];
+            System.arraycopy(entries, 0, copy, 0, index);
+            System.arraycopy(entries, index + 1, copy, index, copy.length - index);
+            return new Node(bounds, copy, children).collapsed();
+        }
+
+        /**
+         * Copies the node with one child replaced.
+         */
+        private Node withChild(int quadrant, Node child){
+            Node[] copy = children.clone();
+            copy[quadrant] = child;
+            return new Node(bounds, entries, copy).collapsed();
+        }
+
+        /**
+         * Drops the children of a node whose subtree holds no entries besides its own.
+         */
+        private Node collapsed(){
+            if(children == null){
+                return this;
+            }
+            for(Node child : children){
+                if(child.children != null || child.entries.length > 0){
+                    return this;
+                }
+            }
+            return new Node(bounds, entries, null);
+        }
+    }
+}
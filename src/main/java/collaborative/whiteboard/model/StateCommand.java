@@ -0,0 +1,395 @@
+package collaborative.whiteboard.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A reversible change to a whiteboard state, described by the drawing messages it touches instead of
+ * by the whole resulting state. For every affected ID the command stores the message before and after
+ * the change (null meaning "absent"), so its inverse is obtained by swapping the two, and applying it
+ * costs time proportional to the number of affected messages rather than to the size of the board.
+ * The timestamp and version of the state before and after the change are recorded as well, so undoing
+ * a command restores them exactly.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StateCommand {
+    /**
+     * Store the affected drawing messages, with their IDs as keys.
+     */
+    private final Map<String, Change> changes;
+    /**
+     * Store the timestamp and version of the state before the command; null if there was no state.
+     */
+    private final Metadata before;
+    /**
+     * Store the timestamp and version of the state after the command; null if there is no state.
+     */
+    private final Metadata after;
+
+    /**
+     * Constructs a new StateCommand.
+     *
+     * @param changes the affected drawing messages, with their IDs as keys.
+     * @param before the metadata of the state before the command, or null if there was no state.
+     * @param after the metadata of the state after the command, or null if there is no state.
+     */
+    private StateCommand(Map<String, Change> changes, Metadata before, Metadata after){
+        this.changes = changes;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Builds the command turning one state into another by comparing their drawing messages by ID and value.
+     *
+     * @param from the current state, or null if there is no state.
+     * @param to the desired state, or null to clear the state.
+     * @return the command turning from into to.
+     */
+    public static StateCommand diff(WhiteboardState from, WhiteboardState to){
+        Map<String, DrawingMessage> previous = from == null ? Map.of() : from.getDrawingMessages();
+        Map<String, DrawingMessage> next = to == null ? Map.of() : to.getDrawingMessages();
+        Map<String, Change> changes = new LinkedHashMap<>();
+
+        for(Map.Entry<String, DrawingMessage> entry : next.entrySet()){
+            DrawingMessage old = previous.get(entry.getKey());
+            if(!entry.getValue().equals(old)){
+                changes.put(entry.getKey(), new Change(old, entry.getValue()));
+            }
+        }
+        for(Map.Entry<String, DrawingMessage> entry : previous.entrySet()){
+            if(!next.containsKey(entry.getKey())){
+                changes.put(entry.getKey(), new Change(entry.getValue(), null));
+            }
+        }
+        return new StateCommand(changes, Metadata.of(from), Metadata.of(to));
+    }
+
+    /**
+     * Builds the command adding a drawing message to a state, replacing any message with the same ID.
+     *
+     * @param state the current state, or null if there is no state yet.
+     * @param message the message to be added.
+     * @return the command adding the message.
+     */
+    public static StateCommand add(WhiteboardState state, DrawingMessage message){
+        DrawingMessage old = state == null ? null : state.getDrawingMessages().get(message.getId());
+        return single(state, message.getId(), old, message);
+    }
+
+    /**
+     * Builds the command removing a drawing message from a state.
+     *
+     * @param state the current state, or null if there is no state.
+     * @param id the ID of the message to be removed.
+     * @return the command removing the message, or null if the state does not contain it.
+     */
+    public static StateCommand remove(WhiteboardState state, String id){
+        DrawingMessage old = state == null ? null : state.getDrawingMessages().get(id);
+        return old == null ? null : single(state, id, old, null);
+    }
+
+    /**
+     * Builds the command removing several drawing messages from a state at once, as one action that
+     * reaches clients as one delta and is undone in one step.
+     *
+     * @param state the current state, or null if there is no state.
+     * @param ids the IDs of the messages to be removed; IDs the state does not contain are skipped.
+     * @return the command removing the messages, or null if the state contains none of them.
+     */
+    public static StateCommand removeAll(WhiteboardState state, Collection<String> ids){
+        Map<String, Change> changes = new LinkedHashMap<>();
+        for(String id : ids){
+            DrawingMessage old = state == null ? null : state.getDrawingMessages().get(id);
+            if(old != null){
+                changes.put(id, new Change(old, null));
+            }
+        }
+        return changes.isEmpty() ? null : changing(state, changes);
+    }
+
+    /**
+     * Builds the command applying a patch to a state as one action: its additions replace any
+     * message with the same ID, its updates replace existing messages and its removals delete them.
+     *
+     * @param state the current state, or null if there is no state yet.
+     * @param patch the patch.
+     * @return the command applying the patch, or null if the patch is empty.
+     * @throws IllegalArgumentException if an update or removal targets a message the state does not
+     * contain, or a message is changed more than once.
+     */
+    public static StateCommand patch(WhiteboardState state, StatePatch patch){
+        if(patch.isEmpty()){
+            return null;
+        }
+        Map<String, DrawingMessage> messages = state == null ? Map.of() : state.getDrawingMessages();
+        Map<String, Change> changes = new LinkedHashMap<>();
+        for(DrawingMessage message : patch.getAdd()){
+            putOnce(changes, message.getId(), new Change(messages.get(message.getId()), message));
+        }
+        for(DrawingMessage message : patch.getUpdate()){
+            putOnce(changes, message.getId(), new Change(existing(messages, message.getId()), message));
+        }
+        for(String id : patch.getRemove()){
+            putOnce(changes, id, new Change(existing(messages, id), null));
+        }
+        return changing(state, changes);
+    }
+
+    /**
+     * Builds the command reproducing a transition recorded elsewhere, such as one published by the
+     * node owning a room: its messages replace any message with the same ID, its removals delete the
+     * messages that exist, and the resulting state gets the recorded timestamp and version.
+     *
+     * @param state the current state, or null if there is no state yet.
+     * @param put the messages added or updated by the transition.
+     * @param removed the IDs of the messages removed by the transition.
+     * @param timeStamp the timestamp of the resulting state.
+     * @param version the version of the resulting state.
+     * @param cleared whether the transition left the room without a state.
+     * @return the command reproducing the transition.
+     */
+    public static StateCommand replay(WhiteboardState state, List<DrawingMessage> put, List<String> removed,
+                                      String timeStamp, int version, boolean cleared){
+        Map<String, DrawingMessage> messages = state == null ? Map.of() : state.getDrawingMessages();
+        Map<String, Change> changes = new LinkedHashMap<>();
+        if(cleared){
+            messages.forEach((id, message) -> changes.put(id, new Change(message, null)));
+            return new StateCommand(changes, Metadata.of(state), null);
+        }
+        for(String id : removed){
+            DrawingMessage old = messages.get(id);
+            if(old != null){
+                changes.put(id, new Change(old, null));
+            }
+        }
+        for(DrawingMessage message : put){
+            changes.put(message.getId(), new Change(messages.get(message.getId()), message));
+        }
+        return new StateCommand(changes, Metadata.of(state), new Metadata(timeStamp, version));
+    }
+
+    /**
+     * Gets a drawing message a patch expects to exist.
+     *
+     * @throws IllegalArgumentException if there is no such message.
+     */
+    private static DrawingMessage existing(Map<String, DrawingMessage> messages, String id){
+        DrawingMessage message = id == null ? null : messages.get(id);
+        if(message == null){
+            throw new IllegalArgumentException("No drawing message with ID " + id + ".");
+        }
+        return message;
+    }
+
+    /**
+     * Records the change of a drawing message, which a patch may only change once.
+     *
+     * @throws IllegalArgumentException if the message was already changed.
+     */
+    private static void putOnce(Map<String, Change> changes, String id, Change change){
+        if(changes.putIfAbsent(id, change) != null){
+            throw new IllegalArgumentException("Drawing message " + id + " is changed more than once.");
+        }
+    }
+
+    /**
+     * Builds the command replacing an existing drawing message of a state.
+     *
+     * @param state the current state, or null if there is no state.
+     * @param message the updated message.
+     * @return the command updating the message, or null if the state does not contain a message with its ID.
+     */
+    public static StateCommand update(WhiteboardState state, DrawingMessage message){
+        DrawingMessage old = state == null ? null : state.getDrawingMessages().get(message.getId());
+        return old == null ? null : single(state, message.getId(), old, message);
+    }
+
+    /**
+     * Builds a command changing a single drawing message, which increments the version of the state
+     * like the WhiteboardState mutators do.
+     *
+     * @param state the current state, or null if there is no state yet.
+     * @param id the ID of the message.
+     * @param old the message before the command, or null if absent.
+     * @param message the message after the command, or null if absent.
+     * @return the command.
+     */
+    private static StateCommand single(WhiteboardState state, String id, DrawingMessage old, DrawingMessage message){
+        return changing(state, Map.of(id, new Change(old, message)));
+    }
+
+    /**
+     * Builds a command making the given changes as one action, incrementing the version of the state once.
+     *
+     * @param state the current state, or null if there is no state yet.
+     * @param changes the changes, with the IDs of the messages as keys.
+     * @return the command.
+     */
+    private static StateCommand changing(WhiteboardState state, Map<String, Change> changes){
+        Metadata before = Metadata.of(state);
+        Metadata after = new Metadata(WhiteboardState.now(), before == null ? 1 : before.version + 1);
+        return new StateCommand(changes, before, after);
+    }
+
+    /**
+     * Applies the command to a state, changing it in place through applyChanges, so the recorded timestamp
+     * and version are set once however many messages the command touches.
+     *
+     * @param state the state the command was built from, or null if there was no state.
+     * @return the resulting state: the given one, a new one if there was no state, or null if the
+     * command clears the state.
+     */
+    public WhiteboardState applyTo(WhiteboardState state){
+        if(after == null){
+            return null;
+        }
+        WhiteboardState target = state == null ? new WhiteboardState() : state;
+        List<DrawingMessage> put = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for(Map.Entry<String, Change> entry : changes.entrySet()){
+            DrawingMessage message = entry.getValue().after;
+            if(message == null){
+                removed.add(entry.getKey());
+            }else{
+                put.add(message);
+            }
+        }
+        target.applyChanges(put, removed, after.timeStamp, after.version);
+        return target;
+    }
+
+    /**
+     * Builds the command undoing this one.
+     *
+     * @return a command with the before and after values of every change swapped.
+     */
+    public StateCommand inverse(){
+        Map<String, Change> inverted = new LinkedHashMap<>();
+        for(Map.Entry<String, Change> entry : changes.entrySet()){
+            inverted.put(entry.getKey(), new Change(entry.getValue().after, entry.getValue().before));
+        }
+        return new StateCommand(inverted, after, before);
+    }
+
+    /**
+     * Adapts the command to a state that may have changed since the command was built, as happens when
+     * a user undoes an action after other users edited the board. If the state still matches what the
+     * command expects, the command itself is returned. Otherwise only the changes whose message still
+     * has the expected value are kept, so other users' later edits are never overwritten, and the result
+     * leads to a new version of the state instead of restoring the recorded one.
+     *
+     * @param state the current state, or null if there is no state.
+     * @return a command applicable to the state, or null if none of its changes still apply.
+     */
+    public StateCommand rebase(WhiteboardState state){
+        Map<String, DrawingMessage> current = state == null ? Map.of() : state.getDrawingMessages();
+        Metadata metadata = Metadata.of(state);
+        Map<String, Change> applicable = new LinkedHashMap<>();
+        for(Map.Entry<String, Change> entry : changes.entrySet()){
+            if(Objects.equals(current.get(entry.getKey()), entry.getValue().before)){
+                applicable.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if(applicable.size() == changes.size() && Objects.equals(metadata, before)){
+            return this;
+        }
+        if(applicable.isEmpty()){
+            return null;
+        }
+        return new StateCommand(applicable, metadata,
+                new Metadata(WhiteboardState.now(), metadata == null ? 1 : metadata.version + 1));
+    }
+
+    /**
+     * Describes the command as the delta sent to clients.
+     *
+     * @param fromRevision the revision the command is applied to.
+     * @param revision the revision the command leads to.
+     * @return the delta with the messages the command adds, updates and removes.
+     */
+    public StateDelta toDelta(long fromRevision, long revision){
+        StateDelta delta = new StateDelta(fromRevision, revision);
+        for(Map.Entry<String, Change> entry : changes.entrySet()){
+            Change change = entry.getValue();
+            if(change.after == null){
+                delta.putRemoved(entry.getKey());
+            }else if(change.before == null){
+                delta.putAdded(change.after);
+            }else{
+                delta.putUpdated(change.after);
+            }
+        }
+        if(after != null){
+            delta.setResult(after.timeStamp, after.version);
+        }
+        return delta;
+    }
+
+    /**
+     * Counts the drawing messages affected by the command.
+     *
+     * @return the number of added, updated and removed drawing messages.
+     */
+    public int size(){
+        return changes.size();
+    }
+
+    /**
+     * Gets the drawing messages after the command, with null values for the removed ones.
+     *
+     * @return an unmodifiable map of the affected IDs to their new messages.
+     */
+    public Map<String, DrawingMessage> getChanges(){
+        Map<String, DrawingMessage> result = new LinkedHashMap<>();
+        changes.forEach((id, change) -> result.put(id, change.after));
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof StateCommand other)) return false;
+        return changes.equals(other.changes) && Objects.equals(before, other.before) && Objects.equals(after, other.after);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(changes, before, after);
+    }
+
+    @Override
+    public String toString() {
+        return "StateCommand{" +
+                "changes=" + changes.keySet() +
+                ", before=" + before +
+                ", after=" + after +
+                '}';
+    }
+
+    /**
+     * The value of one drawing message before and after a command; null meaning the message is absent.
+     */
+    private record Change(DrawingMessage before, DrawingMessage after) {}
+
+    /**
+     * The timestamp and version of a state.
+     */
+    private record Metadata(String timeStamp, int version) {
+        /**
+         * Reads the metadata of a state.
+         *
+         * @param state the state, may be null.
+         * @return its metadata, or null if there is no state.
+         */
+        private static Metadata of(WhiteboardState state){
+            return state == null ? null : new Metadata(state.getTimeStamp(), state.getVersion());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package collaborative.whiteboard.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Describes the changes between two revisions of a room's whiteboard state: the drawing messages
+ * that were added, updated or removed. Deltas are sent to clients instead of the whole state, and
+ * consecutive deltas can be merged into one covering a longer range of revisions.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StateDelta {
+    /**
+     * Store the revision the delta applies to.
+     */
+    private final long fromRevision;
+    /**
+     * Store the revision the delta leads to.
+     */
+    private final long revision;
+    /**
+     * Store the drawing messages that did not exist in fromRevision, with their IDs as keys.
+     */
+    private final Map<String, DrawingMessage> added = new LinkedHashMap<>();
+    /**
+     * Store the drawing messages that changed since fromRevision, with their IDs as keys.
+     */
+    private final Map<String, DrawingMessage> updated = new LinkedHashMap<>();
+    /**
+     * Store the IDs of the drawing messages that were removed since fromRevision.
+     */
+    private final Set<String> removed = new LinkedHashSet<>();
+    /**
+     * Time the resulting state was saved.
+     */
+    private String timeStamp;
+    /**
+     * Version of the resulting whiteboard state.
+     */
+    private int version;
+
+    /**
+     * Constructs an empty delta between two revisions.
+     *
+     * @param fromRevision the revision the delta applies to.
+     * @param revision the revision the delta leads to.
+     */
+    public StateDelta(long fromRevision, long revision){
+        this.fromRevision = fromRevision;
+        this.revision = revision;
+    }
+
+    /**
+     * Computes the delta between two states by comparing their drawing messages by ID and value.
+     *
+     * @param from the state at fromRevision, or null if there was no state.
+     * @param to the state at revision, or null if there is no state.
+     * @param fromRevision the revision of the first state.
+     * @param revision the revision of the second state.
+     * @return the delta turning the first state into the second one.
+     */
+    public static StateDelta between(WhiteboardState from, WhiteboardState to, long fromRevision, long revision){
+        StateDelta delta = new StateDelta(fromRevision, revision);
+        Map<String, DrawingMessage> before = from == null ? Map.of() : from.getDrawingMessages();
+        Map<String, DrawingMessage> after = to == null ? Map.of() : to.getDrawingMessages();
+
+        for(Map.Entry<String, DrawingMessage> entry : after.entrySet()){
+            DrawingMessage previous = before.get(entry.getKey());
+            if(previous == null){
+                delta.added.put(entry.getKey(), entry.getValue());
+            }else if(!previous.equals(entry.getValue())){
+                delta.updated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for(String id : before.keySet()){
+            if(!after.containsKey(id)){
+                delta.removed.add(id);
+            }
+        }
+        if(to != null){
+            delta.timeStamp = to.getTimeStamp();
+            delta.version = to.getVersion();
+        }
+        return delta;
+    }
+
+    /**
+     * Restricts the delta to what a client that only sees a viewport needs. Added and updated drawing
+     * messages outside the viewport are left out, except that an update moving a drawing out of the
+     * viewport becomes a removal, since the client may hold the drawing from before. Removals are kept,
+     * as clients ignore IDs they do not have.
+     *
+     * @param viewport the area of the board the client sees.
+     * @return a new delta with the same revisions, timestamp and version.
+     */
+    public StateDelta inViewport(BoundingBox viewport){
+        StateDelta visible = new StateDelta(fromRevision, revision);
+        for(DrawingMessage message : added.values()){
+            if(isVisible(message, viewport)){
+                visible.added.put(message.getId(), message);
+            }
+        }
+        for(DrawingMessage message : updated.values()){
+            if(isVisible(message, viewport)){
+                visible.updated.put(message.getId(), message);
+            }else{
+                visible.removed.add(message.getId());
+            }
+        }
+        visible.removed.addAll(removed);
+        visible.timeStamp = timeStamp;
+        visible.version = version;
+        return visible;
+    }
+
+    /**
+     * Checks whether a drawing message belongs to a viewport; messages without a position belong to all.
+     */
+    private static boolean isVisible(DrawingMessage message, BoundingBox viewport){
+        BoundingBox bounds = message.getBounds();
+        return bounds == null || bounds.intersects(viewport);
+    }
+
+    /**
+     * Merges a following delta into a new delta covering both revision ranges.
+     * An addition followed by a removal cancels out, a removal followed by an addition becomes an update,
+     * and any other sequence keeps the latest value.
+     *
+     * @param next the delta starting at this delta's revision.
+     * @return a new delta from this delta's fromRevision to next's revision.
+     * @throws IllegalArgumentException if next does not start where this delta ends.
+     */
+    public StateDelta merge(StateDelta next){
+        if(next.fromRevision != revision){
+            throw new IllegalArgumentException("Deltas are not consecutive.");
+        }
+        StateDelta merged = new StateDelta(fromRevision, next.revision);
+        merged.added.putAll(added);
+        merged.updated.putAll(updated);
+        merged.removed.addAll(removed);
+
+        for(Map.Entry<String, DrawingMessage> entry : next.added.entrySet()){
+            // Re-adding something removed earlier in the range is an update for the client.
+            if(merged.removed.remove(entry.getKey())){
+                merged.updated.put(entry.getKey(), entry.getValue());
+            }else{
+                merged.added.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for(Map.Entry<String, DrawingMessage> entry : next.updated.entrySet()){
+            if(merged.added.containsKey(entry.getKey())){
+                merged.added.put(entry.getKey(), entry.getValue());
+            }else{
+                merged.updated.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for(String id : next.removed){
+            // Something added and removed within the range never reaches the client.
+            if(merged.added.remove(id) == null){
+                merged.updated.remove(id);
+                merged.removed.add(id);
+            }
+        }
+        merged.timeStamp = next.timeStamp;
+        merged.version = next.version;
+        return merged;
+    }
+
+    /**
+     * Records a drawing message that did not exist in fromRevision.
+     *
+     * @param message the added message.
+     */
+    void putAdded(DrawingMessage message){
+        added.put(message.getId(), message);
+    }
+
+    /**
+     * Records a drawing message that changed since fromRevision.
+     *
+     * @param message the updated message.
+     */
+    void putUpdated(DrawingMessage message){
+        updated.put(message.getId(), message);
+    }
+
+    /**
+     * Records a drawing message that was removed since fromRevision.
+     *
+     * @param id the ID of the removed message.
+     */
+    void putRemoved(String id){
+        removed.add(id);
+    }
+
+    /**
+     * Records the timestamp and version of the resulting state.
+     *
+     * @param timeStamp the time the resulting state was saved.
+     * @param version the version of the resulting state.
+     */
+    void setResult(String timeStamp, int version){
+        this.timeStamp = timeStamp;
+        this.version = version;
+    }
+
+    /**
+     * Counts the changes described by the delta.
+     *
+     * @return the number of added, updated and removed drawing messages.
+     */
+    public int size(){
+        return added.size() + updated.size() + removed.size();
+    }
+
+    /**
+     * Checks whether the delta contains any changes.
+     *
+     * @return true if nothing was added, updated or removed.
+     */
+    @JsonIgnore
+    public boolean isEmpty(){
+        return size() == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof StateDelta other)) return false;
+        return fromRevision == other.fromRevision && revision == other.revision && version == other.version
+                && added.equals(other.added) && updated.equals(other.updated)
+                && removed.equals(other.removed) && Objects.equals(timeStamp, other.timeStamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fromRevision, revision, added, updated, removed, timeStamp, version);
+    }
+
+    @Override
+    public String toString() {
+        return "StateDelta{" +
+                "fromRevision=" + fromRevision +
+                ", revision=" + revision +
+                ", added=" + added.keySet() +
+                ", updated=" + updated.keySet() +
+                ", removed=" + removed +
+                ", version=" + version +
+                '}';
+    }
+
+    // Getter methods. The type is included in the JSON so clients can tell deltas from snapshots.
+    public String getType() {return "delta";}
+
+    public long getFromRevision() {return fromRevision;}
+
+    public long getRevision() {return revision;}
+
+    public List<DrawingMessage> getAdded() {return new ArrayList<>(added.values());}
+
+    public List<DrawingMessage> getUpdated() {return new ArrayList<>(updated.values());}
+
+    public List<String> getRemoved() {return new ArrayList<>(removed);}
+
+    public String getTimeStamp() {return timeStamp;}
+
+    public int getVersion() {return version;}
+}
@@ -0,0 +1,77 @@
+package collaborative.whiteboard.model;
+
+import java.util.List;
+
+/**
+ * A batch of changes a client sends instead of the whole whiteboard state: drawing messages to add,
+ * drawing messages to update and IDs of drawing messages to remove, together with the revision of
+ * the room the client based them on. The patch only applies if the room is still at that revision,
+ * so clients never overwrite changes they have not seen.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StatePatch {
+    /**
+     * Store the revision of the room the changes were made against; required.
+     */
+    private Long baseRevision;
+    /**
+     * Store the drawing messages to add, replacing any message with the same ID.
+     */
+    private List<DrawingMessage> add = List.of();
+    /**
+     * Store the drawing messages to update; each must already exist.
+     */
+    private List<DrawingMessage> update = List.of();
+    /**
+     * Store the IDs of the drawing messages to remove; each must exist.
+     */
+    private List<String> remove = List.of();
+
+    /**
+     * Default constructor, required for Jackson.
+     */
+    public StatePatch(){
+    }
+
+    /**
+     * Constructs a new StatePatch.
+     *
+     * @param baseRevision the revision of the room the changes were made against.
+     * @param add the drawing messages to add.
+     * @param update the drawing messages to update.
+     * @param remove the IDs of the drawing messages to remove.
+     */
+    public StatePatch(long baseRevision, List<DrawingMessage> add, List<DrawingMessage> update, List<String> remove){
+        this.baseRevision = baseRevision;
+        setAdd(add);
+        setUpdate(update);
+        setRemove(remove);
+    }
+
+    /**
+     * Checks whether the patch changes nothing.
+     *
+     * @return true if there is nothing to add, update or remove.
+     */
+    public boolean isEmpty(){
+        return add.isEmpty() && update.isEmpty() && remove.isEmpty();
+    }
+
+    // Getter and setter methods.
+    public Long getBaseRevision() {return baseRevision;}
+
+    public void setBaseRevision(Long baseRevision) {this.baseRevision = baseRevision;}
+
+    public List<DrawingMessage> getAdd() {return add;}
+
+    public void setAdd(List<DrawingMessage> add) {this.add = add == null ? List.of() : add;}
+
+    public List<DrawingMessage> getUpdate() {return update;}
+
+    public void setUpdate(List<DrawingMessage> update) {this.update = update == null ? List.of() : update;}
+
+    public List<String> getRemove() {return remove;}
+
+    public void setRemove(List<String> remove) {this.remove = remove == null ? List.of() : remove;}
+}
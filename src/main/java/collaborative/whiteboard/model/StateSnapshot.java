@@ -0,0 +1,87 @@
+package collaborative.whiteboard.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Carries the complete whiteboard state of a room at a given revision. Sent to clients that have
+ * no state yet or are too far behind for a StateDelta to be worthwhile.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StateSnapshot {
+    /**
+     * JSON of a missing state.
+     */
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Store the revision of the state.
+     */
+    private final long revision;
+    /**
+     * Store the state itself; null if the room has no state.
+     */
+    private final WhiteboardState state;
+
+    /**
+     * Constructs a new StateSnapshot.
+     *
+     * @param revision the revision of the state.
+     * @param state the state at that revision, or null if the room has no state.
+     */
+    public StateSnapshot(long revision, WhiteboardState state){
+        this.revision = revision;
+        this.state = state;
+    }
+
+    /**
+     * Restricts the snapshot to the drawing messages in a viewport.
+     *
+     * @param viewport the area of the board the client sees.
+     * @return a new snapshot at the same revision.
+     */
+    public StateSnapshot inViewport(BoundingBox viewport){
+        return new StateSnapshot(revision, state == null ? null : state.inViewport(viewport));
+    }
+
+    /**
+     * Serializes the snapshot around the cached JSON of its state, so sending the same version of a
+     * board to many clients, or to clients reconnecting one after another, serializes it only once.
+     *
+     * @param writer the writer producing the JSON of the state.
+     * @return the UTF-8 JSON of the snapshot, with the same properties as when written by Jackson.
+     * @throws JsonProcessingException if the state cannot be serialized.
+     */
+    public byte[] toJson(ObjectWriter writer) throws JsonProcessingException {
+        return toJson(writer, null);
+    }
+
+    /**
+     * Serializes the snapshot like {@link #toJson(ObjectWriter)}, reporting the size of the state's JSON
+     * if this call serializes it.
+     *
+     * @param writer the writer producing the JSON of the state.
+     * @param onSerialized receives the size in bytes of the state's JSON if it is built; may be null.
+     * @return the UTF-8 JSON of the snapshot.
+     * @throws JsonProcessingException if the state cannot be serialized.
+     */
+    public byte[] toJson(ObjectWriter writer, IntConsumer onSerialized) throws JsonProcessingException {
+        byte[] prefix = ("{\"type\":\"snapshot\",\"revision\":" + revision + ",\"state\":").getBytes(StandardCharsets.UTF_8);
+        byte[] body = state == null ? NULL : state.serialize(writer, onSerialized).getJson();
+        byte[] json = Arrays.copyOf(prefix, prefix.length + body.length + 1);
+        System.arraycopy(body, 0, json, prefix.length, body.length);
+        json[json.length - 1] = '}';
+        return json;
+    }
+
+    // Getter methods. The type is included in the JSON so clients can tell snapshots from deltas.
+    public String getType() {return "snapshot";}
+
+    public long getRevision() {return revision;}
+
+    public WhiteboardState getState() {return state;}
+}
@@ -1,6 +1,10 @@
 package collaborative.whiteboard.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Represents a Triangle drawing, extending the functionality of the DrawingMessage class.
@@ -9,7 +13,7 @@ import java.util.List;
  */
 public class Triangle extends DrawingMessage{
     /**
-     * Store the vertices of the triangle. Each vertice is a List of [x,y,z].
+     * Store the vertices of the triangle. Each vertice is a CoordinateArray of [x,y,z].
      */
     private List<List<Double>> vertices;
 
@@ -20,12 +24,22 @@ public class Triangle extends DrawingMessage{
         super();
         super.setShape("triangle");
         this.vertices = List.of(
-                List.of(-2.0, -2.0, 0.0),
-                List.of(2.0, -2.0, 0.0),
-                List.of(0.0, 2.0, 0.0)
+                CoordinateArray.of(-2.0, -2.0, 0.0),
+                CoordinateArray.of(2.0, -2.0, 0.0),
+                CoordinateArray.of(0.0, 2.0, 0.0)
         );
     }
 
+    /**
+     * Constructs an empty Triangle that keeps the id of an existing message, used by the binary wire format.
+     *
+     * @param id the id of the message.
+     */
+    Triangle(String id){
+        super(id);
+        super.setShape("triangle");
+    }
+
     /**
      * Parameterized constructor.
      *
@@ -36,9 +50,66 @@ public class Triangle extends DrawingMessage{
      */
     public Triangle(String type, String color, List<Double> rotation, List<List<Double>> vertices) {
         super(type, "triangle", color, rotation);
-        this.vertices = vertices;
+        this.vertices = CoordinateArray.copyOfAll(vertices);
+    }
+
+    /**
+     * Computes the area of the board the triangle covers, around its vertices.
+     *
+     * @return the bounds of the triangle, or null if it has no vertices.
+     */
+    @Override
+    @JsonIgnore
+    public BoundingBox getBounds(){
+        BoundingBox bounds = super.getBounds();
+        if(vertices != null){
+            for(List<Double> vertex : vertices){
+                bounds = BoundingBox.union(bounds, BoundingBox.around(vertex, vertex == null ? 0 : vertex.size()));
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Checks whether a point is inside the triangle, near its outline or on the stroke of its points.
+     */
+    @Override
+    public boolean isNear(double x, double y, double tolerance){
+        Polygon outline = outline();
+        return super.isNear(x, y, tolerance) || (outline != null && (outline.contains(x, y)
+                || outline.distanceToBoundary(x, y) <= tolerance + getLineWidth() / 2));
     }
 
+    @Override
+    public boolean intersects(Polygon region){
+        Polygon outline = outline();
+        return super.intersects(region) || (outline != null && outline.intersects(region));
+    }
+
+    @Override
+    public boolean isWithin(Polygon region){
+        Polygon outline = outline();
+        return super.isWithin(region) && (outline == null || region.contains(outline));
+    }
+
+    /**
+     * Gets the outline of the triangle, through its vertices.
+     *
+     * @return the outline, or null if a vertex is missing.
+     */
+    private Polygon outline(){
+        return Polygon.outline(vertices);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(!super.equals(o)) return false;
+        return Objects.equals(vertices, ((Triangle) o).vertices);
+    }
+
+    @Override
+    public int hashCode() {return super.hashCode();}
+
     @Override
     public String toString() {
         return "Triangle{" +
@@ -53,5 +124,6 @@ public class Triangle extends DrawingMessage{
     // Getter and setter methods.
     public List<List<Double>> getVertices() {return vertices;}
 
-    public void setVertices(List<List<Double>> vertices) {this.vertices = vertices;}
+    @JsonDeserialize(contentUsing = CoordinateArray.Deserializer.class)
+    public void setVertices(List<List<Double>> vertices) {this.vertices = CoordinateArray.copyOfAll(vertices);}
 }
\ No newline at end of file
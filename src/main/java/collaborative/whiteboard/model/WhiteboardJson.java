@@ -0,0 +1,85 @@
+package collaborative.whiteboard.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Holds the ObjectMapper shared by the whole application, together with the readers and writers
+ * prebuilt from it for the model types. Building an ObjectMapper rebuilds its serializer caches,
+ * so the mapper and the readers and writers derived from it are created once and reused; they are
+ * all thread-safe. When running inside Spring, JacksonConfig installs the application's configured
+ * mapper here, so code without access to the Spring context uses the same configuration.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public final class WhiteboardJson {
+    /**
+     * The mapper, readers and writers currently in use.
+     */
+    private static volatile WhiteboardJson shared = new WhiteboardJson(new ObjectMapper());
+
+    /**
+     * The mapper everything else is derived from.
+     */
+    private final ObjectMapper objectMapper;
+    /**
+     * Reads a single DrawingMessage.
+     */
+    private final ObjectReader drawingMessageReader;
+    /**
+     * Reads a WhiteboardState.
+     */
+    private final ObjectReader whiteboardStateReader;
+    /**
+     * Writes a WhiteboardState.
+     */
+    private final ObjectWriter whiteboardStateWriter;
+    /**
+     * Writes any value, such as the deltas and snapshots sent to clients.
+     */
+    private final ObjectWriter writer;
+
+    /**
+     * Prebuilds the readers and writers of the model types from a mapper.
+     *
+     * @param objectMapper the configured mapper.
+     */
+    public WhiteboardJson(ObjectMapper objectMapper){
+        this.objectMapper = objectMapper;
+        this.drawingMessageReader = objectMapper.readerFor(DrawingMessage.class);
+        this.whiteboardStateReader = objectMapper.readerFor(WhiteboardState.class);
+        this.whiteboardStateWriter = objectMapper.writerFor(WhiteboardState.class);
+        this.writer = objectMapper.writer();
+    }
+
+    /**
+     * Gets the instance shared by the application.
+     *
+     * @return the shared WhiteboardJson.
+     */
+    public static WhiteboardJson shared() {return shared;}
+
+    /**
+     * Replaces the shared instance, typically with one built from the Spring-configured mapper.
+     *
+     * @param whiteboardJson the new shared instance.
+     */
+    public static void install(WhiteboardJson whiteboardJson){
+        if(whiteboardJson == null){
+            throw new IllegalArgumentException("WhiteboardJson cannot be null.");
+        }
+        shared = whiteboardJson;
+    }
+
+    // Getter methods.
+    public ObjectMapper getObjectMapper() {return objectMapper;}
+
+    public ObjectReader getDrawingMessageReader() {return drawingMessageReader;}
+
+    public ObjectReader getWhiteboardStateReader() {return whiteboardStateReader;}
+
+    public ObjectWriter getWhiteboardStateWriter() {return whiteboardStateWriter;}
+
+    public ObjectWriter getWriter() {return writer;}
+}
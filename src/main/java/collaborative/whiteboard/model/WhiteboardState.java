@@ -1,27 +1,52 @@
 package collaborative.whiteboard.model;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
 import java.io.IOException;
-import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.function.IntConsumer;
 
 /**
  * Represents the state of the whiteboard, including its drawings, timestamp,
  * and version information. This class is primarily used to persist and retrieve
  * the current state of a collaborative whiteboard.
  *
+ * The version and timestamp are updated without synchronization, so an instance must not be modified
+ * by several threads at once. StateManager never modifies a state after publishing it: every transition
+ * is applied to a copy. The drawings are held in a persistent DrawingMap, so a copy shares them all and
+ * takes constant time, and a transition only copies the entries it touches.
+ *
+ * A spatial index of the drawings answers viewport queries. It follows the changes made through
+ * addDrawingMessage, removeDrawingMessage, updateDrawingMessage and applyChanges, and is shared with
+ * copies, so it is only built once per chain of states; a map given to the constructor or changed
+ * directly is indexed again when the index no longer matches its size.
+ *
+ * The JSON of the current version is cached once serialized, so the REST loads and WebSocket snapshots
+ * of an unchanged board share one serialization; every change through the methods of this class,
+ * including incrementVersion, drops it.
+ *
  * @author Andrey Estevam Seabra
  */
 @SpringBootApplication
 public class WhiteboardState {
+    /**
+     * Format of the timestamps (ISO 8601 without fraction or zone). DateTimeFormatter is thread-safe,
+     * so one instance is shared instead of creating a SimpleDateFormat on every version increment.
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
     /**
      * Store all the drawing messages with their IDs as keys.
      */
-    private Map<String, DrawingMessage> drawingMessages;
+    private DrawingMap drawingMessages;
     /**
      * Time the state was saved.
      */
@@ -30,24 +55,34 @@ public class WhiteboardState {
      * Represents the version of the whiteboard state.
      */
     private int version;
+    /**
+     * Index of the drawing messages by their bounds, or null until it is first needed.
+     */
+    private volatile SpatialIndex spatialIndex;
+    /**
+     * The serialized form of the current version, or null until it is first needed; cleared by every change.
+     */
+    private volatile SerializedState serialized;
 
     /**
      * Default constructor required for JSON deserialization.
      */
     public WhiteboardState(){
-        this.drawingMessages = new ConcurrentHashMap<>();
-        this.timeStamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Timestamp(System.currentTimeMillis()));
+        this.drawingMessages = new DrawingMap();
+        this.timeStamp = now();
         this.version = 1;
+        this.spatialIndex = SpatialIndex.EMPTY;
     }
 
     /**
      * Constructs a new WhiteboardState with the specified parameters.
      *
-     * @param drawingMessages a ConcurrentHashMap of DrawingMessage objects representing their IDs as keys and drawing actions on the whiteboard as values.
+     * @param drawingMessages a Map of DrawingMessage objects representing their IDs as keys and drawing actions on
+     *                        the whiteboard as values; its entries are copied unless it is a DrawingMap.
      * @param timeStamp the timestamp indicating when the state was saved.
      * @param version the version number of this whiteboard state.
      */
-    public WhiteboardState(ConcurrentHashMap<String, DrawingMessage> drawingMessages, String timeStamp, int version){
+    public WhiteboardState(Map<String, DrawingMessage> drawingMessages, String timeStamp, int version){
         // Initializing member variables through setter methods to handle exceptions.
         setDrawingMessages(drawingMessages);
         setTimeStamp(timeStamp);
@@ -60,7 +95,8 @@ public class WhiteboardState {
      * @param message the DrawingMessage to be added to the Map.
      */
     public void addDrawingMessage(DrawingMessage message){
-        this.drawingMessages.put(message.getId(), message);
+        DrawingMessage previous = this.drawingMessages.put(message.getId(), message);
+        reindex(previous, message);
         incrementVersion();
     }
 
@@ -72,7 +108,7 @@ public class WhiteboardState {
      */
     public boolean removeDrawingMessage(String id){
         if(this.drawingMessages.containsKey(id)){
-            this.drawingMessages.remove(id);
+            reindex(this.drawingMessages.remove(id), null);
             incrementVersion();
             return true;
         }
@@ -88,42 +124,259 @@ public class WhiteboardState {
      */
     public boolean updateDrawingMessage(DrawingMessage message){
         if(this.drawingMessages.containsKey(message.getId())){
-            this.drawingMessages.replace(message.getId(), message);
+            reindex(this.drawingMessages.replace(message.getId(), message), message);
             incrementVersion();
             return true;
         }
         return false;
     }
 
+    /**
+     * Adds, replaces and removes drawing messages as a single change, then sets the timestamp and version
+     * once, instead of incrementing the version for each message as addDrawingMessage,
+     * updateDrawingMessage and removeDrawingMessage do. When the change touches more than half of the
+     * board, the spatial index is dropped and rebuilt on the next query rather than updated entry by entry.
+     *
+     * @param put the messages to add, or to replace if their ID exists.
+     * @param removed the IDs of the messages to remove; IDs that do not exist are ignored.
+     * @param timeStamp the timestamp of the resulting state.
+     * @param version the version of the resulting state.
+     * @throws IllegalArgumentException if the timestamp or version is not valid, in which case the state
+     * is left unchanged.
+     */
+    public void applyChanges(Collection<DrawingMessage> put, Collection<String> removed, String timeStamp, int version){
+        setTimeStamp(timeStamp);
+        setVersion(version);
+        SpatialIndex index = spatialIndex;
+        if(index != null && (long) (put.size() + removed.size()) * 2 > drawingMessages.size()){
+            index = null;
+        }
+        for(String id : removed){
+            DrawingMessage previous = drawingMessages.remove(id);
+            if(index != null && previous != null){
+                index = reindexed(index, previous, null);
+            }
+        }
+        for(DrawingMessage message : put){
+            DrawingMessage previous = drawingMessages.put(message.getId(), message);
+            if(index != null){
+                index = reindexed(index, previous, message);
+            }
+        }
+        spatialIndex = index;
+    }
+
+    /**
+     * Finds the drawing messages whose bounds intersect a viewport, along with those without a
+     * position, which belong to every viewport.
+     *
+     * @param viewport the area of the board to look in.
+     * @return the matching drawing messages, in no particular order.
+     */
+    public List<DrawingMessage> findDrawingMessages(BoundingBox viewport){
+        List<DrawingMessage> messages = new ArrayList<>();
+        for(String id : getSpatialIndex().query(viewport)){
+            DrawingMessage message = drawingMessages.get(id);
+            if(message != null){
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Finds the drawing messages a point is on, as when a user clicks the board. The spatial index
+     * narrows the search to the drawings near the point, which are then tested against their geometry.
+     *
+     * @param x the x coordinate of the point.
+     * @param y the y coordinate of the point.
+     * @param tolerance how far from a drawing the point may be.
+     * @return the drawing messages hit, in no particular order.
+     */
+    public List<DrawingMessage> findDrawingMessagesAt(double x, double y, double tolerance){
+        double reach = Math.max(0, tolerance);
+        List<DrawingMessage> hits = new ArrayList<>();
+        for(DrawingMessage message : findDrawingMessages(new BoundingBox(x - reach, y - reach, x + reach, y + reach))){
+            if(message.isNear(x, y, reach)){
+                hits.add(message);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Finds the drawing messages in a region, such as a lasso or a rectangle, narrowed down with the
+     * spatial index and then tested against their geometry.
+     *
+     * @param region the region.
+     * @param contained whether only the drawings lying entirely within the region are found, instead
+     *                  of every drawing touching it.
+     * @return the matching drawing messages, in no particular order.
+     */
+    public List<DrawingMessage> findDrawingMessages(Polygon region, boolean contained){
+        List<DrawingMessage> found = new ArrayList<>();
+        for(DrawingMessage message : findDrawingMessages(region.getBounds())){
+            if(contained ? message.isWithin(region) : message.intersects(region)){
+                found.add(message);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Creates a state with the same timestamp and version holding only the drawing messages in a viewport.
+     *
+     * @param viewport the area of the board to keep.
+     * @return a new WhiteboardState with the drawing messages found by findDrawingMessages.
+     */
+    public WhiteboardState inViewport(BoundingBox viewport){
+        DrawingMap visible = new DrawingMap();
+        for(DrawingMessage message : findDrawingMessages(viewport)){
+            visible.put(message.getId(), message);
+        }
+        return new WhiteboardState(visible, timeStamp, version);
+    }
+
+    /**
+     * Gets the spatial index of the drawing messages, building it if it is missing or out of date.
+     *
+     * @return the spatial index.
+     */
+    private SpatialIndex getSpatialIndex(){
+        SpatialIndex index = spatialIndex;
+        if(index == null || index.size() != drawingMessages.size()){
+            index = SpatialIndex.EMPTY;
+            for(DrawingMessage message : drawingMessages.values()){
+                index = index.put(message.getId(), message.getBounds());
+            }
+            // Building it twice concurrently is harmless: both results are equal and immutable.
+            spatialIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Updates the spatial index, if it is built, after a drawing message was replaced.
+     *
+     * @param previous the message that was removed or replaced, or null.
+     * @param next the message that was added, or null.
+     */
+    private void reindex(DrawingMessage previous, DrawingMessage next){
+        SpatialIndex index = spatialIndex;
+        if(index != null){
+            spatialIndex = reindexed(index, previous, next);
+        }
+    }
+
+    private static SpatialIndex reindexed(SpatialIndex index, DrawingMessage previous, DrawingMessage next){
+        if(previous != null){
+            index = index.remove(previous.getId(), previous.getBounds());
+        }
+        if(next != null){
+            index = index.put(next.getId(), next.getBounds());
+        }
+        return index;
+    }
+
+    /**
+     * Gets the serialized form of the current version of the state, serializing it only if the state
+     * changed since it was last serialized with the same writer. The state must not be modified while
+     * it is being serialized, which holds for the published states of a room.
+     *
+     * @param writer the writer producing the JSON, such as the one shared by the application.
+     * @return the JSON of the state, with its gzip variant.
+     * @throws JsonProcessingException if the state cannot be serialized.
+     */
+    public SerializedState serialize(ObjectWriter writer) throws JsonProcessingException {
+        return serialize(writer, null);
+    }
+
+    /**
+     * Gets the serialized form of the current version of the state, like {@link #serialize(ObjectWriter)},
+     * reporting the size of the JSON whenever it is actually serialized, so each version is measured once.
+     *
+     * @param writer the writer producing the JSON, such as the one shared by the application.
+     * @param onSerialized receives the size in bytes of the JSON built by this call; may be null.
+     * @return the JSON of the state, with its gzip variant.
+     * @throws JsonProcessingException if the state cannot be serialized.
+     */
+    public SerializedState serialize(ObjectWriter writer, IntConsumer onSerialized) throws JsonProcessingException {
+        SerializedState cached = serialized;
+        if(cached == null || cached.getWriter() != writer){
+            cached = new SerializedState(writer, writer.writeValueAsBytes(this));
+            serialized = cached;
+            if(onSerialized != null){
+                onSerialized.accept(cached.getJson().length);
+            }
+        }
+        return cached;
+    }
+
     /**
      * Increments the version number.
      */
     public void incrementVersion(){
         this.version++;
-        timeStamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Timestamp(System.currentTimeMillis()));
+        timeStamp = now();
+        serialized = null;
     }
 
     /**
-     * Serializes the WhiteboardState object into JSON.
+     * Formats the current local time as a timestamp.
+     *
+     * @return the current time in the timestamp format.
+     */
+    static String now(){
+        return LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).format(TIMESTAMP_FORMAT);
+    }
+
+    /**
+     * Creates a copy of this state with its own drawingMessages map, in constant time: the persistent
+     * map shares its entries with the copy until either changes. The DrawingMessage objects themselves
+     * are shared, since state changes replace them rather than modify them, and so is the immutable
+     * spatial index.
+     *
+     * @return a new WhiteboardState with the same drawing messages, timestamp and version.
+     */
+    public WhiteboardState copy(){
+        WhiteboardState copy = new WhiteboardState(drawingMessages.copy(), timeStamp, version);
+        copy.spatialIndex = getSpatialIndex();
+        return copy;
+    }
+
+    /**
+     * Serializes the WhiteboardState object into JSON, using the writer shared by the application.
      *
      * @return A JSON-formatted string representation of the WhiteboardState object.
      * @throws IOException if an error occurs during the JSON serialization process.
      */
     public String exportToJSON() throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.writeValueAsString(this);
+        return WhiteboardJson.shared().getWhiteboardStateWriter().writeValueAsString(this);
     }
 
     /**
-     * Deserializes a JSON string and converts it into a WhiteboardState object.
+     * Deserializes a JSON string and converts it into a WhiteboardState object, using the reader
+     * shared by the application.
      *
      * @param json the JSON string representing the WhiteboardState.
      * @return a WhiteboardState object reconstructed from the given JSON string.
      * @throws IOException if an error occurs during JSON deserialization.
      */
     public static WhiteboardState importFromJSON(String json) throws IOException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        return objectMapper.readValue(json, WhiteboardState.class);
+        return WhiteboardJson.shared().getWhiteboardStateReader().readValue(json);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof WhiteboardState other)) return false;
+        return version == other.version && Objects.equals(timeStamp, other.timeStamp)
+                && drawingMessages.equals(other.drawingMessages);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timeStamp, version, drawingMessages.size());
     }
 
     @Override
@@ -142,7 +395,9 @@ public class WhiteboardState {
         if(drawingMessages == null){
             throw new IllegalArgumentException("Drawing messages cannot be null.");
         }
-        this.drawingMessages = drawingMessages;
+        this.drawingMessages = drawingMessages instanceof DrawingMap map ? map : DrawingMap.copyOf(drawingMessages);
+        this.spatialIndex = null;
+        this.serialized = null;
     }
 
     public String getTimeStamp(){return timeStamp;}
@@ -152,6 +407,7 @@ public class WhiteboardState {
             throw new IllegalArgumentException("Invalid timestamp format. Expected ISO 8601 format.");
         }
         this.timeStamp = timeStamp;
+        this.serialized = null;
     }
 
     public int getVersion(){return version;}
@@ -161,5 +417,6 @@ public class WhiteboardState {
             throw new IllegalArgumentException("Version must be a positive integer.");
         }
         this.version = version;
+        this.serialized = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,218 @@
+package collaborative.whiteboard.broker;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.RelayListener;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.WhiteboardJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the {@code StompRoomBroker} class, publishing the messages of the rooms of a
+ * WhiteboardHandler to a mocked broker.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StompRoomBrokerTest {
+    private static final String TOPIC = StompRoomBroker.ROOM_TOPIC_PREFIX + "design";
+
+    private SimpMessageSendingOperations messagingTemplate;
+    private WhiteboardHandler whiteboardHandler;
+    private RoomManager roomManager;
+    private StompRoomBroker broker;
+    private WebSocketSession rawSession;
+    private String json;
+
+    @BeforeEach
+    public void setUp() throws Exception{
+        messagingTemplate = mock(SimpMessageSendingOperations.class);
+        whiteboardHandler = new WhiteboardHandler();
+        roomManager = new RoomManager(whiteboardHandler, WhiteboardJson.shared(), new WhiteboardProperties());
+        broker = new StompRoomBroker(messagingTemplate, whiteboardHandler, roomManager, WhiteboardJson.shared());
+        broker.start();
+
+        rawSession = mock(WebSocketSession.class);
+        when(rawSession.getUri()).thenReturn(new URI("/ws/whiteboard?username=Ana&room=design"));
+        when(rawSession.getAttributes()).thenReturn(new HashMap<>());
+        when(rawSession.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(rawSession);
+        json = new ObjectMapper().writeValueAsString(new DrawingMessage("draw", "circle", "blue", null));
+    }
+
+    @Test
+    public void shouldOnlyPublishToRoomsWithSubscribers() throws Exception{
+        WebSocketSession sender = mock(WebSocketSession.class);
+        when(sender.getUri()).thenReturn(new URI("/ws/whiteboard?username=Bruno&room=design"));
+        when(sender.getAttributes()).thenReturn(new HashMap<>());
+        whiteboardHandler.afterConnectionEstablished(sender);
+
+        whiteboardHandler.handleTextMessage(sender, new TextMessage(json));
+        verify(messagingTemplate, never()).send(anyString(), any());
+
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-0", TOPIC)));
+        whiteboardHandler.handleTextMessage(sender, new TextMessage(json));
+
+        assertEquals(json, new String(publishedPayload(), StandardCharsets.UTF_8));
+        verify(rawSession, times(2)).sendMessage(new TextMessage(json));
+    }
+
+    @Test
+    public void shouldRelayStompDrawingsLikeRawOnes() throws Exception{
+        RelayListener listener = mock(RelayListener.class);
+        whiteboardHandler.addRelayListener(listener);
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-0", TOPIC)));
+
+        whiteboardHandler.relayFromBroker("design", json.getBytes(StandardCharsets.UTF_8));
+
+        verify(rawSession).sendMessage(new TextMessage(json));
+        verify(listener).drawingRelayed(eq("design"), any());
+        assertEquals(json, new String(publishedPayload(), StandardCharsets.UTF_8));
+
+        // Invalid messages and rooms are dropped.
+        whiteboardHandler.relayFromBroker("design", "{not json".getBytes(StandardCharsets.UTF_8));
+        whiteboardHandler.relayFromBroker("../design", json.getBytes(StandardCharsets.UTF_8));
+        verify(rawSession, times(1)).sendMessage(any());
+    }
+
+    @Test
+    public void shouldPublishStateTransitionsAndNotices(){
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-0", TOPIC)));
+
+        roomManager.getRoom("design").addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        String delta = new String(publishedPayload(), StandardCharsets.UTF_8);
+        assertTrue(delta.contains("\"revision\":1"), delta);
+
+        clearInvocations(messagingTemplate);
+        whiteboardHandler.afterConnectionClosed(rawSession, CloseStatus.NORMAL);
+        assertEquals("User Ana has left the room.", new String(publishedPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldPublishTransitionsByRevision() throws Exception{
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-0", TOPIC)));
+
+        // The transition to revision 2 reaches the broker before the one to revision 1.
+        broker.stateChanged("design", new StateDelta(1, 2), null);
+        verify(messagingTemplate, never()).send(anyString(), any());
+        broker.stateChanged("design", new StateDelta(0, 1), null);
+
+        assertEquals(List.of(1L, 2L), publishedRevisions());
+    }
+
+    @Test
+    public void shouldPublishConcurrentTransitionsInOrder() throws Exception{
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-0", TOPIC)));
+        StateManager room = roomManager.getRoom("design");
+        int threads = 8;
+        // Fewer transitions than the window, so none is ever skipped.
+        int changes = StompRoomBroker.MAX_PENDING_TRANSITIONS / threads;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < threads; i++){
+            futures.add(executor.submit(() -> {
+                start.await();
+                for(int j = 0; j < changes; j++){
+                    room.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : futures){
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        List<Long> revisions = publishedRevisions();
+        assertEquals(threads * changes, revisions.size());
+        for(int i = 0; i < revisions.size(); i++){
+            assertEquals(i + 1, revisions.get(i));
+        }
+    }
+
+    @Test
+    public void shouldStopPublishingOnceUnsubscribedOrDisconnected(){
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-0", TOPIC)));
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-1", "sub-1", TOPIC)));
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-2", "sub-0", TOPIC)));
+        broker.onApplicationEvent(new SessionSubscribeEvent(this, frame(StompCommand.SUBSCRIBE, "stomp-2", "sub-1", "/topic/other")));
+        assertEquals(3, broker.getSubscribers("design"));
+
+        broker.onApplicationEvent(new SessionUnsubscribeEvent(this, frame(StompCommand.UNSUBSCRIBE, "stomp-1", "sub-0", null)));
+        assertEquals(2, broker.getSubscribers("design"));
+        broker.onApplicationEvent(new SessionDisconnectEvent(this, frame(StompCommand.DISCONNECT, "stomp-1", null, null),
+                "stomp-1", CloseStatus.NORMAL));
+        assertEquals(1, broker.getSubscribers("design"));
+        broker.onApplicationEvent(new SessionDisconnectEvent(this, frame(StompCommand.DISCONNECT, "stomp-2", null, null),
+                "stomp-2", CloseStatus.NORMAL));
+
+        assertFalse(broker.hasSubscribers("design"));
+        whiteboardHandler.relayFromBroker("design", json.getBytes(StandardCharsets.UTF_8));
+        verify(messagingTemplate, never()).send(anyString(), any());
+    }
+
+    /**
+     * Captures the payload of the only message published to the topic of the room.
+     */
+    private byte[] publishedPayload(){
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate).send(eq(TOPIC), captor.capture());
+        return (byte[]) captor.getValue().getPayload();
+    }
+
+    /**
+     * Reads the revisions of the deltas published to the topic of the room, in the order they were published.
+     */
+    private List<Long> publishedRevisions() throws Exception{
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Message<?>> captor = ArgumentCaptor.forClass(Message.class);
+        verify(messagingTemplate, atLeastOnce()).send(eq(TOPIC), captor.capture());
+        List<Long> revisions = new ArrayList<>();
+        for(Message<?> message : captor.getAllValues()){
+            revisions.add(new ObjectMapper().readTree((byte[]) message.getPayload()).get("revision").asLong());
+        }
+        return revisions;
+    }
+
+    private static Message<byte[]> frame(StompCommand command, String sessionId, String subscriptionId, String destination){
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(command);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,279 @@
+package collaborative.whiteboard.cluster;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.journal.JournalCodec;
+import collaborative.whiteboard.journal.JournalManager;
+import collaborative.whiteboard.journal.RoomJournal;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests of two nodes sharing their rooms through an in-memory bus.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class ClusterManagerTest {
+    private static final Map<String, String> NODES = Map.of("node-a", "http://a:8080", "node-b", "http://b:8080");
+
+    private InMemoryBroadcastBus busA;
+    private Node nodeA;
+    private Node nodeB;
+    /**
+     * A room owned by node A.
+     */
+    private String roomId;
+
+    @BeforeEach
+    public void setUp(){
+        busA = new InMemoryBroadcastBus();
+        nodeA = new Node("node-a", busA);
+        nodeB = new Node("node-b", busA.join());
+        roomId = roomOwnedBy("node-a");
+    }
+
+    @Test
+    public void shouldRelayDrawingsToSessionsOnOtherNodes() throws Exception{
+        WebSocketSession sender = session(nodeA, "Ana");
+        WebSocketSession receiver = session(nodeB, "Bruno");
+        String json = new ObjectMapper().writeValueAsString(new DrawingMessage("draw", "circle", "blue", null));
+
+        nodeA.handler.handleTextMessage(sender, new TextMessage(json));
+
+        verify(receiver).sendMessage(new TextMessage(json));
+        verify(sender, never()).sendMessage(any());
+    }
+
+    @Test
+    public void shouldReplicateTheTransitionsOfTheOwner() throws Exception{
+        WebSocketSession replicaSession = session(nodeB, "Bruno");
+        StateManager owner = nodeA.rooms.getRoom(roomId);
+        DrawingMessage message = new DrawingMessage("draw", "line", "red", null);
+
+        owner.addDrawingMessage("Ana", message);
+        owner.removeDrawingMessage("Ana", message.getId());
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "circle", "blue", null));
+
+        StateManager replica = nodeB.rooms.getRoom(roomId);
+        assertEquals(3, replica.getRevision());
+        assertEquals(owner.getCurrentState().getDrawingMessages(), replica.getCurrentState().getDrawingMessages());
+        assertEquals(owner.getCurrentState().getVersion(), replica.getCurrentState().getVersion());
+        assertTrue(replica.getUndoHistory("Ana").isEmpty(), "Only the owner keeps the history.");
+        assertTrue(nodeB.cluster.isSynced(roomId));
+        verify(replicaSession, times(3)).sendMessage(any(TextMessage.class));
+    }
+
+    @Test
+    public void shouldCatchUpWithASnapshotWhenBehind(){
+        StateManager owner = nodeA.rooms.getRoom(roomId);
+        nodeB.bus.close();
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "green", null));
+
+        // A node joining later misses the first transitions and asks for a snapshot on the next one.
+        Node late = new Node("node-b", busA.join());
+        assertFalse(late.cluster.isSynced(roomId));
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "blue", null));
+
+        StateManager replica = late.rooms.getRoom(roomId);
+        assertEquals(3, replica.getRevision());
+        assertEquals(owner.getCurrentState().getDrawingMessages(), replica.getCurrentState().getDrawingMessages());
+        assertTrue(late.cluster.isSynced(roomId));
+    }
+
+    @Test
+    public void shouldWaitForTransitionsArrivingOutOfOrder() throws Exception{
+        List<BusMessage> seen = record();
+        StateManager owner = nodeA.rooms.getRoom(roomId);
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        nodeB.bus.close();
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "green", null));
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "blue", null));
+        List<BusMessage> transitions = ofType(seen, BusMessage.Type.STATE);
+
+        // Revision 3 is held until revision 2 arrives, without asking for a snapshot.
+        nodeB.cluster.receive(transitions.get(2));
+        assertEquals(1, nodeB.rooms.getRoom(roomId).getRevision());
+        nodeB.cluster.receive(transitions.get(1));
+        assertEquals(3, nodeB.rooms.getRoom(roomId).getRevision());
+
+        Thread.sleep(ClusterManager.GAP_DEADLINE_MILLIS * 2);
+        assertTrue(ofType(seen, BusMessage.Type.SNAPSHOT_REQUEST).isEmpty());
+    }
+
+    @Test
+    public void shouldAskForASnapshotWhenAGapStaysOpen() throws Exception{
+        List<BusMessage> seen = record();
+        StateManager owner = nodeA.rooms.getRoom(roomId);
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        nodeB.bus.close();
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "green", null));
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "blue", null));
+
+        nodeB.cluster.receive(ofType(seen, BusMessage.Type.STATE).get(2));
+        assertTrue(ofType(seen, BusMessage.Type.SNAPSHOT_REQUEST).isEmpty(), "The gap may still close.");
+
+        List<BusMessage> requests = awaitSnapshotRequests(seen);
+        assertEquals(1, requests.size());
+        assertEquals("node-b", requests.get(0).nodeId());
+    }
+
+    @Test
+    public void shouldKeepTheOldestTransitionsWhenTheWindowIsFull() throws Exception{
+        List<BusMessage> seen = record();
+        StateManager owner = nodeA.rooms.getRoom(roomId);
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        nodeB.bus.close();
+        for(int i = 0; i < 1026; i++){
+            owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        }
+        List<BusMessage> transitions = ofType(seen, BusMessage.Type.STATE);
+
+        // Revisions 3 to 1027 overflow the window of 1024 while revision 2 is missing.
+        for(BusMessage transition : transitions.subList(2, transitions.size())){
+            nodeB.cluster.receive(transition);
+        }
+        assertFalse(awaitSnapshotRequests(seen).isEmpty(), "A full window asks for a snapshot.");
+
+        // The newest transition was dropped, so revision 2 unblocks all the others.
+        nodeB.cluster.receive(transitions.get(1));
+        assertEquals(1026, nodeB.rooms.getRoom(roomId).getRevision());
+    }
+
+    @Test
+    public void shouldJournalTheReplicaFromItsSnapshot(@TempDir Path directory) throws Exception{
+        StateManager owner = nodeA.rooms.getRoom(roomId);
+        nodeB.bus.close();
+        for(int i = 0; i < 3; i++){
+            owner.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        }
+
+        // The late node journals its replica, which starts from the snapshot of revision 3.
+        WhiteboardProperties properties = new WhiteboardProperties();
+        properties.getJournal().setDirectory(directory.toString());
+        Node late = new Node("node-b", busA.join());
+        JournalManager journalManager = new JournalManager(late.rooms, WhiteboardJson.shared(), properties);
+        journalManager.recover();
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "circle", "blue", null));
+        owner.addDrawingMessage("Ana", new DrawingMessage("draw", "circle", "green", null));
+
+        assertEquals(5, late.rooms.getRoom(roomId).getRevision());
+        assertTrue(journalManager.getJournal(roomId).awaitDurable(5, 5_000), "The replicated transitions are written.");
+        journalManager.close();
+        StateSnapshot recovered = new RoomJournal(directory.resolve(roomId),
+                new JournalCodec(WhiteboardJson.shared().getObjectMapper()), 1_000, Runnable::run).recover();
+        assertEquals(5, recovered.getRevision());
+        assertEquals(owner.getCurrentState().getDrawingMessages(), recovered.getState().getDrawingMessages());
+    }
+
+    @Test
+    public void shouldRedirectChangesToTheOwner() throws Exception{
+        OwnerRedirectInterceptor interceptor = new OwnerRedirectInterceptor(nodeB.cluster);
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/whiteboard/rooms/" + roomId + "/undo");
+        request.setQueryString("username=Ana");
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("roomId", roomId));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.preHandle(request, response, null));
+        assertEquals(307, response.getStatus());
+        assertEquals("http://a:8080/api/whiteboard/rooms/" + roomId + "/undo?username=Ana", response.getHeader("Location"));
+
+        // The owner answers its own requests, and a synchronized replica answers reads.
+        assertTrue(new OwnerRedirectInterceptor(nodeA.cluster).preHandle(request, new MockHttpServletResponse(), null));
+        MockHttpServletRequest read = new MockHttpServletRequest("GET", "/api/whiteboard/rooms/" + roomId + "/load");
+        read.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("roomId", roomId));
+        assertTrue(interceptor.preHandle(read, new MockHttpServletResponse(), null), "The snapshot requested by the read arrived at once.");
+    }
+
+    @Test
+    public void shouldAgreeOnTheOwners(){
+        RoomOwnership other = new RoomOwnership("node-b", NODES);
+        int ownedByA = 0;
+        for(int i = 0; i < 1000; i++){
+            String room = "room-" + i;
+            assertEquals(nodeA.cluster.getOwnership().getOwner(room), other.getOwner(room));
+            ownedByA += nodeA.cluster.getOwnership().isOwner(room) ? 1 : 0;
+        }
+        assertTrue(ownedByA > 400 && ownedByA < 600, "Rooms are spread evenly: " + ownedByA);
+    }
+
+    /**
+     * Records every message published on the bus, as a third node would see them.
+     */
+    private List<BusMessage> record(){
+        List<BusMessage> seen = new CopyOnWriteArrayList<>();
+        busA.join().subscribe(seen::add);
+        return seen;
+    }
+
+    /**
+     * Waits up to 5 seconds for a snapshot request, which a replica may send from a timer.
+     */
+    private static List<BusMessage> awaitSnapshotRequests(List<BusMessage> seen) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + 5_000;
+        while(ofType(seen, BusMessage.Type.SNAPSHOT_REQUEST).isEmpty() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        return ofType(seen, BusMessage.Type.SNAPSHOT_REQUEST);
+    }
+
+    private static List<BusMessage> ofType(List<BusMessage> messages, BusMessage.Type type){
+        return messages.stream().filter(message -> message.type() == type).toList();
+    }
+
+    private String roomOwnedBy(String nodeId){
+        RoomOwnership ownership = new RoomOwnership(nodeId, NODES);
+        for(int i = 0; ; i++){
+            if(ownership.isOwner("room-" + i)){
+                return "room-" + i;
+            }
+        }
+    }
+
+    private WebSocketSession session(Node node, String username) throws Exception{
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(new URI("/whiteboard?username=" + username + "&room=" + roomId));
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        when(session.isOpen()).thenReturn(true);
+        node.handler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    /**
+     * A node: its handler, rooms and cluster manager, connected to the others by a bus.
+     */
+    private static class Node {
+        private final WhiteboardHandler handler = new WhiteboardHandler();
+        private final RoomManager rooms = new RoomManager(handler, WhiteboardJson.shared(), new WhiteboardProperties());
+        private final InMemoryBroadcastBus bus;
+        private final ClusterManager cluster;
+
+        private Node(String nodeId, InMemoryBroadcastBus bus){
+            this.bus = bus;
+            this.cluster = new ClusterManager(rooms, handler, bus, new RoomOwnership(nodeId, NODES), WhiteboardJson.shared());
+            cluster.start();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package collaborative.whiteboard.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code SocketBroadcastBus} class, with two buses on local ports.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SocketBroadcastBusTest {
+
+    @Test
+    public void shouldDeliverMessagesInOrderToPeers() throws Exception{
+        try(SocketBroadcastBus first = new SocketBroadcastBus(0); SocketBroadcastBus second = new SocketBroadcastBus(0)){
+            BlockingQueue<BusMessage> received = new LinkedBlockingQueue<>();
+            second.subscribe(received::add);
+            first.addPeer(new InetSocketAddress("localhost", second.getPort()));
+
+            for(int i = 1; i <= 100; i++){
+                first.publish(new BusMessage(BusMessage.Type.STATE, "node-a", "design", i,
+                        ("revision " + i).getBytes(StandardCharsets.UTF_8)));
+            }
+
+            for(int i = 1; i <= 100; i++){
+                BusMessage message = received.poll(10, TimeUnit.SECONDS);
+                assertNotNull(message, "Message " + i + " was not delivered.");
+                assertEquals(BusMessage.Type.STATE, message.type());
+                assertEquals("node-a", message.nodeId());
+                assertEquals("design", message.roomId());
+                assertEquals(i, message.revision());
+                assertEquals("revision " + i, new String(message.payload(), StandardCharsets.UTF_8));
+            }
+            assertEquals(0, first.getDroppedMessages());
+        }
+    }
+
+    @Test
+    public void shouldReconnectOnceThePeerIsReachable() throws Exception{
+        try(SocketBroadcastBus first = new SocketBroadcastBus(0)){
+            int port;
+            try(SocketBroadcastBus probe = new SocketBroadcastBus(0)){
+                port = probe.getPort();
+            }
+            first.addPeer(new InetSocketAddress("localhost", port));
+            first.publish(new BusMessage(BusMessage.Type.NOTICE, "node-a", "design", 0, new byte[0]));
+
+            try(SocketBroadcastBus second = new SocketBroadcastBus(port)){
+                BlockingQueue<BusMessage> received = new LinkedBlockingQueue<>();
+                second.subscribe(received::add);
+                // Messages published before the subscription may already have been delivered to no one.
+                BusMessage message = null;
+                for(int attempt = 0; attempt < 100 && message == null; attempt++){
+                    first.publish(new BusMessage(BusMessage.Type.SNAPSHOT_REQUEST, "node-a", "design", 0, new byte[0]));
+                    message = received.poll(100, TimeUnit.MILLISECONDS);
+                }
+                assertNotNull(message, "No message was delivered once the peer started.");
+                assertEquals("design", message.roomId());
+            }
+        }
+    }
+}
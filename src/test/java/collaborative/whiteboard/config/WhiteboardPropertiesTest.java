@@ -0,0 +1,51 @@
+package collaborative.whiteboard.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code WhiteboardProperties} class, bound and validated by a minimal application context.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class WhiteboardPropertiesTest {
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withUserConfiguration(PropertiesConfig.class);
+
+    @Test
+    public void shouldBindValidProperties(){
+        runner.withPropertyValues("whiteboard.compression.level=9", "whiteboard.history.max-depth=1")
+                .run(context -> {
+                    assertNull(context.getStartupFailure());
+                    WhiteboardProperties properties = context.getBean(WhiteboardProperties.class);
+                    assertEquals(9, properties.getCompression().getLevel());
+
+                    // The broker's channels are bounded by default.
+                    WhiteboardProperties.Broker.Channel outbound = properties.getBroker().getOutbound();
+                    assertTrue(outbound.getQueueCapacity() < Integer.MAX_VALUE);
+                    assertTrue(outbound.getMaxPoolSize() < Integer.MAX_VALUE);
+                    assertTrue(outbound.getMaxPoolSize() >= outbound.getCorePoolSize());
+                });
+    }
+
+    @Test
+    public void shouldFailAtStartupOnInvalidProperties(){
+        for(String property : new String[]{"whiteboard.history.max-depth=0",
+                "whiteboard.outbound.queue-capacity=0", "whiteboard.delta.max-log-size=-1",
+                "whiteboard.journal.snapshot-interval=0", "whiteboard.batching.interval=0",
+                "whiteboard.compression.level=10", "whiteboard.cluster.port=70000",
+                "whiteboard.broker.inbound.core-pool-size=0"}){
+            runner.withPropertyValues(property)
+                    .run(context -> assertNotNull(context.getStartupFailure(), property));
+        }
+    }
+
+    @Configuration
+    @EnableConfigurationProperties(WhiteboardProperties.class)
+    static class PropertiesConfig {
+    }
+}
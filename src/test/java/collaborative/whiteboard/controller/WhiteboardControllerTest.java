@@ -1,12 +1,18 @@
 package collaborative.whiteboard.controller;
 
+import collaborative.whiteboard.manager.RoomManager;
 import collaborative.whiteboard.manager.StateManager;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -22,6 +28,9 @@ public class WhiteboardControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private RoomManager roomManager;
+
     @Test
     public void shouldSaveAndLoadWhiteboardState() throws Exception {
         String jsonPayload = "{\"drawingMessages\": {}, \"timeStamp\": \"2025-01-02T10:15:30\", \"version\": 1}";
@@ -109,4 +118,170 @@ public class WhiteboardControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.timeStamp").value("2025-01-02T10:15:30"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldKeepRoomsIsolated() throws Exception {
+        String jsonPayload = "{\"drawingMessages\": {}, \"timeStamp\": \"2025-01-03T09:00:00\", \"version\": 1}";
+        mockMvc.perform(post("/api/whiteboard/rooms/alpha/save").contentType("application/json")
+                .content(jsonPayload)).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/whiteboard/rooms/alpha/load")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.timeStamp").value("2025-01-03T09:00:00"));
+        mockMvc.perform(get("/api/whiteboard/rooms/beta/load")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void shouldNotCreateRoomOnRead() throws Exception {
+        mockMvc.perform(get("/api/whiteboard/rooms/ghost/load")).andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/whiteboard/rooms/ghost/changes?since=0")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.revision").value(0));
+
+        assertNull(roomManager.findRoom("ghost"));
+    }
+
+    @Test
+    public void shouldRejectInvalidRoom() throws Exception {
+        mockMvc.perform(post("/api/whiteboard/rooms/bad.room/undo")).andExpect(status().isBadRequest())
+                .andExpect(content().string("Invalid room identifier."));
+    }
+
+    @Test
+    public void shouldLoadOnlyViewport() throws Exception {
+        String jsonPayload = "{\"drawingMessages\": {"
+                + "\"near\": {\"id\": \"near\", \"points\": [10, 10, 20, 20]},"
+                + "\"far\": {\"id\": \"far\", \"points\": [900, 900, 950, 950]}"
+                + "}, \"timeStamp\": \"2025-01-04T09:00:00\", \"version\": 1}";
+        mockMvc.perform(post("/api/whiteboard/rooms/viewport/save").contentType("application/json")
+                .content(jsonPayload)).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/whiteboard/rooms/viewport/viewport")
+                        .param("minX", "0").param("minY", "0").param("maxX", "100").param("maxY", "100"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.type").value("snapshot"))
+                .andExpect(jsonPath("$.state.drawingMessages.near").exists())
+                .andExpect(jsonPath("$.state.drawingMessages.far").doesNotExist());
+
+        mockMvc.perform(get("/api/whiteboard/rooms/viewport/viewport")
+                        .param("minX", "100").param("minY", "0").param("maxX", "0").param("maxY", "100"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldHitTestAndEraseRegion() throws Exception {
+        String jsonPayload = "{\"drawingMessages\": {"
+                + "\"near\": {\"id\": \"near\", \"points\": [10, 10, 20, 20]},"
+                + "\"far\": {\"id\": \"far\", \"points\": [900, 900, 950, 950]}"
+                + "}, \"timeStamp\": \"2025-01-05T09:00:00\", \"version\": 1}";
+        mockMvc.perform(post("/api/whiteboard/rooms/erase/save").contentType("application/json")
+                .content(jsonPayload)).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/whiteboard/rooms/erase/hit").param("x", "15").param("y", "15"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[\"near\"]"));
+        mockMvc.perform(post("/api/whiteboard/rooms/erase/select").contentType("application/json")
+                        .content("[0, 0, 100, 0, 0, 100]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[\"near\"]"));
+
+        mockMvc.perform(post("/api/whiteboard/rooms/erase/erase").contentType("application/json")
+                        .content("[0, 0, 100, 0, 100, 100, 0, 100]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[\"near\"]"));
+        mockMvc.perform(get("/api/whiteboard/rooms/erase/load")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.drawingMessages.near").doesNotExist())
+                .andExpect(jsonPath("$.drawingMessages.far").exists());
+
+        mockMvc.perform(post("/api/whiteboard/rooms/erase/erase").contentType("application/json")
+                        .content("[0, 0, 100, 0]"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldPatchStateAgainstBaseRevision() throws Exception {
+        String patch = "{\"baseRevision\": 0, \"add\": [{\"id\": \"a\", \"points\": [1, 2]}]}";
+        mockMvc.perform(patch("/api/whiteboard/rooms/patch/save").contentType("application/json").content(patch))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.revision").value(1));
+        mockMvc.perform(get("/api/whiteboard/rooms/patch/load")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.drawingMessages.a.points[1]").value(2.0));
+
+        // The same patch is now based on an outdated revision.
+        mockMvc.perform(patch("/api/whiteboard/rooms/patch/save").contentType("application/json").content(patch))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("Base revision 0 does not match the current revision 1."));
+
+        mockMvc.perform(patch("/api/whiteboard/rooms/patch/save").contentType("application/json")
+                        .content("{\"baseRevision\": 1, \"remove\": [\"missing\"]}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(patch("/api/whiteboard/rooms/patch/save").contentType("application/json")
+                        .content("{\"baseRevision\": 1, \"remove\": [\"a\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.revision").value(2));
+    }
+
+    @Test
+    public void shouldStreamStateWithETag() throws Exception {
+        String jsonPayload = "{\"drawingMessages\": {\"a\": {\"id\": \"a\", \"points\": [1, 2]}},"
+                + " \"timeStamp\": \"2025-01-06T09:00:00\", \"version\": 3}";
+        mockMvc.perform(post("/api/whiteboard/rooms/stream/save").contentType("application/json")
+                .content(jsonPayload)).andExpect(status().isOk());
+
+        MvcResult loaded = mockMvc.perform(get("/api/whiteboard/rooms/stream/load"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/json"))
+                .andExpect(jsonPath("$.drawingMessages.a.id").value("a"))
+                .andReturn();
+        String etag = loaded.getResponse().getHeader("ETag");
+        assertNotNull(etag);
+
+        // An unchanged board is not sent again.
+        mockMvc.perform(get("/api/whiteboard/rooms/stream/load").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/api/whiteboard/rooms/stream/currentState").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+
+        // Newline-delimited JSON has its own ETag and one line per drawing message.
+        String lines = mockMvc.perform(get("/api/whiteboard/rooms/stream/load").accept("application/x-ndjson")
+                        .header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+        String[] parts = lines.split("\n");
+        assertEquals(2, parts.length);
+        assertTrue(parts[0].contains("\"version\":3"), parts[0]);
+        assertTrue(parts[1].startsWith("{\"id\":\"a\""), parts[1]);
+
+        // A change gives a new ETag.
+        mockMvc.perform(post("/api/whiteboard/rooms/stream/undo")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/whiteboard/rooms/stream/load").header("If-None-Match", etag))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void shouldServeCachedGzipVariant() throws Exception {
+        StringBuilder messages = new StringBuilder();
+        for(int i = 0; i < 100; i++){
+            messages.append(i == 0 ? "" : ",").append("\"m").append(i).append("\": {\"id\": \"m").append(i)
+                    .append("\", \"color\": \"#000000\", \"points\": [").append(i).append(", 2, 3, 4]}");
+        }
+        mockMvc.perform(post("/api/whiteboard/rooms/gzip/save").contentType("application/json")
+                .content("{\"drawingMessages\": {" + messages + "}, \"timeStamp\": \"2025-01-07T09:00:00\", \"version\": 1}"))
+                .andExpect(status().isOk());
+
+        byte[] plain = mockMvc.perform(get("/api/whiteboard/rooms/gzip/load"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andReturn().getResponse().getContentAsByteArray();
+        byte[] compressed = mockMvc.perform(get("/api/whiteboard/rooms/gzip/load").header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertTrue(compressed.length < plain.length);
+        try(GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))){
+            assertArrayEquals(plain, gzip.readAllBytes());
+        }
+        mockMvc.perform(get("/api/whiteboard/rooms/gzip/load").header("Accept-Encoding", "gzip;q=0"))
+                .andExpect(header().doesNotExist("Content-Encoding"));
+    }
+}
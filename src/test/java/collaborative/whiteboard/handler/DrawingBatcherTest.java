@@ -0,0 +1,133 @@
+package collaborative.whiteboard.handler;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.model.BinaryDrawingCodec;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.WhiteboardJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the {@code DrawingBatcher} class, driven through a WhiteboardHandler with
+ * batching enabled. The scheduler is a mock, so batches are only sent when the tests flush them.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class DrawingBatcherTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ScheduledExecutorService scheduler;
+    private WhiteboardHandler whiteboardHandler;
+
+    @BeforeEach
+    public void setUp(){
+        WhiteboardProperties properties = new WhiteboardProperties();
+        properties.getBatching().setEnabled(true);
+        scheduler = mock(ScheduledExecutorService.class);
+        whiteboardHandler = new WhiteboardHandler(properties, Runnable::run, WhiteboardJson.shared(), scheduler);
+    }
+
+    /**
+     * Connects a mocked session to the default room.
+     */
+    private WebSocketSession connect(String username, String protocol) throws Exception{
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(new URI("/whiteboard?username=" + username));
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        when(session.getAcceptedProtocol()).thenReturn(protocol);
+        when(session.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    /**
+     * Creates a piece of a freehand stroke.
+     */
+    private String piece(String id, double... points) throws Exception{
+        DrawingMessage message = objectMapper.readValue("{\"id\":\"" + id + "\"}", DrawingMessage.class);
+        message.setType("draw");
+        message.setShape("line");
+        message.setColor("#000000");
+        message.setPoints(Arrays.stream(points).boxed().toList());
+        return objectMapper.writeValueAsString(message);
+    }
+
+    @Test
+    public void shouldSendOneFramePerSessionAndInterval() throws Exception{
+        WebSocketSession ana = connect("Ana", null);
+        WebSocketSession bob = connect("Bob", null);
+        WebSocketSession viewer = connect("Viewer", null);
+        WebSocketSession binaryViewer = connect("BinaryViewer", WhiteboardHandler.BINARY_PROTOCOL);
+
+        whiteboardHandler.handleTextMessage(ana, new TextMessage(piece("stroke-a", 1, 1, 2, 2)));
+        whiteboardHandler.handleTextMessage(bob, new TextMessage(piece("stroke-b", 5, 5)));
+        whiteboardHandler.handleTextMessage(ana, new TextMessage(piece("stroke-a", 3, 3)));
+        whiteboardHandler.handleTextMessage(ana, new TextMessage(
+                objectMapper.writeValueAsString(new DrawingMessage("draw", "circle", "blue", null))));
+
+        // One interval is scheduled for the room and nothing is sent before it ends.
+        verify(scheduler, times(1)).schedule(any(Runnable.class), eq(16L), eq(TimeUnit.MILLISECONDS));
+        verify(viewer, never()).sendMessage(any());
+        whiteboardHandler.getBatcher().flush(WhiteboardHandler.DEFAULT_ROOM);
+
+        // The viewer gets everything in one array, with the two pieces of Ana's stroke merged.
+        ArgumentCaptor<TextMessage> toViewer = ArgumentCaptor.forClass(TextMessage.class);
+        verify(viewer, times(1)).sendMessage(toViewer.capture());
+        List<DrawingMessage> received = List.of(objectMapper.readValue(toViewer.getValue().getPayload(), DrawingMessage[].class));
+        assertEquals(3, received.size());
+        assertEquals("stroke-a", received.get(0).getId());
+        assertEquals(List.of(1.0, 1.0, 2.0, 2.0, 3.0, 3.0), received.get(0).getPoints());
+        assertEquals("stroke-b", received.get(1).getId());
+        assertEquals("circle", received.get(2).getShape());
+
+        // The binary viewer gets the same messages in one binary batch.
+        ArgumentCaptor<BinaryMessage> toBinary = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(binaryViewer, times(1)).sendMessage(toBinary.capture());
+        assertEquals(received, BinaryDrawingCodec.decodeAll(toBinary.getValue().getPayload()));
+
+        // Contributors never get their own messages back.
+        ArgumentCaptor<TextMessage> toAna = ArgumentCaptor.forClass(TextMessage.class);
+        verify(ana, times(1)).sendMessage(toAna.capture());
+        assertEquals(List.of(received.get(1)),
+                List.of(objectMapper.readValue(toAna.getValue().getPayload(), DrawingMessage[].class)));
+        ArgumentCaptor<TextMessage> toBob = ArgumentCaptor.forClass(TextMessage.class);
+        verify(bob, times(1)).sendMessage(toBob.capture());
+        assertEquals(List.of(received.get(0), received.get(2)),
+                List.of(objectMapper.readValue(toBob.getValue().getPayload(), DrawingMessage[].class)));
+
+        // The next message starts a new interval.
+        whiteboardHandler.handleTextMessage(bob, new TextMessage(piece("stroke-b", 6, 6)));
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(16L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldNotMergeDifferentStyles() throws Exception{
+        WebSocketSession ana = connect("Ana", null);
+        WebSocketSession viewer = connect("Viewer", null);
+        whiteboardHandler.handleTextMessage(ana, new TextMessage(piece("stroke-a", 1, 1)));
+        String recolored = piece("stroke-a", 2, 2).replace("#000000", "#ff0000");
+        whiteboardHandler.handleTextMessage(ana, new TextMessage(recolored));
+        whiteboardHandler.getBatcher().flushAll();
+
+        ArgumentCaptor<TextMessage> toViewer = ArgumentCaptor.forClass(TextMessage.class);
+        verify(viewer).sendMessage(toViewer.capture());
+        assertEquals(2, objectMapper.readValue(toViewer.getValue().getPayload(), DrawingMessage[].class).length);
+        // Flushing a room with nothing pending sends nothing.
+        whiteboardHandler.getBatcher().flushAll();
+        verify(viewer, times(1)).sendMessage(any());
+    }
+}
@@ -0,0 +1,78 @@
+package collaborative.whiteboard.handler;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code FrameCompressor} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class FrameCompressorTest {
+
+    /**
+     * Inflates the raw deflate stream of a compressed frame, as a browser's DecompressionStream("deflate-raw") does.
+     */
+    static String inflate(BinaryMessage message) throws Exception{
+        ByteBuffer payload = message.getPayload().duplicate();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        while(!inflater.finished()){
+            out.write(buffer, 0, inflater.inflate(buffer));
+        }
+        inflater.end();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldSkipFramesBelowThreshold(){
+        FrameCompressor compressor = new FrameCompressor(1024, 6);
+        TextMessage stroke = WhiteboardHandler.createFrame("{\"shape\":\"line\",\"points\":[1,2,3,4]}");
+        assertSame(stroke, compressor.compress(stroke));
+        assertEquals(0, compressor.getCompressedFrames());
+        assertEquals(1, compressor.getSkippedFrames());
+        assertEquals(1, compressor.getRatio());
+    }
+
+    @Test
+    public void shouldCompressLargeFramesOnce() throws Exception{
+        FrameCompressor compressor = new FrameCompressor(1024, 6);
+        String json = "[" + "{\"shape\":\"circle\",\"color\":\"blue\"},".repeat(200) + "{}]";
+        TextMessage snapshot = WhiteboardHandler.createFrame(json);
+
+        WebSocketMessage<?> first = compressor.compress(snapshot);
+        WebSocketMessage<?> second = compressor.compress(snapshot);
+        assertInstanceOf(BinaryMessage.class, first);
+        assertEquals(json, inflate((BinaryMessage) first));
+        // Every recipient gets its own buffer over the bytes compressed once.
+        assertNotSame(first, second);
+        assertEquals(json, inflate((BinaryMessage) second));
+        assertEquals(1, compressor.getCompressedFrames());
+        assertEquals(json.length(), compressor.getBytesIn());
+        assertEquals(first.getPayloadLength(), compressor.getBytesOut());
+        assertTrue(compressor.getRatio() < 0.1);
+        assertTrue(compressor.getCompressionNanos() > 0);
+    }
+
+    @Test
+    public void shouldSendIncompressibleFramesAsText(){
+        FrameCompressor compressor = new FrameCompressor(0, 9);
+        TextMessage tiny = WhiteboardHandler.createFrame("{}");
+        assertSame(tiny, compressor.compress(tiny));
+        assertEquals(0, compressor.getCompressedFrames());
+        assertEquals(1, compressor.getSkippedFrames());
+    }
+}
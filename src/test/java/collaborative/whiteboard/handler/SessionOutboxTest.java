@@ -0,0 +1,143 @@
+package collaborative.whiteboard.handler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the {@code SessionOutbox} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SessionOutboxTest {
+    private WebSocketSession session;
+    private List<Runnable> pendingTasks;
+
+    @BeforeEach
+    public void setUp(){
+        session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        pendingTasks = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldSendMessagesInOrder() throws Exception{
+        SessionOutbox outbox = new SessionOutbox(session, 10, 1024, 1000,
+                SessionOutbox.OverflowPolicy.DROP_OLDEST, Runnable::run);
+
+        assertTrue(outbox.enqueue(new TextMessage("one")));
+        assertTrue(outbox.enqueue(new TextMessage("two")));
+
+        InOrder inOrder = inOrder(session);
+        inOrder.verify(session).sendMessage(new TextMessage("one"));
+        inOrder.verify(session).sendMessage(new TextMessage("two"));
+        assertEquals(0, outbox.getQueuedMessages());
+        assertEquals(0, outbox.getQueuedBytes());
+    }
+
+    @Test
+    public void shouldScheduleOnlyOneWriterAtATime(){
+        SessionOutbox outbox = new SessionOutbox(session, 10, 1024, 1000,
+                SessionOutbox.OverflowPolicy.DROP_OLDEST, pendingTasks::add);
+
+        outbox.enqueue(new TextMessage("one"));
+        outbox.enqueue(new TextMessage("two"));
+        outbox.enqueue(new TextMessage("three"));
+
+        assertEquals(1, pendingTasks.size());
+        assertEquals(3, outbox.getQueuedMessages());
+    }
+
+    @Test
+    public void shouldDropOldestMessagesWhenQueueIsFull() throws Exception{
+        SessionOutbox outbox = new SessionOutbox(session, 2, 1024, 1000,
+                SessionOutbox.OverflowPolicy.DROP_OLDEST, pendingTasks::add);
+
+        outbox.enqueue(new TextMessage("one"));
+        outbox.enqueue(new TextMessage("two"));
+        assertTrue(outbox.enqueue(new TextMessage("three")));
+        assertEquals(2, outbox.getQueuedMessages());
+        assertEquals(1, outbox.getDroppedMessages());
+
+        pendingTasks.forEach(Runnable::run);
+        verify(session, never()).sendMessage(new TextMessage("one"));
+        verify(session).sendMessage(new TextMessage("two"));
+        verify(session).sendMessage(new TextMessage("three"));
+    }
+
+    @Test
+    public void shouldDropOldestMessagesWhenBufferIsFull(){
+        SessionOutbox outbox = new SessionOutbox(session, 100, 8, 1000,
+                SessionOutbox.OverflowPolicy.DROP_OLDEST, pendingTasks::add);
+
+        outbox.enqueue(new TextMessage("12345"));
+        outbox.enqueue(new TextMessage("6789"));
+        assertEquals(1, outbox.getQueuedMessages());
+        assertEquals(4, outbox.getQueuedBytes());
+    }
+
+    @Test
+    public void shouldDisconnectWhenQueueIsFull() throws Exception{
+        SessionOutbox outbox = new SessionOutbox(session, 1, 1024, 1000,
+                SessionOutbox.OverflowPolicy.DISCONNECT, pendingTasks::add);
+
+        assertTrue(outbox.enqueue(new TextMessage("one")));
+        assertFalse(outbox.enqueue(new TextMessage("two")));
+        assertTrue(outbox.isClosed());
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertFalse(outbox.enqueue(new TextMessage("three")));
+    }
+
+    @Test
+    public void shouldDisconnectWhenSendIsBlockedTooLong() throws Exception{
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(session).sendMessage(any());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try{
+            SessionOutbox outbox = new SessionOutbox(session, 100, 1024, 50,
+                    SessionOutbox.OverflowPolicy.DROP_OLDEST, executor);
+            outbox.enqueue(new TextMessage("one"));
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+            Thread.sleep(100);
+            assertFalse(outbox.enqueue(new TextMessage("two")));
+            assertTrue(outbox.isClosed());
+            verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+        }finally{
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldCloseWhenSendFails() throws Exception{
+        doThrow(new java.io.IOException("Broken pipe")).when(session).sendMessage(any());
+        SessionOutbox outbox = new SessionOutbox(session, 10, 1024, 1000,
+                SessionOutbox.OverflowPolicy.DROP_OLDEST, Runnable::run);
+
+        outbox.enqueue(new TextMessage("one"));
+        assertTrue(outbox.isClosed());
+        verify(session).close(CloseStatus.SERVER_ERROR);
+    }
+}
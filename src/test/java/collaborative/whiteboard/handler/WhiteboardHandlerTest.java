@@ -1,14 +1,19 @@
 package collaborative.whiteboard.handler;
 
+import collaborative.whiteboard.model.BinaryDrawingCodec;
+import collaborative.whiteboard.model.BoundingBox;
 import collaborative.whiteboard.model.DrawingMessage;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -196,4 +201,169 @@ public class WhiteboardHandlerTest{
         long durationInSeconds = (endTime - startTime) / 1000000;
         System.out.println("Total time taken for " + sessionsList.size() + " rapid connections and disconnections: " + durationInSeconds + " milliseconds.");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBroadcastStaysWithinRoom() throws Exception{
+        WebSocketSession sessionThree = mock(WebSocketSession.class);
+        when(sessionThree.getUri()).thenReturn(new URI("/whiteboard?username=UserThree&room=design"));
+        when(sessionThree.getAttributes()).thenReturn(new HashMap<>());
+        when(sessionOne.isOpen()).thenReturn(true);
+        when(sessionTwo.isOpen()).thenReturn(true);
+        when(sessionThree.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(sessionOne);
+        whiteboardHandler.afterConnectionEstablished(sessionTwo);
+        whiteboardHandler.afterConnectionEstablished(sessionThree);
+
+        assertEquals("UserThree", sessionThree.getAttributes().get("username"));
+        assertEquals("design", sessionThree.getAttributes().get("room"));
+        assertEquals(WhiteboardHandler.DEFAULT_ROOM, sessionOne.getAttributes().get("room"));
+        assertEquals(List.of(sessionThree), whiteboardHandler.getRoomSessions("design"));
+
+        String validJson = new ObjectMapper().writeValueAsString(new DrawingMessage(
+                "draw", "circle", "blue", null));
+        whiteboardHandler.handleTextMessage(sessionOne, new TextMessage(validJson));
+        verify(sessionTwo).sendMessage(new TextMessage(validJson));
+        verify(sessionThree, never()).sendMessage(any(TextMessage.class));
+
+        whiteboardHandler.afterConnectionClosed(sessionThree, CloseStatus.NORMAL);
+        assertTrue(whiteboardHandler.getRoomSessions("design").isEmpty());
+    }
+
+    @Test
+    public void testInvalidRoomIsRejected() throws Exception{
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(new URI("/whiteboard?username=User&room=..%2Fetc"));
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+
+        whiteboardHandler.afterConnectionEstablished(session);
+        assertFalse(whiteboardHandler.getActiveSessions().contains(session));
+        verify(session).close(any(CloseStatus.class));
+    }
+
+    @Test
+    public void testBroadcastSharesOneFrame() throws Exception{
+        WebSocketSession sessionThree = mock(WebSocketSession.class);
+        when(sessionThree.getUri()).thenReturn(new URI("/whiteboard?username=UserThree"));
+        when(sessionThree.getAttributes()).thenReturn(new HashMap<>());
+        when(sessionOne.isOpen()).thenReturn(true);
+        when(sessionTwo.isOpen()).thenReturn(true);
+        when(sessionThree.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(sessionOne);
+        whiteboardHandler.afterConnectionEstablished(sessionTwo);
+        whiteboardHandler.afterConnectionEstablished(sessionThree);
+
+        String validJson = new ObjectMapper().writeValueAsString(new DrawingMessage(
+                "draw", "circle", "blue", null));
+        whiteboardHandler.handleTextMessage(sessionOne, new TextMessage(validJson));
+
+        ArgumentCaptor<TextMessage> sentToTwo = ArgumentCaptor.forClass(TextMessage.class);
+        ArgumentCaptor<TextMessage> sentToThree = ArgumentCaptor.forClass(TextMessage.class);
+        verify(sessionTwo).sendMessage(sentToTwo.capture());
+        verify(sessionThree).sendMessage(sentToThree.capture());
+        assertSame(sentToTwo.getValue(), sentToThree.getValue());
+        assertEquals(validJson, sentToTwo.getValue().getPayload());
+    }
+
+    @Test
+    public void testBinarySessionsExchangeBinaryFrames() throws Exception{
+        WebSocketSession binarySession = mock(WebSocketSession.class);
+        when(binarySession.getUri()).thenReturn(new URI("/whiteboard?username=UserThree"));
+        when(binarySession.getAttributes()).thenReturn(new HashMap<>());
+        when(binarySession.getAcceptedProtocol()).thenReturn(WhiteboardHandler.BINARY_PROTOCOL);
+        when(sessionOne.isOpen()).thenReturn(true);
+        when(sessionTwo.isOpen()).thenReturn(true);
+        when(binarySession.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(sessionOne);
+        whiteboardHandler.afterConnectionEstablished(sessionTwo);
+        whiteboardHandler.afterConnectionEstablished(binarySession);
+
+        // A JSON drawing reaches the binary session encoded in binary.
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        whiteboardHandler.handleTextMessage(sessionOne, new TextMessage(new ObjectMapper().writeValueAsString(circle)));
+        ArgumentCaptor<BinaryMessage> binary = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(binarySession).sendMessage(binary.capture());
+        assertEquals(circle, BinaryDrawingCodec.decode(binary.getValue().getPayload()));
+        verify(binarySession, never()).sendMessage(any(TextMessage.class));
+
+        // A binary drawing reaches the JSON sessions as JSON.
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "#ff0000", null);
+        stroke.setPoints(List.of(1.0, 2.0, 3.0, 4.0));
+        whiteboardHandler.handleBinaryMessage(binarySession, new BinaryMessage(BinaryDrawingCodec.encode(stroke)));
+        ArgumentCaptor<TextMessage> sentToOne = ArgumentCaptor.forClass(TextMessage.class);
+        ArgumentCaptor<TextMessage> sentToTwo = ArgumentCaptor.forClass(TextMessage.class);
+        verify(sessionOne).sendMessage(sentToOne.capture());
+        verify(sessionTwo, times(2)).sendMessage(sentToTwo.capture());
+        assertSame(sentToOne.getValue(), sentToTwo.getValue());
+        assertEquals(stroke, new ObjectMapper().readValue(sentToOne.getValue().getPayload(), DrawingMessage.class));
+
+        // Malformed binary messages are dropped.
+        whiteboardHandler.handleBinaryMessage(binarySession, new BinaryMessage(ByteBuffer.wrap(new byte[]{1})));
+        verify(sessionOne, times(1)).sendMessage(any());
+    }
+
+    @Test
+    public void testSubProtocols(){
+        assertEquals(List.of(WhiteboardHandler.BINARY_PROTOCOL, WhiteboardHandler.JSON_PROTOCOL,
+                        WhiteboardHandler.DEFLATE_PROTOCOL), whiteboardHandler.getSubProtocols());
+    }
+
+    @Test
+    public void testDeflateSessionsReceiveLargeFramesCompressed() throws Exception{
+        WebSocketSession deflateSession = mock(WebSocketSession.class);
+        when(deflateSession.getUri()).thenReturn(new URI("/whiteboard?username=UserThree"));
+        when(deflateSession.getAttributes()).thenReturn(new HashMap<>());
+        when(deflateSession.getAcceptedProtocol()).thenReturn(WhiteboardHandler.DEFLATE_PROTOCOL);
+        when(sessionOne.isOpen()).thenReturn(true);
+        when(deflateSession.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(sessionOne);
+        whiteboardHandler.afterConnectionEstablished(deflateSession);
+
+        // A small frame is sent as it is.
+        whiteboardHandler.broadcast(WhiteboardHandler.DEFAULT_ROOM, "{\"type\":\"snapshot\"}");
+        verify(deflateSession).sendMessage(any(TextMessage.class));
+
+        // A large one reaches the deflate session compressed, and the other session unchanged.
+        String snapshot = "{\"type\":\"snapshot\",\"state\":[" + "{\"shape\":\"line\"},".repeat(500) + "{}]}";
+        whiteboardHandler.broadcast(WhiteboardHandler.DEFAULT_ROOM, snapshot);
+        ArgumentCaptor<BinaryMessage> compressed = ArgumentCaptor.forClass(BinaryMessage.class);
+        verify(deflateSession).sendMessage(compressed.capture());
+        assertEquals(snapshot, FrameCompressorTest.inflate(compressed.getValue()));
+        verify(sessionOne, times(2)).sendMessage(any(TextMessage.class));
+        assertEquals(1, whiteboardHandler.getCompressor().getCompressedFrames());
+        assertEquals(1, whiteboardHandler.getCompressor().getSkippedFrames());
+    }
+
+    @Test
+    public void testViewportLimitsRelayedDrawings() throws Exception{
+        WebSocketSession zoomed = mock(WebSocketSession.class);
+        when(zoomed.getUri()).thenReturn(new URI("/whiteboard?username=UserThree&viewport=0,0,100,100"));
+        when(zoomed.getAttributes()).thenReturn(new HashMap<>());
+        when(sessionOne.isOpen()).thenReturn(true);
+        when(sessionTwo.isOpen()).thenReturn(true);
+        when(zoomed.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(sessionOne);
+        whiteboardHandler.afterConnectionEstablished(sessionTwo);
+        whiteboardHandler.afterConnectionEstablished(zoomed);
+        assertEquals(new BoundingBox(0, 0, 100, 100), WhiteboardHandler.getViewport(zoomed));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        DrawingMessage far = new DrawingMessage("draw", "line", "#000000", null);
+        far.setPoints(List.of(500.0, 500.0, 600.0, 600.0));
+        whiteboardHandler.handleTextMessage(sessionOne, new TextMessage(objectMapper.writeValueAsString(far)));
+        verify(sessionTwo, times(1)).sendMessage(any());
+        verify(zoomed, never()).sendMessage(any());
+
+        // Moving the viewport over the stroke lets the next pieces through; the message itself is not relayed.
+        DrawingMessage viewport = new DrawingMessage(WhiteboardHandler.VIEWPORT_TYPE, null, null, null);
+        viewport.setPoints(List.of(400.0, 400.0, 800.0, 800.0));
+        whiteboardHandler.handleTextMessage(zoomed, new TextMessage(objectMapper.writeValueAsString(viewport)));
+        verify(sessionOne, never()).sendMessage(any());
+        whiteboardHandler.handleTextMessage(sessionOne, new TextMessage(objectMapper.writeValueAsString(far)));
+        verify(zoomed, times(1)).sendMessage(any());
+
+        // An empty viewport message goes back to the whole board.
+        viewport.setPoints(List.of());
+        whiteboardHandler.handleTextMessage(zoomed, new TextMessage(objectMapper.writeValueAsString(viewport)));
+        assertNull(WhiteboardHandler.getViewport(zoomed));
+    }
+}
@@ -0,0 +1,195 @@
+package collaborative.whiteboard.journal;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code RoomJournal} and {@code JournalManager} classes.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class RoomJournalTest {
+    @TempDir
+    private Path directory;
+
+    private JournalCodec codec;
+    private StateManager stateManager;
+
+    @BeforeEach
+    public void setUp(){
+        codec = new JournalCodec(WhiteboardJson.shared().getObjectMapper());
+        stateManager = new StateManager(new WhiteboardHandler());
+    }
+
+    /**
+     * Opens a journal that writes on the calling thread and journals the test's StateManager.
+     */
+    private RoomJournal openJournal(long snapshotInterval) throws Exception{
+        RoomJournal journal = new RoomJournal(directory, codec, snapshotInterval, Runnable::run);
+        journal.recover();
+        stateManager.addStateListener((roomId, delta, state) -> journal.append(delta, state));
+        return journal;
+    }
+
+    /**
+     * Lists the names of the files in the journal directory.
+     */
+    private List<String> files() throws Exception{
+        try(Stream<Path> paths = Files.list(directory)){
+            return paths.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    public void shouldRecoverJournaledOperations() throws Exception{
+        RoomJournal journal = openJournal(1_000);
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        DrawingMessage line = new DrawingMessage("draw", "line", "red", null);
+        stateManager.addDrawingMessage("Ana", circle);
+        stateManager.addDrawingMessage("Bob", line);
+        stateManager.removeDrawingMessage("Ana", circle.getId());
+        stateManager.undo("Ana");
+        assertTrue(journal.awaitDurable(4, 1_000));
+        journal.close();
+
+        StateSnapshot recovered = new RoomJournal(directory, codec, 1_000, Runnable::run).recover();
+        assertEquals(4, recovered.getRevision());
+        assertEquals(stateManager.getCurrentState(), recovered.getState());
+    }
+
+    @Test
+    public void shouldCompactIntoSnapshots() throws Exception{
+        RoomJournal journal = openJournal(10);
+        for(int i = 0; i < 25; i++){
+            stateManager.addDrawingMessage(null, new DrawingMessage("draw", "line", "red", null));
+        }
+        journal.close();
+
+        // Only the latest snapshot and the segment after it are kept.
+        assertEquals(List.of("segment-00000000000000000021.log", "snapshot-00000000000000000020.smile"), files());
+        StateSnapshot recovered = new RoomJournal(directory, codec, 10, Runnable::run).recover();
+        assertEquals(25, recovered.getRevision());
+        assertEquals(stateManager.getCurrentState(), recovered.getState());
+    }
+
+    @Test
+    public void shouldIgnoreTornTailAndContinueAppending() throws Exception{
+        RoomJournal journal = openJournal(1_000);
+        stateManager.addDrawingMessage(null, new DrawingMessage("draw", "line", "red", null));
+        stateManager.addDrawingMessage(null, new DrawingMessage("draw", "circle", "blue", null));
+        WhiteboardState expected = stateManager.getCurrentState();
+        journal.close();
+
+        // Simulates a crash in the middle of writing a third entry.
+        Path segment = directory.resolve("segment-00000000000000000001.log");
+        byte[] partial = codec.encodeEntry(new JournalEntry());
+        Files.write(segment, Arrays.copyOf(partial, partial.length / 2), StandardOpenOption.APPEND);
+
+        RoomJournal reopened = new RoomJournal(directory, codec, 1_000, Runnable::run);
+        StateSnapshot recovered = reopened.recover();
+        assertEquals(2, recovered.getRevision());
+        assertEquals(expected, recovered.getState());
+
+        // The recovered state becomes a snapshot and new entries follow it.
+        stateManager = new StateManager(new WhiteboardHandler());
+        stateManager.restore(recovered);
+        stateManager.addStateListener((roomId, delta, state) -> reopened.append(delta, state));
+        stateManager.addDrawingMessage(null, new DrawingMessage("draw", "rectangle", "green", null));
+        reopened.close();
+        StateSnapshot again = new RoomJournal(directory, codec, 1_000, Runnable::run).recover();
+        assertEquals(3, again.getRevision());
+        assertEquals(stateManager.getCurrentState(), again.getState());
+    }
+
+    @Test
+    public void shouldWaitForTheBatchBeingWrittenWhenClosing() throws Exception{
+        // The writer blocks while encoding, after its entry has left the queue.
+        CountDownLatch encoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        JournalCodec slowCodec = new JournalCodec(WhiteboardJson.shared().getObjectMapper()){
+            @Override
+            public byte[] encodeEntry(JournalEntry entry) throws IOException {
+                encoding.countDown();
+                try{
+                    release.await();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                return super.encodeEntry(entry);
+            }
+        };
+        RoomJournal journal = new RoomJournal(directory, slowCodec, 1_000, task -> Thread.ofPlatform().start(task));
+        journal.recover();
+        stateManager.addStateListener((roomId, delta, state) -> journal.append(delta, state));
+        stateManager.addDrawingMessage("Ana", new DrawingMessage("draw", "line", "red", null));
+        assertTrue(encoding.await(5, TimeUnit.SECONDS));
+
+        Thread.ofPlatform().start(() -> {
+            try{
+                Thread.sleep(100);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        });
+        journal.close();
+
+        assertEquals(1, journal.getDurableRevision());
+        assertEquals(1, new RoomJournal(directory, codec, 1_000, Runnable::run).recover().getRevision());
+    }
+
+    @Test
+    public void shouldRestoreRoomsOnStartup() throws Exception{
+        WhiteboardProperties properties = new WhiteboardProperties();
+        properties.getJournal().setDirectory(directory.toString());
+        properties.getJournal().setSnapshotInterval(500);
+        WhiteboardHandler handler = new WhiteboardHandler();
+
+        RoomManager before = new RoomManager(handler, WhiteboardJson.shared(), properties);
+        JournalManager journalManager = new JournalManager(before, WhiteboardJson.shared(), properties);
+        journalManager.recover();
+        List<String> ids = new ArrayList<>();
+        for(int i = 0; i < 2_000; i++){
+            DrawingMessage message = new DrawingMessage("draw", "line", "red", null);
+            before.getRoom("design").addDrawingMessage("Ana", message);
+            ids.add(message.getId());
+        }
+        before.getRoom(null).addDrawingMessage(null, new DrawingMessage("draw", "circle", "blue", null));
+        journalManager.close();
+
+        // A new RoomManager, as after a restart, gets every room back.
+        RoomManager after = new RoomManager(handler, WhiteboardJson.shared(), properties);
+        JournalManager restarted = new JournalManager(after, WhiteboardJson.shared(), properties);
+        restarted.recover();
+        assertEquals(2_000, after.getRoom("design").getRevision());
+        assertEquals(before.getRoom("design").getCurrentState(), after.getRoom("design").getCurrentState());
+        assertEquals(before.getRoom(null).getCurrentState(), after.getRoom(null).getCurrentState());
+
+        // Journaling continues where it stopped.
+        after.getRoom("design").removeDrawingMessage("Ana", ids.get(0));
+        assertTrue(restarted.getJournal("design").awaitDurable(2_001, 5_000));
+        restarted.close();
+    }
+}
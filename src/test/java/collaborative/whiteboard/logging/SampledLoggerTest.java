@@ -0,0 +1,67 @@
+package collaborative.whiteboard.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.KeyValuePair;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code SampledLogger} class, with a logger of its own and a manual clock.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SampledLoggerTest {
+    private Logger logger;
+    private ListAppender<ILoggingEvent> appender;
+    private final AtomicLong now = new AtomicLong();
+
+    @BeforeEach
+    public void setUp(){
+        logger = new LoggerContext().getLogger("sampled");
+        appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+    }
+
+    @Test
+    public void shouldLimitEventsPerSecond(){
+        logger.setLevel(Level.DEBUG);
+        SampledLogger sampled = new SampledLogger(logger, 2, now::get);
+        for(int i = 0; i < 5; i++){
+            sampled.atDebug().addKeyValue("index", i).log("Drawing received");
+        }
+        assertEquals(2, appender.list.size());
+
+        // The first event of the next second reports how many were dropped.
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        sampled.atDebug().addKeyValue("index", 5).log("Drawing received");
+        assertEquals(3, appender.list.size());
+        List<KeyValuePair> pairs = appender.list.get(2).getKeyValuePairs();
+        assertTrue(pairs.stream().anyMatch(pair -> pair.key.equals("suppressed") && pair.value.equals(3L)));
+    }
+
+    @Test
+    public void shouldNotCountEventsBelowLevel(){
+        logger.setLevel(Level.INFO);
+        SampledLogger sampled = new SampledLogger(logger, 1, now::get);
+        for(int i = 0; i < 5; i++){
+            sampled.atDebug().log("Drawing received");
+        }
+        assertTrue(appender.list.isEmpty());
+
+        logger.setLevel(Level.DEBUG);
+        sampled.atDebug().log("Drawing received");
+        assertEquals(1, appender.list.size());
+        assertNull(appender.list.get(0).getKeyValuePairs());
+    }
+}
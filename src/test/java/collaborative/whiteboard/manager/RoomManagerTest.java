@@ -0,0 +1,63 @@
+package collaborative.whiteboard.manager;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit testing class for RoomManager class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class RoomManagerTest {
+    private RoomManager roomManager;
+
+    @BeforeEach
+    public void setUp(){
+        roomManager = new RoomManager(new WhiteboardHandler(), WhiteboardJson.shared(), new WhiteboardProperties());
+    }
+
+    @Test
+    public void shouldNotCreateRoomOnFind(){
+        assertNull(roomManager.findRoom("ghost"));
+        assertTrue(roomManager.getRoomIds().isEmpty(), "Looking a room up should not create it.");
+
+        StateManager room = roomManager.getRoom("ghost");
+        assertSame(room, roomManager.findRoom("ghost"));
+    }
+
+    @Test
+    public void shouldRejectInvalidRoomOnFind(){
+        assertThrows(IllegalArgumentException.class, () -> roomManager.findRoom("bad.room"));
+    }
+
+    @Test
+    public void shouldEvictIdleRoomsOnSecondSweep(){
+        roomManager.getRoom("idle");
+        roomManager.getRoom("busy").addAction(new WhiteboardState());
+
+        // A room created since the previous sweep is kept, so it can get its first change.
+        assertEquals(0, roomManager.evictIdleRooms());
+        assertEquals(Set.of("idle", "busy"), roomManager.getRoomIds());
+
+        assertEquals(1, roomManager.evictIdleRooms());
+        assertEquals(Set.of("busy"), roomManager.getRoomIds());
+    }
+
+    @Test
+    public void shouldKeepRoomChangedBetweenSweeps(){
+        StateManager room = roomManager.getRoom("late");
+        roomManager.evictIdleRooms();
+        room.addAction(new WhiteboardState());
+
+        assertEquals(0, roomManager.evictIdleRooms());
+        assertSame(room, roomManager.findRoom("late"));
+    }
+}
@@ -0,0 +1,145 @@
+package collaborative.whiteboard.manager;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stress tests hammering a StateManager with concurrent saves, drawing operations and undos,
+ * checking that no transition is lost and that readers never observe inconsistent state.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StateManagerConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 200;
+
+    private StateManager stateManager;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp(){
+        WhiteboardProperties properties = new WhiteboardProperties();
+        properties.getDelta().setMaxLogSize(THREADS * OPERATIONS * 2);
+        properties.getHistory().setMaxDepth(OPERATIONS);
+        stateManager = new StateManager("stress", new WhiteboardHandler(), WhiteboardJson.shared(), properties);
+        executor = Executors.newFixedThreadPool(THREADS + 1);
+    }
+
+    @Test
+    public void concurrentDrawingsAndUndosAreNeverLost() throws Exception{
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<Set<String>>> writers = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++){
+            String username = "user" + t;
+            writers.add(executor.submit(() -> {
+                start.await();
+                Set<String> kept = new HashSet<>();
+                List<String> drawn = new ArrayList<>();
+                for(int i = 0; i < OPERATIONS; i++){
+                    DrawingMessage message = new DrawingMessage("draw", "line", "red", null);
+                    stateManager.addDrawingMessage(username, message);
+                    drawn.add(message.getId());
+                }
+                // Undo every other drawing: each undo reverts this user's most recent one.
+                for(int i = 0; i < OPERATIONS / 2; i++){
+                    assertTrue(stateManager.undo(username));
+                    drawn.remove(drawn.size() - 1);
+                }
+                kept.addAll(drawn);
+                return kept;
+            }));
+        }
+        Future<?> reader = executor.submit(() -> {
+            start.await();
+            long lastRevision = 0;
+            while(writing.get()){
+                long revision = stateManager.getRevision();
+                assertTrue(revision >= lastRevision, "Revisions never go back.");
+                lastRevision = revision;
+                WhiteboardState state = stateManager.getCurrentState();
+                if(state != null){
+                    // A published state is never modified, so serializing it is always safe.
+                    assertNotNull(state.exportToJSON());
+                }
+            }
+            return null;
+        });
+
+        start.countDown();
+        Set<String> expected = new HashSet<>();
+        for(Future<Set<String>> writer : writers){
+            expected.addAll(writer.get(60, TimeUnit.SECONDS));
+        }
+        writing.set(false);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(THREADS * (OPERATIONS + OPERATIONS / 2), stateManager.getRevision());
+        assertEquals(expected, stateManager.getCurrentState().getDrawingMessages().keySet());
+
+        // Replaying every recorded delta rebuilds the same board.
+        StateDelta all = (StateDelta) stateManager.getChangesSince(0);
+        Set<String> replayed = new HashSet<>();
+        all.getAdded().forEach(message -> replayed.add(message.getId()));
+        assertEquals(expected, replayed);
+    }
+
+    @Test
+    public void concurrentSavesAndUndosKeepRevisionsConsistent() throws Exception{
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> writers = new ArrayList<>();
+        for(int t = 0; t < THREADS; t++){
+            boolean undoer = t % 2 == 1;
+            writers.add(executor.submit(() -> {
+                start.await();
+                int transitions = 0;
+                for(int i = 0; i < OPERATIONS; i++){
+                    if(undoer){
+                        if(stateManager.undo(null)){
+                            transitions++;
+                        }
+                    }else{
+                        WhiteboardState state = new WhiteboardState();
+                        state.addDrawingMessage(new DrawingMessage("draw", "circle", "blue", null));
+                        stateManager.addAction(state);
+                        transitions++;
+                    }
+                }
+                return transitions;
+            }));
+        }
+
+        start.countDown();
+        int transitions = 0;
+        for(Future<Integer> writer : writers){
+            transitions += writer.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Every successful save or undo is exactly one revision.
+        assertEquals(transitions, stateManager.getRevision());
+        StateSnapshot snapshot = (StateSnapshot) stateManager.getChangesSince(-1);
+        assertEquals(stateManager.getRevision(), snapshot.getRevision());
+    }
+}
@@ -1,16 +1,28 @@
 package collaborative.whiteboard.manager;
 
+import collaborative.whiteboard.config.WhiteboardProperties;
 import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.model.BoundingBox;
+import collaborative.whiteboard.model.Circle;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.Polygon;
+import collaborative.whiteboard.model.StateDelta;
+import collaborative.whiteboard.model.StatePatch;
+import collaborative.whiteboard.model.StateSnapshot;
+import collaborative.whiteboard.model.WhiteboardJson;
 import collaborative.whiteboard.model.WhiteboardState;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.util.Collections;
-import java.util.Stack;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -22,16 +34,19 @@ import static org.mockito.Mockito.*;
 public class StateManagerTest {
     private StateManager stateManager;
 
-    @Mock
     private WhiteboardHandler whiteboardHandler;
 
     @Mock
     private WebSocketSession mockSession;
 
     @BeforeEach
-    public void setUp() {
+    public void setUp() throws Exception {
         MockitoAnnotations.openMocks(this);
+        // The default handler writes on the calling thread, so sends can be verified right away.
+        whiteboardHandler = new WhiteboardHandler();
         stateManager = new StateManager(whiteboardHandler);
+        when(mockSession.getUri()).thenReturn(new URI("/whiteboard?username=UserOne"));
+        when(mockSession.getAttributes()).thenReturn(new HashMap<>());
     }
 
     @Test
@@ -40,7 +55,7 @@ public class StateManagerTest {
     }
 
     @Test
-    public void testAddActionUpdatesStateAndClearsRedoStack(){
+    public void testAddActionUpdatesStateAndClearsRedoHistory(){
         WhiteboardState initialState = new WhiteboardState();
         WhiteboardState newState = new WhiteboardState();
         stateManager.addAction(initialState);
@@ -50,11 +65,11 @@ public class StateManagerTest {
         stateManager.addAction(newState);
         assertEquals(newState, stateManager.getCurrentState());
 
-        // Verify redo stack is cleared.
+        // Verify redo history is cleared.
         stateManager.undo();
         stateManager.redo();
         stateManager.addAction(initialState);
-        assertTrue(stateManager.getRedoStack().isEmpty());
+        assertTrue(stateManager.getRedoHistory().isEmpty());
     }
 
     @Test
@@ -97,8 +112,8 @@ public class StateManagerTest {
         WhiteboardState state = new WhiteboardState();
         stateManager.addAction(state);
 
-        when(whiteboardHandler.getActiveSessions()).thenReturn(Collections.singletonList(mockSession));
         when(mockSession.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(mockSession);
 
         stateManager.broadcastState();
 
@@ -110,11 +125,190 @@ public class StateManagerTest {
         WhiteboardState state = new WhiteboardState();
         stateManager.addAction(state);
 
-        when(whiteboardHandler.getActiveSessions()).thenReturn(Collections.singletonList(mockSession));
         when(mockSession.isOpen()).thenReturn(false);
+        whiteboardHandler.afterConnectionEstablished(mockSession);
 
         stateManager.broadcastState();
 
         verify(mockSession, never()).sendMessage(any(TextMessage.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBroadcastSendsSnapshotThenDeltas() throws Exception{
+        when(mockSession.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(mockSession);
+
+        WhiteboardState state = new WhiteboardState();
+        stateManager.addAction(state);
+        stateManager.broadcastState();
+
+        WhiteboardState next = new WhiteboardState();
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        next.addDrawingMessage(circle);
+        stateManager.addAction(next);
+        stateManager.broadcastState();
+
+        // Nothing changed, so nothing is sent.
+        stateManager.broadcastState();
+
+        ArgumentCaptor<TextMessage> sent = ArgumentCaptor.forClass(TextMessage.class);
+        verify(mockSession, times(2)).sendMessage(sent.capture());
+        assertTrue(sent.getAllValues().get(0).getPayload().contains("\"type\":\"snapshot\""));
+        String delta = sent.getAllValues().get(1).getPayload();
+        assertTrue(delta.contains("\"type\":\"delta\""));
+        assertTrue(delta.contains("\"fromRevision\":1"));
+        assertTrue(delta.contains(circle.getId()));
+        assertEquals(2L, mockSession.getAttributes().get(WhiteboardHandler.REVISION_ATTRIBUTE));
+    }
+
+    @Test
+    public void testGetChangesSince(){
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        DrawingMessage line = new DrawingMessage("draw", "line", "red", null);
+        WhiteboardState first = new WhiteboardState();
+        first.addDrawingMessage(circle);
+        WhiteboardState second = new WhiteboardState();
+        second.addDrawingMessage(circle);
+        second.addDrawingMessage(line);
+        stateManager.addAction(first);
+        stateManager.addAction(second);
+        assertEquals(2, stateManager.getRevision());
+
+        StateDelta delta = (StateDelta) stateManager.getChangesSince(1);
+        assertEquals(List.of(line), delta.getAdded());
+        assertTrue(((StateDelta) stateManager.getChangesSince(2)).isEmpty());
+
+        // Unknown or future revisions, and deltas larger than the state, fall back to a snapshot.
+        assertInstanceOf(StateSnapshot.class, stateManager.getChangesSince(-1));
+        assertInstanceOf(StateSnapshot.class, stateManager.getChangesSince(7));
+        stateManager.undo();
+        stateManager.undo();
+        assertInstanceOf(StateSnapshot.class, stateManager.getChangesSince(2));
+    }
+
+    @Test
+    public void testDrawingMessageOperationsAreUndoable() throws Exception{
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        stateManager.addDrawingMessage(null, circle);
+        WhiteboardState withCircle = stateManager.getCurrentState().copy();
+
+        DrawingMessage recolored = WhiteboardState.importFromJSON(withCircle.exportToJSON())
+                .getDrawingMessages().get(circle.getId());
+        recolored.setColor("red");
+        assertTrue(stateManager.updateDrawingMessage(null, recolored));
+        assertTrue(stateManager.removeDrawingMessage(null, circle.getId()));
+        assertFalse(stateManager.removeDrawingMessage(null, circle.getId()));
+        assertTrue(stateManager.getCurrentState().getDrawingMessages().isEmpty());
+
+        stateManager.undo();
+        assertEquals(recolored, stateManager.getCurrentState().getDrawingMessages().get(circle.getId()));
+        stateManager.undo();
+        assertEquals(withCircle, stateManager.getCurrentState());
+        stateManager.undo();
+        assertNull(stateManager.getCurrentState());
+        assertEquals(3, stateManager.getRedoHistory().size());
+    }
+
+    @Test
+    public void testHistoryIsBounded(){
+        WhiteboardProperties properties = new WhiteboardProperties();
+        properties.getHistory().setMaxDepth(3);
+        stateManager = new StateManager("room", whiteboardHandler, WhiteboardJson.shared(), properties);
+
+        for(int i = 0; i < 5; i++){
+            stateManager.addDrawingMessage(null, new DrawingMessage("draw", "line", "red", null));
+        }
+        assertEquals(3, stateManager.getUndoHistory().size());
+
+        // Only the last three actions can be undone.
+        for(int i = 0; i < 5; i++){
+            stateManager.undo();
+        }
+        assertEquals(2, stateManager.getCurrentState().getDrawingMessages().size());
+    }
+
+    @Test
+    public void testUndoOnlyRevertsOwnActions() throws Exception{
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        DrawingMessage line = new DrawingMessage("draw", "line", "red", null);
+        stateManager.addDrawingMessage("Ana", circle);
+        stateManager.addDrawingMessage("Bob", line);
+
+        // Ana's undo removes her circle and leaves Bob's line.
+        assertTrue(stateManager.undo("Ana"));
+        assertEquals(List.of(line), List.copyOf(stateManager.getCurrentState().getDrawingMessages().values()));
+        StateDelta delta = (StateDelta) stateManager.getChangesSince(2);
+        assertEquals(List.of(circle.getId()), delta.getRemoved());
+        assertTrue(delta.getAdded().isEmpty() && delta.getUpdated().isEmpty());
+        assertFalse(stateManager.undo("Ana"));
+
+        // Bob's edit of Ana's circle after her redo is not overwritten when she undoes again.
+        assertTrue(stateManager.redo("Ana"));
+        DrawingMessage recolored = WhiteboardState.importFromJSON(stateManager.getCurrentState().exportToJSON())
+                .getDrawingMessages().get(circle.getId());
+        recolored.setColor("black");
+        stateManager.updateDrawingMessage("Bob", recolored);
+        assertFalse(stateManager.undo("Ana"));
+        assertEquals(recolored, stateManager.getCurrentState().getDrawingMessages().get(circle.getId()));
+
+        assertTrue(stateManager.undo("Bob"));
+        assertTrue(stateManager.undo("Bob"));
+        assertEquals(List.of(circle), List.copyOf(stateManager.getCurrentState().getDrawingMessages().values()));
+    }
+
+    @Test
+    public void testEraseRemovesRegionInOneRevision(){
+        WhiteboardState state = new WhiteboardState();
+        for(int i = 0; i < 50_000; i++){
+            state.addDrawingMessage(new Circle("draw", "blue", null, 1, List.of((i % 250) * 10.0, (i / 250) * 10.0, 0.0)));
+        }
+        stateManager.addAction(state);
+        long revision = stateManager.getSnapshot(null).getRevision();
+        Polygon region = Polygon.of(new BoundingBox(-5, -5, 95, 95));
+        List<String> expected = stateManager.select(region, true);
+        assertEquals(100, expected.size());
+        assertEquals(1, stateManager.hitTest(0.5, 0.5, 0).size());
+
+        List<String> erased = stateManager.erase("UserOne", region, true);
+        assertEquals(expected.size(), erased.size());
+        assertEquals(revision + 1, stateManager.getSnapshot(null).getRevision());
+        assertEquals(50_000 - 100, stateManager.getCurrentState().getDrawingMessages().size());
+        StateDelta delta = (StateDelta) stateManager.getChangesSince(revision);
+        assertEquals(100, delta.getRemoved().size());
+        assertTrue(stateManager.erase("UserOne", region, true).isEmpty());
+
+        // The erase is undone as a whole.
+        stateManager.undo("UserOne");
+        assertEquals(50_000, stateManager.getCurrentState().getDrawingMessages().size());
+    }
+
+    @Test
+    public void testApplyPatchChecksBaseRevision() throws Exception{
+        DrawingMessage kept = new DrawingMessage("draw", "circle", "blue", null);
+        DrawingMessage removed = new DrawingMessage("draw", "line", "red", null);
+        assertEquals(1, stateManager.applyPatch("UserOne", new StatePatch(0, List.of(kept, removed), null, null)));
+
+        DrawingMessage recolored = WhiteboardState.importFromJSON(stateManager.getCurrentState().exportToJSON())
+                .getDrawingMessages().get(kept.getId());
+        recolored.setColor("black");
+        DrawingMessage added = new DrawingMessage("draw", "triangle", "green", null);
+        StatePatch patch = new StatePatch(1, List.of(added), List.of(recolored), List.of(removed.getId()));
+        assertEquals(2, stateManager.applyPatch("UserOne", patch));
+        assertEquals(Set.of(kept.getId(), added.getId()), stateManager.getCurrentState().getDrawingMessages().keySet());
+        assertEquals("black", stateManager.getCurrentState().getDrawingMessages().get(kept.getId()).getColor());
+
+        // A patch against an outdated revision, or touching missing messages, changes nothing.
+        RevisionConflictException conflict = assertThrows(RevisionConflictException.class,
+                () -> stateManager.applyPatch("UserTwo", new StatePatch(1, List.of(removed), null, null)));
+        assertEquals(2, conflict.getCurrentRevision());
+        assertThrows(IllegalArgumentException.class,
+                () -> stateManager.applyPatch("UserTwo", new StatePatch(2, null, null, List.of(removed.getId()))));
+        assertThrows(IllegalArgumentException.class,
+                () -> stateManager.applyPatch("UserTwo", new StatePatch(2, List.of(added), null, List.of(added.getId()))));
+        assertEquals(2, stateManager.applyPatch("UserTwo", new StatePatch(2, null, null, null)));
+
+        // The whole patch is undone in one step.
+        stateManager.undo("UserOne");
+        assertEquals(Set.of(kept.getId(), removed.getId()), stateManager.getCurrentState().getDrawingMessages().keySet());
+    }
+}
@@ -0,0 +1,111 @@
+package collaborative.whiteboard.metrics;
+
+import collaborative.whiteboard.config.WhiteboardProperties;
+import collaborative.whiteboard.handler.WhiteboardHandler;
+import collaborative.whiteboard.manager.RoomManager;
+import collaborative.whiteboard.manager.StateManager;
+import collaborative.whiteboard.model.DrawingMessage;
+import collaborative.whiteboard.model.WhiteboardJson;
+import collaborative.whiteboard.model.WhiteboardState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.URI;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for the {@code WhiteboardMetrics} class, recording into a SimpleMeterRegistry through a
+ * WhiteboardHandler and a RoomManager whose writers run on the calling thread.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class WhiteboardMetricsTest {
+    private SimpleMeterRegistry registry;
+    private WhiteboardHandler whiteboardHandler;
+    private RoomManager roomManager;
+
+    @BeforeEach
+    public void setUp(){
+        registry = new SimpleMeterRegistry();
+        WhiteboardMetrics metrics = new WhiteboardMetrics(registry);
+        WhiteboardProperties properties = new WhiteboardProperties();
+        whiteboardHandler = new WhiteboardHandler(properties, Runnable::run, WhiteboardJson.shared(), null, metrics);
+        roomManager = new RoomManager(whiteboardHandler, WhiteboardJson.shared(), properties, metrics);
+    }
+
+    private WebSocketSession connect(String username) throws Exception{
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getUri()).thenReturn(new URI("/whiteboard?username=" + username));
+        when(session.getAttributes()).thenReturn(new HashMap<>());
+        when(session.isOpen()).thenReturn(true);
+        whiteboardHandler.afterConnectionEstablished(session);
+        return session;
+    }
+
+    @Test
+    public void shouldRecordInboundMessagesAndFanout() throws Exception{
+        WebSocketSession ana = connect("Ana");
+        connect("Bob");
+        String circle = new ObjectMapper().writeValueAsString(new DrawingMessage("draw", "circle", "blue", null));
+        whiteboardHandler.handleTextMessage(ana, new TextMessage(circle));
+        whiteboardHandler.handleTextMessage(ana, new TextMessage("{not json"));
+
+        assertEquals(1, registry.get("whiteboard.messages.inbound").tag("format", "json").timer().count());
+        assertEquals(1, registry.get("whiteboard.messages.invalid").counter().count());
+        assertEquals(1, registry.get("whiteboard.broadcast.fanout").tag("kind", "drawing").timer().count());
+        assertEquals(1, registry.get("whiteboard.session.send").timer().count());
+        assertEquals(0, registry.get("whiteboard.session.send.failures").counter().count());
+        assertEquals(2, registry.get("whiteboard.sessions.active").gauge().value());
+        assertEquals(0, registry.get("whiteboard.sessions.backlog.messages").gauge().value());
+
+        // A state broadcast records its serialization and fan-out.
+        StateManager room = roomManager.getRoom(null);
+        room.addAction("Ana", new WhiteboardState());
+        room.broadcastState();
+        assertEquals(1, registry.get("whiteboard.broadcast.serialization").timer().count());
+        assertEquals(1, registry.get("whiteboard.broadcast.fanout").tag("kind", "state").timer().count());
+    }
+
+    @Test
+    public void shouldPublishRoomGauges() throws Exception{
+        // A room that is only read publishes nothing.
+        StateManager room = roomManager.getRoom("design");
+        roomManager.getRoom("read-only").getCurrentState();
+        assertNull(registry.find("whiteboard.room.revision").gauge());
+
+        WhiteboardState state = new WhiteboardState();
+        room.addAction("Ana", state);
+        room.addDrawingMessage("Ana", new DrawingMessage("draw", "circle", "blue", null));
+        room.undo("Ana");
+
+        assertEquals(0, registry.get("whiteboard.room.drawings").tag("room", "design").gauge().value());
+        assertEquals(3, registry.get("whiteboard.room.revision").tag("room", "design").gauge().value());
+        assertEquals(1, registry.get("whiteboard.room.history.depth").tags("room", "design", "stack", "undo").gauge().value());
+        assertEquals(1, registry.get("whiteboard.room.history.depth").tags("room", "design", "stack", "redo").gauge().value());
+        assertEquals(1, registry.find("whiteboard.room.revision").gauges().size());
+
+        // Each version is measured once, however many times it is serialized.
+        for(int i = 0; i < 2; i++){
+            room.getCurrentState().serialize(WhiteboardJson.shared().getWriter(), room::recordSerializedSize);
+        }
+        DistributionSummary serialized = registry.get("whiteboard.state.serialized.bytes").tag("room", "design").summary();
+        assertEquals(1, serialized.count());
+        assertEquals(room.getCurrentState().serialize(WhiteboardJson.shared().getWriter()).getJson().length,
+                serialized.totalAmount());
+
+        // The gauges are removed once the room holds no state.
+        room.undo("Ana");
+        assertNull(room.getCurrentState());
+        assertNull(registry.find("whiteboard.room.revision").gauge());
+        assertNull(registry.find("whiteboard.room.history.depth").gauge());
+        assertNull(registry.find("whiteboard.state.serialized.bytes").summary());
+    }
+}
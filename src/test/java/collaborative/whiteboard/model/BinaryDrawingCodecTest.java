@@ -0,0 +1,85 @@
+package collaborative.whiteboard.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code BinaryDrawingCodec} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class BinaryDrawingCodecTest {
+
+    /**
+     * Encodes and decodes a message.
+     */
+    private static DrawingMessage roundTrip(DrawingMessage message) throws IOException{
+        return BinaryDrawingCodec.decode(ByteBuffer.wrap(BinaryDrawingCodec.encode(message)));
+    }
+
+    @Test
+    public void shouldRoundTripFreehandStroke() throws IOException{
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "#1a2b3c", null);
+        List<Double> points = new ArrayList<>();
+        for(int i = 0; i < 200; i++){
+            points.add(300 + i * 0.25);
+        }
+        stroke.setPoints(points);
+        stroke.setLineWidth(4);
+
+        byte[] encoded = BinaryDrawingCodec.encode(stroke);
+        assertEquals(stroke, BinaryDrawingCodec.decode(ByteBuffer.wrap(encoded)));
+
+        // Smaller than the JSON of the same stroke.
+        byte[] json = WhiteboardJson.shared().getWriter().writeValueAsBytes(stroke);
+        assertTrue(encoded.length < json.length, encoded.length + " vs " + json.length);
+    }
+
+    @Test
+    public void shouldKeepCoordinatesToFloatPrecision() throws IOException{
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "black", null);
+        stroke.setPoints(List.of(0.1, 1234.567, -98.7654321));
+        List<Double> decoded = roundTrip(stroke).getPoints();
+        for(int i = 0; i < decoded.size(); i++){
+            assertEquals(stroke.getPoints().get(i), decoded.get(i), 1e-4);
+        }
+    }
+
+    @Test
+    public void shouldRoundTripShapesAndUncommonValues() throws IOException{
+        Circle circle = new Circle("draw", "Dark Red", List.of(0.0, 90.0, 0.0), 12.5, List.of(1.0, 2.0, 3.0));
+        Line line = new Line("draw", "#ABCDEF", null, List.of(0.0, 0.0), List.of(10.0, 20.0));
+        Rectangle rectangle = new Rectangle("erase", "#f0f0f0", null, 30, 40, List.of(5.0, 5.0, 0.0));
+        Triangle triangle = new Triangle("draw", "blue", null, List.of(List.of(0.0, 0.0), List.of(1.0, 0.0), List.of(0.0, 1.0)));
+        DrawingMessage empty = new DrawingMessage(null, "ÿ-shape", null, List.of());
+
+        for(DrawingMessage message : List.of(circle, line, rectangle, triangle, empty)){
+            DrawingMessage decoded = roundTrip(message);
+            assertSame(message.getClass(), decoded.getClass());
+            assertEquals(message, decoded);
+        }
+    }
+
+    @Test
+    public void shouldKeepIdsThatAreNotUuids() throws IOException{
+        DrawingMessage message = WhiteboardJson.shared().getDrawingMessageReader()
+                .readValue("{\"id\":\"stroke-7\",\"type\":\"draw\",\"shape\":\"line\"}");
+        assertEquals("stroke-7", roundTrip(message).getId());
+    }
+
+    @Test
+    public void shouldRejectMalformedMessages(){
+        byte[] encoded = BinaryDrawingCodec.encode(new DrawingMessage("draw", "circle", "blue", List.of(1.0)));
+        assertThrows(IOException.class, () -> BinaryDrawingCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 1))));
+        assertThrows(IOException.class, () -> BinaryDrawingCodec.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length + 1))));
+        assertThrows(IOException.class, () -> BinaryDrawingCodec.decode(ByteBuffer.wrap(new byte[]{2, 0})));
+        assertThrows(IOException.class, () -> BinaryDrawingCodec.decode(ByteBuffer.wrap("{}".getBytes())));
+    }
+}
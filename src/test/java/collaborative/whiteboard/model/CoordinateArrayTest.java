@@ -0,0 +1,72 @@
+package collaborative.whiteboard.model;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code CoordinateArray} class and its use by the drawing messages.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class CoordinateArrayTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void shouldBehaveLikeListOfDoubles(){
+        CoordinateArray coordinates = CoordinateArray.of(1.5, -2.0, 0.0);
+        List<Double> boxed = new ArrayList<>(List.of(1.5, -2.0, 0.0));
+
+        assertEquals(boxed, coordinates);
+        assertEquals(coordinates, boxed);
+        assertEquals(boxed.hashCode(), coordinates.hashCode());
+        assertEquals(boxed.toString(), coordinates.toString());
+        assertEquals(-2.0, coordinates.getDouble(1));
+        assertSame(coordinates, CoordinateArray.copyOf(coordinates));
+        assertThrows(UnsupportedOperationException.class, () -> coordinates.add(3.0));
+        assertThrows(IllegalArgumentException.class, () -> CoordinateArray.copyOf(Arrays.asList(1.0, null)));
+    }
+
+    @Test
+    public void shouldKeepJsonShape() throws Exception{
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "#000000", List.of(0.0, 90.0, 0.0));
+        stroke.setPoints(new ArrayList<>(List.of(10.0, 20.25, 30.0, 40.5)));
+        assertInstanceOf(CoordinateArray.class, stroke.getPoints());
+
+        String json = objectMapper.writeValueAsString(stroke);
+        assertTrue(json.contains("\"points\":[10.0,20.25,30.0,40.5]"), json);
+        assertTrue(json.contains("\"rotation\":[0.0,90.0,0.0]"), json);
+
+        DrawingMessage parsed = objectMapper.readValue(
+                "{\"id\":\"a\",\"points\":[1,2.5,-3],\"rotation\":null}", DrawingMessage.class);
+        assertInstanceOf(CoordinateArray.class, parsed.getPoints());
+        assertEquals(List.of(1.0, 2.5, -3.0), parsed.getPoints());
+        assertNull(parsed.getRotation());
+        assertEquals(stroke, objectMapper.readValue(json, DrawingMessage.class));
+
+        assertThrows(JsonMappingException.class,
+                () -> objectMapper.readValue("{\"points\":[1,null]}", DrawingMessage.class));
+    }
+
+    @Test
+    public void shouldStoreShapeCoordinatesAsArrays() throws Exception{
+        Triangle triangle = new Triangle("draw", "blue", null,
+                List.of(List.of(0.0, 0.0), List.of(1.0, 0.0), List.of(0.0, 1.0)));
+        triangle.getVertices().forEach(vertex -> assertInstanceOf(CoordinateArray.class, vertex));
+
+        Triangle parsed = objectMapper.readValue(objectMapper.writeValueAsString(triangle), Triangle.class);
+        assertEquals(triangle, parsed);
+        parsed.getVertices().forEach(vertex -> assertInstanceOf(CoordinateArray.class, vertex));
+
+        Rectangle rectangle = new Rectangle("draw", "red", null, 4, 2, List.of(5.0, 5.0, 0.0));
+        assertEquals(List.of(3.0, 6.0, 0.0), rectangle.getTopLeftCorner());
+        assertInstanceOf(CoordinateArray.class, objectMapper.readValue(
+                "{\"center\":[1,2,3]}", Circle.class).getCenter());
+    }
+}
@@ -0,0 +1,104 @@
+package collaborative.whiteboard.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code DrawingMap} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class DrawingMapTest {
+
+    @Test
+    public void shouldBehaveLikeAHashMap(){
+        Random random = new Random(7);
+        DrawingMap map = new DrawingMap();
+        Map<String, DrawingMessage> expected = new HashMap<>();
+        for(int i = 0; i < 20_000; i++){
+            String id = "stroke-" + random.nextInt(5_000);
+            if(random.nextInt(3) == 0){
+                assertEquals(expected.remove(id), map.remove(id));
+            }else{
+                DrawingMessage message = new DrawingMessage("draw", "line", "red", null);
+                assertEquals(expected.put(id, message), map.put(id, message));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+        for(String id : expected.keySet()){
+            assertTrue(map.containsKey(id));
+            assertSame(expected.get(id), map.get(id));
+        }
+        assertNull(map.get("missing"));
+    }
+
+    @Test
+    public void shouldKeepCopiesIndependent(){
+        DrawingMap original = new DrawingMap();
+        DrawingMessage line = new DrawingMessage("draw", "line", "red", null);
+        DrawingMessage circle = new DrawingMessage("draw", "circle", "blue", null);
+        original.put(line.getId(), line);
+
+        DrawingMap copy = original.copy();
+        copy.put(circle.getId(), circle);
+        copy.remove(line.getId());
+
+        assertEquals(Map.of(line.getId(), line), original);
+        assertEquals(Map.of(circle.getId(), circle), copy);
+        assertEquals(original, DrawingMap.copyOf(Map.of(line.getId(), line)));
+    }
+
+    @Test
+    public void shouldHandleIdsWithTheSameHash(){
+        // "Aa" and "BB" have the same hash code, as do their concatenations.
+        List<String> ids = List.of("AaAa", "AaBB", "BBAa", "BBBB");
+        DrawingMap map = new DrawingMap();
+        for(String id : ids){
+            map.put(id, new DrawingMessage("draw", "line", id, null));
+        }
+        assertEquals(4, map.size());
+        for(String id : ids){
+            assertEquals(id, map.get(id).getColor());
+        }
+
+        DrawingMap copy = map.copy();
+        assertEquals("AaBB", copy.remove("AaBB").getColor());
+        assertNull(copy.remove("AaBB"));
+        assertEquals(3, copy.size());
+        assertTrue(map.containsKey("AaBB"));
+        copy.remove("AaAa");
+        copy.remove("BBAa");
+        assertEquals(List.of("BBBB"), new ArrayList<>(copy.keySet()));
+    }
+
+    @Test
+    public void shouldIterateOverASnapshot(){
+        DrawingMap map = new DrawingMap();
+        for(int i = 0; i < 100; i++){
+            map.put("stroke-" + i, new DrawingMessage("draw", "line", "red", null));
+        }
+        int visited = 0;
+        Iterator<Map.Entry<String, DrawingMessage>> iterator = map.entrySet().iterator();
+        while(iterator.hasNext()){
+            iterator.next();
+            iterator.remove();
+            map.put("added-" + visited, new DrawingMessage("draw", "line", "red", null));
+            visited++;
+        }
+        assertEquals(100, visited);
+        assertEquals(100, map.size());
+        assertTrue(map.keySet().stream().allMatch(id -> id.startsWith("added-")));
+        assertThrows(NullPointerException.class, () -> map.put(null, new DrawingMessage("draw", "line", "red", null)));
+    }
+}
@@ -0,0 +1,90 @@
+package collaborative.whiteboard.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code Polygon} class and the geometry of the drawing messages built on it.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class PolygonTest {
+    /**
+     * A concave region shaped like a U, open at the top between x = 4 and x = 6.
+     */
+    private final Polygon region = Polygon.of(List.of(0.0, 0.0, 10.0, 0.0, 10.0, 10.0, 6.0, 10.0,
+            6.0, 4.0, 4.0, 4.0, 4.0, 10.0, 0.0, 10.0));
+
+    @Test
+    public void shouldTestPoints(){
+        assertTrue(region.contains(2, 8));
+        assertTrue(region.contains(0, 5));
+        assertFalse(region.contains(5, 8));
+        assertFalse(region.contains(11, 5));
+        assertEquals(1, region.distanceToBoundary(5, 8));
+        assertEquals(new BoundingBox(0, 0, 10, 10), region.getBounds());
+
+        assertThrows(IllegalArgumentException.class, () -> Polygon.of(List.of(0.0, 0.0, 1.0, 1.0)));
+        assertThrows(IllegalArgumentException.class, () -> Polygon.of(List.of(0.0, 0.0, 1.0, 1.0, 2.0)));
+        assertThrows(IllegalArgumentException.class,
+                () -> Polygon.of(List.of(0.0, 0.0, 1.0, 1.0, Double.NaN, 2.0)));
+    }
+
+    @Test
+    public void shouldTestShapesAgainstRegion(){
+        // A stroke across the gap of the U touches the region without lying within it.
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "#000000", null);
+        stroke.setPoints(List.of(2.0, 8.0, 8.0, 8.0));
+        assertTrue(stroke.intersects(region));
+        assertFalse(stroke.isWithin(region));
+        assertTrue(stroke.isNear(5, 8.5, 1));
+        assertFalse(stroke.isNear(5, 9.5, 1));
+
+        Circle inside = new Circle("draw", "blue", null, 1, List.of(2.0, 2.0, 0.0));
+        Circle overGap = new Circle("draw", "blue", null, 0.5, List.of(5.0, 8.0, 0.0));
+        assertTrue(inside.isWithin(region));
+        assertFalse(overGap.intersects(region));
+        assertTrue(overGap.isNear(5.4, 8, 0));
+
+        Rectangle rectangle = new Rectangle("draw", "red", null, 4, 2, List.of(5.0, 2.0, 0.0));
+        assertTrue(rectangle.isWithin(region));
+        assertTrue(rectangle.isNear(5, 2, 0));
+        Rectangle outside = new Rectangle("draw", "red", null, 2, 2, List.of(20.0, 20.0, 0.0));
+        assertFalse(outside.intersects(region));
+
+        Triangle triangle = new Triangle("draw", "green", null,
+                List.of(List.of(4.5, 9.0), List.of(5.5, 9.0), List.of(5.0, 12.0)));
+        assertFalse(triangle.intersects(region));
+        assertTrue(triangle.isNear(5, 10, 0));
+
+        Line line = new Line("draw", "black", null, List.of(1.0, 5.0, 0.0), List.of(9.0, 5.0, 0.0));
+        assertTrue(line.intersects(region));
+        assertFalse(line.isWithin(region));
+        assertTrue(line.isWithin(Polygon.of(new BoundingBox(0, 0, 10, 10))));
+
+        // Drawings without a position are never hit.
+        DrawingMessage empty = new DrawingMessage("draw", "line", "#000000", null);
+        assertFalse(empty.isNear(0, 0, 100));
+        assertFalse(empty.intersects(region));
+        assertFalse(empty.isWithin(region));
+    }
+
+    @Test
+    public void shouldFindDrawingMessagesInRegion(){
+        WhiteboardState state = new WhiteboardState();
+        Circle inside = new Circle("draw", "blue", null, 1, List.of(2.0, 2.0, 0.0));
+        Circle crossing = new Circle("draw", "blue", null, 1, List.of(10.0, 5.0, 0.0));
+        Circle far = new Circle("draw", "blue", null, 1, List.of(50.0, 50.0, 0.0));
+        state.addDrawingMessage(inside);
+        state.addDrawingMessage(crossing);
+        state.addDrawingMessage(far);
+
+        assertEquals(List.of(inside), state.findDrawingMessages(region, true));
+        assertEquals(2, state.findDrawingMessages(region, false).size());
+        assertEquals(List.of(far), state.findDrawingMessagesAt(50.5, 50.5, 0));
+        assertTrue(state.findDrawingMessagesAt(5, 8, 0).isEmpty());
+    }
+}
@@ -0,0 +1,95 @@
+package collaborative.whiteboard.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code SpatialIndex} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class SpatialIndexTest {
+
+    @Test
+    public void shouldFindEntriesIntersectingViewport(){
+        SpatialIndex index = SpatialIndex.EMPTY
+                .put("left", new BoundingBox(0, 0, 10, 10))
+                .put("right", new BoundingBox(100, 0, 110, 10))
+                .put("everywhere", null);
+
+        assertEquals(Set.of("left", "everywhere"), new HashSet<>(index.query(new BoundingBox(5, 5, 50, 50))));
+        assertEquals(Set.of("right", "everywhere"), new HashSet<>(index.query(new BoundingBox(110, 10, 120, 20))));
+        assertEquals(3, index.size());
+
+        // Removing returns a new index and leaves the old one as it was.
+        SpatialIndex removed = index.remove("left", new BoundingBox(0, 0, 10, 10));
+        assertEquals(List.of("everywhere"), removed.query(new BoundingBox(5, 5, 50, 50)));
+        assertEquals(2, removed.size());
+        assertEquals(3, index.size());
+        assertSame(removed, removed.remove("missing", null));
+    }
+
+    @Test
+    public void shouldMatchBruteForceAfterSplits(){
+        Random random = new Random(42);
+        Map<String, BoundingBox> boxes = new HashMap<>();
+        SpatialIndex index = SpatialIndex.EMPTY;
+        for(int i = 0; i < 2000; i++){
+            double x = random.nextDouble() * 10000;
+            double y = random.nextDouble() * 10000;
+            BoundingBox box = new BoundingBox(x, y, x + random.nextDouble() * 200, y + random.nextDouble() * 200);
+            boxes.put("d" + i, box);
+            index = index.put("d" + i, box);
+        }
+        // Remove every third entry, with a wrong box for some so the full search is used.
+        for(int i = 0; i < 2000; i += 3){
+            BoundingBox box = i % 2 == 0 ? boxes.get("d" + i) : new BoundingBox(-5, -5, -1, -1);
+            index = index.remove("d" + i, box);
+            boxes.remove("d" + i);
+        }
+        assertEquals(boxes.size(), index.size());
+
+        for(int q = 0; q < 50; q++){
+            double x = random.nextDouble() * 10000;
+            double y = random.nextDouble() * 10000;
+            BoundingBox viewport = new BoundingBox(x, y, x + 800, y + 600);
+            List<String> expected = new ArrayList<>();
+            boxes.forEach((id, box) -> {
+                if(box.intersects(viewport)){
+                    expected.add(id);
+                }
+            });
+            List<String> found = index.query(viewport);
+            assertEquals(expected.size(), found.size());
+            assertEquals(new HashSet<>(expected), new HashSet<>(found));
+        }
+    }
+
+    @Test
+    public void shouldComputeBoundsOfShapes(){
+        Circle circle = new Circle("draw", "blue", null, 5, List.of(10.0, 20.0, 0.0));
+        assertEquals(new BoundingBox(5, 15, 15, 25), circle.getBounds());
+
+        Rectangle rectangle = new Rectangle("draw", "red", null, 4, 2, List.of(5.0, 5.0, 0.0));
+        assertEquals(new BoundingBox(3, 4, 7, 6), rectangle.getBounds());
+
+        DrawingMessage stroke = new DrawingMessage("draw", "line", "#000000", null);
+        stroke.setLineWidth(2);
+        stroke.setPoints(List.of(0.0, 0.0, 10.0, -4.0));
+        assertEquals(new BoundingBox(-1, -5, 11, 1), stroke.getBounds());
+        assertNull(new DrawingMessage("draw", "line", "#000000", null).getBounds());
+
+        assertEquals(new BoundingBox(1, 2, 3, 4), BoundingBox.parse("1, 2,3,4"));
+        assertThrows(IllegalArgumentException.class, () -> BoundingBox.parse("1,2,3"));
+        assertThrows(IllegalArgumentException.class, () -> new BoundingBox(5, 0, 1, 1));
+    }
+}
@@ -0,0 +1,102 @@
+package collaborative.whiteboard.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code StateCommand} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StateCommandTest {
+    private WhiteboardState state;
+    private DrawingMessage circle;
+    private DrawingMessage line;
+
+    @BeforeEach
+    public void setUp(){
+        state = new WhiteboardState();
+        circle = new DrawingMessage("draw", "circle", "blue", null);
+        line = new DrawingMessage("draw", "line", "red", null);
+        state.addDrawingMessage(circle);
+        state.addDrawingMessage(line);
+        state.setTimeStamp("2025-01-02T10:15:30");
+    }
+
+    @Test
+    public void shouldApplyDiffAndItsInverse(){
+        WhiteboardState before = state.copy();
+        WhiteboardState target = new WhiteboardState();
+        DrawingMessage triangle = new DrawingMessage("draw", "triangle", "green", null);
+        target.addDrawingMessage(circle);
+        target.addDrawingMessage(triangle);
+
+        StateCommand command = StateCommand.diff(state, target);
+        assertEquals(2, command.size());
+        assertSame(state, command.applyTo(state));
+        assertEquals(target, state);
+
+        command.inverse().applyTo(state);
+        assertEquals(before, state);
+    }
+
+    @Test
+    public void shouldCreateAndClearState(){
+        StateCommand command = StateCommand.diff(null, state);
+        WhiteboardState created = command.applyTo(null);
+        assertEquals(state, created);
+        assertNotSame(state, created);
+        assertNull(command.inverse().applyTo(created));
+    }
+
+    @Test
+    public void shouldBuildSingleMessageCommands(){
+        assertNull(StateCommand.remove(state, "missing"));
+        assertNull(StateCommand.update(null, circle));
+
+        DrawingMessage triangle = new DrawingMessage("draw", "triangle", "green", null);
+        StateCommand add = StateCommand.add(state, triangle);
+        int version = state.getVersion();
+        add.applyTo(state);
+        assertEquals(version + 1, state.getVersion());
+        assertEquals(triangle, state.getDrawingMessages().get(triangle.getId()));
+
+        add.inverse().applyTo(state);
+        assertFalse(state.getDrawingMessages().containsKey(triangle.getId()));
+        assertEquals(version, state.getVersion());
+        assertEquals("2025-01-02T10:15:30", state.getTimeStamp());
+    }
+
+    @Test
+    public void shouldDescribeItselfAsDelta(){
+        StateCommand remove = StateCommand.remove(state, line.getId());
+        StateDelta delta = remove.toDelta(3, 4);
+        assertEquals(List.of(line.getId()), delta.getRemoved());
+        assertEquals(state.getVersion() + 1, delta.getVersion());
+
+        StateDelta undo = remove.inverse().toDelta(4, 5);
+        assertEquals(List.of(line), undo.getAdded());
+        assertEquals("2025-01-02T10:15:30", undo.getTimeStamp());
+    }
+
+    @Test
+    public void shouldRebaseOnChangedState(){
+        StateCommand remove = StateCommand.remove(state, circle.getId());
+        assertSame(remove, remove.rebase(state));
+
+        // Another change moves the state on; only the still-matching message is kept.
+        DrawingMessage triangle = new DrawingMessage("draw", "triangle", "green", null);
+        StateCommand.add(state, triangle).applyTo(state);
+        StateCommand rebased = remove.rebase(state);
+        assertNotSame(remove, rebased);
+        rebased.applyTo(state);
+        assertFalse(state.getDrawingMessages().containsKey(circle.getId()));
+        assertTrue(state.getDrawingMessages().containsKey(triangle.getId()));
+
+        assertNull(remove.rebase(state));
+    }
+}
@@ -0,0 +1,126 @@
+package collaborative.whiteboard.model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the {@code StateDelta} class.
+ *
+ * @author Andrey Estevam Seabra
+ */
+public class StateDeltaTest {
+    private WhiteboardState before;
+    private WhiteboardState after;
+    private DrawingMessage kept;
+    private DrawingMessage changed;
+    private DrawingMessage removed;
+
+    @BeforeEach
+    public void setUp(){
+        before = new WhiteboardState();
+        after = new WhiteboardState();
+        kept = new DrawingMessage("draw", "circle", "blue", null);
+        changed = new DrawingMessage("draw", "line", "red", null);
+        removed = new DrawingMessage("draw", "rectangle", "green", null);
+        before.addDrawingMessage(kept);
+        before.addDrawingMessage(changed);
+        before.addDrawingMessage(removed);
+        after.addDrawingMessage(kept);
+    }
+
+    @Test
+    public void shouldComputeAddedUpdatedAndRemoved() throws Exception{
+        DrawingMessage recolored = WhiteboardState.importFromJSON(before.exportToJSON())
+                .getDrawingMessages().get(changed.getId());
+        recolored.setColor("black");
+        after.addDrawingMessage(recolored);
+        DrawingMessage added = new DrawingMessage("draw", "triangle", "yellow", null);
+        after.addDrawingMessage(added);
+
+        StateDelta delta = StateDelta.between(before, after, 4, 5);
+
+        assertEquals(4, delta.getFromRevision());
+        assertEquals(5, delta.getRevision());
+        assertEquals(List.of(added), delta.getAdded());
+        assertEquals(List.of(recolored), delta.getUpdated());
+        assertEquals(List.of(removed.getId()), delta.getRemoved());
+        assertEquals(after.getVersion(), delta.getVersion());
+    }
+
+    @Test
+    public void shouldTreatMissingStatesAsEmpty(){
+        StateDelta fromNothing = StateDelta.between(null, before, 0, 1);
+        assertEquals(3, fromNothing.getAdded().size());
+
+        StateDelta toNothing = StateDelta.between(before, null, 1, 2);
+        assertEquals(3, toNothing.getRemoved().size());
+        assertTrue(StateDelta.between(before, before, 2, 3).isEmpty());
+    }
+
+    @Test
+    public void shouldMergeConsecutiveDeltas(){
+        DrawingMessage temporary = new DrawingMessage("draw", "line", "gray", null);
+        WhiteboardState middle = new WhiteboardState();
+        middle.addDrawingMessage(kept);
+        middle.addDrawingMessage(temporary);
+
+        StateDelta first = StateDelta.between(before, middle, 1, 2);
+        StateDelta second = StateDelta.between(middle, before, 2, 3);
+        StateDelta merged = first.merge(second);
+
+        // Everything removed and restored is an update; the temporary line never reaches the client.
+        assertEquals(1, merged.getFromRevision());
+        assertEquals(3, merged.getRevision());
+        assertTrue(merged.getAdded().isEmpty());
+        assertTrue(merged.getRemoved().isEmpty());
+        assertEquals(2, merged.getUpdated().size());
+        assertThrows(IllegalArgumentException.class, () -> first.merge(first));
+    }
+
+    @Test
+    public void shouldRestrictToViewport(){
+        BoundingBox viewport = new BoundingBox(0, 0, 100, 100);
+        Circle inside = new Circle("draw", "blue", null, 5, List.of(50.0, 50.0, 0.0));
+        Circle leaving = new Circle("draw", "red", null, 5, List.of(60.0, 60.0, 0.0));
+        Circle outside = new Circle("draw", "green", null, 5, List.of(500.0, 500.0, 0.0));
+        WhiteboardState first = new WhiteboardState();
+        first.addDrawingMessage(leaving);
+        WhiteboardState second = new WhiteboardState();
+        second.addDrawingMessage(inside);
+        second.addDrawingMessage(outside);
+        Circle moved = new Circle(leaving.getId());
+        moved.setRadius(5);
+        moved.setCenter(List.of(900.0, 900.0, 0.0));
+        second.addDrawingMessage(moved);
+
+        StateDelta visible = StateDelta.between(first, second, 1, 2).inViewport(viewport);
+
+        // A drawing moved out of the viewport is removed from the client's view.
+        assertEquals(List.of(inside), visible.getAdded());
+        assertTrue(visible.getUpdated().isEmpty());
+        assertEquals(List.of(leaving.getId()), visible.getRemoved());
+
+        assertEquals(List.of(inside), second.findDrawingMessages(viewport));
+        assertEquals(1, second.inViewport(viewport).getDrawingMessages().size());
+        second.removeDrawingMessage(inside.getId());
+        assertTrue(second.findDrawingMessages(viewport).isEmpty());
+    }
+
+    @Test
+    public void shouldSerializeOnlyTheDeltaFields() throws Exception{
+        StateDelta delta = StateDelta.between(before, after, 3, 4);
+        JsonNode json = WhiteboardJson.shared().getObjectMapper().valueToTree(delta);
+
+        Set<String> fields = new HashSet<>();
+        json.fieldNames().forEachRemaining(fields::add);
+        assertEquals(Set.of("type", "fromRevision", "revision", "added", "updated", "removed", "timeStamp", "version"), fields);
+    }
+}
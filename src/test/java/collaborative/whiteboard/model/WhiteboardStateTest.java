@@ -5,11 +5,16 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Unit tests for the {@code WhiteboardState} class.
@@ -118,4 +123,84 @@ public class WhiteboardStateTest {
             whiteboardState.setTimeStamp(null);
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldCacheSerializedVersion() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        ObjectWriter writer = objectMapper.writer();
+        whiteboardState.addDrawingMessage(new Circle("draw", "blue", null, 5, List.of(1.0, 2.0, 0.0)));
+
+        SerializedState first = whiteboardState.serialize(writer);
+        assertSame(first, whiteboardState.serialize(writer));
+        assertEquals(objectMapper.readTree(whiteboardState.exportToJSON()), objectMapper.readTree(first.getJson()));
+        try(GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(first.getGzip()))){
+            assertArrayEquals(first.getJson(), gzip.readAllBytes());
+        }
+
+        // Every change gives a new serialization.
+        whiteboardState.incrementVersion();
+        SerializedState second = whiteboardState.serialize(writer);
+        assertNotSame(first, second);
+        whiteboardState.setVersion(40);
+        assertEquals(40, objectMapper.readTree(whiteboardState.serialize(writer).getJson()).get("version").asInt());
+        assertNotSame(second, whiteboardState.serialize(objectMapper.writer()));
+
+        // A snapshot wraps the cached JSON like Jackson would write it.
+        StateSnapshot snapshot = new StateSnapshot(7, whiteboardState);
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(snapshot)),
+                objectMapper.readTree(snapshot.toJson(writer)));
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(new StateSnapshot(0, null))),
+                objectMapper.readTree(new StateSnapshot(0, null).toJson(writer)));
+    }
+
+    @Test
+    public void shouldApplyChangesAsOneVersion(){
+        List<Circle> circles = new ArrayList<>();
+        for(int i = 0; i < 10; i++){
+            Circle circle = new Circle("draw", "blue", null, 1, List.of(i * 10.0, 0.0, 0.0));
+            circles.add(circle);
+            whiteboardState.addDrawingMessage(circle);
+        }
+        BoundingBox viewport = new BoundingBox(-5, -5, 15, 5);
+        assertEquals(2, whiteboardState.findDrawingMessages(viewport).size());
+
+        DrawingMessage moved = new DrawingMessage(circles.get(1).getId());
+        moved.setPoints(List.of(495.0, 495.0, 505.0, 505.0));
+        whiteboardState.applyChanges(List.of(moved), List.of(circles.get(0).getId(), "missing"), "2025-01-05T10:00:00", 42);
+
+        assertEquals(42, whiteboardState.getVersion());
+        assertEquals("2025-01-05T10:00:00", whiteboardState.getTimeStamp());
+        assertEquals(9, whiteboardState.getDrawingMessages().size());
+        assertSame(moved, whiteboardState.getDrawingMessages().get(moved.getId()));
+        // The index followed the changes: the removed and the moved circles left the viewport.
+        assertTrue(whiteboardState.findDrawingMessages(viewport).isEmpty());
+        assertEquals(List.of(moved), whiteboardState.findDrawingMessages(new BoundingBox(490, 490, 510, 510)));
+    }
+
+    @Test
+    public void shouldRebuildIndexAfterLargeChanges(){
+        List<String> ids = new ArrayList<>();
+        for(int i = 0; i < 10; i++){
+            Circle circle = new Circle("draw", "blue", null, 1, List.of(i * 10.0, 0.0, 0.0));
+            ids.add(circle.getId());
+            whiteboardState.addDrawingMessage(circle);
+        }
+        BoundingBox viewport = new BoundingBox(-5, -5, 100, 5);
+        assertEquals(10, whiteboardState.findDrawingMessages(viewport).size());
+
+        whiteboardState.applyChanges(List.of(), ids.subList(0, 8), "2025-01-05T10:00:00", 2);
+
+        assertEquals(2, whiteboardState.findDrawingMessages(viewport).size());
+    }
+
+    @Test
+    public void shouldNotApplyChangesWithInvalidVersion(){
+        DrawingMessage message = new DrawingMessage("draw", "circle", "blue", null);
+        int version = whiteboardState.getVersion();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> whiteboardState.applyChanges(List.of(message), List.of(), "2025-01-05T10:00:00", 0));
+        assertTrue(whiteboardState.getDrawingMessages().isEmpty());
+        assertEquals(version, whiteboardState.getVersion());
+    }
+}
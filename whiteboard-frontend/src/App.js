@@ -30,7 +30,9 @@ const App = () => {
     useEffect(() => {
         connectWebSocket((data) => {
             console.log("Received drawing data:", data);
-            setStrokes((prevStrokes) => [...prevStrokes, data]); // Add received data to strokes.
+            // Add received data to strokes, unless it is one of our own strokes sent back by the room's topic.
+            setStrokes((prevStrokes) => prevStrokes.some((stroke) => stroke.id === data.id)
+                ? prevStrokes : [...prevStrokes, data]);
         });
     }, []);
 
@@ -3,6 +3,9 @@ import { Stomp } from "@stomp/stompjs";
 
 let client = null;
 
+// The room whose topic the client subscribes to and whose drawings it sends.
+const ROOM = "default";
+
 /**
  * Connects to the WebSocket server and subscribes to the topic for receiving updates.
  *
@@ -16,13 +19,16 @@ export const connectWebSocket = (onMessageReceived) => {
     client.connect({}, () => {
         console.log("WebSocket connected");
 
-        // Subscribe to the topic for receiving updates
-        client.subscribe("/topic/drawings", (message) => {
+        // Subscribe to the topic of the room, which also carries notices and state deltas.
+        client.subscribe(`/topic/rooms/${ROOM}`, (message) => {
+            let data;
             try {
-                const data = JSON.parse(message.body); // Parse the received message
-                onMessageReceived(data); // Call the provided callback with the received data
+                data = JSON.parse(message.body); // Parse the received message
             } catch (error) {
-                console.error("Failed to parse WebSocket message:", error);
+                return; // A notice, such as a user leaving.
+            }
+            if (data && data.type === "draw") {
+                onMessageReceived(data); // Call the provided callback with the received drawing
             }
         });
     }, (error) => {
@@ -39,7 +45,7 @@ export const connectWebSocket = (onMessageReceived) => {
 export const sendDrawingMessage = (drawing) => {
     if (client && client.connected) {
         client.publish({
-            destination: "/app/draw",
+            destination: `/app/rooms/${ROOM}/draw`,
             body: JSON.stringify(drawing),
         });
         console.log("Drawing message send:", drawing);